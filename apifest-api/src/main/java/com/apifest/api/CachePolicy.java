@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.api;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Represents the response cache settings of a GET endpoint. How long a response is cached is taken from
+ * its Cache-Control header, the settings apply when the backend does not set it.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlType(name = "cache")
+public class CachePolicy implements Serializable {
+
+    private static final long serialVersionUID = 7311652938764930416L;
+
+    public static final String KEY_BY_CLIENT = "client";
+    public static final String KEY_BY_USER = "user";
+
+    @XmlAttribute(name = "maxAge")
+    private Integer maxAge;
+
+    @XmlAttribute(name = "staleIfError")
+    private Integer staleIfError;
+
+    @XmlAttribute(name = "keyBy")
+    private String keyBy;
+
+    /**
+     * @return seconds a response without Cache-Control max-age is fresh for, 0 if such responses are not cached
+     */
+    public int getMaxAge() {
+        return (maxAge != null) ? maxAge : 0;
+    }
+
+    public void setMaxAge(Integer maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return seconds after expiration a response could still be returned if the backend fails,
+     * unless the backend sets Cache-Control stale-if-error
+     */
+    public int getStaleIfError() {
+        return (staleIfError != null) ? staleIfError : 0;
+    }
+
+    public void setStaleIfError(Integer staleIfError) {
+        this.staleIfError = staleIfError;
+    }
+
+    /**
+     * @return <code>client</code> or <code>user</code> to cache responses per client application or per user
+     * of the access token, null to share the responses between all callers
+     */
+    public String getKeyBy() {
+        return keyBy;
+    }
+
+    public void setKeyBy(String keyBy) {
+        this.keyBy = keyBy;
+    }
+}
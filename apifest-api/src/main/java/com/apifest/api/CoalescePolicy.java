@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.api;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Represents the coalescing settings of a GET endpoint - identical requests that arrive while one of them
+ * is sent to the backend wait for its response instead of being sent too.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlType(name = "coalesce")
+public class CoalescePolicy implements Serializable {
+
+    private static final long serialVersionUID = -6029813348175726415L;
+
+    @XmlAttribute(name = "headers")
+    private String headers;
+
+    /**
+     * @return space separated names of the request headers that make requests different, null if only the URI does
+     */
+    public String getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(String headers) {
+        this.headers = headers;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.api;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Represents the adaptive concurrency limit of an endpoint - requests of the endpoint above the limit are rejected
+ * with 503, the limit follows the response times of the endpoint. Missing values are taken from the properties.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlType(name = "concurrency")
+public class ConcurrencyPolicy implements Serializable {
+
+    private static final long serialVersionUID = -6120843775926313571L;
+
+    @XmlAttribute(name = "initial")
+    private Integer initial;
+
+    @XmlAttribute(name = "min")
+    private Integer min;
+
+    @XmlAttribute(name = "max")
+    private Integer max;
+
+    /**
+     * @return concurrent requests allowed before the limit is adjusted, null if not set
+     */
+    public Integer getInitial() {
+        return initial;
+    }
+
+    public void setInitial(Integer initial) {
+        this.initial = initial;
+    }
+
+    /**
+     * @return lowest concurrency limit, null if not set
+     */
+    public Integer getMin() {
+        return min;
+    }
+
+    public void setMin(Integer min) {
+        this.min = min;
+    }
+
+    /**
+     * @return highest concurrency limit, null if not set
+     */
+    public Integer getMax() {
+        return max;
+    }
+
+    public void setMax(Integer max) {
+        this.max = max;
+    }
+}
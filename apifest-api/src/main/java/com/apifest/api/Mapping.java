@@ -50,6 +50,9 @@ public class Mapping implements Serializable {
     @XmlElement(name = "backend", type = Backend.class, required = true)
     private Backend backend;
 
+    @XmlElement(name = "upstreams", type = UpstreamsWrapper.class)
+    private UpstreamsWrapper upstreamsWrapper;
+
     @XmlElement(name = "endpoints", type = EndpointsWrapper.class, required = true)
     private EndpointsWrapper endpointsWrapper;
 
@@ -88,6 +91,14 @@ public class Mapping implements Serializable {
         this.backend = backend;
     }
 
+    public UpstreamsWrapper getUpstreamsWrapper() {
+        return upstreamsWrapper;
+    }
+
+    public void setUpstreamsWrapper(UpstreamsWrapper upstreamsWrapper) {
+        this.upstreamsWrapper = upstreamsWrapper;
+    }
+
     public EndpointsWrapper getEndpointsWrapper() {
         return endpointsWrapper;
     }
@@ -158,10 +169,21 @@ public class Mapping implements Serializable {
     @XmlType
     public static class Backend implements Serializable {
 
+        public static final String PROTOCOL_HTTP_1_1 = "http/1.1";
+        public static final String PROTOCOL_H2C = "h2c";
+
         private static final long serialVersionUID = -629932484949029609L;
 
         private String backendHost;
         private Integer backendPort;
+        private Integer maxConnections;
+        private Integer maxPendingAcquires;
+        private Integer acquireTimeout;
+        private Integer idleTimeout;
+        private String protocol;
+        private Integer maxStreams;
+        private Integer responseTimeout;
+        private Integer requestTimeout;
 
         public Backend() {
         }
@@ -188,6 +210,189 @@ public class Mapping implements Serializable {
         public void setBackendPort(Integer backendPort) {
             this.backendPort = backendPort;
         }
+
+        /**
+         * @return maximum number of connections to the backend, null if not set
+         */
+        @XmlAttribute(name = "maxConnections")
+        public Integer getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(Integer maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        /**
+         * @return maximum number of requests waiting for a connection, null if not set
+         */
+        @XmlAttribute(name = "maxPendingAcquires")
+        public Integer getMaxPendingAcquires() {
+            return maxPendingAcquires;
+        }
+
+        public void setMaxPendingAcquires(Integer maxPendingAcquires) {
+            this.maxPendingAcquires = maxPendingAcquires;
+        }
+
+        /**
+         * @return time in milliseconds a request waits for a connection, null if not set
+         */
+        @XmlAttribute(name = "acquireTimeout")
+        public Integer getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(Integer acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+
+        /**
+         * @return time in milliseconds after which an unused connection is closed, null if not set
+         */
+        @XmlAttribute(name = "idleTimeout")
+        public Integer getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Integer idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        /**
+         * @return <code>h2c</code> if the backend speaks HTTP/2 over cleartext with prior knowledge,
+         * <code>http/1.1</code> or null for HTTP/1.1
+         */
+        @XmlAttribute(name = "protocol")
+        public String getProtocol() {
+            return protocol;
+        }
+
+        public void setProtocol(String protocol) {
+            this.protocol = protocol;
+        }
+
+        /**
+         * @return maximum number of concurrent streams per HTTP/2 connection, null if not set
+         */
+        @XmlAttribute(name = "maxStreams")
+        public Integer getMaxStreams() {
+            return maxStreams;
+        }
+
+        public void setMaxStreams(Integer maxStreams) {
+            this.maxStreams = maxStreams;
+        }
+
+        /**
+         * @return time in milliseconds a request waits for the response of the backend, null if not set
+         */
+        @XmlAttribute(name = "responseTimeout")
+        public Integer getResponseTimeout() {
+            return responseTimeout;
+        }
+
+        public void setResponseTimeout(Integer responseTimeout) {
+            this.responseTimeout = responseTimeout;
+        }
+
+        /**
+         * @return time in milliseconds a whole request to the backend could take, including retries, null if not set
+         */
+        @XmlAttribute(name = "requestTimeout")
+        public Integer getRequestTimeout() {
+            return requestTimeout;
+        }
+
+        public void setRequestTimeout(Integer requestTimeout) {
+            this.requestTimeout = requestTimeout;
+        }
+    }
+
+    @XmlType
+    public static class UpstreamsWrapper implements Serializable {
+
+        private static final long serialVersionUID = 2930714415938217430L;
+
+        private List<Upstream> upstreams;
+
+        public void setUpstreams(List<Upstream> upstreams) {
+            this.upstreams = upstreams;
+        }
+
+        @XmlElement(name = "upstream", type = Upstream.class, required = true)
+        public List<Upstream> getUpstreams() {
+            return upstreams;
+        }
+    }
+
+    /**
+     * Named group of backends serving the same API, requests to the group are balanced between its members.
+     */
+    @XmlType
+    public static class Upstream implements Serializable {
+
+        public static final String ROUND_ROBIN = "round-robin";
+        public static final String LEAST_OUTSTANDING = "least-outstanding";
+        public static final String EWMA = "ewma";
+
+        private static final long serialVersionUID = -5246270858396714473L;
+
+        private String name;
+        private String strategy;
+        private Integer slowStart;
+        private List<Backend> members;
+
+        public Upstream() {
+        }
+
+        public Upstream(String name, String strategy, List<Backend> members) {
+            this.name = name;
+            this.strategy = strategy;
+            this.members = members;
+        }
+
+        @XmlAttribute(name = "name", required = true)
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return load balancing strategy - round-robin, least-outstanding or ewma, null if not set
+         */
+        @XmlAttribute(name = "strategy")
+        public String getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(String strategy) {
+            this.strategy = strategy;
+        }
+
+        /**
+         * @return time in milliseconds over which a newly added member gets to its full share of requests, null if not set
+         */
+        @XmlAttribute(name = "slowStart")
+        public Integer getSlowStart() {
+            return slowStart;
+        }
+
+        public void setSlowStart(Integer slowStart) {
+            this.slowStart = slowStart;
+        }
+
+        @XmlElement(name = "member", type = Backend.class, required = true)
+        public List<Backend> getMembers() {
+            return members;
+        }
+
+        public void setMembers(List<Backend> members) {
+            this.members = members;
+        }
     }
 
     @XmlType
@@ -70,6 +70,12 @@ public class MappingEndpoint implements Serializable {
     @XmlAttribute(name = "external", required = true)
     private String externalEndpoint;
 
+    @XmlAttribute(name = "streaming", required = false)
+    private Boolean streaming;
+
+    @XmlAttribute(name = "upstream", required = false)
+    private String upstream;
+
     @XmlElement(name = "action", type = MappingAction.class)
     private MappingAction action;
 
@@ -79,6 +85,21 @@ public class MappingEndpoint implements Serializable {
     @XmlElement(name = "customAnnotations")
     private Map<String, String> customProperties;
 
+    @XmlElement(name = "retry", type = RetryPolicy.class)
+    private RetryPolicy retry;
+
+    @XmlElement(name = "cache", type = CachePolicy.class)
+    private CachePolicy cache;
+
+    @XmlElement(name = "coalesce", type = CoalescePolicy.class)
+    private CoalescePolicy coalesce;
+
+    @XmlElement(name = "timeout", type = TimeoutPolicy.class)
+    private TimeoutPolicy timeout;
+
+    @XmlElement(name = "concurrency", type = ConcurrencyPolicy.class)
+    private ConcurrencyPolicy concurrency;
+
     @XmlTransient
     private boolean hidden;
 
@@ -198,6 +219,80 @@ public class MappingEndpoint implements Serializable {
         this.customProperties = customProperties;
     }
 
+    public Boolean getStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(Boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @return name of the upstream group the requests are balanced between, null if the endpoint has a single backend
+     */
+    public String getUpstream() {
+        return upstream;
+    }
+
+    public void setUpstream(String upstream) {
+        this.upstream = upstream;
+    }
+
+    /**
+     * @return retry policy of the endpoint, null if failed requests are not sent again
+     */
+    public RetryPolicy getRetry() {
+        return retry;
+    }
+
+    public void setRetry(RetryPolicy retry) {
+        this.retry = retry;
+    }
+
+    /**
+     * @return response cache settings of the endpoint, null if responses are not cached
+     */
+    public CachePolicy getCache() {
+        return cache;
+    }
+
+    public void setCache(CachePolicy cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return coalescing settings of the endpoint, null if identical requests are sent separately
+     */
+    public CoalescePolicy getCoalesce() {
+        return coalesce;
+    }
+
+    public void setCoalesce(CoalescePolicy coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * @return timeouts of the endpoint, null if the timeouts of the backend apply
+     */
+    public TimeoutPolicy getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(TimeoutPolicy timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return concurrency limit of the endpoint, null if only the limits of the backends apply
+     */
+    public ConcurrencyPolicy getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(ConcurrencyPolicy concurrency) {
+        this.concurrency = concurrency;
+    }
+
     public boolean isHidden()
     {
         return hidden;
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.api;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Represents the retry policy of an endpoint - when a request that failed should be sent again and
+ * whether a slow request should be hedged, i.e. sent once more without waiting for the first response.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlType(name = "retry")
+public class RetryPolicy implements Serializable {
+
+    private static final long serialVersionUID = -3261744183020735915L;
+
+    public static final int DEFAULT_ATTEMPTS = 2;
+    public static final String DEFAULT_STATUSES = "502 503 504";
+
+    @XmlAttribute(name = "attempts")
+    private Integer attempts;
+
+    @XmlAttribute(name = "statuses")
+    private String statuses;
+
+    @XmlAttribute(name = "connectErrors")
+    private Boolean connectErrors;
+
+    @XmlAttribute(name = "idempotent")
+    private Boolean idempotent;
+
+    @XmlAttribute(name = "hedgePercentile")
+    private Integer hedgePercentile;
+
+    /**
+     * @return max number of times a request is sent, including the first one
+     */
+    public int getAttempts() {
+        return (attempts != null) ? attempts : DEFAULT_ATTEMPTS;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return space separated backend response statuses the request is sent again for
+     */
+    public String getStatuses() {
+        return (statuses != null) ? statuses : DEFAULT_STATUSES;
+    }
+
+    public void setStatuses(String statuses) {
+        this.statuses = statuses;
+    }
+
+    /**
+     * @return whether the request is sent again when it could not reach the backend, true by default
+     */
+    public boolean isConnectErrors() {
+        return !Boolean.FALSE.equals(connectErrors);
+    }
+
+    public void setConnectErrors(Boolean connectErrors) {
+        this.connectErrors = connectErrors;
+    }
+
+    /**
+     * @return true or false if the endpoint is explicitly marked as idempotent or not,
+     * null if that depends on the request method
+     */
+    public Boolean getIdempotent() {
+        return idempotent;
+    }
+
+    public void setIdempotent(Boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * @return percentile of the endpoint response times after which a second request is sent, null if requests are not hedged
+     */
+    public Integer getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(Integer hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Checks whether a backend response status is in the statuses the request is sent again for.
+     */
+    public boolean isRetryStatus(int status) {
+        String code = String.valueOf(status);
+        for (String value : getStatuses().trim().split("\\s+")) {
+            if (code.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.api;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Represents the timeouts of an endpoint - how long each request sent to the backend waits for its response
+ * and how long the whole request could take, including retries. Overrides the timeouts of the backend.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlType(name = "timeout")
+public class TimeoutPolicy implements Serializable {
+
+    private static final long serialVersionUID = 4420381770527392374L;
+
+    @XmlAttribute(name = "response")
+    private Integer response;
+
+    @XmlAttribute(name = "request")
+    private Integer request;
+
+    /**
+     * @return time in milliseconds a request sent to the backend waits for the response, null if not set
+     */
+    public Integer getResponse() {
+        return response;
+    }
+
+    public void setResponse(Integer response) {
+        this.response = response;
+    }
+
+    /**
+     * @return time in milliseconds the whole request could take, including retries, null if not set
+     */
+    public Integer getRequest() {
+        return request;
+    }
+
+    public void setRequest(Integer request) {
+        this.request = request;
+    }
+}
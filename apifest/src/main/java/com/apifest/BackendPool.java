@@ -0,0 +1,465 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.channel.pool.ChannelPoolHandler;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.apifest.api.Mapping.Backend;
+
+/**
+ * Bounded connection pool to a backend. Limits the connections and the requests waiting for a connection,
+ * checks connections on acquire and release and closes connections not used for the idle timeout.
+ * Settings come from the <code>backend</code> element of the mappings or from the <code>backend.pool.*</code> properties.
+ * <p>
+ * HTTP/1.1 connections are pooled per event loop and a request gets a connection registered on the event loop
+ * it is handled on, so the request and its response do not pass between threads. The limits are divided between
+ * the event loop pools; if there are fewer connections than event loops, some event loops share a pool.
+ * When all connections of the event loop pool are in use, the request gets a connection of another event loop pool
+ * that has one to spare, so a single busy event loop could still use all connections to the backend.
+ * For HTTP/2 backends the pool hands out streams multiplexed over a few connections, see {@link Http2StreamPool}.
+ * <p>
+ * A pool replaced because the settings of its backend changed is drained - requests already waiting still get
+ * its connections and it is closed once no connection is in use and no request waits. A request that got the pool
+ * just before it was closed gets no connection from it and takes the pool that replaced it.
+ */
+public final class BackendPool {
+
+    private static final int MAX_CONTENT_LEN = 10 * 1024 * 1024;
+    // pending acquires of a closed pool, no acquire is started after the pool is closed
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    // a connection is reused only if it is open and could be written to
+    private static final ChannelHealthChecker HEALTH_CHECKER = new ChannelHealthChecker() {
+        @Override
+        public Future<Boolean> isHealthy(Channel channel) {
+            EventLoop loop = channel.eventLoop();
+            return loop.newSucceededFuture(channel.isActive() && channel.isWritable());
+        }
+    };
+
+    private final InetSocketAddress address;
+    private final Settings settings;
+    // version of the routing snapshot the settings were taken from
+    private final long snapshotVersion;
+    // null for HTTP/2 backends
+    private final EventExecutor[] loops;
+    private final ChannelPool[] pools;
+    // the index in pools of the pool of the event loop at the same index
+    private final int[] loopPools;
+    // connections in use and the connection limit of the pool at the same index
+    private final AtomicInteger[] poolLeased;
+    private final int[] poolLimits;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    // null for HTTP/1.1 backends
+    private final Http2StreamPool http2Pool;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger leased = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile boolean draining;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public BackendPool(Bootstrap bootstrap, InetSocketAddress address, Settings settings) {
+        this(bootstrap, address, settings, 0);
+    }
+
+    /**
+     * @param snapshotVersion version of the routing snapshot the settings were taken from
+     */
+    public BackendPool(Bootstrap bootstrap, InetSocketAddress address, Settings settings, long snapshotVersion) {
+        this.address = address;
+        this.settings = settings;
+        this.snapshotVersion = snapshotVersion;
+        if (settings.isHttp2()) {
+            // streams are multiplexed over a few connections, so they are not pooled per event loop
+            this.http2Pool = new Http2StreamPool(bootstrap.clone().remoteAddress(address), settings);
+            this.loops = null;
+            this.pools = null;
+            this.loopPools = null;
+            this.poolLeased = null;
+            this.poolLimits = null;
+            return;
+        }
+        this.http2Pool = null;
+        List<EventExecutor> executors = new ArrayList<EventExecutor>();
+        for (EventExecutor executor : bootstrap.config().group()) {
+            executors.add(executor);
+        }
+        this.loops = executors.toArray(new EventExecutor[executors.size()]);
+        int poolCount = Math.max(1, Math.min(loops.length, settings.maxConnections));
+        this.pools = new ChannelPool[poolCount];
+        this.poolLeased = new AtomicInteger[poolCount];
+        this.poolLimits = new int[poolCount];
+        for (int i = 0; i < poolCount; i++) {
+            poolLeased[i] = new AtomicInteger();
+            poolLimits[i] = share(settings.maxConnections, poolCount, i);
+            pools[i] = createPool(bootstrap.clone((EventLoop) loops[i]).remoteAddress(address),
+                    poolLimits[i], share(settings.maxPendingAcquires, poolCount, i), poolLeased[i]);
+        }
+        this.loopPools = new int[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            loopPools[i] = i % poolCount;
+        }
+    }
+
+    private ChannelPool createPool(Bootstrap bootstrap, int maxConnections, int maxPendingAcquires, AtomicInteger poolLeased) {
+        FixedChannelPool.AcquireTimeoutAction timeoutAction = (settings.acquireTimeout > 0) ? FixedChannelPool.AcquireTimeoutAction.FAIL : null;
+        long acquireTimeout = (settings.acquireTimeout > 0) ? settings.acquireTimeout : -1;
+        return new FixedChannelPool(bootstrap, new PoolHandler(poolLeased), HEALTH_CHECKER, timeoutAction, acquireTimeout,
+                maxConnections, maxPendingAcquires, true, true);
+    }
+
+    // the part of a limit that falls to the pool with the given index, the parts add up to the limit
+    static int share(int limit, int pools, int index) {
+        return Math.max(1, limit / pools + ((index < limit % pools) ? 1 : 0));
+    }
+
+    /**
+     * Acquires a connection. The returned future fails with {@link IllegalStateException} if too many requests
+     * are waiting and with {@link TimeoutException} if no connection is free within the acquire timeout.
+     *
+     * @return null if the pool is closed, e.g. drained after it was replaced
+     */
+    public Future<Channel> acquire() {
+        if (!startAcquire()) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        final int index = getPoolIndex();
+        final ChannelPool pool = (index < 0) ? http2Pool : pools[index];
+        return pool.acquire().addListener(new FutureListener<Channel>() {
+            @Override
+            public void operationComplete(Future<Channel> future) {
+                if (future.isSuccess()) {
+                    // new connections are not reported to ChannelPoolHandler#channelAcquired, so leases are counted here
+                    if (index >= 0) {
+                        leased.incrementAndGet();
+                        poolLeased[index].incrementAndGet();
+                    }
+                    // the channel is released to the pool it was acquired from
+                    future.getNow().attr(HttpResponseHandler.poolAttachmentKey).set(pool);
+                }
+                pending.decrementAndGet();
+                long wait = System.nanoTime() - start;
+                waitNanos.add(wait);
+                long max = maxWaitNanos.get();
+                while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+                    max = maxWaitNanos.get();
+                }
+                if (future.isSuccess()) {
+                    acquired.increment();
+                } else if (future.cause() instanceof TimeoutException) {
+                    timedOut.increment();
+                } else if (future.cause() instanceof IllegalStateException) {
+                    rejected.increment();
+                } else {
+                    failed.increment();
+                }
+                closeIfDrained();
+            }
+        });
+    }
+
+    // a drained pool is closed only when no acquire is pending, so an acquire started here is never cut off
+    private boolean startAcquire() {
+        while (true) {
+            int current = pending.get();
+            if (current < 0 || closed.get()) {
+                return false;
+            }
+            if (pending.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // the pool of the current event loop, requests from other threads are spread between the event loop pools;
+    // -1 for the HTTP/2 pool
+    private int getPoolIndex() {
+        if (http2Pool != null) {
+            return -1;
+        }
+        int local = -1;
+        for (int i = 0; i < loops.length; i++) {
+            if (loops[i].inEventLoop()) {
+                local = loopPools[i];
+                break;
+            }
+        }
+        if (local < 0) {
+            local = loopPools[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loopPools.length];
+        }
+        if (poolLeased[local].get() < poolLimits[local]) {
+            return local;
+        }
+        // the request and its response pass between threads, but do not wait while another pool has a free connection
+        for (int i = 1; i < pools.length; i++) {
+            int other = (local + i) % pools.length;
+            if (poolLeased[other].get() < poolLimits[other]) {
+                return other;
+            }
+        }
+        return local;
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Closes the pool once no connection is in use and no request waits for one. The pool should no longer
+     * be handed out, requests already waiting get connections as they are released.
+     */
+    public void drain() {
+        draining = true;
+        closeIfDrained();
+    }
+
+    // streams in use are left to the HTTP/2 pool, it closes their connections when they are released
+    private void closeIfDrained() {
+        while (draining && pending.compareAndSet(0, CLOSED)) {
+            // no acquire is pending, so the number of leased connections could only go down now
+            if (http2Pool != null || leased.get() == 0) {
+                close();
+                return;
+            }
+            pending.set(0);
+            if (leased.get() > 0) {
+                // closed when the last one is released
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (http2Pool != null) {
+            http2Pool.close();
+            return;
+        }
+        for (ChannelPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    /**
+     * @return pool occupancy, acquire outcomes and wait times
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("protocol", settings.protocol);
+        metrics.put("maxConnections", settings.maxConnections);
+        if (pools != null) {
+            metrics.put("eventLoops", loops.length);
+        }
+        if (http2Pool != null) {
+            metrics.put("open", http2Pool.getOpenConnections());
+            metrics.put("activeStreams", http2Pool.getActiveStreams());
+        } else {
+            metrics.put("open", open.get());
+            metrics.put("leased", leased.get());
+        }
+        metrics.put("pending", Math.max(0, pending.get()));
+        metrics.put("acquired", acquired.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("timedOut", timedOut.sum());
+        metrics.put("failed", failed.sum());
+        long count = acquired.sum() + rejected.sum() + timedOut.sum() + failed.sum();
+        metrics.put("avgWaitMillis", (count > 0) ? TimeUnit.NANOSECONDS.toMillis(waitNanos.sum() / count) : 0L);
+        metrics.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    private class PoolHandler implements ChannelPoolHandler {
+
+        private final AtomicInteger poolLeased;
+
+        PoolHandler(AtomicInteger poolLeased) {
+            this.poolLeased = poolLeased;
+        }
+
+        @Override
+        public void channelCreated(Channel ch) throws Exception {
+            open.incrementAndGet();
+            ch.closeFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    open.decrementAndGet();
+                }
+            });
+            ChannelPipeline p = ch.pipeline();
+            if (ServerConfig.getFlushConsolidationLimit() > 0) {
+                p.addLast(new FlushConsolidationHandler(ServerConfig.getFlushConsolidationLimit(), true));
+            }
+            if (settings.idleTimeout > 0) {
+                p.addLast(new IdleStateHandler(0, 0, settings.idleTimeout, TimeUnit.MILLISECONDS));
+            }
+            p.addLast(new HttpClientCodec());
+            // responses to streamed requests are not aggregated
+            p.addLast(new SelectiveHttpObjectAggregator.Client(MAX_CONTENT_LEN));
+            p.addLast(new HttpResponseHandler());
+        }
+
+        @Override
+        public void channelAcquired(Channel ch) throws Exception {
+            // counted in BackendPool#acquire
+        }
+
+        @Override
+        public void channelReleased(Channel ch) throws Exception {
+            leased.decrementAndGet();
+            poolLeased.decrementAndGet();
+            // marks the connection as idle, see HttpResponseHandler#userEventTriggered
+            ch.attr(HttpResponseHandler.responseListenerAttachmentKey).set(null);
+            ch.attr(HttpResponseHandler.exchangeAttachmentKey).set(null);
+            closeIfDrained();
+        }
+    }
+
+    /**
+     * Pool settings of a backend, missing values are taken from the <code>backend.pool.*</code> properties.
+     */
+    public static final class Settings {
+        private final int maxConnections;
+        private final int maxPendingAcquires;
+        private final int acquireTimeout;
+        private final int idleTimeout;
+        private final String protocol;
+        private final int maxStreams;
+
+        public Settings(int maxConnections, int maxPendingAcquires, int acquireTimeout, int idleTimeout) {
+            this(maxConnections, maxPendingAcquires, acquireTimeout, idleTimeout, Backend.PROTOCOL_HTTP_1_1, 1);
+        }
+
+        public Settings(int maxConnections, int maxPendingAcquires, int acquireTimeout, int idleTimeout, String protocol, int maxStreams) {
+            this.maxConnections = maxConnections;
+            this.maxPendingAcquires = maxPendingAcquires;
+            this.acquireTimeout = acquireTimeout;
+            this.idleTimeout = idleTimeout;
+            this.protocol = protocol;
+            this.maxStreams = maxStreams;
+        }
+
+        public static Settings of(Backend backend) {
+            boolean http2 = backend != null && Backend.PROTOCOL_H2C.equals(backend.getProtocol());
+            return new Settings(
+                    valueOf((backend != null) ? backend.getMaxConnections() : null,
+                            http2 ? ServerConfig.getBackendH2MaxConnections() : ServerConfig.getBackendMaxConnections()),
+                    valueOf((backend != null) ? backend.getMaxPendingAcquires() : null, ServerConfig.getBackendMaxPendingAcquires()),
+                    valueOf((backend != null) ? backend.getAcquireTimeout() : null, ServerConfig.getBackendAcquireTimeout()),
+                    valueOf((backend != null) ? backend.getIdleTimeout() : null, ServerConfig.getBackendIdleTimeout()),
+                    http2 ? Backend.PROTOCOL_H2C : Backend.PROTOCOL_HTTP_1_1,
+                    http2 ? valueOf(backend.getMaxStreams(), ServerConfig.getBackendH2MaxStreams()) : 1);
+        }
+
+        private static int valueOf(Integer value, int defaultValue) {
+            return (value != null) ? value : defaultValue;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public int getMaxPendingAcquires() {
+            return maxPendingAcquires;
+        }
+
+        public int getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public int getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public boolean isHttp2() {
+            return Backend.PROTOCOL_H2C.equals(protocol);
+        }
+
+        /**
+         * @return maximum number of concurrent requests per connection, 1 for HTTP/1.1
+         */
+        public int getMaxStreams() {
+            return maxStreams;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Settings) {
+                Settings other = (Settings) obj;
+                return maxConnections == other.maxConnections && maxPendingAcquires == other.maxPendingAcquires
+                        && acquireTimeout == other.acquireTimeout && idleTimeout == other.idleTimeout
+                        && protocol.equals(other.protocol) && maxStreams == other.maxStreams;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((((maxConnections * 31 + maxPendingAcquires) * 31 + acquireTimeout) * 31 + idleTimeout) * 31
+                    + protocol.hashCode()) * 31 + maxStreams;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.dns.DefaultDnsCache;
+import io.netty.resolver.dns.DnsAddressResolverGroup;
+import io.netty.resolver.dns.DnsCache;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves backend host names asynchronously on the event loops, so a lookup never blocks an I/O thread.
+ * Backend pools are keyed by unresolved addresses and the address is resolved when a connection is opened.
+ * Resolved addresses are kept in a DNS cache shared by all event loops for the record TTL, bounded by
+ * <code>dns.min_ttl</code> and <code>dns.max_ttl</code>. The host names of the backends are re-resolved
+ * in the background every <code>dns.refresh_interval</code>, so new connections rarely wait for a lookup
+ * and a changed address is used for the connections opened after the change.
+ */
+public final class BackendResolver {
+
+    private static Logger log = LoggerFactory.getLogger(BackendResolver.class);
+
+    private static final DnsCache cache = new DefaultDnsCache(ServerConfig.getDnsMinTtl(), ServerConfig.getDnsMaxTtl(),
+            ServerConfig.getDnsNegativeTtl());
+
+    private static final AddressResolverGroup<InetSocketAddress> resolverGroup = new DnsAddressResolverGroup(
+            new DnsNameResolverBuilder()
+                    .channelType(Transport.get().getDatagramChannelClass())
+                    .resolveCache(cache));
+
+    private BackendResolver() {
+    }
+
+    /**
+     * @return resolvers for the backend connections bootstrap
+     */
+    public static AddressResolverGroup<InetSocketAddress> getResolverGroup() {
+        return resolverGroup;
+    }
+
+    /**
+     * Starts re-resolving the given addresses in the background.
+     *
+     * @param group event loops the backend connections use
+     * @param addresses backend addresses, a live view - addresses added later are re-resolved too
+     */
+    public static void startRefresh(EventLoopGroup group, final Collection<InetSocketAddress> addresses) {
+        long interval = ServerConfig.getDnsRefreshInterval();
+        if (interval <= 0) {
+            return;
+        }
+        final EventExecutor loop = group.next();
+        loop.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh(resolverGroup.getResolver(loop), addresses);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    static void refresh(AddressResolver<InetSocketAddress> resolver, Collection<InetSocketAddress> addresses) {
+        for (final InetSocketAddress address : addresses) {
+            if (!address.isUnresolved()) {
+                continue;
+            }
+            // an address still in the cache is not looked up again
+            resolver.resolve(address).addListener(new FutureListener<InetSocketAddress>() {
+                @Override
+                public void operationComplete(Future<InetSocketAddress> future) {
+                    if (!future.isSuccess()) {
+                        log.warn("cannot resolve {}: {}", address.getHostString(), future.cause().toString());
+                    }
+                }
+            });
+        }
+    }
+}
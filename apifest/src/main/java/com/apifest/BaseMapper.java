@@ -43,7 +43,60 @@ public class BaseMapper {
         return req;
     }
 
+    /**
+     * Constructs the backend URI from the internal URI and the query string of the request URI.
+     * The raw query string is appended as it is, query parameters are decoded and merged
+     * only if both URIs have a query string.
+     *
+     * @param uri request URI
+     * @param newUri internal URI
+     * @return backend URI
+     */
     protected String constructNewUri(String uri, String newUri) {
+        int queryStart = uri.indexOf('?');
+        int internalQueryStart = newUri.indexOf('?');
+        boolean hasQuery = hasQuery(uri, queryStart);
+        boolean internalHasQuery = hasQuery(newUri, internalQueryStart);
+        if (hasQuery && internalHasQuery) {
+            return mergeQueryParams(uri, newUri);
+        }
+        String path = rawPath(newUri, internalQueryStart);
+        if (hasQuery) {
+            return new StringBuilder(path.length() + uri.length() - queryStart)
+                    .append(path).append(uri, queryStart, rawQueryEnd(uri, queryStart)).toString();
+        }
+        if (internalHasQuery) {
+            return newUri.substring(0, rawQueryEnd(newUri, internalQueryStart));
+        }
+        return path;
+    }
+
+    private static boolean hasQuery(String uri, int queryStart) {
+        return queryStart >= 0 && queryStart + 1 < rawQueryEnd(uri, queryStart);
+    }
+
+    private static int rawQueryEnd(String uri, int queryStart) {
+        int fragmentStart = uri.indexOf('#', queryStart);
+        return (fragmentStart >= 0) ? fragmentStart : uri.length();
+    }
+
+    private static String rawPath(String uri, int queryStart) {
+        int end = (queryStart >= 0) ? queryStart : uri.length();
+        int fragmentStart = uri.indexOf('#');
+        if (fragmentStart >= 0 && fragmentStart < end) {
+            end = fragmentStart;
+        }
+        return (end == uri.length()) ? uri : uri.substring(0, end);
+    }
+
+    /**
+     * Merges the query parameters of the request URI and the internal URI.
+     *
+     * @param uri request URI
+     * @param newUri internal URI
+     * @return internal URI path with the query parameters of both URIs
+     */
+    protected String mergeQueryParams(String uri, String newUri) {
         QueryStringDecoder decoder = new QueryStringDecoder(uri);
         QueryStringDecoder internalUrldecoder = new QueryStringDecoder(newUri);
 
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.ReferenceCountUtil;
+
+import com.apifest.api.AccessToken;
+import com.apifest.api.BasicFilter;
+import com.apifest.api.CachePolicy;
+import com.apifest.api.MappingEndpoint;
+import com.apifest.cache.CachedResponse;
+import com.apifest.cache.ResponseCache;
+
+/**
+ * Stores the backend responses of an endpoint with a cache policy and passes them to the listener of the request.
+ * If the backend fails or its circuit is open, an expired response that is still usable on error is returned instead,
+ * and a 304 response to a revalidation is replaced with the cached one.
+ */
+public class CachingResponseListener extends ResponseListener {
+
+    private final ResponseListener listener;
+    private final ResponseCache cache;
+    private final String key;
+    private final HttpHeaders requestHeaders;
+    private final CachePolicy policy;
+    private final CachedResponse stale;
+    private final boolean revalidating;
+    // holds a reference to the stale body, so it could be returned even if the entry is evicted meanwhile
+    private FullHttpResponse staleResponse;
+
+    private CachingResponseListener(ResponseListener listener, ResponseCache cache, String key, HttpHeaders requestHeaders,
+            CachePolicy policy, CachedResponse stale, FullHttpResponse staleResponse, boolean revalidating) {
+        super((InstanceProvider<BasicFilter>) null, null);
+        this.listener = listener;
+        this.cache = cache;
+        this.key = key;
+        this.requestHeaders = requestHeaders;
+        this.policy = policy;
+        this.stale = stale;
+        this.staleResponse = staleResponse;
+        this.revalidating = revalidating;
+    }
+
+    /**
+     * Answers a GET request of an endpoint with a cache policy from the response cache, if there is a fresh response.
+     * Otherwise returns the listener that stores the backend response; when the cached response has expired
+     * but has an ETag, If-None-Match is added to the request, so the backend could confirm it with 304.
+     *
+     * @param request client request, before it is mapped
+     * @param token validated access token of the request, null for endpoints without authorization
+     * @param listener listener of the request
+     * @return null if the request is answered from the cache, otherwise the listener the backend response should be passed to
+     */
+    public static ResponseListener lookup(FullHttpRequest request, MappingEndpoint endpoint, AccessToken token, ResponseListener listener) {
+        ResponseCache cache = ResponseCache.getInstance();
+        CachePolicy policy = endpoint.getCache();
+        if (policy == null || !cache.isEnabled() || !HttpMethod.GET.equals(request.method())) {
+            return listener;
+        }
+        String key = ResponseCache.getKey(request, policy, token);
+        CachedResponse entry = cache.get(key, request.headers());
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.isFresh(now) && !ResponseCache.isNoCacheRequest(request)) {
+            FullHttpResponse response = entry.toResponse(now);
+            if (response != null) {
+                listener.responseReceived(response, null);
+                return null;
+            }
+        }
+        boolean revalidating = false;
+        FullHttpResponse staleResponse = null;
+        if (entry != null && (entry.getEtag() != null || entry.isUsableOnError(now))) {
+            staleResponse = entry.toResponse(now);
+        }
+        if (staleResponse == null) {
+            entry = null;
+        } else if (entry.getEtag() != null && !request.headers().contains(HttpHeaderNames.IF_NONE_MATCH)) {
+            revalidating = true;
+        }
+        // the request headers are changed when the request is mapped
+        HttpHeaders requestHeaders = request.headers().copy();
+        if (revalidating) {
+            request.headers().set(HttpHeaderNames.IF_NONE_MATCH, entry.getEtag());
+        }
+        return new CachingResponseListener(listener, cache, key, requestHeaders, policy, entry, staleResponse, revalidating);
+    }
+
+    @Override
+    public BasicFilter getFilter() {
+        return listener.getFilter();
+    }
+
+    @Override
+    public String getErrorMessage(int statusCode) {
+        return listener.getErrorMessage(statusCode);
+    }
+
+    @Override
+    void backendAcquired(Channel backendChannel) {
+        listener.backendAcquired(backendChannel);
+    }
+
+    @Override
+    boolean isCancelled() {
+        return listener.isCancelled();
+    }
+
+    @Override
+    void responseReceived(FullHttpMessage response, Channel clientChannel) {
+        if (!(response instanceof FullHttpResponse)) {
+            releaseStale();
+            listener.responseReceived(response, clientChannel);
+            return;
+        }
+        FullHttpResponse backendResponse = (FullHttpResponse) response;
+        int status = backendResponse.status().code();
+        long now = System.currentTimeMillis();
+        if (revalidating && HttpResponseStatus.NOT_MODIFIED.equals(backendResponse.status())) {
+            CachedResponse updated = cache.revalidated(key, requestHeaders, stale, backendResponse, policy);
+            FullHttpResponse cached = updated.toResponse(now);
+            if (cached == null) {
+                cached = staleResponse;
+                staleResponse = null;
+            } else {
+                releaseStale();
+            }
+            ReferenceCountUtil.release(response);
+            listener.responseReceived(cached, clientChannel);
+            return;
+        }
+        if (status >= 500 && staleResponse != null && stale.isUsableOnError(now)) {
+            cache.staleHit();
+            ReferenceCountUtil.release(response);
+            FullHttpResponse cached = staleResponse;
+            staleResponse = null;
+            listener.responseReceived(cached, clientChannel);
+            return;
+        }
+        releaseStale();
+        cache.put(key, requestHeaders, backendResponse, policy);
+        listener.responseReceived(response, clientChannel);
+    }
+
+    private void releaseStale() {
+        if (staleResponse != null) {
+            staleResponse.release();
+            staleResponse = null;
+        }
+    }
+}
@@ -16,20 +16,39 @@
 
 package com.apifest;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,12 +56,15 @@ import org.slf4j.LoggerFactory;
 import com.apifest.api.GlobalErrors;
 import com.apifest.api.Mapping;
 import com.apifest.api.Mapping.Backend;
+import com.apifest.api.Mapping.Upstream;
 import com.apifest.api.MappingAction;
 import com.apifest.api.MappingEndpoint;
 import com.apifest.api.MappingError;
 import com.apifest.api.MappingException;
 import com.apifest.api.ResponseFilter;
+import com.apifest.routing.RouteMatch;
 import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
 
 /**
  * Loads/reloads all mapping and global errors configurations.
@@ -57,48 +79,65 @@ public final class ConfigLoader {
     private static final String VAR_NAME_FORMAT = "{%s}";
     private static final String VAR_EXPRESSION_FORMAT = "(%s)%s";
 
-    protected static URLClassLoader jarClassLoader;
+    // reset under SNAPSHOT_LOCK, read once per use so that a reset in between is not seen as null
+    protected static volatile URLClassLoader jarClassLoader;
 
-    private static Map<String, MappingConfig> localMappingConfigMap = new HashMap<String, MappingConfig>();
-    private static Map<Integer, String> localGlobalErrorsMap = new HashMap<Integer, String>();
+    // the only reference to the loaded configs, replaced as a whole on each change
+    private static volatile RoutingSnapshot snapshot = RoutingSnapshot.empty();
+    private static final Object SNAPSHOT_LOCK = new Object();
+
+    private static final ConcurrentMap<Class<?>, JAXBContext> JAXB_CONTEXTS = new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+    // last parsed content per mapping file path, files with the same content are not parsed again
+    private static final ConcurrentMap<String, ParsedMapping> PARSED_FILES = new ConcurrentHashMap<String, ParsedMapping>();
 
     private ConfigLoader() {
     }
 
     protected static void loadMappingsConfig(boolean reload) throws MappingException {
+        loadMappingsConfig(reload, new LinkedHashMap<String, Long>());
+    }
+
+    /**
+     * Loads all mapping files. Files are validated and parsed in parallel, then merged per version in file name order.
+     *
+     * @param reload whether versions missing in the mapping files should be removed
+     * @param timings duration in milliseconds of each load phase, filled in by the method
+     */
+    protected static void loadMappingsConfig(boolean reload, Map<String, Long> timings) throws MappingException {
         String mappingFileDir = ServerConfig.getMappingsPath();
         if (ServerConfig.getMappingsPath() != null && !ServerConfig.getMappingsPath().isEmpty()) {
             Map<String, MappingConfig> local = new HashMap<String, MappingConfig>();
             try {
-                JAXBContext jaxbContext = JAXBContext.newInstance(Mapping.class);
-                Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
                 File configPath = new File(mappingFileDir);
                 if (configPath.isDirectory()) {
+                    long phaseStart = System.nanoTime();
                     File[] files = configPath.listFiles();
-                    // load all config files
-                    for (File mappingFile : files) {
-                        if (!mappingFile.isFile() || !mappingFile.getName().endsWith(".xml")) {
-                            continue;
+                    // sorted, so the merge and the content hash do not depend on the file system order
+                    Arrays.sort(files);
+                    List<ParsedMapping> parsedFiles = parseMappingFiles(files);
+                    phaseStart = recordTiming(timings, "parse", phaseStart);
+
+                    Map<String, MessageDigest> digests = new HashMap<String, MessageDigest>();
+                    for (ParsedMapping parsed : parsedFiles) {
+                        // parsed configs are cached, so they are merged into a new config instead of being modified
+                        MappingConfig currentConfig = local.get(parsed.version);
+                        if (currentConfig == null) {
+                            currentConfig = new MappingConfig();
+                            local.put(parsed.version, currentConfig);
                         }
-                        // whether the mappings configuration file is valid against the schema
-                        if (!MappingConfigValidator.validate(mappingFile)) {
-                            throw new MappingException("{\"error\":\"mappings configuration file " + mappingFile.getName() + " is not valid against schema\"}");
+                        currentConfig.mergeConfig(parsed.config);
+                        MessageDigest digest = digests.get(parsed.version);
+                        if (digest == null) {
+                            digest = createDigest();
+                            digests.put(parsed.version, digest);
                         }
-                        MappingConfig config = new MappingConfig();
-                        Mapping mappings = (Mapping) unmarshaller.unmarshal(mappingFile);
-
-                        List<MappingEndpoint> mappingEndpoints = mappings.getEndpointsWrapper().getEndpoints();
-                        config.setMappings(getMappingsMap(mappingEndpoints, mappings.getBackend()));
-
-                        setConfigActions(config, mappings);
-
-                        setConfigFilters(config, mappings);
-
-                        if (mappings.getErrorsWrapper() != null) {
-                            config.setErrors(getErrorsMap(mappings));
-                        }
-                        // load all actions and filters
-                        if (ServerConfig.getCustomJarPath() != null && ServerConfig.getCustomJarPath().length() > 0) {
+                        digest.update(parsed.fileName.getBytes(StandardCharsets.UTF_8));
+                        digest.update(parsed.content);
+                    }
+                    // load all actions and filters
+                    if (ServerConfig.getCustomJarPath() != null && ServerConfig.getCustomJarPath().length() > 0) {
+                        for (MappingConfig config : local.values()) {
                             try {
                                 loadCustomClasses(config.getActions().values());
                             } catch (MalformedURLException e) {
@@ -106,39 +145,164 @@ public final class ConfigLoader {
                                 throw new IllegalArgumentException(e);
                             }
                         }
-                        MappingConfig currentConfig = local.get(mappings.getVersion());
-                        if (currentConfig != null) {
-                            MappingConfig mergedConfig = currentConfig.mergeConfig(config);
-                            local.put(mappings.getVersion(), mergedConfig);
-                        } else {
-                            local.put(mappings.getVersion(), config);
+                    }
+                    // actions and filters come from the custom jar, so a new jar changes all versions
+                    byte[] customJar = null;
+                    if (ServerConfig.getCustomJarPath() != null && new File(ServerConfig.getCustomJarPath()).isFile()) {
+                        customJar = readFile(new File(ServerConfig.getCustomJarPath()));
+                    }
+                    for (Map.Entry<String, MappingConfig> entry : local.entrySet()) {
+                        MessageDigest digest = digests.get(entry.getKey());
+                        if (customJar != null) {
+                            digest.update(customJar);
                         }
+                        entry.getValue().setContentHash(toHex(digest.digest()));
                     }
+                    phaseStart = recordTiming(timings, "merge", phaseStart);
+
                     IMap<String, MappingConfig> map = getHazelcastConfig();
-                    if (reload) {
-                        //clear all keys one by one in order to fire events in Hazelcast
-                        for (String key : map.keySet()) {
-                            map.remove(key);
+                    Map<String, MappingConfig> clusterMappings = new HashMap<String, MappingConfig>(map);
+                    Map<String, MappingConfig> target = new HashMap<String, MappingConfig>(local);
+                    if (!reload) {
+                        // on start, keep the versions already loaded by the other nodes
+                        for (Map.Entry<String, MappingConfig> entry : clusterMappings.entrySet()) {
+                            if (!target.containsKey(entry.getKey())) {
+                                target.put(entry.getKey(), entry.getValue());
+                            }
                         }
                     }
-                    if (local.size() > 0) {
-                        map.putAll(local);
-                        local.putAll(map);
-                    } else {
-                        local.putAll(map);
+                    MappingChangeSet changes;
+                    synchronized (SNAPSHOT_LOCK) {
+                        changes = MappingChangeSet.between(snapshot.getMappings(), target);
+                        if (!changes.isEmpty()) {
+                            // a class that cannot be instantiated fails the load instead of the first request
+                            loadInstances(changes);
+                            snapshot = snapshot.withMappingChanges(changes);
+                        }
                     }
-                    localMappingConfigMap = local;
+                    log.info("mappings loaded, changes: {}", changes);
+                    // only changed versions are written and published to the other nodes
+                    MappingChangeSet clusterChanges = MappingChangeSet.between(clusterMappings, target);
+                    if (!clusterChanges.isEmpty()) {
+                        map.putAll(clusterChanges.getPuts());
+                        for (String version : clusterChanges.getRemoves()) {
+                            map.remove(version);
+                        }
+                        getHazelcastMappingChanges().publish(clusterChanges);
+                    }
+                    recordTiming(timings, "apply", phaseStart);
                 } else {
                     throw new MappingException("Cannot load mapping configuration from directory " + mappingFileDir);
                 }
             } catch (JAXBException e) {
-                String errorMessage = e.getMessage();
-                if (errorMessage == null && e.getLinkedException() != null) {
-                    errorMessage = e.getLinkedException().getMessage();
+                throw toMappingException(e);
+            }
+        }
+    }
+
+    private static List<ParsedMapping> parseMappingFiles(File[] files) throws MappingException, JAXBException {
+        // created on the calling thread, the context is shared by all tasks
+        final JAXBContext jaxbContext = getJaxbContext(Mapping.class);
+        List<Callable<ParsedMapping>> tasks = new ArrayList<Callable<ParsedMapping>>();
+        Set<String> paths = new HashSet<String>();
+        for (final File mappingFile : files) {
+            if (!mappingFile.isFile() || !mappingFile.getName().endsWith(".xml")) {
+                continue;
+            }
+            paths.add(mappingFile.getAbsolutePath());
+            tasks.add(new Callable<ParsedMapping>() {
+                @Override
+                public ParsedMapping call() throws Exception {
+                    return parseMappingFile(mappingFile, jaxbContext);
                 }
-                throw new MappingException(errorMessage, e);
+            });
+        }
+        List<ParsedMapping> parsedFiles = new ArrayList<ParsedMapping>(tasks.size());
+        try {
+            // results are in the order of the tasks, whichever file is parsed first
+            for (Future<ParsedMapping> result : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                parsedFiles.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MappingException("mappings loading interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MappingException) {
+                throw (MappingException) e.getCause();
+            }
+            if (e.getCause() instanceof JAXBException) {
+                throw (JAXBException) e.getCause();
+            }
+            throw new MappingException("cannot load mappings", e.getCause());
+        }
+        // forget the removed files
+        PARSED_FILES.keySet().retainAll(paths);
+        return parsedFiles;
+    }
+
+    private static ParsedMapping parseMappingFile(File mappingFile, JAXBContext jaxbContext) throws MappingException, JAXBException {
+        byte[] content = readFile(mappingFile);
+        ParsedMapping cached = PARSED_FILES.get(mappingFile.getAbsolutePath());
+        if (cached != null && Arrays.equals(cached.content, content)) {
+            return cached;
+        }
+        // whether the mappings configuration file is valid against the schema
+        if (!MappingConfigValidator.validate(new StreamSource(new ByteArrayInputStream(content), mappingFile.toURI().toString()))) {
+            throw new MappingException("{\"error\":\"mappings configuration file " + mappingFile.getName() + " is not valid against schema\"}");
+        }
+        Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+        Mapping mappings = (Mapping) unmarshaller.unmarshal(new ByteArrayInputStream(content));
+
+        MappingConfig config = new MappingConfig();
+        List<MappingEndpoint> mappingEndpoints = mappings.getEndpointsWrapper().getEndpoints();
+        config.setMappings(getMappingsMap(mappingEndpoints, mappings.getBackend()));
+
+        setConfigActions(config, mappings);
+
+        setConfigFilters(config, mappings);
+
+        if (mappings.getErrorsWrapper() != null) {
+            config.setErrors(getErrorsMap(mappings));
+        }
+        Map<String, Backend> backends = new HashMap<String, Backend>();
+        Backend backend = mappings.getBackend();
+        backends.put(backend.getBackendHost() + ":" + backend.getBackendPort(), backend);
+        config.setBackends(backends);
+        if (mappings.getUpstreamsWrapper() != null) {
+            config.setUpstreams(getUpstreamsMap(mappings));
+        }
+        ParsedMapping parsed = new ParsedMapping(mappingFile.getName(), mappings.getVersion(), config, content);
+        PARSED_FILES.put(mappingFile.getAbsolutePath(), parsed);
+        return parsed;
+    }
+
+    private static long recordTiming(Map<String, Long> timings, String phase, long phaseStart) {
+        long now = System.nanoTime();
+        timings.put(phase, TimeUnit.NANOSECONDS.toMillis(now - phaseStart));
+        return now;
+    }
+
+    /**
+     * JAXB contexts are thread safe and expensive to create, so one context per type is kept for the life of the process.
+     */
+    protected static JAXBContext getJaxbContext(Class<?> type) throws JAXBException {
+        JAXBContext context = JAXB_CONTEXTS.get(type);
+        if (context == null) {
+            context = JAXBContext.newInstance(type);
+            JAXBContext current = JAXB_CONTEXTS.putIfAbsent(type, context);
+            if (current != null) {
+                context = current;
             }
         }
+        return context;
+    }
+
+    private static MappingException toMappingException(JAXBException e) {
+        String errorMessage = e.getMessage();
+        if (errorMessage == null && e.getLinkedException() != null) {
+            errorMessage = e.getLinkedException().getMessage();
+        }
+        return new MappingException(errorMessage, e);
     }
 
     protected static void loadGlobalErrorsConfig(boolean reload) throws MappingException {
@@ -152,8 +316,7 @@ public final class ConfigLoader {
                     if (!GlobalErrorsConfigValidator.validate(errorsFile)) {
                         throw new MappingException("{\"error\":\"global errors configuration file " + errorsFile.getName() + " is not valid against schema\"}");
                     }
-                    JAXBContext jaxbContext = JAXBContext.newInstance(GlobalErrors.class);
-                    Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+                    Unmarshaller unmarshaller = getJaxbContext(GlobalErrors.class).createUnmarshaller();
                     GlobalErrors globalErrors = (GlobalErrors) unmarshaller.unmarshal(errorsFile);
 
                     for (MappingError error : globalErrors.getErrors()) {
@@ -172,13 +335,11 @@ public final class ConfigLoader {
                     } else {
                         errors.putAll(errorsMap);
                     }
-                    localGlobalErrorsMap = errors;
-                } catch (JAXBException e) {
-                    String errorMessage = e.getMessage();
-                    if (errorMessage == null && e.getLinkedException() != null) {
-                        errorMessage = e.getLinkedException().getMessage();
+                    synchronized (SNAPSHOT_LOCK) {
+                        snapshot = snapshot.withGlobalErrors(errors);
                     }
-                    throw new MappingException(errorMessage, e);
+                } catch (JAXBException e) {
+                    throw toMappingException(e);
                 }
             } else {
                 throw new MappingException("Cannot load global errors configuration from directory " + globalErrorsFile);
@@ -234,8 +395,9 @@ public final class ConfigLoader {
 
     public static void loadCustomHandlers() throws MappingException {
         try {
-            if (jarClassLoader != null || createJarClassLoader()) {
-                LifecycleEventHandlers.loadLifecycleHandlers(jarClassLoader, ServerConfig.getCustomJarPath());
+            URLClassLoader loader = getJarClassLoader();
+            if (loader != null) {
+                LifecycleEventHandlers.loadLifecycleHandlers(loader, ServerConfig.getCustomJarPath());
             } else {
                 throw new MappingException("cannot load custom jar");
             }
@@ -247,8 +409,9 @@ public final class ConfigLoader {
     public static Class<?> loadCustomClass(String className) throws MappingException, ClassNotFoundException {
         Class<?> clazz = null;
         try {
-            if (jarClassLoader != null || createJarClassLoader()) {
-                clazz = jarClassLoader.loadClass(className);
+            URLClassLoader loader = getJarClassLoader();
+            if (loader != null) {
+                clazz = loader.loadClass(className);
             } else {
                 throw new MappingException("cannot load custom jar");
             }
@@ -258,22 +421,31 @@ public final class ConfigLoader {
         return clazz;
     }
 
-    private static boolean createJarClassLoader() throws MalformedURLException {
-        boolean created = false;
-        if (ServerConfig.getCustomJarPath() != null) {
-            File file = new File(ServerConfig.getCustomJarPath());
-            URL jarfile = file.toURI().toURL();
-            jarClassLoader = URLClassLoader.newInstance(new URL[] { jarfile }, ConfigLoader.class.getClassLoader());
-            created = true;
+    private static URLClassLoader getJarClassLoader() throws MalformedURLException {
+        URLClassLoader loader = jarClassLoader;
+        if (loader == null) {
+            loader = createJarClassLoader();
         }
-        return created;
+        return loader;
+    }
+
+    private static URLClassLoader createJarClassLoader() throws MalformedURLException {
+        String customJarPath = ServerConfig.getCustomJarPath();
+        if (customJarPath == null) {
+            return null;
+        }
+        URL jarfile = new File(customJarPath).toURI().toURL();
+        URLClassLoader loader = URLClassLoader.newInstance(new URL[] { jarfile }, ConfigLoader.class.getClassLoader());
+        jarClassLoader = loader;
+        return loader;
     }
 
     private static void loadCustomClasses(Collection<String> actionClasses) throws MalformedURLException, MappingException {
-        if (jarClassLoader != null || createJarClassLoader()) {
+        URLClassLoader loader = getJarClassLoader();
+        if (loader != null) {
             for (String className : actionClasses) {
                 try {
-                    jarClassLoader.loadClass(className);
+                    loader.loadClass(className);
                 } catch (ClassNotFoundException e) {
                     throw new MappingException("cannot load custom class " + className, e);
                 }
@@ -282,7 +454,28 @@ public final class ConfigLoader {
     }
 
     public static List<MappingConfig> getConfig() {
-        return new ArrayList<MappingConfig>(localMappingConfigMap.values());
+        return new ArrayList<MappingConfig>(snapshot.getMappings().values());
+    }
+
+    /**
+     * Returns the currently active configs. The snapshot is never modified,
+     * so all values read from it are consistent with each other.
+     *
+     * @return current {@link RoutingSnapshot}
+     */
+    public static RoutingSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Finds the mapping endpoint for a request.
+     *
+     * @param method HTTP method
+     * @param path raw request path, without query string
+     * @return the matched route or null if there is no mapping for that path
+     */
+    public static RouteMatch getRoute(String method, String path) {
+        return snapshot.getRouteCache().match(method, path);
     }
 
     private static Map<String, String> getActionsMap(Mapping configs) {
@@ -312,6 +505,16 @@ public final class ConfigLoader {
         return errors;
     }
 
+    private static Map<String, Upstream> getUpstreamsMap(Mapping configs) throws MappingException {
+        Map<String, Upstream> upstreams = new HashMap<String, Upstream>();
+        for (Upstream upstream : configs.getUpstreamsWrapper().getUpstreams()) {
+            if (upstreams.put(upstream.getName(), upstream) != null) {
+                throw new MappingException("upstream " + upstream.getName() + " is duplicated in mappings");
+            }
+        }
+        return upstreams;
+    }
+
     protected static Map<MappingPattern, MappingEndpoint> getMappingsMap(List<MappingEndpoint> mappingEndpoints, Backend backend) throws MappingException {
         Map<MappingPattern, MappingEndpoint> mappings = new HashMap<MappingPattern, MappingEndpoint>();
         for (MappingEndpoint endpoint : mappingEndpoints) {
@@ -357,68 +560,157 @@ public final class ConfigLoader {
         return HazelcastConfigInstance.instance().getMappingConfigs();
     }
 
+    protected static ITopic<MappingChangeSet> getHazelcastMappingChanges() {
+        return HazelcastConfigInstance.instance().getMappingChanges();
+    }
+
+    private static MessageDigest createDigest() throws MappingException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new MappingException("cannot calculate mappings content hash", e);
+        }
+    }
+
+    private static byte[] readFile(File file) throws MappingException {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new MappingException("cannot read file " + file.getName(), e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
     /**
-     * Reads mappings config from Hazelcast Distributed Map.
+     * Adds or replaces a mapping config, see {@link #applyMappingChanges(MappingChangeSet)}.
      */
     public static void updateMapping(String name, MappingConfig value) {
-        try {
-            reloadCustomClasses(value);
-        } catch (MappingException e) {
-            log.error("check custom.jar is the consistent on each running instance", e);
-        }
-        localMappingConfigMap.put(name, value);
+        applyMappingChanges(new MappingChangeSet(Collections.singletonMap(name, value), Collections.<String>emptySet()));
     }
 
     /**
      * Removes mapping config.
      */
     public static void removeMapping(String name) {
-        localMappingConfigMap.remove(name);
+        applyMappingChanges(new MappingChangeSet(Collections.<String, MappingConfig>emptyMap(), Collections.singleton(name)));
     }
 
-    private static void reloadCustomClasses(MappingConfig config) throws MappingException {
-        jarClassLoader = null;
-        if (ServerConfig.getCustomJarPath() != null) {
+    /**
+     * Applies mapping changes published by a node. Versions with the same content hash as the loaded ones are skipped,
+     * all other changes replace the current snapshot at once. If an action or filter of a changed version cannot be
+     * instantiated, none of the changes are applied.
+     */
+    public static void applyMappingChanges(MappingChangeSet changes) {
+        synchronized (SNAPSHOT_LOCK) {
+            MappingChangeSet pending = changes.pendingFor(snapshot.getMappings());
+            if (pending.isEmpty()) {
+                log.debug("mapping changes already applied: {}", changes);
+                return;
+            }
+            // classes of the changed versions are loaded from the current custom jar
+            jarClassLoader = null;
             try {
-                loadCustomClasses(config.getActions().values());
-            } catch (MalformedURLException e) {
-                log.error("cannot load custom jar ", e);
+                loadInstances(pending);
+            } catch (MappingException e) {
+                log.error("mapping changes rejected: " + pending + ", check custom.jar is the same on each running instance", e);
+                return;
+            }
+            snapshot = snapshot.withMappingChanges(pending);
+            log.info("mapping changes applied: {}", pending);
+        }
+    }
+
+    private static void loadInstances(MappingChangeSet changes) throws MappingException {
+        for (Map.Entry<String, MappingConfig> entry : changes.getPuts().entrySet()) {
+            try {
+                entry.getValue().loadInstances();
+            } catch (MappingException e) {
+                throw new MappingException("cannot load mapping version " + entry.getKey() + ": " + e.getMessage(), e);
             }
         }
     }
 
     /**
      * Reloads all mapping and errors configs.
+     * @return duration in milliseconds of each reload phase
      * @throws MappingException
      */
-    public static void reloadConfigs() throws MappingException {
-        jarClassLoader = null;
-        loadMappingsConfig(true);
-        loadGlobalErrorsConfig(true);
+    public static Map<String, Long> reloadConfigs() throws MappingException {
+        synchronized (SNAPSHOT_LOCK) {
+            jarClassLoader = null;
+        }
+        return reloadConfigs(true, true);
+    }
+
+    /**
+     * Reloads the mapping and/or the global errors configs. Mapping files not changed since the last load are not parsed again.
+     *
+     * @param mappings whether to reload the mapping configs
+     * @param globalErrors whether to reload the global errors
+     * @return duration in milliseconds of each reload phase
+     * @throws MappingException if a config is not valid, the current configs are kept then
+     */
+    public static Map<String, Long> reloadConfigs(boolean mappings, boolean globalErrors) throws MappingException {
+        Map<String, Long> timings = new LinkedHashMap<String, Long>();
+        long start = System.nanoTime();
+        if (mappings) {
+            loadMappingsConfig(true, timings);
+        }
+        if (globalErrors) {
+            long globalErrorsStart = System.nanoTime();
+            loadGlobalErrorsConfig(true);
+            recordTiming(timings, "globalErrors", globalErrorsStart);
+        }
+        recordTiming(timings, "total", start);
+        return timings;
     }
 
     /**
      * Returns all currently loaded mappings.
-     * @return {@link Map} of all current mappings
+     * @return unmodifiable {@link Map} of all current mappings
      */
     public static Map<String, MappingConfig> getLoadedMappings() {
-        return localMappingConfigMap;
+        return snapshot.getMappings();
     }
 
     public static Map<Integer, String> getLoadedGlobalErrors() {
-        return localGlobalErrorsMap;
+        return snapshot.getGlobalErrors();
     }
 
     public static void updateError(Integer status, String message) {
-        localGlobalErrorsMap.put(status, message);
+        synchronized (SNAPSHOT_LOCK) {
+            snapshot = snapshot.withGlobalError(status, message);
+        }
     }
 
     public static void removeError(Integer status) {
-        localGlobalErrorsMap.remove(status);
+        synchronized (SNAPSHOT_LOCK) {
+            snapshot = snapshot.withoutGlobalError(status);
+        }
     }
 
     protected static IMap<Integer, String> getHazelcastErrorsConfig() {
         return HazelcastConfigInstance.instance().getGlobalErrors();
     }
 
+    private static final class ParsedMapping {
+        private final String fileName;
+        private final String version;
+        private final MappingConfig config;
+        private final byte[] content;
+
+        private ParsedMapping(String fileName, String version, MappingConfig config, byte[] content) {
+            this.fileName = fileName;
+            this.version = version;
+            this.config = config;
+            this.content = content;
+        }
+    }
 }
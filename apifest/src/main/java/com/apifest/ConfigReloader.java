@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.api.MappingException;
+
+/**
+ * Runs config reloads on a single background thread, so reloads never run on the I/O threads or in parallel.
+ * If <code>mappings.watch</code> is enabled, the mappings directory and the global errors file are watched
+ * and changed configs are reloaded once no more changes come for <code>mappings.watch.debounce_ms</code>.
+ * An invalid config is logged and the current configs are kept.
+ */
+public final class ConfigReloader {
+
+    private static Logger log = LoggerFactory.getLogger(ConfigReloader.class);
+
+    private static final LongAdder succeeded = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static volatile long lastDurationMillis;
+    private static volatile long lastReloadTime;
+    private static volatile String lastError;
+
+    // package-private for tests
+    static final AtomicBoolean mappingsChanged = new AtomicBoolean();
+    static final AtomicBoolean globalErrorsChanged = new AtomicBoolean();
+
+    private static ScheduledExecutorService executor;
+    private static WatchService watchService;
+    private static ScheduledFuture<?> pendingReload;
+
+    private ConfigReloader() {
+    }
+
+    /**
+     * Starts the reload thread and, if <code>mappings.watch</code> is enabled, the file watcher.
+     */
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("config-reload", true));
+        if (ServerConfig.isMappingsWatch()) {
+            try {
+                startWatching();
+            } catch (IOException e) {
+                log.error("cannot watch config files, they will be reloaded on request only", e);
+            }
+        }
+    }
+
+    public static synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.error("cannot close config files watcher", e);
+            }
+            watchService = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            pendingReload = null;
+        }
+    }
+
+    /**
+     * Runs a task on the reload thread, or on the calling thread if the reloader is not started.
+     */
+    public static void execute(Runnable task) {
+        ScheduledExecutorService exec;
+        synchronized (ConfigReloader.class) {
+            exec = executor;
+        }
+        if (exec != null) {
+            exec.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Reloads the configs and records the outcome in the reload metrics.
+     * When all configs are reloaded, classes from the custom jar are loaded again as well.
+     *
+     * @param mappings whether to reload the mapping configs
+     * @param globalErrors whether to reload the global errors
+     * @return duration in milliseconds of each reload phase
+     * @throws MappingException if a config is not valid, the current configs are kept then
+     */
+    public static Map<String, Long> reload(boolean mappings, boolean globalErrors) throws MappingException {
+        long start = System.nanoTime();
+        try {
+            Map<String, Long> timings = (mappings && globalErrors) ? ConfigLoader.reloadConfigs()
+                    : ConfigLoader.reloadConfigs(mappings, globalErrors);
+            succeeded.increment();
+            lastError = null;
+            return timings;
+        } catch (MappingException | RuntimeException e) {
+            failed.increment();
+            lastError = e.getMessage();
+            throw e;
+        } finally {
+            lastDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            lastReloadTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return counters and the outcome of the last reload
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        synchronized (ConfigReloader.class) {
+            metrics.put("watching", watchService != null);
+        }
+        metrics.put("succeeded", succeeded.sum());
+        metrics.put("failed", failed.sum());
+        metrics.put("lastReloadTime", lastReloadTime);
+        metrics.put("lastDurationMillis", lastDurationMillis);
+        metrics.put("lastError", lastError);
+        return metrics;
+    }
+
+    private static void startWatching() throws IOException {
+        final Path mappingsDir = (ServerConfig.getMappingsPath() != null && !ServerConfig.getMappingsPath().isEmpty())
+                ? Paths.get(ServerConfig.getMappingsPath()).toAbsolutePath() : null;
+        final Path globalErrorsFile = (ServerConfig.getGlobalErrorsFile() != null && !ServerConfig.getGlobalErrorsFile().isEmpty())
+                ? Paths.get(ServerConfig.getGlobalErrorsFile()).toAbsolutePath() : null;
+        if (mappingsDir == null && globalErrorsFile == null) {
+            return;
+        }
+        final WatchService watcher = FileSystems.getDefault().newWatchService();
+        if (mappingsDir != null) {
+            register(watcher, mappingsDir);
+        }
+        if (globalErrorsFile != null && !globalErrorsFile.getParent().equals(mappingsDir)) {
+            register(watcher, globalErrorsFile.getParent());
+        }
+        watchService = watcher;
+        Thread thread = new DefaultThreadFactory("config-watcher", true).newThread(new Runnable() {
+            @Override
+            public void run() {
+                watch(watcher, mappingsDir, globalErrorsFile);
+            }
+        });
+        thread.start();
+        log.info("watching config files, mappings: {}, global errors: {}", mappingsDir, globalErrorsFile);
+    }
+
+    private static void register(WatchService watcher, Path dir) throws IOException {
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    private static void watch(WatchService watcher, Path mappingsDir, Path globalErrorsFile) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                recordChanges((Path) key.watchable(), key.pollEvents(), mappingsDir, globalErrorsFile);
+                key.reset();
+                if (mappingsChanged.get() || globalErrorsChanged.get()) {
+                    scheduleReload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+        log.info("config files watcher stopped");
+    }
+
+    // sets which configs have to be reloaded for the events of a watched directory
+    static void recordChanges(Path dir, List<WatchEvent<?>> events, Path mappingsDir, Path globalErrorsFile) {
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // some events are lost, so reload everything
+                mappingsChanged.set(mappingsDir != null);
+                globalErrorsChanged.set(globalErrorsFile != null);
+                continue;
+            }
+            Path file = dir.resolve((Path) event.context());
+            if (dir.equals(mappingsDir) && file.getFileName().toString().endsWith(".xml")) {
+                mappingsChanged.set(true);
+            }
+            if (file.equals(globalErrorsFile)) {
+                globalErrorsChanged.set(true);
+            }
+        }
+    }
+
+    // each change postpones the reload, so a burst of changes is reloaded once
+    private static synchronized void scheduleReload() {
+        if (executor == null) {
+            return;
+        }
+        if (pendingReload != null) {
+            pendingReload.cancel(false);
+        }
+        pendingReload = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                boolean mappings = mappingsChanged.getAndSet(false);
+                boolean globalErrors = globalErrorsChanged.getAndSet(false);
+                if (!mappings && !globalErrors) {
+                    return;
+                }
+                try {
+                    Map<String, Long> timings = reload(mappings, globalErrors);
+                    log.info("config files changed, reloaded in {} ms, version {}", timings.get("total"),
+                            ConfigLoader.getSnapshot().getVersion());
+                } catch (MappingException | RuntimeException e) {
+                    log.error("config files changed but are not valid, current configs are kept: {}", e.getMessage());
+                }
+            }
+        }, ServerConfig.getMappingsWatchDebounceMs(), TimeUnit.MILLISECONDS);
+    }
+}
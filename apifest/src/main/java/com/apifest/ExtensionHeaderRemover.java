@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+
+/**
+ * Removes the extension headers (stream id, scheme) added when an HTTP/2 stream is converted to HTTP/1.1 messages,
+ * they should not be forwarded to the backend or to the client.
+ */
+@ChannelHandler.Sharable
+final class ExtensionHeaderRemover extends ChannelInboundHandlerAdapter {
+
+    static final ExtensionHeaderRemover INSTANCE = new ExtensionHeaderRemover();
+
+    private ExtensionHeaderRemover() {
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpMessage) {
+            HttpHeaders headers = ((HttpMessage) msg).headers();
+            for (HttpConversionUtil.ExtensionHeaderNames name : HttpConversionUtil.ExtensionHeaderNames.values()) {
+                headers.remove(name.text());
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+}
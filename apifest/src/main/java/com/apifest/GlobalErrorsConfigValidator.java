@@ -76,7 +76,7 @@ public final class GlobalErrorsConfigValidator {
         return ok;
     }
 
-    private static void loadSchema() {
+    private static synchronized void loadSchema() {
         InputStream xsdFile = null;
         try {
             if (schema == null) {
@@ -42,6 +42,7 @@ import com.hazelcast.config.TcpIpConfig;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
 
 /**
  * Responsible for creating Hazelcast node in JVM. Reads the configuration for Hazelcast maps used to store mapping
@@ -58,6 +59,7 @@ public class HazelcastConfigInstance {
 
     private static final String HZ_MAPPINGS_MAP_NAME = "mappings";
     private static final String HZ_ERRORS_MAP_NAME = "errors";
+    private static final String HZ_MAPPING_CHANGES_TOPIC_NAME = "mapping-changes";
     private static final int MAX_POOL_SIZE = 64;
 
     private HazelcastConfigInstance() {
@@ -68,9 +70,10 @@ public class HazelcastConfigInstance {
         cfg.setGroupConfig(new GroupConfig("apifest-map", ServerConfig.getHazelcastPassword()));
         hzInstance = Hazelcast.newHazelcastInstance(cfg);
         log.debug("Hazelcast instance created");
+        // the mappings map keeps the configs for nodes that join later, changes are applied from the topic
         MappingConfigChangeListener listener = new MappingConfigChangeListener();
-        IMap<String, MappingConfig> mappingMap = hzInstance.getMap(HZ_MAPPINGS_MAP_NAME);
-        mappingMap.addEntryListener(listener, true);
+        ITopic<MappingChangeSet> changesTopic = hzInstance.getTopic(HZ_MAPPING_CHANGES_TOPIC_NAME);
+        changesTopic.addMessageListener(listener);
 
         GlobalErrorsConfigChangeListener errorsListener = new GlobalErrorsConfigChangeListener();
         IMap<Integer, String> errorsMap = hzInstance.getMap(HZ_ERRORS_MAP_NAME);
@@ -93,6 +96,10 @@ public class HazelcastConfigInstance {
         return hzInstance.getMap(HZ_MAPPINGS_MAP_NAME);
     }
 
+    public ITopic<MappingChangeSet> getMappingChanges() {
+        return hzInstance.getTopic(HZ_MAPPING_CHANGES_TOPIC_NAME);
+    }
+
     public IMap<Integer, String> getGlobalErrors() {
         return hzInstance.getMap(HZ_ERRORS_MAP_NAME);
     }
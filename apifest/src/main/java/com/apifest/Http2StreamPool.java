@@ -0,0 +1,467 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.codec.http2.Http2MultiplexCodec;
+import io.netty.handler.codec.http2.Http2MultiplexCodecBuilder;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2SettingsFrame;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of HTTP/2 streams to a backend that speaks h2c with prior knowledge. Requests are multiplexed
+ * over a few connections, each request gets its own stream and releasing the stream closes it.
+ * A connection gets at most <code>maxStreams</code> concurrent streams, less if the backend allows less;
+ * flow control is done by the HTTP/2 codec. Requests that find all connections at their stream limit wait
+ * as for a pooled HTTP/1.1 connection - bounded by <code>maxPendingAcquires</code> and the acquire timeout.
+ * <p>
+ * Stream channels carry the same pipeline as HTTP/1.1 connections, so responses are handled by
+ * {@link HttpResponseHandler} and the response listeners do not need to know the protocol.
+ * The pool state is accessed on a single event loop.
+ */
+public final class Http2StreamPool implements ChannelPool {
+
+    private static Logger log = LoggerFactory.getLogger(Http2StreamPool.class);
+
+    private static final int MAX_CONTENT_LEN = 10 * 1024 * 1024;
+    private static final AttributeKey<Connection> connectionKey = AttributeKey.valueOf("h2Connection");
+    private static final AttributeKey<Boolean> settingsReceivedKey = AttributeKey.valueOf("h2SettingsReceived");
+
+    private final Bootstrap bootstrap;
+    private final BackendPool.Settings settings;
+    private final EventExecutor executor;
+
+    // accessed on the executor only
+    private final List<Connection> connections = new ArrayList<Connection>();
+    private final Deque<PendingAcquire> pending = new ArrayDeque<PendingAcquire>();
+    private boolean connecting;
+    private boolean closed;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    /**
+     * @param bootstrap bootstrap with the backend address set
+     */
+    public Http2StreamPool(Bootstrap bootstrap, BackendPool.Settings settings) {
+        this.settings = settings;
+        this.executor = bootstrap.config().group().next();
+        this.bootstrap = bootstrap.clone().handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                initConnection(ch);
+            }
+        });
+    }
+
+    private void initConnection(Channel ch) {
+        ChannelPipeline p = ch.pipeline();
+        // requests sent on the streams of a connection in the same event loop run are flushed together
+        if (ServerConfig.getFlushConsolidationLimit() > 0) {
+            p.addLast(new FlushConsolidationHandler(ServerConfig.getFlushConsolidationLimit(), true));
+        }
+        if (settings.getIdleTimeout() > 0) {
+            p.addLast(new IdleStateHandler(0, 0, settings.getIdleTimeout(), TimeUnit.MILLISECONDS));
+            p.addLast(new IdleConnectionCloser());
+        }
+        p.addLast(Http2MultiplexCodecBuilder.forClient(new PushRejectHandler())
+                .initialSettings(Http2Settings.defaultSettings().pushEnabled(false))
+                .build());
+        p.addLast(new SettingsListener());
+    }
+
+    private static void initStream(Channel ch) {
+        ChannelPipeline p = ch.pipeline();
+        p.addLast(new Http2StreamFrameToHttpObjectCodec(false));
+        p.addLast(ExtensionHeaderRemover.INSTANCE);
+        // responses to streamed requests are not aggregated
+        p.addLast(new SelectiveHttpObjectAggregator.Client(MAX_CONTENT_LEN));
+        p.addLast(new HttpResponseHandler());
+    }
+
+    @Override
+    public Future<Channel> acquire() {
+        return acquire(executor.<Channel>newPromise());
+    }
+
+    /**
+     * Acquires a stream. The returned future fails with {@link IllegalStateException} if too many requests
+     * are waiting and with {@link TimeoutException} if no stream could be opened within the acquire timeout.
+     */
+    @Override
+    public Future<Channel> acquire(final Promise<Channel> promise) {
+        if (executor.inEventLoop()) {
+            doAcquire(promise);
+        } else {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    doAcquire(promise);
+                }
+            });
+        }
+        return promise;
+    }
+
+    private void doAcquire(Promise<Channel> promise) {
+        if (closed) {
+            promise.tryFailure(new IllegalStateException("pool closed"));
+            return;
+        }
+        Connection connection = pickConnection();
+        if (connection != null) {
+            openStream(connection, promise);
+            return;
+        }
+        if (pending.size() >= settings.getMaxPendingAcquires()) {
+            promise.tryFailure(new IllegalStateException("too many outstanding acquire operations"));
+            return;
+        }
+        final PendingAcquire acquire = new PendingAcquire(promise);
+        pending.add(acquire);
+        if (settings.getAcquireTimeout() > 0) {
+            acquire.timeout = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.remove(acquire)) {
+                        acquire.promise.tryFailure(new TimeoutException("acquire timed out"));
+                    }
+                }
+            }, settings.getAcquireTimeout(), TimeUnit.MILLISECONDS);
+        }
+        connectIfNeeded();
+    }
+
+    // the connection with the fewest streams that could open one more
+    private Connection pickConnection() {
+        Connection best = null;
+        for (Connection connection : connections) {
+            if (connection.canOpenStream() && (best == null || connection.streams < best.streams)) {
+                best = connection;
+            }
+        }
+        return best;
+    }
+
+    private void connectIfNeeded() {
+        if (connecting || closed || connections.size() >= settings.getMaxConnections()) {
+            return;
+        }
+        for (Connection connection : connections) {
+            if (connection.isStarting()) {
+                // the waiting requests get its streams once the backend settings are received
+                return;
+            }
+        }
+        connecting = true;
+        bootstrap.connect().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(final ChannelFuture future) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        connected(future);
+                    }
+                });
+            }
+        });
+    }
+
+    private void connected(ChannelFuture future) {
+        connecting = false;
+        if (!future.isSuccess()) {
+            log.error("cannot connect to {}: {}", bootstrap.config().remoteAddress(), future.cause().toString());
+            if (connections.isEmpty()) {
+                // no connection the waiting requests could get a stream on
+                failPending(future.cause());
+            }
+            return;
+        }
+        final Connection connection = new Connection(future.channel());
+        if (closed) {
+            connection.channel.close();
+            return;
+        }
+        connection.channel.attr(connectionKey).set(connection);
+        // the preface is written when the connection becomes active but is not flushed until the first request,
+        // flush it so that the backend sends its settings
+        connection.channel.flush();
+        connections.add(connection);
+        openConnections.incrementAndGet();
+        connection.channel.closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture closeFuture) {
+                openConnections.decrementAndGet();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        connections.remove(connection);
+                        drainPending();
+                    }
+                });
+            }
+        });
+        drainPending();
+    }
+
+    private void openStream(final Connection connection, final Promise<Channel> promise) {
+        connection.streams++;
+        activeStreams.incrementAndGet();
+        new Http2StreamChannelBootstrap(connection.channel).handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                initStream(ch);
+            }
+        }).open().addListener(new FutureListener<Http2StreamChannel>() {
+            @Override
+            public void operationComplete(Future<Http2StreamChannel> future) {
+                if (!future.isSuccess()) {
+                    streamClosed(connection);
+                    promise.tryFailure(future.cause());
+                    return;
+                }
+                Http2StreamChannel stream = future.getNow();
+                stream.closeFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture closeFuture) {
+                        streamClosed(connection);
+                    }
+                });
+                if (!promise.trySuccess(stream)) {
+                    stream.close();
+                }
+            }
+        });
+    }
+
+    private void streamClosed(final Connection connection) {
+        if (!executor.inEventLoop()) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    streamClosed(connection);
+                }
+            });
+            return;
+        }
+        connection.streams--;
+        activeStreams.decrementAndGet();
+        if (closed && connection.streams == 0) {
+            connection.channel.close();
+        }
+        drainPending();
+    }
+
+    private void drainPending() {
+        while (!pending.isEmpty()) {
+            Connection connection = pickConnection();
+            if (connection == null) {
+                break;
+            }
+            PendingAcquire acquire = pending.poll();
+            if (acquire.timeout != null) {
+                acquire.timeout.cancel(false);
+            }
+            openStream(connection, acquire.promise);
+        }
+        if (!pending.isEmpty()) {
+            connectIfNeeded();
+        }
+    }
+
+    private void failPending(Throwable cause) {
+        PendingAcquire acquire = pending.poll();
+        while (acquire != null) {
+            if (acquire.timeout != null) {
+                acquire.timeout.cancel(false);
+            }
+            acquire.promise.tryFailure(cause);
+            acquire = pending.poll();
+        }
+    }
+
+    /**
+     * Releases a stream - a stream is used for a single request, so it is closed.
+     */
+    @Override
+    public Future<Void> release(Channel channel) {
+        return release(channel, channel.eventLoop().<Void>newPromise());
+    }
+
+    @Override
+    public Future<Void> release(Channel channel, Promise<Void> promise) {
+        channel.close();
+        return promise.setSuccess(null);
+    }
+
+    /**
+     * Closes the pool. Connections with streams in use are closed when their last stream is released.
+     */
+    @Override
+    public void close() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closed = true;
+                failPending(new IllegalStateException("pool closed"));
+                for (Connection connection : new ArrayList<Connection>(connections)) {
+                    if (connection.streams == 0) {
+                        connection.channel.close();
+                    }
+                }
+            }
+        });
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+
+    /**
+     * Connection to the backend with its streams in use.
+     */
+    private final class Connection {
+
+        private final Channel channel;
+        private final Http2MultiplexCodec codec;
+        // changed on the executor only
+        private volatile int streams;
+
+        private Connection(Channel channel) {
+            this.channel = channel;
+            this.codec = channel.pipeline().get(Http2MultiplexCodec.class);
+        }
+
+        private boolean isStarting() {
+            return channel.isActive() && channel.attr(settingsReceivedKey).get() == null;
+        }
+
+        private boolean canOpenStream() {
+            // the backend stream limit is not known before its settings are received
+            if (!channel.isActive() || channel.attr(settingsReceivedKey).get() == null) {
+                return false;
+            }
+            int limit = Math.min(settings.getMaxStreams(), codec.connection().local().maxActiveStreams());
+            return streams < limit;
+        }
+    }
+
+    private static final class PendingAcquire {
+
+        private final Promise<Channel> promise;
+        private ScheduledFuture<?> timeout;
+
+        private PendingAcquire(Promise<Channel> promise) {
+            this.promise = promise;
+        }
+    }
+
+    /**
+     * Lets the requests waiting for a stream use a connection once the backend settings are received.
+     */
+    private final class SettingsListener extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof Http2SettingsFrame && ctx.channel().attr(settingsReceivedKey).setIfAbsent(Boolean.TRUE) == null) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drainPending();
+                    }
+                });
+            }
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            // connection errors close the connection in the codec, stream errors are reported to the stream
+            log.debug("HTTP/2 connection to {}: {}", ctx.channel().remoteAddress(), cause.toString());
+        }
+    }
+
+    /**
+     * Closes a connection that has no streams for the idle timeout.
+     */
+    private static final class IdleConnectionCloser extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.ALL_IDLE) {
+                Connection connection = ctx.channel().attr(connectionKey).get();
+                if (connection == null || connection.streams == 0) {
+                    log.debug("closing idle connection to {}", ctx.channel().remoteAddress());
+                    ctx.close();
+                    return;
+                }
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    /**
+     * Closes streams pushed by the backend, push is disabled in the client settings anyway.
+     */
+    @ChannelHandler.Sharable
+    private static final class PushRejectHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+            ctx.close();
+        }
+    }
+}
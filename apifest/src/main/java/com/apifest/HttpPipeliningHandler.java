@@ -0,0 +1,297 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Handles pipelined HTTP/1.1 requests of a client connection at the same time and sends their responses
+ * in the order of the requests. Each request gets a sequence number, a response of a request that is not
+ * the oldest unanswered one is held until the responses before it are written.
+ * <p>
+ * Responses written while the request is read are matched to it. Responses written later, e.g. when the backend
+ * responds, should be wrapped with {@link #inOrder(int, Object)} with the sequence number got from
+ * {@link #currentSequence(Channel)} while the request was read.
+ * <p>
+ * At most <code>http.pipelining.max_requests</code> requests are handled at the same time, the connection is not read
+ * while more are waiting. A streamed request is handled alone, as its body is forwarded while it is read.
+ * <p>
+ * All methods are called on the channel event loop.
+ */
+class HttpPipeliningHandler extends ChannelDuplexHandler {
+
+    private final int maxRequests;
+
+    private int readSequence;
+    private int writeSequence;
+    // sequence of the request that is read at the moment, -1 if none
+    private int current = -1;
+    // sequence of the streamed request that is handled, -1 if none
+    private int streaming = -1;
+
+    // responses waiting for the responses of the requests before them
+    private final Map<Integer, Queue<PendingWrite>> pending = new HashMap<Integer, Queue<PendingWrite>>();
+    // requests (and the chunks of streamed ones) read while no more requests could be handled
+    private final Queue<Object> waiting = new ArrayDeque<Object>();
+    private boolean readSuppressed;
+
+    HttpPipeliningHandler(int maxRequests) {
+        this.maxRequests = maxRequests;
+    }
+
+    /**
+     * Returns the sequence number of the request that is read on a channel at the moment, a response written
+     * after the request is read should be wrapped with it.
+     *
+     * @return sequence number, -1 if the channel does not pipeline requests
+     */
+    static int currentSequence(Channel channel) {
+        HttpPipeliningHandler handler = channel.pipeline().get(HttpPipeliningHandler.class);
+        return (handler != null) ? handler.current : -1;
+    }
+
+    /**
+     * Marks a response (or a part of it) as the response of the request with the given sequence number.
+     */
+    static Object inOrder(int sequence, Object msg) {
+        return (sequence < 0) ? msg : new SequencedMessage(sequence, msg);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!waiting.isEmpty() || (msg instanceof HttpRequest && !canStart((HttpRequest) msg))) {
+            waiting.add(msg);
+            return;
+        }
+        handle(ctx, msg);
+    }
+
+    @Override
+    public void read(ChannelHandlerContext ctx) throws Exception {
+        if (isFull()) {
+            readSuppressed = true;
+            return;
+        }
+        ctx.read();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        int sequence;
+        if (msg instanceof SequencedMessage) {
+            sequence = ((SequencedMessage) msg).sequence;
+            msg = ((SequencedMessage) msg).msg;
+        } else if (current >= 0) {
+            sequence = current;
+        } else if (writeSequence < readSequence) {
+            // the only request handled, e.g. a streamed one
+            sequence = writeSequence;
+        } else {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (sequence > writeSequence) {
+            Queue<PendingWrite> writes = pending.get(sequence);
+            if (writes == null) {
+                writes = new ArrayDeque<PendingWrite>();
+                pending.put(sequence, writes);
+            }
+            writes.add(new PendingWrite(msg, promise));
+            return;
+        }
+        ctx.write(msg, promise);
+        if (sequence == writeSequence && msg instanceof LastHttpContent) {
+            responseCompleted(ctx);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        discard();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        discard();
+    }
+
+    private boolean canStart(HttpRequest request) {
+        int handled = readSequence - writeSequence;
+        if (streaming >= 0) {
+            return false;
+        }
+        if (!(request instanceof FullHttpRequest)) {
+            return handled == 0;
+        }
+        return handled < maxRequests;
+    }
+
+    // the chunks of a streamed request are read while it is handled
+    private boolean isFull() {
+        return !waiting.isEmpty() || (streaming < 0 && readSequence - writeSequence >= maxRequests);
+    }
+
+    private void handle(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof HttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        current = readSequence++;
+        if (!(msg instanceof FullHttpRequest)) {
+            streaming = current;
+        }
+        try {
+            ctx.fireChannelRead(msg);
+        } finally {
+            current = -1;
+        }
+    }
+
+    private void responseCompleted(ChannelHandlerContext ctx) {
+        if (streaming == writeSequence) {
+            streaming = -1;
+        }
+        writeSequence++;
+        boolean written = false;
+        Queue<PendingWrite> writes = pending.remove(writeSequence);
+        while (writes != null) {
+            boolean completed = false;
+            for (PendingWrite write : writes) {
+                ctx.write(write.msg, write.promise);
+                completed = write.msg instanceof LastHttpContent;
+            }
+            written = true;
+            if (!completed) {
+                // the rest of the response is written as it comes
+                break;
+            }
+            writeSequence++;
+            writes = pending.remove(writeSequence);
+        }
+        if (written) {
+            ctx.flush();
+        }
+        while (!waiting.isEmpty()) {
+            Object msg = waiting.peek();
+            if (msg instanceof HttpRequest && !canStart((HttpRequest) msg)) {
+                break;
+            }
+            handle(ctx, waiting.poll());
+        }
+        if (readSuppressed && !isFull()) {
+            readSuppressed = false;
+            if (ctx.channel().config().isAutoRead()) {
+                ctx.read();
+            }
+        }
+    }
+
+    private void discard() {
+        for (Queue<PendingWrite> writes : pending.values()) {
+            for (PendingWrite write : writes) {
+                ReferenceCountUtil.release(write.msg);
+                write.promise.tryFailure(new ClosedChannelException());
+            }
+        }
+        pending.clear();
+        Object msg = waiting.poll();
+        while (msg != null) {
+            ReferenceCountUtil.release(msg);
+            msg = waiting.poll();
+        }
+    }
+
+    private static final class PendingWrite {
+
+        private final Object msg;
+        private final ChannelPromise promise;
+
+        PendingWrite(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+
+    /**
+     * Response (or a part of it) with the sequence number of its request. Releasing it releases the response,
+     * so it is not leaked if it is not written.
+     */
+    static final class SequencedMessage implements ReferenceCounted {
+
+        private final int sequence;
+        private final Object msg;
+
+        SequencedMessage(int sequence, Object msg) {
+            this.sequence = sequence;
+            this.msg = msg;
+        }
+
+        @Override
+        public int refCnt() {
+            return (msg instanceof ReferenceCounted) ? ((ReferenceCounted) msg).refCnt() : 1;
+        }
+
+        @Override
+        public ReferenceCounted retain() {
+            ReferenceCountUtil.retain(msg);
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted retain(int increment) {
+            ReferenceCountUtil.retain(msg, increment);
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch() {
+            ReferenceCountUtil.touch(msg);
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            ReferenceCountUtil.touch(msg, hint);
+            return this;
+        }
+
+        @Override
+        public boolean release() {
+            return ReferenceCountUtil.release(msg);
+        }
+
+        @Override
+        public boolean release(int decrement) {
+            return ReferenceCountUtil.release(msg, decrement);
+        }
+    }
+}
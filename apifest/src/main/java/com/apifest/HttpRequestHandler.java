@@ -19,11 +19,11 @@ package com.apifest;
 import com.apifest.api.AccessToken;
 import com.apifest.api.BasicAction;
 import com.apifest.api.BasicFilter;
-import com.apifest.api.ExceptionEventHandler;
-import com.apifest.api.LifecycleHandler;
+import com.apifest.api.Mapping.Backend;
 import com.apifest.api.MappingEndpoint;
 import com.apifest.api.MappingException;
 import com.apifest.api.UpstreamException;
+import com.apifest.cache.ResponseCache;
 import com.apifest.oauth20.AccessTokenValidator;
 import com.apifest.oauth20.ApplicationInfo;
 import com.apifest.oauth20.AuthorizationServer;
@@ -35,6 +35,13 @@ import com.apifest.oauth20.ScopeService;
 import com.apifest.oauth20.persistence.DBManagerFactory;
 import com.apifest.ratelimit.AccessTokenCounter;
 import com.apifest.ratelimit.RateLimitChecker;
+import com.apifest.routing.RouteCache;
+import com.apifest.routing.RouteMatch;
+import com.apifest.upstream.CircuitBreaker;
+import com.apifest.upstream.ConcurrencyLimiter;
+import com.apifest.upstream.LatencyTracker;
+import com.apifest.upstream.UpstreamGroup;
+import com.google.common.cache.CacheStats;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import io.netty.buffer.ByteBuf;
@@ -59,8 +66,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -75,6 +84,8 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
     public static final String RELOAD_URI = "/apifest-reload";
     public static final String MAPPINGS_URI = "/apifest-mappings";
     public static final String GLOBAL_ERRORS_URI = "/apifest-global-errors";
+    public static final String METRICS_URI = "/apifest-metrics";
+    public static final String MAPPINGS_VERSION_HEADER = "X-Apifest-Mappings-Version";
 
     public static final String ACCESS_TOKEN_REQUIRED = "{\"error\":\"access token required\"}";
     public static final String INVALID_ACCESS_TOKEN_SCOPE = "{\"error\":\"access token scope not valid\"}";
@@ -106,13 +117,25 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
 
         setConnectTimeout(channel);
         Object message = e;
+        if (message instanceof HttpContent && !(message instanceof HttpRequest)) {
+            // chunk of a streamed request body
+            streamContent(channel, (HttpContent) message);
+            return;
+        }
+        boolean streaming = false;
+        if (message instanceof HttpRequest && !(message instanceof FullHttpRequest)) {
+            // head of a streamed request, its body follows in chunks
+            channel.attr(HttpResponseHandler.exchangeAttachmentKey).set(null);
+            message = toHeadOnlyRequest((HttpRequest) message);
+            streaming = true;
+        }
         if (message instanceof FullHttpRequest) {
             FullHttpRequest req = (FullHttpRequest) message;
             LifecycleEventHandlers.invokeRequestEventHandlers(req, null);
             String rawUri = req.getUri();
             String uriPath = null;
             try {
-                uriPath = new URI(rawUri).getRawPath();
+                uriPath = getRawPath(rawUri);
             } catch (URISyntaxException e1) {
                 writeResponseToChannel(channel, req, HttpResponseFactory.createISEResponse());
                 return;
@@ -133,6 +156,11 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
                 return;
             }
 
+            if (METRICS_URI.equals(rawUri) && method.equals(HttpMethod.GET)) {
+                getMetrics(channel);
+                return;
+            }
+
             FullHttpResponse response = null;
 
             if (APPLICATION_URI.equals(uriPath) && method.equals(HttpMethod.POST)) {
@@ -177,17 +205,10 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
             }
 
 
-            List<MappingConfig> configList = ConfigLoader.getConfig();
-            MappingEndpoint mapping = null;
-            MappingConfig config = null;
-            for (MappingConfig mconfig : configList) {
-                mapping = mconfig.getMappingEndpoint(rawUri, method.toString());
-                if (mapping != null) {
-                    config = mconfig;
-                    break;
-                }
-            }
-            if (mapping != null) {
+            RouteMatch route = ConfigLoader.getRoute(method.toString(), uriPath);
+            if (route != null) {
+                MappingEndpoint mapping = route.getEndpoint();
+                MappingConfig config = route.getConfig();
                 if (mapping.getAuthType() != null) {
                     String accessToken = null;
                     List<String> authorizationHeaders = req.headers().getAll(HttpHeaderNames.AUTHORIZATION);
@@ -203,7 +224,7 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
                         return;
                     }
 
-                    BasicFilter filter;
+                    InstanceProvider<BasicFilter> filter;
                     try {
                         filter = getMappingFilter(mapping, config, channel);
                     } catch (MappingException e2) {
@@ -213,11 +234,10 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
                         return;
                     }
 
-                    final ResponseListener responseListener = createResponseListener(filter, config.getErrors(), channel, req);
-
                     final FullHttpRequest request = req;
                     final MappingEndpoint endpoint = mapping;
                     final MappingConfig conf = config;
+                    final String internalUri = route.getInternalUri();
 
                     AccessToken validToken = auth.isValidToken(accessToken);
                     if (validToken == null || validToken != null && !validToken.isValid()) {
@@ -242,23 +262,34 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
                     String userId = validToken.getUserId();
                     if ((MappingEndpoint.AUTH_TYPE_USER.equals(endpoint.getAuthType()) && (userId != null && userId.length() > 0)) ||
                             MappingEndpoint.AUTH_TYPE_CLIENT_APP.equals(endpoint.getAuthType())) {
+                        ResponseListener responseListener = createResponseListener(filter, conf.getErrors(), channel, request);
                         try {
-                            FullHttpRequest mappedReq = mapRequest(request, endpoint, conf, validToken);
+                            // responses are cached per client or user, so the token is validated before the lookup
+                            ResponseListener listener = streaming ? responseListener
+                                    : CachingResponseListener.lookup(request, endpoint, validToken, responseListener);
+                            if (listener == null) {
+                                return;
+                            }
+                            FullHttpRequest mappedReq = mapRequest(request, endpoint, internalUri, conf, validToken);
                             if (mappedReq == null) {
                                 throw new UpstreamException(HttpResponseFactory.createISEResponse());
                             }
-                            MappingServer.client.send(mappedReq, endpoint.getBackendHost(), Integer.valueOf(endpoint.getBackendPort()), responseListener);
+                            forward(channel, mappedReq, endpoint, conf, listener, streaming);
                         } catch (MappingException mappingException) {
                             log.error("cannot map request", mappingException);
                             LifecycleEventHandlers.invokeExceptionHandler(mappingException, request);
 
+                            responseListener.discarded();
                             writeResponseToChannel(channel, request, HttpResponseFactory.createISEResponse());
                             return;
                         } catch (UpstreamException ue) {
+                            responseListener.discarded();
                             writeResponseToChannel(channel, request, ue.getResponse());
                             return;
                         } catch (Exception ge) {  // Not nice but ensures we ALWAYS respond to the client
-                            writeResponseToChannel(channel, request, HttpResponseFactory.createISEResponse());
+                            log.error("cannot forward request", ge);
+                            responseListener.discarded();
+                            writeForwardError(channel, request, streaming);
                             return;
                         }
                     } else {
@@ -267,23 +298,38 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
                     }
 
                 } else {
+                    ResponseListener responseListener = null;
                     try {
-                        BasicFilter filter = getMappingFilter(mapping, config, channel);
-                        ResponseListener responseListener = createResponseListener(filter, config.getErrors(), channel, req);
-
+                        InstanceProvider<BasicFilter> filter = getMappingFilter(mapping, config, channel);
+                        responseListener = createResponseListener(filter, config.getErrors(), channel, req);
+                        ResponseListener listener = streaming ? responseListener
+                                : CachingResponseListener.lookup(req, mapping, null, responseListener);
+                        if (listener == null) {
+                            return;
+                        }
 
-                        FullHttpRequest mappedReq = mapRequest(req, mapping, config, null);
-                        MappingServer.client.send(mappedReq, mapping.getBackendHost(), Integer.valueOf(mapping.getBackendPort()), responseListener);
+                        FullHttpRequest mappedReq = mapRequest(req, mapping, route.getInternalUri(), config, null);
+                        if (mappedReq == null) {
+                            throw new UpstreamException(HttpResponseFactory.createISEResponse());
+                        }
+                        forward(channel, mappedReq, mapping, config, listener, streaming);
                     } catch (MappingException e2) {
                         log.error("cannot map request", e2);
                         LifecycleEventHandlers.invokeExceptionHandler(e2, req);
 
+                        discard(responseListener);
                         writeResponseToChannel(channel, req, HttpResponseFactory.createISEResponse());
                         return;
                     } catch (UpstreamException ue) {
                         LifecycleEventHandlers.invokeResponseEventHandlers(req, ue.getResponse());
+                        discard(responseListener);
                         writeResponseToChannel(channel, req, ue.getResponse());
                         return;
+                    } catch (Exception ge) {  // e.g. a failing action, the client still gets a response
+                        log.error("cannot forward request", ge);
+                        discard(responseListener);
+                        writeForwardError(channel, req, streaming);
+                        return;
                     }
                 }
             } else {
@@ -385,42 +431,15 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
     }
 
     public void invokeRequestEventHandlers(FullHttpRequest request, FullHttpResponse response) {
-        invokeHandlers(request, response, com.apifest.oauth20.LifecycleEventHandlers.getRequestEventHandlers());
+        com.apifest.oauth20.LifecycleEventHandlers.getDispatcher().invokeRequestHandlers(request, response);
     }
 
     public void invokeResponseEventHandlers(FullHttpRequest request, FullHttpResponse response) {
-        invokeHandlers(request, response, com.apifest.oauth20.LifecycleEventHandlers.getResponseEventHandlers());
+        com.apifest.oauth20.LifecycleEventHandlers.getDispatcher().invokeResponseHandlers(request, response);
     }
 
     public void invokeExceptionHandler(Exception ex, HttpRequest request) {
-        List<Class<ExceptionEventHandler>> handlers = com.apifest.oauth20.LifecycleEventHandlers.getExceptionHandlers();
-        for (int i = 0; i < handlers.size(); i++) {
-            try {
-                ExceptionEventHandler handler = handlers.get(i).newInstance();
-                handler.handleException(ex, request);
-            } catch (InstantiationException e) {
-                log.error("cannot instantiate exception handler", e);
-                invokeExceptionHandler(e, request);
-            } catch (IllegalAccessException e) {
-                log.error("cannot invoke exception handler", e);
-                invokeExceptionHandler(ex, request);
-            }
-        }
-    }
-
-    public void invokeHandlers(FullHttpRequest request, FullHttpResponse response, List<Class<LifecycleHandler>> handlers) {
-        for (int i = 0; i < handlers.size(); i++) {
-            try {
-                LifecycleHandler handler = handlers.get(i).newInstance();
-                handler.handle(request, response);
-            } catch (InstantiationException e) {
-                log.error("cannot instantiate handler", e);
-                invokeExceptionHandler(e, request);
-            } catch (IllegalAccessException e) {
-                log.error("cannot invoke handler", e);
-                invokeExceptionHandler(e, request);
-            }
-        }
+        com.apifest.oauth20.LifecycleEventHandlers.getDispatcher().invokeExceptionHandlers(ex, request);
     }
 
     public FullHttpResponse handleAuthorize(HttpRequest req) {
@@ -679,31 +698,189 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
         return response;
     }
 
-    public ResponseListener createResponseListener(BasicFilter filter, Map<String, String> errors, final Channel channel, final FullHttpRequest request) {
+    public ResponseListener createResponseListener(InstanceProvider<BasicFilter> filter, Map<String, String> errors, final Channel channel, final FullHttpRequest request) {
+        // the response is sent in the order of the request among the pipelined ones
+        final int sequence = HttpPipeliningHandler.currentSequence(channel);
+        // the request is released when written to the backend, the response handlers get a reference taken now
+        final AtomicReference<FullHttpRequest> handlerRequest = new AtomicReference<FullHttpRequest>(
+                LifecycleEventHandlers.retainForResponseHandlers(request));
         return new ResponseListener(filter, errors) {
             @Override
             public void responseReceived(FullHttpMessage response, Channel clientChannel) {
                 HttpMessage newResponse = response;
                 if (response instanceof FullHttpResponse) {
-                    if (getFilter() != null) {
-                        newResponse = getFilter().execute((FullHttpResponse) response);
+                    BasicFilter filter = getFilter();
+                    if (filter != null) {
+                        try {
+                            newResponse = filter.execute((FullHttpResponse) response);
+                        } catch (RuntimeException e) {
+                            // the client still gets a response, so the pipelined responses after it are not held up
+                            log.error("response filter failed", e);
+                            if (response.refCnt() > 0) {
+                                response.release();
+                            }
+                            newResponse = HttpResponseFactory.createISEResponse();
+                        }
                     }
                 }
-                LifecycleEventHandlers.invokeResponseEventHandlers(request, (FullHttpResponse) newResponse);
-                ChannelFuture future = channel.writeAndFlush(newResponse);
-                clientChannel.attr(HttpResponseHandler.poolAttachmentKey).get().release(clientChannel);
+                FullHttpRequest retained = handlerRequest.getAndSet(null);
+                if (retained != null) {
+                    try {
+                        LifecycleEventHandlers.invokeResponseEventHandlers(retained, (FullHttpResponse) newResponse);
+                    } finally {
+                        retained.release();
+                    }
+                }
+                ChannelFuture future = channel.writeAndFlush(HttpPipeliningHandler.inOrder(sequence, newResponse));
+                // no backend channel if a connection could not be acquired
+                if (clientChannel != null) {
+                    clientChannel.attr(HttpResponseHandler.poolAttachmentKey).get().release(clientChannel);
+                }
                 if (!HttpUtil.isKeepAlive(request)) {
                     future.addListener(ChannelFutureListener.CLOSE);
                 }
             }
+
+            @Override
+            void discarded() {
+                FullHttpRequest retained = handlerRequest.getAndSet(null);
+                if (retained != null) {
+                    retained.release();
+                }
+            }
         };
     }
 
-    public FullHttpRequest mapRequest(FullHttpRequest request, MappingEndpoint mapping, MappingConfig config, AccessToken validToken)
+    private static void discard(ResponseListener responseListener) {
+        // null if the filter of the mapping could not be loaded
+        if (responseListener != null) {
+            responseListener.discarded();
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        StreamingExchange exchange = ctx.channel().attr(HttpResponseHandler.exchangeAttachmentKey).get();
+        if (exchange != null) {
+            exchange.inboundWritabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        // the request that failed got no response, so the pipelined responses after it could not be sent either
+        log.error("request handler error, closing connection", cause);
+        ctx.close();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        StreamingExchange exchange = ctx.channel().attr(HttpResponseHandler.exchangeAttachmentKey).get();
+        if (exchange != null) {
+            exchange.inboundInactive();
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Sends a mapped request to the backend of the endpoint or to a member of its upstream group.
+     * For a streamed request only its head is sent, the body chunks are forwarded as they arrive.
+     * A request of an endpoint with a retry policy is sent again if it fails, streamed requests are never retried.
+     * A request of a coalescing endpoint waits for the response of an identical request that is already sent, if any.
+     * A request of an endpoint with a concurrency limit gets 503 at once if the limit is reached.
+     */
+    public void forward(Channel channel, FullHttpRequest mappedReq, MappingEndpoint mapping, MappingConfig config,
+            ResponseListener responseListener, boolean streaming) throws MappingException {
+        UpstreamGroup group = null;
+        if (mapping.getUpstream() != null) {
+            group = config.getUpstreamGroup(mapping.getUpstream());
+            if (group == null) {
+                throw new MappingException("upstream " + mapping.getUpstream() + " is not defined");
+            }
+        }
+        int backendPort = Integer.valueOf(mapping.getBackendPort());
+        Backend backend = (group == null) ? config.getBackend(mapping.getBackendHost(), backendPort) : null;
+        if (streaming) {
+            send(channel, mappedReq, mapping, group, backendPort, backend, responseListener, true);
+            return;
+        }
+        ResponseListener flight = RequestCoalescer.join(mappedReq, mapping, responseListener);
+        if (flight == null) {
+            // waits for the response of an identical request, the request itself is not written, so it is released here
+            mappedReq.release();
+            return;
+        }
+        try {
+            send(channel, mappedReq, mapping, group, backendPort, backend, flight, false);
+        } catch (RuntimeException e) {
+            // the identical requests waiting for this one get the error response too
+            if (!RequestCoalescer.abort(flight, HttpResponseFactory.createISEResponse())) {
+                throw e;
+            }
+            log.error("cannot forward request", e);
+        }
+    }
+
+    private void send(Channel channel, FullHttpRequest mappedReq, MappingEndpoint mapping, UpstreamGroup group, int backendPort,
+            Backend backend, ResponseListener responseListener, boolean streaming) {
+        if (!streaming) {
+            responseListener = MappingServer.client.limit(mapping, responseListener);
+            if (responseListener == null) {
+                // rejected, the endpoint has too many requests in flight
+                mappedReq.release();
+                return;
+            }
+        }
+        if (streaming) {
+            // a full message would end the request, so only its head is sent
+            HttpRequest head = new DefaultHttpRequest(mappedReq.protocolVersion(), mappedReq.method(), mappedReq.uri());
+            head.headers().set(mappedReq.headers());
+            StreamingExchange exchange = new StreamingExchange(channel, head, HttpUtil.isKeepAlive(mappedReq));
+            channel.attr(HttpResponseHandler.exchangeAttachmentKey).set(exchange);
+            if (group != null) {
+                MappingServer.client.stream(exchange, group, RequestTimeout.of(mapping, null, mappedReq));
+            } else {
+                MappingServer.client.stream(exchange, mapping.getBackendHost(), backendPort, backend,
+                        RequestTimeout.of(mapping, backend, mappedReq));
+            }
+        } else if (mapping.getRetry() != null) {
+            new RetryingRequest(MappingServer.client, mappedReq, group, mapping.getBackendHost(), backendPort, backend,
+                    mapping.getRetry(), RequestTimeout.of(mapping, backend, mappedReq), LatencyTracker.of(mapping.getUniqueKey()),
+                    responseListener).start();
+        } else if (group != null) {
+            MappingServer.client.send(mappedReq, group, RequestTimeout.of(mapping, null, mappedReq), responseListener);
+        } else {
+            MappingServer.client.send(mappedReq, mapping.getBackendHost(), backendPort, backend,
+                    RequestTimeout.of(mapping, backend, mappedReq), responseListener);
+        }
+    }
+
+    protected void streamContent(Channel channel, HttpContent content) {
+        StreamingExchange exchange = channel.attr(HttpResponseHandler.exchangeAttachmentKey).get();
+        if (exchange != null) {
+            exchange.inboundContent(content);
+        } else {
+            // the request was answered without reaching the backend, e.g. not authorized
+            content.release();
+        }
+    }
+
+    /**
+     * Creates a full request with the head of a streamed request and no content,
+     * so it could be authorized and mapped as any other request.
+     */
+    protected static FullHttpRequest toHeadOnlyRequest(HttpRequest request) {
+        FullHttpRequest req = new DefaultFullHttpRequest(request.protocolVersion(), request.method(), request.uri(), Unpooled.EMPTY_BUFFER);
+        req.headers().set(request.headers());
+        return req;
+    }
+
+    public FullHttpRequest mapRequest(FullHttpRequest request, MappingEndpoint mapping, String internalUri, MappingConfig config, AccessToken validToken)
             throws MappingException, UpstreamException {
         BaseMapper mapper = new BaseMapper();
         request.headers().set(HttpHeaderNames.HOST, mapping.getBackendHost());
-        FullHttpRequest req = mapper.map(request, mapping.getInternalEndpoint());
+        FullHttpRequest req = mapper.map(request, internalUri);
         if (mapping.getAction() != null) {
             BasicAction action = config.getAction(mapping.getAction());
             req = action.execute(req, validToken, mapping);
@@ -711,14 +888,23 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
         return req;
     }
 
-    public BasicFilter getMappingFilter(MappingEndpoint mapping, MappingConfig config, final Channel channel) throws MappingException {
-        BasicFilter filter = null;
+    public InstanceProvider<BasicFilter> getMappingFilter(MappingEndpoint mapping, MappingConfig config, final Channel channel) throws MappingException {
+        InstanceProvider<BasicFilter> filter = null;
         if (mapping.getFilter() != null) {
-            filter = config.getFilter(mapping.getFilter());
+            filter = config.getFilterProvider(mapping.getFilter());
         }
         return filter;
     }
 
+    // a streamed request that could not be forwarded is answered at once, the rest of its body is dropped in streamContent
+    private void writeForwardError(Channel channel, FullHttpRequest request, boolean streaming) {
+        if (streaming) {
+            channel.attr(HttpResponseHandler.exchangeAttachmentKey).set(null);
+            channel.config().setAutoRead(true);
+        }
+        writeResponseToChannel(channel, request, HttpResponseFactory.createISEResponse());
+    }
+
     public void writeResponseToChannel(Channel channel, FullHttpRequest request, FullHttpResponse response) {
         LifecycleEventHandlers.invokeResponseEventHandlers(request, response);
         ChannelFuture future = channel.writeAndFlush(response);
@@ -733,26 +919,41 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
     }
 
     public void reloadMappingConfig(final Channel channel) {
-        FullHttpResponse response = null;
-        try {
-            ConfigLoader.reloadConfigs();
-            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        } catch (MappingException e) {
-            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST);
-            ByteBuf content = Unpooled.copiedBuffer(e.getMessage().getBytes(CharsetUtil.UTF_8));
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
-            response.replace(content);
-        }
-        ChannelFuture future = channel.writeAndFlush(response);
-        future.addListener(ChannelFutureListener.CLOSE);
+        final int sequence = HttpPipeliningHandler.currentSequence(channel);
+        // the reload reads and parses files, so it runs on the reload thread instead of the I/O thread
+        ConfigReloader.execute(new Runnable() {
+            @Override
+            public void run() {
+                FullHttpResponse response = null;
+                try {
+                    Map<String, Long> timings = ConfigReloader.reload(true, true);
+                    Map<String, Object> result = new LinkedHashMap<String, Object>();
+                    result.put("mappingsVersion", ConfigLoader.getSnapshot().getVersion());
+                    result.put("timings", timings);
+                    String jsonObj = new Gson().toJson(result);
+                    response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer(jsonObj.getBytes(CharsetUtil.UTF_8)));
+                    response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
+                } catch (MappingException e) {
+                    response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST);
+                    ByteBuf content = Unpooled.copiedBuffer(e.getMessage().getBytes(CharsetUtil.UTF_8));
+                    response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
+                    response.replace(content);
+                }
+                ChannelFuture future = channel.writeAndFlush(HttpPipeliningHandler.inOrder(sequence, response));
+                future.addListener(ChannelFutureListener.CLOSE);
+            }
+        });
     }
 
     public void getLoadedMappings(Channel channel) {
-        Map<String, MappingConfig> mappings = ConfigLoader.getLoadedMappings();
+        // mappings and version are read from the same snapshot
+        RoutingSnapshot snapshot = ConfigLoader.getSnapshot();
+        Map<String, MappingConfig> mappings = snapshot.getMappings();
         Gson gson = new Gson();
         String jsonObj = gson.toJson(mappings);
         FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer(jsonObj.getBytes(CharsetUtil.UTF_8)));
         response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+        response.headers().set(MAPPINGS_VERSION_HEADER, snapshot.getVersion());
         ChannelFuture future = channel.writeAndFlush(response);
         future.addListener(ChannelFutureListener.CLOSE);
     }
@@ -767,4 +968,56 @@ public class HttpRequestHandler extends ChannelInboundHandlerAdapter {
         future.addListener(ChannelFutureListener.CLOSE);
 
     }
+
+    public void getMetrics(Channel channel) {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("routeCache", getRouteCacheMetrics(ConfigLoader.getSnapshot()));
+        metrics.put("lifecycleHandlers", LifecycleEventDispatcher.getMetrics());
+        metrics.put("configReload", ConfigReloader.getMetrics());
+        metrics.put("backendPools", MappingClient.getPoolMetrics());
+        metrics.put("upstreams", UpstreamGroup.getMetrics());
+        metrics.put("circuitBreakers", CircuitBreaker.getMetrics());
+        metrics.put("concurrencyLimits", ConcurrencyLimiter.getMetrics());
+        metrics.put("retries", RetryingRequest.getMetrics());
+        metrics.put("responseCache", ResponseCache.getInstance().getMetrics());
+        metrics.put("coalescing", RequestCoalescer.getMetrics());
+        Gson gson = new Gson();
+        String jsonObj = gson.toJson(metrics);
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer(jsonObj.getBytes(CharsetUtil.UTF_8)));
+        response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+        ChannelFuture future = channel.writeAndFlush(response);
+        future.addListener(ChannelFutureListener.CLOSE);
+    }
+
+    protected static Map<String, Object> getRouteCacheMetrics(RoutingSnapshot snapshot) {
+        RouteCache cache = snapshot.getRouteCache();
+        CacheStats stats = cache.stats();
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        // counters are reset when a new mappings snapshot is published
+        metrics.put("mappingsVersion", snapshot.getVersion());
+        metrics.put("size", cache.size());
+        metrics.put("maximumSize", cache.getMaximumSize());
+        metrics.put("hitCount", stats.hitCount());
+        metrics.put("missCount", stats.missCount());
+        metrics.put("hitRate", stats.hitRate());
+        metrics.put("evictionCount", stats.evictionCount());
+        return metrics;
+    }
+
+    /**
+     * Returns the raw path of a request URI. Origin-form URIs (the usual case) are cut
+     * at the query string without parsing the whole URI.
+     */
+    protected static String getRawPath(String rawUri) throws URISyntaxException {
+        if (rawUri.length() > 0 && rawUri.charAt(0) == '/') {
+            for (int i = 1; i < rawUri.length(); i++) {
+                char c = rawUri.charAt(i);
+                if (c == '?' || c == '#') {
+                    return rawUri.substring(0, i);
+                }
+            }
+            return rawUri;
+        }
+        return new URI(rawUri).getRawPath();
+    }
 }
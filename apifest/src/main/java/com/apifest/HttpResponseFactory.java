@@ -35,6 +35,8 @@ public class HttpResponseFactory {
 
     public static final String NOT_FOUND_CONTENT = "{\"error\":\"Not found\"}";
     public static final String APPLICATION_JSON = "application/json";
+    public static final String SERVICE_UNAVAILABLE_CONTENT = "{\"error\":\"Backend busy\"}";
+    public static final String GATEWAY_TIMEOUT_CONTENT = "{\"error\":\"Backend timeout\"}";
 
     /**
      * Creates HTTP response with HTTP status 500.
@@ -54,6 +56,33 @@ public class HttpResponseFactory {
         return response;
     }
 
+    /**
+     * Creates HTTP response with HTTP status 503, e.g. when too many requests wait for a backend connection.
+     *
+     * @return HTTP response created
+     */
+    public static FullHttpResponse createServiceUnavailableResponse() {
+        return createErrorResponse(HttpResponseStatus.SERVICE_UNAVAILABLE, SERVICE_UNAVAILABLE_CONTENT);
+    }
+
+    /**
+     * Creates HTTP response with HTTP status 504, e.g. when no backend connection is free within the acquire timeout.
+     *
+     * @return HTTP response created
+     */
+    public static FullHttpResponse createGatewayTimeoutResponse() {
+        return createErrorResponse(HttpResponseStatus.GATEWAY_TIMEOUT, GATEWAY_TIMEOUT_CONTENT);
+    }
+
+    // uses the global error message for that status, if any
+    private static FullHttpResponse createErrorResponse(HttpResponseStatus status, String defaultMessage) {
+        String errorMessage = ConfigLoader.getLoadedGlobalErrors().get(status.code());
+        if (errorMessage == null) {
+            errorMessage = defaultMessage;
+        }
+        return createResponse(status, errorMessage);
+    }
+
     /**
      * Creates HTTP response with HTTP status 401 and the message passed.
      *
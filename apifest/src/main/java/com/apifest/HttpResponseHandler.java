@@ -24,6 +24,7 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.pool.ChannelPool;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
@@ -46,11 +47,17 @@ public class HttpResponseHandler extends ChannelInboundHandlerAdapter {
 
     public static final AttributeKey<ResponseListener> responseListenerAttachmentKey = AttributeKey.newInstance("responseListenerAttachmentKey");
     public static final AttributeKey<ChannelPool> poolAttachmentKey = AttributeKey.newInstance("pool");
+    public static final AttributeKey<StreamingExchange> exchangeAttachmentKey = AttributeKey.newInstance("exchange");
     protected Logger log = LoggerFactory.getLogger(HttpResponseHandler.class);
     private static final int HTTP_STATUS_300 = 300;
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object e) {
+        StreamingExchange exchange = ctx.channel().attr(exchangeAttachmentKey).get();
+        if (exchange != null && e instanceof HttpObject) {
+            exchange.backendRead((HttpObject) e);
+            return;
+        }
         FullHttpResponse response = null;
         Integer statusCode = null;
 
@@ -64,7 +71,8 @@ public class HttpResponseHandler extends ChannelInboundHandlerAdapter {
             channel.close();
         }
 
-        ResponseListener listener = channel.attr(responseListenerAttachmentKey).get();
+        // cleared, so the listener is not called again if the connection is closed, see channelInactive
+        ResponseListener listener = channel.attr(responseListenerAttachmentKey).getAndSet(null);
         // check listener errors map
         if (statusCode != null && statusCode >= HTTP_STATUS_300 && (listener.getErrorMessage(statusCode) != null)) {
             String content = listener.getErrorMessage(statusCode);
@@ -77,6 +85,54 @@ public class HttpResponseHandler extends ChannelInboundHandlerAdapter {
         listener.responseReceived(response, channel);
     }
 
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        // close idle connections in the pool, a connection waiting for a response has a listener set
+        // and is closed by the response timeout
+        if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.ALL_IDLE
+                && ctx.channel().attr(responseListenerAttachmentKey).get() == null) {
+            StreamingExchange exchange = ctx.channel().attr(exchangeAttachmentKey).get();
+            if (exchange == null) {
+                log.debug("closing idle connection to {}", ctx.channel().remoteAddress());
+                ctx.close();
+                return;
+            }
+            if (exchange.isStalled()) {
+                // the exchange fails when the connection is closed
+                log.warn("closing stalled streamed response from {}", ctx.channel().remoteAddress());
+                ctx.close();
+                return;
+            }
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        StreamingExchange exchange = ctx.channel().attr(exchangeAttachmentKey).get();
+        if (exchange != null) {
+            exchange.backendWritabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        StreamingExchange exchange = ctx.channel().attr(exchangeAttachmentKey).get();
+        if (exchange != null) {
+            exchange.backendInactive();
+        }
+        ResponseListener listener = ctx.channel().attr(responseListenerAttachmentKey).getAndSet(null);
+        if (listener != null) {
+            // the connection is closed before the response is received, cancelled requests are closed on purpose
+            if (!listener.isCancelled()) {
+                log.error("connection to {} closed before response", ctx.channel().remoteAddress());
+            }
+            listener.responseReceived(HttpResponseFactory.createISEResponse(), ctx.channel());
+        }
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable e) throws Exception {
         if (e.getCause() instanceof ConnectException) {
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.apifest.api.MappingException;
+import com.apifest.api.ThreadSafe;
+
+/**
+ * Provides instances of actions, filters and lifecycle handlers. Classes annotated with {@link ThreadSafe} are instantiated once
+ * and shared, all others get one instance per thread, so an instance is never used by two requests at the same time.
+ */
+public abstract class InstanceProvider<T> {
+
+    /**
+     * @return instance that could be used by the current thread
+     */
+    public abstract T get();
+
+    /**
+     * Returns a provider that always returns the passed instance.
+     *
+     * @param instance shared instance, could be null
+     * @return <code>InstanceProvider</code>
+     */
+    public static <T> InstanceProvider<T> of(final T instance) {
+        return new InstanceProvider<T>() {
+            @Override
+            public T get() {
+                return instance;
+            }
+        };
+    }
+
+    /**
+     * Creates a provider for a class. One instance is created immediately,
+     * so a class that cannot be instantiated fails here and not on the first request.
+     *
+     * @param clazz class to instantiate
+     * @param type the type instances should have, e.g. BasicAction
+     * @return <code>InstanceProvider</code>
+     * @throws MappingException if the class is not of the expected type or cannot be instantiated
+     */
+    public static <T> InstanceProvider<T> forClass(Class<?> clazz, Class<T> type) throws MappingException {
+        if (!type.isAssignableFrom(clazz)) {
+            throw new MappingException("class " + clazz.getName() + " is not a " + type.getSimpleName());
+        }
+        final Constructor<? extends T> constructor;
+        try {
+            constructor = clazz.asSubclass(type).getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new MappingException("cannot instantiate class " + clazz.getName(), e);
+        }
+        final T instance = newInstance(constructor);
+        if (clazz.isAnnotationPresent(ThreadSafe.class)) {
+            return of(instance);
+        }
+        // owned by the provider, so the instances are released with it when the mappings are reloaded; entries of a
+        // java.lang.ThreadLocal would stay in the maps of the event loop threads until those happen to expunge them
+        final ConcurrentMap<Thread, T> instances = new ConcurrentHashMap<Thread, T>();
+        instances.put(Thread.currentThread(), instance);
+        return new InstanceProvider<T>() {
+            @Override
+            public T get() {
+                Thread thread = Thread.currentThread();
+                T current = instances.get(thread);
+                if (current == null) {
+                    try {
+                        current = newInstance(constructor);
+                    } catch (MappingException e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                    // only the thread itself adds its entry
+                    instances.put(thread, current);
+                    // entries of threads that ended, e.g. of a restarted executor, are dropped when a new thread is added
+                    for (Iterator<Thread> it = instances.keySet().iterator(); it.hasNext();) {
+                        if (!it.next().isAlive()) {
+                            it.remove();
+                        }
+                    }
+                }
+                return current;
+            }
+        };
+    }
+
+    private static <T> T newInstance(Constructor<? extends T> constructor) throws MappingException {
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException e) {
+            throw new MappingException("cannot instantiate class " + constructor.getDeclaringClass().getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new MappingException("cannot instantiate class " + constructor.getDeclaringClass().getName(), e);
+        } catch (InvocationTargetException e) {
+            throw new MappingException("cannot instantiate class " + constructor.getDeclaringClass().getName(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.api.ExceptionEventHandler;
+import com.apifest.api.LifecycleHandler;
+import com.apifest.api.MappingException;
+import com.apifest.api.OnException;
+import com.apifest.api.OnRequest;
+import com.apifest.api.OnResponse;
+
+/**
+ * Loads and invokes the request, response and exception handlers from a custom jar.
+ * Handlers are instantiated once when loaded (see {@link InstanceProvider}).
+ * By default handlers are invoked on the calling thread; if <code>lifecycle.handlers.async</code> is enabled,
+ * they are invoked on a bounded executor shared by all dispatchers, so slow handlers do not block the event loop.
+ */
+public class LifecycleEventDispatcher {
+
+    private static Logger log = LoggerFactory.getLogger(LifecycleEventDispatcher.class);
+
+    public static final String OVERFLOW_DROP = "drop";
+    public static final String OVERFLOW_CALLER_RUNS = "caller-runs";
+
+    private static final LongAdder submitted = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+    private static final LongAdder runInline = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static volatile ThreadPoolExecutor executor;
+
+    private volatile List<Class<LifecycleHandler>> requestHandlerClasses = Collections.emptyList();
+    private volatile List<Class<LifecycleHandler>> responseHandlerClasses = Collections.emptyList();
+    private volatile List<Class<ExceptionEventHandler>> exceptionHandlerClasses = Collections.emptyList();
+
+    private volatile List<InstanceProvider<LifecycleHandler>> requestHandlers = Collections.emptyList();
+    private volatile List<InstanceProvider<LifecycleHandler>> responseHandlers = Collections.emptyList();
+    private volatile List<InstanceProvider<ExceptionEventHandler>> exceptionHandlers = Collections.emptyList();
+
+    /**
+     * Loads all classes annotated with {@link OnRequest}, {@link OnResponse} and {@link OnException} from a jar
+     * and adds them to the already loaded handlers.
+     *
+     * @param classLoader class loader for the jar
+     * @param customJar path to the jar
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void load(URLClassLoader classLoader, String customJar) {
+        if (classLoader == null) {
+            return;
+        }
+        List<Class<LifecycleHandler>> requestClasses = new ArrayList<Class<LifecycleHandler>>(requestHandlerClasses);
+        List<Class<LifecycleHandler>> responseClasses = new ArrayList<Class<LifecycleHandler>>(responseHandlerClasses);
+        List<Class<ExceptionEventHandler>> exceptionClasses = new ArrayList<Class<ExceptionEventHandler>>(exceptionHandlerClasses);
+        List<InstanceProvider<LifecycleHandler>> request = new ArrayList<InstanceProvider<LifecycleHandler>>(requestHandlers);
+        List<InstanceProvider<LifecycleHandler>> response = new ArrayList<InstanceProvider<LifecycleHandler>>(responseHandlers);
+        List<InstanceProvider<ExceptionEventHandler>> exception = new ArrayList<InstanceProvider<ExceptionEventHandler>>(exceptionHandlers);
+        JarFile jarFile = null;
+        try {
+            jarFile = new JarFile(customJar);
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                // remove .class
+                String className = entry.getName().substring(0, entry.getName().length() - 6);
+                className = className.replace('/', '.');
+                try {
+                    // REVISIT: check for better solution
+                    if (className.startsWith("org.jboss.netty") || className.startsWith("org.apache.log4j")
+                            || className.startsWith("org.apache.commons")) {
+                        continue;
+                    }
+                    Class<?> clazz = classLoader.loadClass(className);
+                    if (clazz.isAnnotationPresent(OnRequest.class) && LifecycleHandler.class.isAssignableFrom(clazz)) {
+                        request.add(InstanceProvider.forClass(clazz, LifecycleHandler.class));
+                        requestClasses.add((Class<LifecycleHandler>) clazz);
+                        log.debug("preIssueTokenHandler added {}", className);
+                    }
+                    if (clazz.isAnnotationPresent(OnResponse.class) && LifecycleHandler.class.isAssignableFrom(clazz)) {
+                        response.add(InstanceProvider.forClass(clazz, LifecycleHandler.class));
+                        responseClasses.add((Class<LifecycleHandler>) clazz);
+                        log.debug("postIssueTokenHandler added {}", className);
+                    }
+                    if (clazz.isAnnotationPresent(OnException.class) && ExceptionEventHandler.class.isAssignableFrom(clazz)) {
+                        exception.add(InstanceProvider.forClass(clazz, ExceptionEventHandler.class));
+                        exceptionClasses.add((Class<ExceptionEventHandler>) clazz);
+                        log.debug("exceptionHandlers added {}", className);
+                    }
+                } catch (ClassNotFoundException e1) {
+                    // continue
+                } catch (MappingException e1) {
+                    log.error("cannot instantiate handler " + className, e1);
+                }
+            }
+        } catch (IOException e) {
+            log.error("cannot load lifecycle handlers", e);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+        } finally {
+            if (jarFile != null) {
+                try {
+                    jarFile.close();
+                } catch (IOException e) {
+                    log.error("cannot close custom jar", e);
+                }
+            }
+        }
+        requestHandlerClasses = Collections.unmodifiableList(requestClasses);
+        responseHandlerClasses = Collections.unmodifiableList(responseClasses);
+        exceptionHandlerClasses = Collections.unmodifiableList(exceptionClasses);
+        requestHandlers = request;
+        responseHandlers = response;
+        exceptionHandlers = exception;
+    }
+
+    public List<Class<LifecycleHandler>> getRequestHandlerClasses() {
+        return requestHandlerClasses;
+    }
+
+    public List<Class<LifecycleHandler>> getResponseHandlerClasses() {
+        return responseHandlerClasses;
+    }
+
+    public List<Class<ExceptionEventHandler>> getExceptionHandlerClasses() {
+        return exceptionHandlerClasses;
+    }
+
+    /**
+     * Returns the request the response handlers should get with the response of a forwarded request. A forwarded
+     * request is released once it is written to the backend, before its response comes, so the handlers get a
+     * retained duplicate taken while the request is read. The caller releases it once the handlers are invoked.
+     *
+     * @return null if there are no response handlers
+     */
+    public FullHttpRequest retainForResponseHandlers(FullHttpRequest request) {
+        if (responseHandlers.isEmpty()) {
+            return null;
+        }
+        return request.retainedDuplicate();
+    }
+
+    // used by tests instead of loading handlers from a jar
+    void setRequestHandlers(List<InstanceProvider<LifecycleHandler>> handlers) {
+        requestHandlers = handlers;
+    }
+
+    // used by tests instead of loading handlers from a jar
+    void setResponseHandlers(List<InstanceProvider<LifecycleHandler>> handlers) {
+        responseHandlers = handlers;
+    }
+
+    public void invokeRequestHandlers(FullHttpRequest request, FullHttpResponse response) {
+        invokeHandlers(requestHandlers, request, response);
+    }
+
+    public void invokeResponseHandlers(FullHttpRequest request, FullHttpResponse response) {
+        invokeHandlers(responseHandlers, request, response);
+    }
+
+    public void invokeExceptionHandlers(final Exception ex, HttpRequest request) {
+        final List<InstanceProvider<ExceptionEventHandler>> handlers = exceptionHandlers;
+        if (handlers.isEmpty()) {
+            return;
+        }
+        ThreadPoolExecutor exec = executor;
+        if (exec == null) {
+            runExceptionHandlers(handlers, ex, request);
+            return;
+        }
+        final HttpRequest req = (request instanceof FullHttpRequest) ? ((FullHttpRequest) request).retainedDuplicate() : request;
+        submit(exec, new HandlerTask(req, null) {
+            @Override
+            void invoke() {
+                runExceptionHandlers(handlers, ex, req);
+            }
+        });
+    }
+
+    private void invokeHandlers(final List<InstanceProvider<LifecycleHandler>> handlers, FullHttpRequest request, FullHttpResponse response) {
+        if (handlers.isEmpty()) {
+            return;
+        }
+        ThreadPoolExecutor exec = executor;
+        if (exec == null) {
+            runHandlers(handlers, request, response);
+            return;
+        }
+        // the request and the response are released once written, so handlers get their own references
+        final FullHttpRequest req = (request != null) ? request.retainedDuplicate() : null;
+        final FullHttpResponse res = (response != null) ? response.retainedDuplicate() : null;
+        submit(exec, new HandlerTask(req, res) {
+            @Override
+            void invoke() {
+                runHandlers(handlers, req, res);
+            }
+        });
+    }
+
+    private void runHandlers(List<InstanceProvider<LifecycleHandler>> handlers, FullHttpRequest request, FullHttpResponse response) {
+        for (int i = 0; i < handlers.size(); i++) {
+            try {
+                handlers.get(i).get().handle(request, response);
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.error("lifecycle handler failed", e);
+                runExceptionHandlers(exceptionHandlers, e, request);
+            }
+        }
+    }
+
+    private static void runExceptionHandlers(List<InstanceProvider<ExceptionEventHandler>> handlers, Exception ex, HttpRequest request) {
+        for (int i = 0; i < handlers.size(); i++) {
+            try {
+                handlers.get(i).get().handleException(ex, request);
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.error("exception handler failed", e);
+            }
+        }
+    }
+
+    private static void submit(ThreadPoolExecutor exec, HandlerTask task) {
+        submitted.increment();
+        exec.execute(task);
+    }
+
+    /**
+     * Starts the executor for asynchronous handlers if <code>lifecycle.handlers.async</code> is enabled.
+     */
+    public static synchronized void start() {
+        if (!ServerConfig.isLifecycleHandlersAsync() || executor != null) {
+            return;
+        }
+        int threads = ServerConfig.getLifecycleHandlersThreads();
+        final boolean callerRuns = OVERFLOW_CALLER_RUNS.equals(ServerConfig.getLifecycleHandlersOverflow());
+        RejectedExecutionHandler overflow = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor exec) {
+                if (callerRuns && !exec.isShutdown()) {
+                    runInline.increment();
+                    task.run();
+                } else {
+                    // the task still holds references to the request and the response
+                    dropped.increment();
+                    ((HandlerTask) task).release();
+                }
+            }
+        };
+        ThreadPoolExecutor exec = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(ServerConfig.getLifecycleHandlersQueueSize()),
+                new DefaultThreadFactory("lifecycle-handlers", true), overflow);
+        executor = exec;
+        log.info("lifecycle handlers are invoked asynchronously, threads: {}, overflow: {}", threads,
+                callerRuns ? OVERFLOW_CALLER_RUNS : OVERFLOW_DROP);
+    }
+
+    public static synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return counters of the asynchronous handler invocations
+     */
+    public static Map<String, Object> getMetrics() {
+        ThreadPoolExecutor exec = executor;
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("async", exec != null);
+        metrics.put("submitted", submitted.sum());
+        metrics.put("completed", (exec != null) ? exec.getCompletedTaskCount() : 0L);
+        metrics.put("queued", (exec != null) ? exec.getQueue().size() : 0);
+        metrics.put("dropped", dropped.sum());
+        metrics.put("runInline", runInline.sum());
+        metrics.put("failed", failed.sum());
+        return metrics;
+    }
+
+    /**
+     * Invokes handlers on the executor and releases the request and response references it holds.
+     */
+    private abstract static class HandlerTask implements Runnable {
+        private final Object request;
+        private final Object response;
+
+        private HandlerTask(Object request, Object response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        abstract void invoke();
+
+        @Override
+        public final void run() {
+            try {
+                invoke();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            ReferenceCountUtil.release(request);
+            ReferenceCountUtil.release(response);
+        }
+    }
+}
@@ -16,28 +16,15 @@
 
 package com.apifest;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URLClassLoader;
-import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpRequest;
-import io.netty.handler.codec.http.HttpResponse;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.apifest.api.ExceptionEventHandler;
 import com.apifest.api.LifecycleHandler;
-import com.apifest.api.OnException;
-import com.apifest.api.OnResponse;
-import com.apifest.api.OnRequest;
-import com.apifest.LifecycleEventHandlers;
 
 /**
  * Loads lifecycle event handlers on OAuth server startup.
@@ -46,110 +33,42 @@ import com.apifest.LifecycleEventHandlers;
  */
 public class LifecycleEventHandlers {
 
-    private static Logger log = LoggerFactory.getLogger(LifecycleEventHandlers.class);
+    private static final LifecycleEventDispatcher dispatcher = new LifecycleEventDispatcher();
 
-    private static List<Class<LifecycleHandler>> requestEventHandlers = new ArrayList<Class<LifecycleHandler>>();
-    private static List<Class<LifecycleHandler>> responseEventHandlers = new ArrayList<Class<LifecycleHandler>>();
-    private static List<Class<ExceptionEventHandler>> exceptionHandlers = new ArrayList<Class<ExceptionEventHandler>>();
+    // used by tests
+    static LifecycleEventDispatcher getDispatcher() {
+        return dispatcher;
+    }
 
-    @SuppressWarnings("unchecked")
     public static void loadLifecycleHandlers(URLClassLoader classLoader, String customJar) {
-        try {
-            if (classLoader != null) {
-                JarFile jarFile = new JarFile(customJar);
-                Enumeration<JarEntry> entries = jarFile.entries();
-                while (entries.hasMoreElements()) {
-                    JarEntry entry = entries.nextElement();
-                    if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
-                        continue;
-                    }
-                    // remove .class
-                    String className = entry.getName().substring(0, entry.getName().length() - 6);
-                    className = className.replace('/', '.');
-                    try {
-                        // REVISIT: check for better solution
-                        if (className.startsWith("org.jboss.netty") || className.startsWith("org.apache.log4j")
-                                || className.startsWith("org.apache.commons")) {
-                            continue;
-                        }
-                        Class<?> clazz = classLoader.loadClass(className);
-                        if (clazz.isAnnotationPresent(OnRequest.class)
-                                && LifecycleHandler.class.isAssignableFrom(clazz)) {
-                            requestEventHandlers.add((Class<LifecycleHandler>) clazz);
-                            log.debug("preIssueTokenHandler added {}", className);
-                        }
-                        if (clazz.isAnnotationPresent(OnResponse.class)
-                                && LifecycleHandler.class.isAssignableFrom(clazz)) {
-                            responseEventHandlers.add((Class<LifecycleHandler>) clazz);
-                            log.debug("postIssueTokenHandler added {}", className);
-                        }
-                        if (clazz.isAnnotationPresent(OnException.class)
-                                && ExceptionEventHandler.class.isAssignableFrom(clazz)) {
-                            exceptionHandlers.add((Class<ExceptionEventHandler>) clazz);
-                            log.debug("exceptionHandlers added {}", className);
-                        }
-                    } catch (ClassNotFoundException e1) {
-                        // continue
-                    }
-                }
-            }
-        } catch (MalformedURLException e) {
-            log.error("cannot load lifecycle handlers", e);
-        } catch (IOException e) {
-            log.error("cannot load lifecycle handlers", e);
-        } catch (IllegalArgumentException e) {
-            log.error(e.getMessage());
-        }
+        dispatcher.load(classLoader, customJar);
     }
 
     public static List<Class<LifecycleHandler>> getRequestEventHandlers() {
-        return requestEventHandlers;
+        return dispatcher.getRequestHandlerClasses();
     }
 
     public static List<Class<LifecycleHandler>> getResponseEventHandlers() {
-        return responseEventHandlers;
+        return dispatcher.getResponseHandlerClasses();
     }
 
     public static List<Class<ExceptionEventHandler>> getExceptionHandlers() {
-        return exceptionHandlers;
+        return dispatcher.getExceptionHandlerClasses();
     }
 
     protected static void invokeRequestEventHandlers(FullHttpRequest request, FullHttpResponse response) {
-        invokeHandlers(request, response, LifecycleEventHandlers.getRequestEventHandlers());
+        dispatcher.invokeRequestHandlers(request, response);
     }
 
-    protected static void invokeResponseEventHandlers(FullHttpRequest request, FullHttpResponse response) {
-        invokeHandlers(request, response, LifecycleEventHandlers.getResponseEventHandlers());
+    protected static FullHttpRequest retainForResponseHandlers(FullHttpRequest request) {
+        return dispatcher.retainForResponseHandlers(request);
     }
 
-    protected static void invokeHandlers(FullHttpRequest request, FullHttpResponse response, List<Class<LifecycleHandler>> handlers) {
-        for (int i = 0; i < handlers.size(); i++) {
-            try {
-                LifecycleHandler handler = handlers.get(i).newInstance();
-                handler.handle(request, response);
-            } catch (InstantiationException e) {
-                log.error("cannot instantiate handler", e);
-                invokeExceptionHandler(e, request);
-            } catch (IllegalAccessException e) {
-                log.error("cannot invoke handler", e);
-                invokeExceptionHandler(e, request);
-            }
-        }
+    protected static void invokeResponseEventHandlers(FullHttpRequest request, FullHttpResponse response) {
+        dispatcher.invokeResponseHandlers(request, response);
     }
 
     protected static void invokeExceptionHandler(Exception ex, HttpRequest request) {
-        List<Class<ExceptionEventHandler>> handlers = LifecycleEventHandlers.getExceptionHandlers();
-        for (int i = 0; i < handlers.size(); i++) {
-            try {
-                ExceptionEventHandler handler = handlers.get(i).newInstance();
-                handler.handleException(ex, request);
-            } catch (InstantiationException e) {
-                log.error("cannot instantiate exception handler", e);
-                invokeExceptionHandler(e, request);
-            } catch (IllegalAccessException e) {
-                log.error("cannot invoke exception handler", e);
-                invokeExceptionHandler(ex, request);
-            }
-        }
+        dispatcher.invokeExceptionHandlers(ex, request);
     }
 }
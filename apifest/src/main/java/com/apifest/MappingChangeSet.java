@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Difference between two sets of mapping configs - the versions to add or replace and the versions to remove.
+ * Versions are compared by their content hash, so unchanged versions are not part of the change set.
+ * The change set is published to all nodes and applied as a whole.
+ */
+public final class MappingChangeSet implements Serializable {
+
+    private static final long serialVersionUID = -2871561093587164209L;
+
+    private final Map<String, MappingConfig> puts;
+    private final Set<String> removes;
+
+    public MappingChangeSet(Map<String, MappingConfig> puts, Set<String> removes) {
+        this.puts = Collections.unmodifiableMap(new HashMap<String, MappingConfig>(puts));
+        this.removes = Collections.unmodifiableSet(new HashSet<String>(removes));
+    }
+
+    /**
+     * Computes the changes that turn the current configs into the target ones.
+     *
+     * @param current mapping configs per version currently in use
+     * @param target mapping configs per version that should be used
+     * @return changed and removed versions
+     */
+    public static MappingChangeSet between(Map<String, MappingConfig> current, Map<String, MappingConfig> target) {
+        Map<String, MappingConfig> puts = new HashMap<String, MappingConfig>();
+        for (Map.Entry<String, MappingConfig> entry : target.entrySet()) {
+            if (!isSame(current.get(entry.getKey()), entry.getValue())) {
+                puts.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Set<String> removes = new HashSet<String>();
+        for (String version : current.keySet()) {
+            if (!target.containsKey(version)) {
+                removes.add(version);
+            }
+        }
+        return new MappingChangeSet(puts, removes);
+    }
+
+    /**
+     * Filters out the changes already applied to the given configs,
+     * e.g. on the node that published the change set.
+     *
+     * @param current mapping configs per version currently in use
+     * @return the changes still to apply
+     */
+    public MappingChangeSet pendingFor(Map<String, MappingConfig> current) {
+        Map<String, MappingConfig> pendingPuts = new HashMap<String, MappingConfig>();
+        for (Map.Entry<String, MappingConfig> entry : puts.entrySet()) {
+            if (!isSame(current.get(entry.getKey()), entry.getValue())) {
+                pendingPuts.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Set<String> pendingRemoves = new HashSet<String>();
+        for (String version : removes) {
+            if (current.containsKey(version)) {
+                pendingRemoves.add(version);
+            }
+        }
+        return new MappingChangeSet(pendingPuts, pendingRemoves);
+    }
+
+    /**
+     * Applies the changes to a copy of the given configs.
+     *
+     * @param current mapping configs per version
+     * @return new map with the changes applied
+     */
+    public Map<String, MappingConfig> applyTo(Map<String, MappingConfig> current) {
+        Map<String, MappingConfig> result = new HashMap<String, MappingConfig>(current);
+        result.keySet().removeAll(removes);
+        result.putAll(puts);
+        return result;
+    }
+
+    public Map<String, MappingConfig> getPuts() {
+        return puts;
+    }
+
+    public Set<String> getRemoves() {
+        return removes;
+    }
+
+    public boolean isEmpty() {
+        return puts.isEmpty() && removes.isEmpty();
+    }
+
+    // configs without a hash (e.g. stored by an older node) are always treated as changed
+    private static boolean isSame(MappingConfig current, MappingConfig target) {
+        return current != null && current.getContentHash() != null && current.getContentHash().equals(target.getContentHash());
+    }
+
+    @Override
+    public String toString() {
+        return "puts " + puts.keySet() + ", removes " + removes;
+    }
+}
@@ -17,27 +17,38 @@
 package com.apifest;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.ChannelPipeline;
-import io.netty.channel.pool.AbstractChannelPoolMap;
-import io.netty.channel.pool.ChannelPool;
-import io.netty.channel.pool.ChannelPoolHandler;
-import io.netty.channel.pool.ChannelPoolMap;
-import io.netty.channel.pool.SimpleChannelPool;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.FullHttpMessage;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
-import io.netty.handler.codec.http.HttpClientCodec;
-import io.netty.handler.codec.http.HttpHeaders;
-import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.apifest.api.BasicFilter;
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.MappingEndpoint;
+import com.apifest.upstream.CircuitBreaker;
+import com.apifest.upstream.ConcurrencyLimiter;
+import com.apifest.upstream.UpstreamGroup;
+import com.apifest.upstream.UpstreamMember;
 
 /**
  * Client that re-sends the requests to the backend and handles the responses.
@@ -46,43 +57,25 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public final class MappingClient {
 
-    private static final int MAX_CONTENT_LEN = 10 * 1024 * 1024;
-
     private static volatile MappingClient client;
 
     public static Bootstrap b = new Bootstrap()
-            .channel(NioSocketChannel.class)
+            .channel(Transport.get().getChannelClass())
             .option(ChannelOption.TCP_NODELAY, true)
             .option(ChannelOption.SO_KEEPALIVE, true)
             .option(ChannelOption.SO_LINGER, -1)
             .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, ServerConfig.getConnectTimeout())
-            .group(MappingServer.workerGroup);
+            .resolver(BackendResolver.getResolverGroup())
+            .group(MappingServer.upstreamGroup);
 
-    public static ChannelPoolMap<InetSocketAddress, SimpleChannelPool> poolMap = new AbstractChannelPoolMap<InetSocketAddress, SimpleChannelPool>() {
-        @Override
-        protected SimpleChannelPool newPool(InetSocketAddress key) {
-            // The SimpleChannelPool internally clones the bootstrap object so it's fine to set a new remote address every time
-            return new SimpleChannelPool(b.remoteAddress(key), new ChannelPoolHandler() {
-                public void channelReleased(Channel ch) throws Exception {
-
-                }
-
-                public void channelAcquired(Channel ch) throws Exception {
-
-                }
-
-                public void channelCreated(Channel ch) throws Exception {
-                    ChannelPipeline p = ch.pipeline();
-                    p.addLast(new HttpClientCodec());
-                    p.addLast(new HttpObjectAggregator(MAX_CONTENT_LEN));
-                    p.addLast(new HttpResponseHandler());
-                }
-            });
-        }
-    };
+    // one bounded pool per backend host and port, the address is resolved when a connection is opened
+    private static final ConcurrentMap<InetSocketAddress, BackendPool> pools = new ConcurrentHashMap<InetSocketAddress, BackendPool>();
 
     protected Logger log = LoggerFactory.getLogger(MappingClient.class);
 
+    private MappingClient() {
+        BackendResolver.startRefresh(b.config().group(), pools.keySet());
+    }
 
     public synchronized static MappingClient getClient() {
         if (client == null) {
@@ -92,7 +85,7 @@ public final class MappingClient {
     }
 
     /**
-     * Sends the request to the given backend.
+     * Sends the request to the given backend using the default timeouts.
      *
      * @param request request that should be sent to the given backend
      * @param host backend host
@@ -100,36 +93,499 @@ public final class MappingClient {
      * @param responseListener listener that will handles the backend response
      */
     public void send(final FullHttpRequest request, String host, int port, final ResponseListener responseListener) {
-        final ChannelPool channelPool = poolMap.get(new InetSocketAddress(host, port));
-        channelPool.acquire().addListener(new FutureListener<Channel>() {
+        send(request, host, port, null, responseListener);
+    }
+
+    /**
+     * Sends the request to the given backend. If the circuit of the backend is open or its concurrency limit
+     * is reached, the listener gets 503 at once.
+     *
+     * @param request request that should be sent to the given backend
+     * @param host backend host
+     * @param port backend port
+     * @param backend backend settings from the mappings, null to use the default timeouts
+     * @param responseListener listener that will handles the backend response
+     */
+    public void send(final FullHttpRequest request, String host, int port, Backend backend, final ResponseListener responseListener) {
+        send(request, host, port, backend, RequestTimeout.DEFAULT, responseListener);
+    }
+
+    /**
+     * Sends the request to the given backend. If no response is received within the response timeout
+     * or until the deadline of the request, the connection is closed and the listener gets 504.
+     *
+     * @param request request that should be sent to the given backend
+     * @param host backend host
+     * @param port backend port
+     * @param backend backend settings from the mappings, null to use the default timeouts
+     * @param timeout timeouts of the request
+     * @param responseListener listener that will handles the backend response
+     */
+    public void send(final FullHttpRequest request, String host, int port, Backend backend, RequestTimeout timeout,
+            final ResponseListener responseListener) {
+        send(request, host, port, backend, null, timeout, responseListener);
+    }
+
+    /**
+     * Sends the request to a member of the given upstream group.
+     *
+     * @param request request that should be sent to the group
+     * @param group upstream group
+     * @param responseListener listener that will handles the backend response
+     */
+    public void send(final FullHttpRequest request, UpstreamGroup group, final ResponseListener responseListener) {
+        send(request, group, RequestTimeout.DEFAULT, responseListener);
+    }
+
+    /**
+     * Sends the request to a member of the given upstream group.
+     *
+     * @param request request that should be sent to the group
+     * @param group upstream group
+     * @param timeout timeouts of the request
+     * @param responseListener listener that will handles the backend response
+     */
+    public void send(final FullHttpRequest request, UpstreamGroup group, RequestTimeout timeout, final ResponseListener responseListener) {
+        UpstreamMember member = group.choose();
+        request.headers().set(HttpHeaderNames.HOST, member.getHost());
+        send(request, member.getHost(), member.getPort(), member.getBackend(), member, timeout, responseListener);
+    }
+
+    /**
+     * Sends the request to the given backend, recording the outcome in the statistics of the upstream member.
+     *
+     * @param member upstream member the backend belongs to, null if it is not a member of an upstream group
+     * @param timeout timeouts of the request
+     */
+    void send(final FullHttpRequest request, String host, int port, final Backend backend, UpstreamMember member,
+            final RequestTimeout timeout, ResponseListener responseListener) {
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.of(host, port);
+        if (!limiter.tryAcquire()) {
+            log.debug("concurrency limit {} of {} reached, request rejected", limiter.getLimit(), limiter);
+            responseListener.responseReceived(createLimitReachedResponse(responseListener), null);
+            return;
+        }
+        CircuitBreaker breaker = CircuitBreaker.of(host, port);
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) {
+            log.debug("circuit of {} is open, request rejected", breaker);
+            limiter.onIgnored();
+            responseListener.responseReceived(createCircuitOpenResponse(responseListener), null);
+            return;
+        }
+        final TrackingResponseListener listener = new TrackingResponseListener(responseListener, breaker, permit, limiter,
+                member);
+        acquire(InetSocketAddress.createUnresolved(host, port)).addListener(new FutureListener<Channel>() {
             @Override
             public void operationComplete(Future<Channel> future) {
+                if (!future.isSuccess()) {
+                    log.error("cannot get connection to {}:{}: {}", host, port, future.cause().toString());
+                    listener.acquireFailed(future.cause());
+                    return;
+                }
                 final Channel channel = future.getNow();
-                if (channel == null) {
-                    responseListener.responseReceived(HttpResponseFactory.createISEResponse(), channel);
+                if (timeout.isExpired()) {
+                    // the connection was acquired too late, the request is not sent
+                    listener.deadlineExceeded(channel);
+                    return;
                 }
-                if (channel.isWritable()) {
-                    channel.attr(HttpResponseHandler.responseListenerAttachmentKey).set(responseListener);
-                    channel.attr(HttpResponseHandler.poolAttachmentKey).set(channelPool);
-                    if (future.isSuccess() && channel.isOpen()) {
-                        channel.writeAndFlush(request);
-                        LifecycleEventHandlers.invokeRequestEventHandlers(request, null);
-                    } else {
-                        // if cannot connect
-                        channel.disconnect();
-                        channel.close();
-                        FullHttpResponse response = HttpResponseFactory.createISEResponse();
-                        // HttpResponse response = HttpResponseFactory.createNotFoundResponse();
-                        responseListener.responseReceived(response, channel);
-                    }
-                } else {
-                    channel.disconnect();
-                    channel.close();
-                    FullHttpResponse response = HttpResponseFactory.createISEResponse();
-                    // HttpResponse response = HttpResponseFactory.createNotFoundResponse();
-                    responseListener.responseReceived(response, channel);
+                timeout.setHeader(request);
+                channel.attr(HttpResponseHandler.responseListenerAttachmentKey).set(listener);
+                listener.backendAcquired(channel);
+                long responseTimeout = timeout.getResponseTimeout(backend);
+                if (responseTimeout > 0) {
+                    listener.timer = channel.eventLoop().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.timedOut(channel, responseTimeout);
+                        }
+                    }, responseTimeout, TimeUnit.MILLISECONDS);
                 }
+                channel.writeAndFlush(request);
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Admits a request of an endpoint with a concurrency limit. The response time of an admitted request,
+     * including retries, adjusts the limit of the endpoint.
+     *
+     * @param endpoint endpoint of the request
+     * @param listener listener of the request
+     * @return null if the limit of the endpoint is reached and the listener got 503, otherwise the listener
+     * the response of the request should be passed to
+     */
+    public ResponseListener limit(MappingEndpoint endpoint, ResponseListener listener) {
+        if (endpoint.getConcurrency() == null) {
+            return listener;
+        }
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.of(endpoint.getUniqueKey(), endpoint.getConcurrency());
+        if (!limiter.tryAcquire()) {
+            log.debug("concurrency limit {} of {} reached, request rejected", limiter.getLimit(), limiter);
+            listener.responseReceived(createLimitReachedResponse(listener), null);
+            return null;
+        }
+        return new LimitedResponseListener(listener, limiter);
+    }
+
+    /**
+     * Acquires a connection to the given backend for a streamed request.
+     *
+     * @param exchange exchange that will forward the request and the response
+     * @param host backend host
+     * @param port backend port
+     * @param backend backend settings from the mappings, null to use the default timeouts
+     */
+    public void stream(final StreamingExchange exchange, String host, int port, Backend backend) {
+        stream(exchange, host, port, backend, RequestTimeout.DEFAULT);
+    }
+
+    /**
+     * Acquires a connection to the given backend for a streamed request.
+     *
+     * @param exchange exchange that will forward the request and the response
+     * @param host backend host
+     * @param port backend port
+     * @param backend backend settings from the mappings, null to use the default timeouts
+     * @param timeout timeouts of the request
+     */
+    public void stream(final StreamingExchange exchange, String host, int port, Backend backend, RequestTimeout timeout) {
+        CircuitBreaker breaker = CircuitBreaker.of(host, port);
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) {
+            log.debug("circuit of {} is open, request rejected", breaker);
+            exchange.fail(HttpResponseFactory.createServiceUnavailableResponse());
+            return;
+        }
+        exchange.setCircuitBreaker(breaker, permit);
+        exchange.setTimeout(timeout, backend);
+        exchange.start();
+        acquire(InetSocketAddress.createUnresolved(host, port)).addListener(new FutureListener<Channel>() {
+            @Override
+            public void operationComplete(Future<Channel> future) {
+                if (!future.isSuccess()) {
+                    log.error("cannot get connection to {}:{}: {}", host, port, future.cause().toString());
+                    exchange.backendFailed(future.cause());
+                    return;
+                }
+                exchange.backendAcquired(future.getNow());
+            }
+        });
+    }
+
+    /**
+     * Acquires a connection to a member of the given upstream group for a streamed request.
+     *
+     * @param exchange exchange that will forward the request and the response
+     * @param group upstream group
+     */
+    public void stream(final StreamingExchange exchange, UpstreamGroup group) {
+        stream(exchange, group, RequestTimeout.DEFAULT);
+    }
+
+    /**
+     * Acquires a connection to a member of the given upstream group for a streamed request.
+     *
+     * @param exchange exchange that will forward the request and the response
+     * @param group upstream group
+     * @param timeout timeouts of the request
+     */
+    public void stream(final StreamingExchange exchange, UpstreamGroup group, RequestTimeout timeout) {
+        UpstreamMember member = group.choose();
+        exchange.getRequest().headers().set(HttpHeaderNames.HOST, member.getHost());
+        stream(exchange, member.getHost(), member.getPort(), member.getBackend(), timeout);
+    }
+
+    /**
+     * Acquires a connection from the pool of a backend. A request that got a pool just before it was replaced
+     * and closed takes the pool that replaced it.
+     */
+    private static Future<Channel> acquire(InetSocketAddress address) {
+        Future<Channel> future = null;
+        while (future == null) {
+            future = getPool(address, ConfigLoader.getSnapshot()).acquire();
+        }
+        return future;
+    }
+
+    /**
+     * Returns the pool for a backend. If the pool settings have changed after mappings reload,
+     * a new pool replaces the old one and the old one is drained. A request that still sees an older snapshot
+     * than the one the pool was created for uses the pool as it is, so it does not bring back the old settings.
+     *
+     * @param snapshot routing snapshot the request is handled with
+     */
+    protected static BackendPool getPool(InetSocketAddress address, RoutingSnapshot snapshot) {
+        BackendPool.Settings settings = snapshot.getPoolSettings(address.getHostString(), address.getPort());
+        BackendPool pool = pools.get(address);
+        while (pool == null || pool.isClosed()
+                || (pool.getSnapshotVersion() < snapshot.getVersion() && !pool.getSettings().equals(settings))) {
+            BackendPool newPool = new BackendPool(b, address, settings, snapshot.getVersion());
+            boolean replaced = (pool == null) ? pools.putIfAbsent(address, newPool) == null : pools.replace(address, pool, newPool);
+            if (replaced) {
+                if (pool != null) {
+                    // requests waiting for the old pool still get its connections
+                    pool.drain();
+                }
+                pool = newPool;
+            } else {
+                newPool.close();
+                pool = pools.get(address);
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the backend event loop the current thread runs, any of them if the current thread is not an event loop
+     */
+    static EventExecutor currentEventLoop() {
+        EventLoopGroup group = b.config().group();
+        for (EventExecutor executor : group) {
+            if (executor.inEventLoop()) {
+                return executor;
+            }
+        }
+        return group.next();
+    }
+
+    /**
+     * Creates the response for a request that did not get a connection to the backend -
+     * 503 if too many requests wait for a connection, 504 if no connection was free within the acquire timeout
+     * and 500 if the backend could not be connected.
+     */
+    protected static FullHttpResponse createAcquireFailedResponse(Throwable cause) {
+        if (cause instanceof TimeoutException) {
+            return HttpResponseFactory.createGatewayTimeoutResponse();
+        }
+        if (cause instanceof IllegalStateException) {
+            return HttpResponseFactory.createServiceUnavailableResponse();
+        }
+        return HttpResponseFactory.createISEResponse();
+    }
+
+    /**
+     * @return metrics of each backend pool
+     */
+    public static Map<String, Object> getPoolMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        for (BackendPool pool : pools.values()) {
+            metrics.put(pool.toString(), pool.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Creates the response for a request rejected because the circuit of the backend is open -
+     * 503 with the error message of the mapping for 503, if there is one.
+     */
+    protected static FullHttpResponse createCircuitOpenResponse(ResponseListener listener) {
+        FullHttpResponse response = HttpResponseFactory.createServiceUnavailableResponse();
+        String content = listener.getErrorMessage(HttpResponseStatus.SERVICE_UNAVAILABLE.code());
+        if (content != null) {
+            byte[] bytes = content.getBytes(CharsetUtil.UTF_8);
+            response.replace(Unpooled.copiedBuffer(bytes));
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, bytes.length);
+        }
+        return response;
+    }
+
+    /**
+     * Creates the response for a request rejected because a concurrency limit is reached - 503 with
+     * the error message of the mapping for 503, if there is one, and Retry-After set to <code>concurrency.retry_after</code>.
+     */
+    protected static FullHttpResponse createLimitReachedResponse(ResponseListener listener) {
+        FullHttpResponse response = createCircuitOpenResponse(listener);
+        response.headers().set(HttpHeaderNames.RETRY_AFTER, ServerConfig.getConcurrencyRetryAfter());
+        return response;
+    }
+
+    /**
+     * Checks whether a response means the backend is overloaded - it rejected the request or did not respond in time.
+     */
+    static boolean isOverloaded(FullHttpMessage response) {
+        if (!(response instanceof FullHttpResponse)) {
+            return false;
+        }
+        int status = ((FullHttpResponse) response).status().code();
+        return status == HttpResponseStatus.SERVICE_UNAVAILABLE.code() || status == HttpResponseStatus.GATEWAY_TIMEOUT.code()
+                || status == HttpResponseStatus.TOO_MANY_REQUESTS.code();
+    }
+
+    /**
+     * Records the outcome and the response time of a request in the circuit breaker of the backend
+     * and, for upstream groups, in the statistics of the member, then passes the response to the listener of the request.
+     * A request that gets no response within its timeout gets 504 and counts as failed.
+     * The response time adjusts the concurrency limit of the backend, timeouts and overload statuses shrink it.
+     */
+    private static final class TrackingResponseListener extends ResponseListener {
+
+        private static Logger log = LoggerFactory.getLogger(TrackingResponseListener.class);
+
+        private final ResponseListener listener;
+        private final CircuitBreaker breaker;
+        private final CircuitBreaker.Permit permit;
+        private final ConcurrencyLimiter limiter;
+        private final UpstreamMember member;
+        private final long start;
+        private volatile ScheduledFuture<?> timer;
+
+        private TrackingResponseListener(ResponseListener listener, CircuitBreaker breaker, CircuitBreaker.Permit permit,
+                ConcurrencyLimiter limiter, UpstreamMember member) {
+            super((InstanceProvider<BasicFilter>) null, null);
+            this.listener = listener;
+            this.breaker = breaker;
+            this.permit = permit;
+            this.limiter = limiter;
+            this.member = member;
+            this.start = (member != null) ? member.started() : System.nanoTime();
+        }
+
+        @Override
+        public BasicFilter getFilter() {
+            return listener.getFilter();
+        }
+
+        @Override
+        public String getErrorMessage(int statusCode) {
+            return listener.getErrorMessage(statusCode);
+        }
+
+        private void acquireFailed(Throwable cause) {
+            // too many requests waiting for a connection is not a backend failure
+            boolean backendFailure = !(cause instanceof IllegalStateException);
+            if (backendFailure) {
+                breaker.onFailure(permit);
+            } else {
+                breaker.onIgnored(permit);
+            }
+            // a full pool is a sign of overload, a connect error is up to the circuit breaker
+            if (cause instanceof IllegalStateException || cause instanceof TimeoutException) {
+                limiter.onDropped();
+            } else {
+                limiter.onIgnored();
+            }
+            if (member != null) {
+                member.completed(start, !backendFailure);
+            }
+            listener.responseReceived(createAcquireFailedResponse(cause), null);
+        }
+
+        @Override
+        void backendAcquired(Channel backendChannel) {
+            listener.backendAcquired(backendChannel);
+        }
+
+        // called on the event loop of the connection, the response has not been received if the listener is still set
+        private void timedOut(Channel channel, long timeout) {
+            if (!channel.attr(HttpResponseHandler.responseListenerAttachmentKey).compareAndSet(this, null)) {
+                return;
+            }
+            if (!listener.isCancelled()) {
+                log.warn("no response from {} within {} ms", channel.remoteAddress(), timeout);
+            }
+            // a partly read response could not be completed, so the connection is not reused
+            channel.close();
+            responseReceived(HttpResponseFactory.createGatewayTimeoutResponse(), channel);
+        }
+
+        // the deadline passed while the request waited for a connection, that is not a backend failure
+        private void deadlineExceeded(Channel channel) {
+            channel.attr(HttpResponseHandler.poolAttachmentKey).get().release(channel);
+            breaker.onIgnored(permit);
+            limiter.onIgnored();
+            if (member != null) {
+                member.cancelled();
+            }
+            listener.responseReceived(HttpResponseFactory.createGatewayTimeoutResponse(), null);
+        }
+
+        @Override
+        boolean isCancelled() {
+            return listener.isCancelled();
+        }
+
+        @Override
+        void responseReceived(FullHttpMessage response, Channel clientChannel) {
+            ScheduledFuture<?> responseTimer = timer;
+            if (responseTimer != null) {
+                responseTimer.cancel(false);
+            }
+            if (listener.isCancelled()) {
+                // the response of a cancelled request is not a backend failure
+                breaker.onIgnored(permit);
+                limiter.onIgnored();
+                if (member != null) {
+                    member.cancelled();
+                }
+                listener.responseReceived(response, clientChannel);
+                return;
+            }
+            boolean success = !(response instanceof FullHttpResponse && ((FullHttpResponse) response).status().code() >= 500);
+            long latency = System.nanoTime() - start;
+            if (success) {
+                breaker.onSuccess(permit, latency);
+            } else {
+                breaker.onFailure(permit);
+            }
+            if (isOverloaded(response)) {
+                limiter.onDropped();
+            } else {
+                limiter.onSuccess(latency);
+            }
+            if (member != null) {
+                member.completed(start, success);
+            }
+            listener.responseReceived(response, clientChannel);
+        }
+    }
+
+    /**
+     * Records the response time of an admitted request of an endpoint in the concurrency limiter of the endpoint,
+     * then passes the response to the listener of the request.
+     */
+    private static final class LimitedResponseListener extends ResponseListener {
+
+        private final ResponseListener listener;
+        private final ConcurrencyLimiter limiter;
+        private final long start = System.nanoTime();
+
+        private LimitedResponseListener(ResponseListener listener, ConcurrencyLimiter limiter) {
+            super((InstanceProvider<BasicFilter>) null, null);
+            this.listener = listener;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public BasicFilter getFilter() {
+            return listener.getFilter();
+        }
+
+        @Override
+        public String getErrorMessage(int statusCode) {
+            return listener.getErrorMessage(statusCode);
+        }
+
+        @Override
+        void backendAcquired(Channel backendChannel) {
+            listener.backendAcquired(backendChannel);
+        }
+
+        @Override
+        boolean isCancelled() {
+            return listener.isCancelled();
+        }
+
+        @Override
+        void responseReceived(FullHttpMessage response, Channel clientChannel) {
+            if (listener.isCancelled()) {
+                limiter.onIgnored();
+            } else if (isOverloaded(response)) {
+                limiter.onDropped();
+            } else {
+                limiter.onSuccess(System.nanoTime() - start);
+            }
+            listener.responseReceived(response, clientChannel);
+        }
+    }
+}
@@ -19,20 +19,26 @@ package com.apifest;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.apifest.api.BasicAction;
 import com.apifest.api.BasicFilter;
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.Mapping.Upstream;
 import com.apifest.api.MappingAction;
 import com.apifest.api.MappingEndpoint;
 import com.apifest.api.MappingException;
 import com.apifest.api.ResponseFilter;
+import com.apifest.routing.RouteMatch;
+import com.apifest.routing.RouteTree;
+import com.apifest.upstream.UpstreamGroup;
 
 /**
  * Holds the configuration for a mapping version.
@@ -53,8 +59,27 @@ public class MappingConfig implements Serializable {
 
     private Map<String, String> errors = new HashMap<String, String>();
 
+    // backend settings per host:port
+    private Map<String, Backend> backends = new HashMap<String, Backend>();
+
+    // upstream groups per name
+    private Map<String, Upstream> upstreams = new HashMap<String, Upstream>();
+
+    // hash of the files the config is loaded from, used to skip unchanged configs on reload
+    private String contentHash;
+
+    // compiled on first lookup, not serialized
+    private transient volatile RouteTree routes;
+
+    // created for each snapshot the config is added in, see RoutingSnapshot, not serialized
+    private transient volatile Map<String, UpstreamGroup> upstreamGroups;
+
+    // action and filter providers per class name, not serialized
+    private transient volatile ConcurrentMap<Class<?>, ConcurrentMap<String, InstanceProvider<?>>> providers;
+
     public void setMappings(Map<MappingPattern, MappingEndpoint> mappings) {
         this.mappings = mappings;
+        this.routes = null;
     }
 
     public void setActions(Map<String, String> actions) {
@@ -85,6 +110,83 @@ public class MappingConfig implements Serializable {
         return errors;
     }
 
+    public void setBackends(Map<String, Backend> backends) {
+        this.backends = backends;
+    }
+
+    protected Map<String, Backend> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Returns the backend settings, e.g. its connection pool settings.
+     *
+     * @param host backend host
+     * @param port backend port
+     * @return backend settings or null if no backend with that host and port is defined
+     */
+    public Backend getBackend(String host, int port) {
+        return (backends != null) ? backends.get(host + ":" + port) : null;
+    }
+
+    public void setUpstreams(Map<String, Upstream> upstreams) {
+        this.upstreams = upstreams;
+    }
+
+    protected Map<String, Upstream> getUpstreams() {
+        return upstreams;
+    }
+
+    /**
+     * @param name upstream group name
+     * @return upstream group or null if no group with that name is defined
+     */
+    public Upstream getUpstream(String name) {
+        return (upstreams != null) ? upstreams.get(name) : null;
+    }
+
+    /**
+     * @param name upstream group name
+     * @return upstream group or null if no group with that name is defined
+     */
+    public UpstreamGroup getUpstreamGroup(String name) {
+        Map<String, UpstreamGroup> groups = upstreamGroups;
+        return (groups != null) ? groups.get(name) : null;
+    }
+
+    /**
+     * @return upstream groups per name, empty until the config is added to a snapshot
+     */
+    public Map<String, UpstreamGroup> getUpstreamGroups() {
+        Map<String, UpstreamGroup> groups = upstreamGroups;
+        return (groups != null) ? groups : Collections.<String, UpstreamGroup>emptyMap();
+    }
+
+    /**
+     * Creates the upstream groups of the config. The groups take over the state of the groups
+     * with the same names of the previous config of the version.
+     *
+     * @param previous config of the same version before the mappings were reloaded, null if there is none
+     */
+    protected void createUpstreamGroups(MappingConfig previous) {
+        Map<String, UpstreamGroup> groups = new HashMap<String, UpstreamGroup>();
+        if (upstreams != null) {
+            for (Map.Entry<String, Upstream> entry : upstreams.entrySet()) {
+                UpstreamGroup previousGroup = (previous != null) ? previous.getUpstreamGroup(entry.getKey()) : null;
+                groups.put(entry.getKey(), UpstreamGroup.of(entry.getValue(), previousGroup));
+            }
+        }
+        upstreamGroups = Collections.unmodifiableMap(groups);
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     public String getErrorMessage(int code) {
         if (getErrors().get(String.valueOf(code)) != null) {
             return getErrors().get(String.valueOf(code));
@@ -100,30 +202,21 @@ public class MappingConfig implements Serializable {
      */
     public MappingEndpoint getMappingEndpoint(String uri, String method) {
         String rawUri = getUriWithoutParams(uri);
+        RouteMatch match = getRoutes().match(method, rawUri.trim());
+        return (match != null) ? match.toMappingEndpoint() : null;
+    }
 
-        Set<MappingPattern> patterns = getMappings().keySet();
-        for (MappingPattern p : patterns) {
-            Matcher m = p.getPattern().matcher(rawUri.trim());
-            if (m.matches() && p.getMethod().equals(method)) {
-                MappingEndpoint cur = getMappings().get(p);
-                String newUri = cur.getInternalEndpoint();
-                // replace variables with their values
-                if (cur.getVarName() != null) {
-                    String [] varNames = cur.getVarName().split(" ");
-                    if (newUri.contains("{") && m.groupCount() >= 1) {
-                        for (int i = 0; i < varNames.length; i++) {
-                            String varValue = m.group(i + 1);
-                            newUri = newUri.replace("{" + varNames[i] + "}", varValue);
-                        }
-                    }
-                }
-
-                MappingEndpoint result = new MappingEndpoint(cur.getExternalEndpoint(), newUri, cur.getMethod(), cur.getAuthType(), cur.getScope(), cur.getAction(), cur.getFilter(),
-                        cur.getVarExpression(), cur.getVarName(), cur.getBackendHost(), cur.getBackendPort(), cur.getCustomProperties());
-                return result;
+    private RouteTree getRoutes() {
+        RouteTree tree = routes;
+        if (tree == null) {
+            RouteTree.Builder builder = RouteTree.builder();
+            for (Map.Entry<MappingPattern, MappingEndpoint> entry : getMappings().entrySet()) {
+                builder.add(entry.getValue(), entry.getKey().getPattern(), this);
             }
+            tree = builder.build();
+            routes = tree;
         }
-        return null;
+        return tree;
     }
 
     private String getUriWithoutParams(String uri) {
@@ -144,7 +237,17 @@ public class MappingConfig implements Serializable {
      * @return instance of <code>BasicAction</code>
      */
     public BasicAction getAction(MappingAction mappingAction) throws MappingException {
-        BasicAction action = null;
+        return getActionProvider(mappingAction).get();
+    }
+
+    /**
+     * Returns the provider of BasicAction instances that corresponds to the passed mappingAction.
+     * Providers are created once per action class and mapping config.
+     *
+     * @param mappingAction <code>MappingAction</code>
+     * @return <code>InstanceProvider</code> of <code>BasicAction</code>
+     */
+    public InstanceProvider<BasicAction> getActionProvider(MappingAction mappingAction) throws MappingException {
         String actionClass;
         if (mappingAction.getActionClassName() != null) {
             actionClass = mappingAction.getActionClassName();
@@ -154,25 +257,7 @@ public class MappingConfig implements Serializable {
         if (actionClass == null) {
             throw new MappingException("action " + mappingAction.getName() + " not mapped to class");
         }
-        Class<?> clazz;
-        try {
-            // load class from custom jar
-            clazz = ConfigLoader.loadCustomClass(actionClass);
-        } catch (ClassNotFoundException e) {
-            try {
-                clazz = Class.forName(actionClass);
-            } catch (ClassNotFoundException e1) {
-                throw new MappingException("cannot instantiate action class " + actionClass, e1);
-            }
-        }
-        try {
-            action = (BasicAction) clazz.newInstance();
-        } catch (InstantiationException e) {
-            throw new MappingException("cannot instantiate action class " + actionClass, e);
-        } catch (IllegalAccessException e) {
-            throw new MappingException("cannot instantiate action class " + actionClass, e);
-        }
-        return action;
+        return getProvider(actionClass, BasicAction.class);
     }
 
     /**
@@ -182,7 +267,17 @@ public class MappingConfig implements Serializable {
      * @return BasicFilter instance
      */
     public BasicFilter getFilter(ResponseFilter responseFilter) throws MappingException {
-        BasicFilter filter = null;
+        return getFilterProvider(responseFilter).get();
+    }
+
+    /**
+     * Returns the provider of BasicFilter instances that corresponds to the response filter.
+     * Providers are created once per filter class and mapping config.
+     *
+     * @param responseFilter response filter
+     * @return <code>InstanceProvider</code> of <code>BasicFilter</code>
+     */
+    public InstanceProvider<BasicFilter> getFilterProvider(ResponseFilter responseFilter) throws MappingException {
         String filterClass;
         if (responseFilter.getFilterClassName() != null) {
             filterClass = responseFilter.getFilterClassName();
@@ -192,26 +287,74 @@ public class MappingConfig implements Serializable {
         if (filterClass == null) {
             throw new MappingException("filter " + responseFilter.getName() + " not mapped to class");
         }
-        Class<?> clazz;
-        try {
-            // load class from custom jar
-            clazz = ConfigLoader.loadCustomClass(filterClass);
-        } catch (ClassNotFoundException e) {
-            try {
-                clazz = Class.forName(filterClass);
-            } catch (ClassNotFoundException e1) {
-                throw new MappingException("cannot instantiate filter class " + filterClass, e1);
+        return getProvider(filterClass, BasicFilter.class);
+    }
+
+    /**
+     * Creates the instances of all actions and filters used by the endpoints,
+     * so a class that cannot be loaded or instantiated fails the config load.
+     *
+     * @throws MappingException if an action or filter cannot be instantiated
+     */
+    public void loadInstances() throws MappingException {
+        for (MappingEndpoint endpoint : getMappings().values()) {
+            if (endpoint.getAction() != null) {
+                getActionProvider(endpoint.getAction());
+            }
+            if (endpoint.getFilter() != null) {
+                getFilterProvider(endpoint.getFilter());
             }
         }
+    }
 
-        try {
-            filter = (BasicFilter) clazz.newInstance();
-        } catch (InstantiationException e) {
-            throw new MappingException("cannot instantiate filter class " + filterClass, e);
-        } catch (IllegalAccessException e) {
-            throw new MappingException("cannot instantiate filter class " + filterClass, e);
+    @SuppressWarnings("unchecked")
+    private <T> InstanceProvider<T> getProvider(String className, Class<T> type) throws MappingException {
+        ConcurrentMap<String, InstanceProvider<?>> providers = getProviders(type);
+        InstanceProvider<?> provider = providers.get(className);
+        if (provider == null) {
+            provider = InstanceProvider.forClass(loadClass(className, type), type);
+            InstanceProvider<?> current = providers.putIfAbsent(className, provider);
+            if (current != null) {
+                provider = current;
+            }
+        }
+        return (InstanceProvider<T>) provider;
+    }
+
+    private ConcurrentMap<String, InstanceProvider<?>> getProviders(Class<?> type) {
+        ConcurrentMap<Class<?>, ConcurrentMap<String, InstanceProvider<?>>> all = providers;
+        if (all == null) {
+            synchronized (this) {
+                all = providers;
+                if (all == null) {
+                    all = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, InstanceProvider<?>>>();
+                    all.put(BasicAction.class, new ConcurrentHashMap<String, InstanceProvider<?>>());
+                    all.put(BasicFilter.class, new ConcurrentHashMap<String, InstanceProvider<?>>());
+                    providers = all;
+                }
+            }
         }
-        return filter;
+        return all.get(type);
+    }
+
+    private static Class<?> loadClass(String className, Class<?> type) throws MappingException {
+        Class<?> clazz = null;
+        if (ConfigLoader.jarClassLoader != null || ServerConfig.getCustomJarPath() != null) {
+            try {
+                // load class from custom jar
+                clazz = ConfigLoader.loadCustomClass(className);
+            } catch (ClassNotFoundException e) {
+                log.debug("class {} not found in custom jar", className);
+            }
+        }
+        if (clazz == null) {
+            try {
+                clazz = Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                throw new MappingException("cannot instantiate " + type.getSimpleName() + " class " + className, e);
+            }
+        }
+        return clazz;
     }
 
     public MappingConfig mergeConfig(MappingConfig config) throws MappingException {
@@ -224,9 +367,16 @@ public class MappingConfig implements Serializable {
             }
         }
         mappings.putAll(config.getMappings());
+        routes = null;
         actions.putAll(config.getActions());
         filters.putAll(config.getFilters());
         errors.putAll(config.getErrors());
+        if (config.getBackends() != null) {
+            backends.putAll(config.getBackends());
+        }
+        if (config.getUpstreams() != null) {
+            upstreams.putAll(config.getUpstreams());
+        }
         return this;
     }
 
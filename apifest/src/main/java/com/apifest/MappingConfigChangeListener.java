@@ -19,50 +19,25 @@ package com.apifest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.hazelcast.core.EntryEvent;
-import com.hazelcast.core.EntryListener;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
 
 /**
+ * Applies the mapping changes published by any node, including the current one.
+ *
  * @author Rossitsa Borissova
  */
-public class MappingConfigChangeListener implements EntryListener<String, MappingConfig> {
+public class MappingConfigChangeListener implements MessageListener<MappingChangeSet> {
 
     private static Logger log = LoggerFactory.getLogger(MappingConfigChangeListener.class);
 
     /*
-     * @see com.hazelcast.core.EntryListener#entryAdded(com.hazelcast.core.EntryEvent)
-     */
-    @Override
-    public void entryAdded(EntryEvent<String, MappingConfig> event) {
-        log.debug("entry added, key {}, value {}", event.getKey(), event.getValue());
-        ConfigLoader.updateMapping(event.getKey(), event.getValue());
-    }
-
-    /*
-     * @see com.hazelcast.core.EntryListener#entryRemoved(com.hazelcast.core.EntryEvent)
-     */
-    @Override
-    public void entryRemoved(EntryEvent<String, MappingConfig> event) {
-        log.debug("entry removed, key {}, value {}", event.getKey(), event.getValue());
-        ConfigLoader.removeMapping(event.getKey());
-    }
-
-    /*
-     * @see com.hazelcast.core.EntryListener#entryUpdated(com.hazelcast.core.EntryEvent)
-     */
-    @Override
-    public void entryUpdated(EntryEvent<String, MappingConfig> event) {
-        log.debug("entry updated, key {}, value {}", event.getKey(), event.getValue());
-        ConfigLoader.updateMapping(event.getKey(), event.getValue());
-    }
-
-    /*
-     * @see com.hazelcast.core.EntryListener#entryEvicted(com.hazelcast.core.EntryEvent)
+     * @see com.hazelcast.core.MessageListener#onMessage(com.hazelcast.core.Message)
      */
     @Override
-    public void entryEvicted(EntryEvent<String, MappingConfig> event) {
-        log.debug("entry evicted, key {}, value {}", event.getKey(), event.getValue());
-        ConfigLoader.removeMapping(event.getKey());
+    public void onMessage(Message<MappingChangeSet> message) {
+        log.debug("mapping changes received, {}", message.getMessageObject());
+        ConfigLoader.applyMappingChanges(message.getMessageObject());
     }
 
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
@@ -60,13 +61,23 @@ public final class MappingConfigValidator {
     }
 
     public static boolean validate(File mappingFile) {
+        return validate(new StreamSource(mappingFile));
+    }
+
+    /**
+     * Validates a mapping file. The compiled schema is shared, so files could be validated in parallel.
+     *
+     * @param mappingFile source of the mapping file
+     * @return true if the file is valid against the schema
+     */
+    public static boolean validate(Source mappingFile) {
         boolean ok = false;
         try {
             if (schema == null) {
                 loadSchema();
             }
             Validator validator = schema.newValidator();
-            validator.validate(new StreamSource(mappingFile));
+            validator.validate(mappingFile);
             ok = true;
         } catch (SAXException ex) {
             log.error("mapping file NOT valid: {}", ex.getMessage());
@@ -76,7 +87,7 @@ public final class MappingConfigValidator {
         return ok;
     }
 
-    private static void loadSchema() {
+    private static synchronized void loadSchema() {
         InputStream xsdFile = null;
         try {
             if (schema == null) {
@@ -21,16 +21,8 @@ import java.net.InetSocketAddress;
 import java.util.concurrent.Executors;
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpRequestDecoder;
-import io.netty.handler.codec.http.HttpResponseEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,9 +38,10 @@ public final class MappingServer {
 
     public static EventLoopGroup workerGroup;
 
-    private static Logger log = LoggerFactory.getLogger(MappingServer.class);
+    // event loops of the backend connections, the worker group unless threads.upstream is set
+    public static EventLoopGroup upstreamGroup;
 
-    private static final int MAX_CONTENT_LEN = 10 * 1024 * 1024;
+    private static Logger log = LoggerFactory.getLogger(MappingServer.class);
 
     public static MappingClient client;
 
@@ -69,23 +62,17 @@ public final class MappingServer {
             }
         }
 
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup(128);
+        Transport transport = Transport.get();
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(ServerConfig.getBossThreads(), "apifest-boss");
+        workerGroup = transport.newEventLoopGroup(ServerConfig.getWorkerThreads(), "apifest-worker");
+        upstreamGroup = (ServerConfig.getUpstreamThreads() > 0)
+                ? transport.newEventLoopGroup(ServerConfig.getUpstreamThreads(), "apifest-upstream") : workerGroup;
+        log.info("{} transport, {} worker threads", transport, ServerConfig.getWorkerThreads());
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch) throws Exception {
-                            ChannelPipeline p = ch.pipeline();
-
-                            p.addLast(new HttpRequestDecoder());
-                            p.addLast(new HttpObjectAggregator(MAX_CONTENT_LEN));
-                            p.addLast(new HttpResponseEncoder());
-                            p.addLast(new HttpRequestHandler());
-                        }
-                    });
+                    .channel(transport.getServerChannelClass())
+                    .childHandler(new MappingServerInitializer());
 
             bootstrap.childOption(ChannelOption.TCP_NODELAY, true);
             bootstrap.childOption(ChannelOption.SO_KEEPALIVE, true);
@@ -113,6 +100,8 @@ public final class MappingServer {
                 }
             }
             client = MappingClient.getClient();
+            LifecycleEventDispatcher.start();
+            ConfigReloader.start();
             CountReseter reseter = new CountReseter();
             reseter.resetCounters();
             bootstrap.bind(new InetSocketAddress(ServerConfig.getHost(), ServerConfig.getPort())).channel().closeFuture().sync();
@@ -122,6 +111,11 @@ public final class MappingServer {
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            if (upstreamGroup != workerGroup) {
+                upstreamGroup.shutdownGracefully();
+            }
+            LifecycleEventDispatcher.stop();
+            ConfigReloader.stop();
         }
     }
 
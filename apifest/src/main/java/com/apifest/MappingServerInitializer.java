@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodecFactory;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeEvent;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler.PriorKnowledgeUpgradeEvent;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2MultiplexCodec;
+import io.netty.handler.codec.http2.Http2MultiplexCodecBuilder;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.util.AsciiString;
+
+/**
+ * Sets up the pipeline of client connections. When <code>http2.enabled</code> is set, a connection could switch
+ * to HTTP/2 without TLS - with an h2c upgrade request or with the HTTP/2 preface (prior knowledge).
+ * Each HTTP/2 stream gets its own pipeline that converts its frames to HTTP/1.1 messages, so requests over
+ * both protocols are handled by {@link HttpRequestHandler} in the same way.
+ * <p>
+ * Pipelined HTTP/1.1 requests are handled at the same time, see {@link HttpPipeliningHandler}. The flushes of
+ * the responses written while the connection is read are merged, so a batch of requests is answered with a single write.
+ */
+public class MappingServerInitializer extends ChannelInitializer<Channel> {
+
+    private static final int MAX_CONTENT_LEN = 10 * 1024 * 1024;
+
+    @Override
+    public void initChannel(Channel ch) throws Exception {
+        ChannelPipeline p = ch.pipeline();
+        addFlushConsolidation(p);
+        if (!ServerConfig.isHttp2Enabled()) {
+            // the codec is before the aggregator, so the 100 Continue the aggregator writes is encoded
+            p.addLast(new HttpServerCodec());
+            // requests to streaming endpoints are not aggregated
+            p.addLast(new SelectiveHttpObjectAggregator.Server(MAX_CONTENT_LEN));
+            p.addLast(new HttpPipeliningHandler(ServerConfig.getPipeliningMaxRequests()));
+            p.addLast(new HttpRequestHandler());
+            return;
+        }
+        HttpServerCodec sourceCodec = new HttpServerCodec();
+        HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(sourceCodec, new UpgradeCodecFactory() {
+            @Override
+            public UpgradeCodec newUpgradeCodec(CharSequence protocol) {
+                if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+                    return new Http2ServerUpgradeCodec(createHttp2Codec());
+                }
+                return null;
+            }
+        }, MAX_CONTENT_LEN);
+        p.addLast(new CleartextHttp2ServerUpgradeHandler(sourceCodec, upgradeHandler, createHttp2Codec()));
+        p.addLast(new SelectiveHttpObjectAggregator.Server(MAX_CONTENT_LEN));
+        p.addLast(new HttpPipeliningHandler(ServerConfig.getPipeliningMaxRequests()));
+        p.addLast(new HttpRequestHandler());
+        p.addLast(new Http2SwitchListener());
+    }
+
+    /**
+     * Merges the flushes of a connection until it is read completely or, if it is not read at the moment, until
+     * the tasks already waiting on its event loop run. Disabled with <code>flush.consolidation.limit=0</code>.
+     */
+    private static void addFlushConsolidation(ChannelPipeline p) {
+        int limit = ServerConfig.getFlushConsolidationLimit();
+        if (limit > 0) {
+            p.addFirst(new FlushConsolidationHandler(limit, true));
+        }
+    }
+
+    private static Http2MultiplexCodec createHttp2Codec() {
+        return Http2MultiplexCodecBuilder.forServer(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ChannelPipeline p = ch.pipeline();
+                p.addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                p.addLast(ExtensionHeaderRemover.INSTANCE);
+                p.addLast(new SelectiveHttpObjectAggregator.Server(MAX_CONTENT_LEN));
+                p.addLast(new HttpRequestHandler());
+            }
+        }).initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(ServerConfig.getHttp2MaxStreams())).build();
+    }
+
+    /**
+     * Removes the HTTP/1.1 handlers from a connection switched to HTTP/2, its requests are handled per stream.
+     */
+    private static final class Http2SwitchListener extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof UpgradeEvent || evt instanceof PriorKnowledgeUpgradeEvent) {
+                ChannelPipeline p = ctx.pipeline();
+                p.remove(SelectiveHttpObjectAggregator.Server.class);
+                p.remove(HttpPipeliningHandler.class);
+                p.remove(HttpRequestHandler.class);
+                p.remove(this);
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.apifest.api.BasicFilter;
+import com.apifest.api.CoalescePolicy;
+import com.apifest.api.MappingEndpoint;
+
+/**
+ * Coalesces identical GET requests of endpoints with a coalesce policy - while a request is sent to the backend,
+ * identical requests wait for its response instead of being sent too. Each waiting request gets its own
+ * duplicate of the response, so the backend gets a single request per key at any moment.
+ * Requests are identical if they have the same endpoint, mapped URI, coalesce headers and conditional headers.
+ */
+public final class RequestCoalescer {
+
+    private static final ConcurrentMap<String, Flight> FLIGHTS = new ConcurrentHashMap<String, Flight>();
+
+    private static final LongAdder flights = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+
+    private RequestCoalescer() {
+    }
+
+    /**
+     * Joins the request to an identical request that is being sent to the backend, or starts a new one.
+     *
+     * @param mappedReq mapped request
+     * @param listener listener of the request
+     * @return null if the request waits for the response of an identical request, otherwise the listener
+     * the response of the request should be passed to
+     */
+    public static ResponseListener join(HttpRequest mappedReq, MappingEndpoint endpoint, ResponseListener listener) {
+        CoalescePolicy policy = endpoint.getCoalesce();
+        if (policy == null || !HttpMethod.GET.equals(mappedReq.method())) {
+            return listener;
+        }
+        String key = getKey(mappedReq, endpoint, policy);
+        Flight flight = new Flight(key, listener);
+        while (true) {
+            Flight current = FLIGHTS.putIfAbsent(key, flight);
+            if (current == null) {
+                flights.increment();
+                return flight;
+            }
+            if (current.join(listener)) {
+                coalesced.increment();
+                return null;
+            }
+            // the flight has just completed
+            FLIGHTS.remove(key, current);
+        }
+    }
+
+    /**
+     * Completes the flight of a request that could not be sent, so the requests waiting for it get the error response
+     * and the next identical request is sent again.
+     *
+     * @param listener listener returned by {@link #join}
+     * @param response error response
+     * @return false if the listener is not a flight, the response is not used then
+     */
+    public static boolean abort(ResponseListener listener, FullHttpMessage response) {
+        if (!(listener instanceof Flight)) {
+            return false;
+        }
+        listener.responseReceived(response, null);
+        return true;
+    }
+
+    protected static String getKey(HttpRequest mappedReq, MappingEndpoint endpoint, CoalescePolicy policy) {
+        StringBuilder key = new StringBuilder(endpoint.getUniqueKey()).append(' ').append(mappedReq.uri());
+        if (policy.getHeaders() != null) {
+            for (String name : policy.getHeaders().trim().split("\\s+")) {
+                appendHeader(key, mappedReq, name);
+            }
+        }
+        // a conditional request could get 304 that is not a response for the others
+        appendHeader(key, mappedReq, HttpHeaderNames.IF_NONE_MATCH.toString());
+        appendHeader(key, mappedReq, HttpHeaderNames.IF_MODIFIED_SINCE.toString());
+        return key.toString();
+    }
+
+    private static void appendHeader(StringBuilder key, HttpRequest request, String name) {
+        key.append('\n').append(name).append(':').append(request.headers().get(name, ""));
+    }
+
+    /**
+     * @return number of requests sent to the backend and of requests that waited for an identical one
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("inFlight", FLIGHTS.size());
+        metrics.put("flights", flights.sum());
+        metrics.put("coalesced", coalesced.sum());
+        return metrics;
+    }
+
+    /**
+     * Request sent to the backend, with the identical requests waiting for its response.
+     */
+    private static final class Flight extends ResponseListener {
+
+        private final String key;
+        private final ResponseListener leader;
+        // guarded by this
+        private final List<ResponseListener> followers = new ArrayList<ResponseListener>();
+        private boolean completed;
+
+        private Flight(String key, ResponseListener leader) {
+            super((InstanceProvider<BasicFilter>) null, null);
+            this.key = key;
+            this.leader = leader;
+        }
+
+        private synchronized boolean join(ResponseListener listener) {
+            if (completed) {
+                return false;
+            }
+            followers.add(listener);
+            return true;
+        }
+
+        @Override
+        public BasicFilter getFilter() {
+            return leader.getFilter();
+        }
+
+        @Override
+        public String getErrorMessage(int statusCode) {
+            return leader.getErrorMessage(statusCode);
+        }
+
+        @Override
+        void responseReceived(FullHttpMessage response, Channel clientChannel) {
+            List<ResponseListener> waiting;
+            synchronized (this) {
+                if (completed) {
+                    // the request failed after its response was received, everyone is answered already
+                    response.release();
+                    return;
+                }
+                completed = true;
+                waiting = new ArrayList<ResponseListener>(followers);
+            }
+            FLIGHTS.remove(key, this);
+            // duplicates are taken before the leader writes the response and releases it
+            List<FullHttpMessage> duplicates = new ArrayList<FullHttpMessage>(waiting.size());
+            for (int i = 0; i < waiting.size(); i++) {
+                duplicates.add(response.retainedDuplicate());
+            }
+            leader.responseReceived(response, clientChannel);
+            for (int i = 0; i < waiting.size(); i++) {
+                waiting.get(i).responseReceived(duplicates.get(i), null);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.concurrent.TimeUnit;
+
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.MappingEndpoint;
+import com.apifest.api.TimeoutPolicy;
+
+/**
+ * Timeouts of a request forwarded to the backend - the deadline of the whole request, including retries,
+ * and the time each request sent to the backend waits for its response. The endpoint timeouts override
+ * the backend ones, the backend ones override <code>backend.response_timeout</code> and <code>backend.request_timeout</code>.
+ * <p>
+ * The time left until the deadline is sent to the backend in the {@link #TIMEOUT_HEADER} header, so it could stop
+ * working on a request nobody waits for. A client could send the header as well, the deadline is then never later
+ * than the client expects.
+ */
+public final class RequestTimeout {
+
+    public static final String TIMEOUT_HEADER = "X-Apifest-Timeout-Ms";
+
+    /**
+     * No deadline, requests wait for the response for the backend or the default response timeout.
+     */
+    public static final RequestTimeout DEFAULT = new RequestTimeout(null, 0);
+
+    private final Integer responseTimeout;
+    // System.nanoTime() of the deadline, meaningful only if hasDeadline
+    private final long deadline;
+    private final boolean hasDeadline;
+
+    private RequestTimeout(Integer responseTimeout, long timeoutMillis) {
+        this.responseTimeout = responseTimeout;
+        this.hasDeadline = timeoutMillis > 0;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Creates the timeouts of a request, the deadline starts now.
+     *
+     * @param endpoint endpoint of the request
+     * @param backend backend settings from the mappings, null if the endpoint has no backend settings, e.g. upstream groups
+     * @param request request received from the client
+     */
+    public static RequestTimeout of(MappingEndpoint endpoint, Backend backend, HttpRequest request) {
+        TimeoutPolicy policy = endpoint.getTimeout();
+        Integer requestTimeout = (policy != null) ? policy.getRequest() : null;
+        if (requestTimeout == null && backend != null) {
+            requestTimeout = backend.getRequestTimeout();
+        }
+        long timeout = (requestTimeout != null) ? requestTimeout : ServerConfig.getBackendRequestTimeout();
+        Long clientTimeout = parseTimeout(request.headers().get(TIMEOUT_HEADER));
+        if (clientTimeout != null && (timeout <= 0 || clientTimeout < timeout)) {
+            // 0 would mean no deadline, the client has no time left
+            timeout = Math.max(clientTimeout, 1);
+        }
+        Integer responseTimeout = (policy != null) ? policy.getResponse() : null;
+        if (responseTimeout == null && timeout <= 0) {
+            return DEFAULT;
+        }
+        return new RequestTimeout(responseTimeout, timeout);
+    }
+
+    /**
+     * @return the time left until the deadline in milliseconds, Long.MAX_VALUE if there is no deadline
+     */
+    public long getRemainingMillis() {
+        if (!hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return hasDeadline && deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Returns the time a request sent to the given backend waits for the response - the response timeout,
+     * but not past the deadline.
+     *
+     * @param backend backend settings from the mappings, null to use the default response timeout
+     * @return timeout in milliseconds, 0 if the request waits forever
+     */
+    public long getResponseTimeout(Backend backend) {
+        Integer timeout = responseTimeout;
+        if (timeout == null && backend != null) {
+            timeout = backend.getResponseTimeout();
+        }
+        long millis = (timeout != null) ? timeout : ServerConfig.getBackendResponseTimeout();
+        if (!hasDeadline) {
+            return Math.max(millis, 0);
+        }
+        long remaining = Math.max(getRemainingMillis(), 1);
+        return (millis > 0) ? Math.min(millis, remaining) : remaining;
+    }
+
+    /**
+     * Sets the time left until the deadline in the header of a request sent to the backend,
+     * removes the header if there is no deadline.
+     */
+    public void setHeader(HttpRequest request) {
+        if (hasDeadline) {
+            request.headers().set(TIMEOUT_HEADER, getRemainingMillis());
+        } else {
+            request.headers().remove(TIMEOUT_HEADER);
+        }
+    }
+
+    private static Long parseTimeout(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            long timeout = Long.parseLong(value.trim());
+            return (timeout >= 0) ? timeout : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -29,10 +29,14 @@ import java.util.Map;
  */
 public abstract class ResponseListener {
 
-    private BasicFilter filter = null;
+    private InstanceProvider<BasicFilter> filter = null;
     private Map<String, String> errors = null;
 
     public ResponseListener(BasicFilter filter, Map<String, String> errors) {
+        this(InstanceProvider.of(filter), errors);
+    }
+
+    public ResponseListener(InstanceProvider<BasicFilter> filter, Map<String, String> errors) {
         this.filter = filter;
         this.errors = errors;
     }
@@ -44,8 +48,35 @@ public abstract class ResponseListener {
      */
     abstract void responseReceived(FullHttpMessage response, Channel clientChannel);
 
+    /**
+     * Called when a backend connection is acquired, before the request is written to it.
+     *
+     * @param backendChannel connection the response will be received on
+     */
+    void backendAcquired(Channel backendChannel) {
+    }
+
+    /**
+     * Called when the request fails before it is sent, the listener will not get a response then.
+     */
+    void discarded() {
+    }
+
+    /**
+     * @return true if the response is not needed any more, e.g. a hedged copy of the request has already got one
+     */
+    boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * Returns the filter instance for the current thread, the response could be received on a thread
+     * other than the one that created the listener.
+     *
+     * @return filter or null if there is no filter
+     */
     public BasicFilter getFilter() {
-        return filter;
+        return (filter != null) ? filter.get() : null;
     }
 
     public String getErrorMessage(int statusCode) {
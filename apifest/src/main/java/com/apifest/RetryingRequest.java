@@ -0,0 +1,343 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.Channel;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.api.BasicFilter;
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.RetryPolicy;
+import com.apifest.upstream.LatencyTracker;
+import com.apifest.upstream.RetryBudget;
+import com.apifest.upstream.UpstreamGroup;
+import com.apifest.upstream.UpstreamMember;
+
+/**
+ * Sends a request to the backend according to the retry policy of its endpoint. A request that could not reach
+ * the backend, or that got one of the retry statuses, is sent again - to another member for upstream groups.
+ * A request of an idempotent endpoint that takes longer than the hedge percentile of the endpoint response times
+ * is sent once more without cancelling the first one; the first response wins and the other request is cancelled
+ * by closing its connection. Retries and hedged requests are limited by the {@link RetryBudget}
+ * and are not sent after the deadline of the request.
+ */
+public class RetryingRequest {
+
+    private static Logger log = LoggerFactory.getLogger(RetryingRequest.class);
+
+    private static final LongAdder hedges = new LongAdder();
+    private static final LongAdder hedgeWins = new LongAdder();
+
+    private final MappingClient client;
+    private final FullHttpRequest request;
+    private final UpstreamGroup group;
+    private final String host;
+    private final int port;
+    private final Backend backend;
+    private final RetryPolicy policy;
+    private final RequestTimeout timeout;
+    private final boolean idempotent;
+    private final LatencyTracker latency;
+    private final ResponseListener listener;
+
+    // guarded by this
+    private int attempts;
+    private boolean done;
+    private final List<Attempt> inFlight = new ArrayList<Attempt>();
+    private final List<UpstreamMember> tried = new ArrayList<UpstreamMember>();
+    private ScheduledFuture<?> hedgeTimer;
+
+    /**
+     * @param request mapped request, released when the request completes
+     * @param group upstream group the request is balanced in, null if the endpoint has a single backend
+     * @param host backend host if there is no upstream group
+     * @param port backend port if there is no upstream group
+     * @param backend backend settings from the mappings, null to use the default timeouts
+     * @param policy retry policy of the endpoint
+     * @param timeout timeouts of the request, each attempt waits for its response until the deadline at most
+     * @param latency response times of the endpoint
+     * @param listener listener that will handle the final response
+     */
+    public RetryingRequest(MappingClient client, FullHttpRequest request, UpstreamGroup group, String host, int port,
+            Backend backend, RetryPolicy policy, RequestTimeout timeout, LatencyTracker latency, ResponseListener listener) {
+        this.client = client;
+        this.request = request;
+        this.group = group;
+        this.host = host;
+        this.port = port;
+        this.backend = backend;
+        this.policy = policy;
+        this.timeout = timeout;
+        this.idempotent = isIdempotent(policy, request.method());
+        this.latency = latency;
+        this.listener = listener;
+    }
+
+    /**
+     * Checks whether a request could be sent more than once - the endpoint is marked as idempotent or,
+     * if it is not marked, the method is idempotent.
+     */
+    protected static boolean isIdempotent(RetryPolicy policy, HttpMethod method) {
+        if (policy.getIdempotent() != null) {
+            return policy.getIdempotent();
+        }
+        return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method)
+                || HttpMethod.PUT.equals(method) || HttpMethod.DELETE.equals(method);
+    }
+
+    /**
+     * Sends the first attempt of the request and, for hedged endpoints, schedules the hedged one.
+     */
+    public void start() {
+        RetryBudget.getInstance().deposit();
+        Attempt first;
+        synchronized (this) {
+            first = newAttempt(false);
+        }
+        send(first);
+        scheduleHedge();
+    }
+
+    // guarded by this
+    private Attempt newAttempt(boolean hedge) {
+        attempts++;
+        UpstreamMember member = null;
+        if (group != null) {
+            member = group.choose(tried);
+            tried.add(member);
+        }
+        Attempt attempt = new Attempt(member, hedge);
+        inFlight.add(attempt);
+        return attempt;
+    }
+
+    private void send(Attempt attempt) {
+        // each attempt writes its own copy, the content of the request is kept until the request completes
+        FullHttpRequest copy = request.retainedDuplicate();
+        attempt.request = copy;
+        UpstreamMember member = attempt.member;
+        if (member != null) {
+            copy.headers().set(HttpHeaderNames.HOST, member.getHost());
+            client.send(copy, member.getHost(), member.getPort(), member.getBackend(), member, timeout, attempt);
+        } else {
+            client.send(copy, host, port, backend, null, timeout, attempt);
+        }
+    }
+
+    private void scheduleHedge() {
+        Integer percentile = policy.getHedgePercentile();
+        if (percentile == null || !idempotent || policy.getAttempts() < 2) {
+            return;
+        }
+        long delay = latency.getPercentile(percentile);
+        if (delay < 0) {
+            return;
+        }
+        // scheduled on the current event loop, so the hedged copy gets a connection of the same event loop
+        ScheduledFuture<?> timer = MappingClient.currentEventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                hedge();
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        synchronized (this) {
+            if (done) {
+                timer.cancel(false);
+            } else {
+                hedgeTimer = timer;
+            }
+        }
+    }
+
+    private void hedge() {
+        Attempt attempt;
+        synchronized (this) {
+            if (done || inFlight.isEmpty() || attempts >= policy.getAttempts() || timeout.isExpired()
+                    || !RetryBudget.getInstance().tryWithdraw()) {
+                return;
+            }
+            attempt = newAttempt(true);
+        }
+        hedges.increment();
+        log.debug("hedging request {}", request.uri());
+        send(attempt);
+    }
+
+    private void completed(Attempt attempt, FullHttpMessage response, Channel channel) {
+        Attempt retry = null;
+        List<Attempt> cancelled = null;
+        boolean deliver = false;
+        synchronized (this) {
+            inFlight.remove(attempt);
+            if (!done) {
+                if (!isRetryable(attempt, response)) {
+                    deliver = true;
+                } else if (inFlight.isEmpty()) {
+                    if (attempts < policy.getAttempts() && !timeout.isExpired() && RetryBudget.getInstance().tryWithdraw()) {
+                        retry = newAttempt(false);
+                    } else {
+                        deliver = true;
+                    }
+                }
+                // otherwise the response of the other attempt is waited for
+                if (deliver) {
+                    done = true;
+                    cancelled = new ArrayList<Attempt>(inFlight);
+                    inFlight.clear();
+                    if (hedgeTimer != null) {
+                        hedgeTimer.cancel(false);
+                    }
+                }
+            }
+        }
+        if (!deliver) {
+            discard(response, channel);
+            if (retry != null) {
+                log.debug("retrying request {}", request.uri());
+                send(retry);
+            }
+            return;
+        }
+        for (Attempt other : cancelled) {
+            other.cancel();
+        }
+        if (channel != null && getStatus(response) < 500) {
+            latency.record(System.nanoTime() - attempt.start);
+        }
+        if (attempt.hedge) {
+            hedgeWins.increment();
+        }
+        try {
+            listener.responseReceived(response, channel);
+        } finally {
+            request.release();
+        }
+    }
+
+    private boolean isRetryable(Attempt attempt, FullHttpMessage response) {
+        if (!attempt.acquired) {
+            // the request has not reached the backend, e.g. it could not be connected or its circuit is open
+            return policy.isConnectErrors();
+        }
+        return idempotent && policy.isRetryStatus(getStatus(response));
+    }
+
+    private static int getStatus(FullHttpMessage response) {
+        return (response instanceof FullHttpResponse) ? ((FullHttpResponse) response).status().code() : 0;
+    }
+
+    // the connection of a response that is not used is returned to the pool, it is closed already if not reusable
+    private static void discard(FullHttpMessage response, Channel channel) {
+        ReferenceCountUtil.release(response);
+        if (channel != null) {
+            ChannelPool pool = channel.attr(HttpResponseHandler.poolAttachmentKey).get();
+            if (pool != null) {
+                pool.release(channel);
+            }
+        }
+    }
+
+    /**
+     * @return number of hedged requests sent and of hedged requests that responded first
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.putAll(RetryBudget.getInstance().getMetrics());
+        metrics.put("hedges", hedges.sum());
+        metrics.put("hedgeWins", hedgeWins.sum());
+        return metrics;
+    }
+
+    /**
+     * Listener of a single attempt of the request.
+     */
+    private final class Attempt extends ResponseListener {
+
+        private final UpstreamMember member;
+        private final boolean hedge;
+        private final long start = System.nanoTime();
+        private FullHttpRequest request;
+        private volatile Channel channel;
+        private volatile boolean acquired;
+        private volatile boolean cancelled;
+
+        private Attempt(UpstreamMember member, boolean hedge) {
+            super((InstanceProvider<BasicFilter>) null, null);
+            this.member = member;
+            this.hedge = hedge;
+        }
+
+        @Override
+        public BasicFilter getFilter() {
+            return listener.getFilter();
+        }
+
+        @Override
+        public String getErrorMessage(int statusCode) {
+            return listener.getErrorMessage(statusCode);
+        }
+
+        @Override
+        void backendAcquired(Channel backendChannel) {
+            acquired = true;
+            channel = backendChannel;
+            if (cancelled) {
+                backendChannel.close();
+            }
+        }
+
+        @Override
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        // closing the connection makes the response handler complete the attempt
+        private void cancel() {
+            cancelled = true;
+            Channel backendChannel = channel;
+            if (backendChannel != null) {
+                backendChannel.close();
+            }
+        }
+
+        @Override
+        void responseReceived(FullHttpMessage response, Channel backendChannel) {
+            if (!acquired) {
+                // the copy has not been written, so it is not released by the encoder
+                ReferenceCountUtil.release(request);
+            }
+            completed(this, response, backendChannel);
+        }
+    }
+}
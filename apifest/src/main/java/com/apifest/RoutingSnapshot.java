@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.Mapping.Upstream;
+import com.apifest.api.MappingEndpoint;
+import com.apifest.routing.RouteCache;
+import com.apifest.routing.RouteTree;
+import com.apifest.upstream.UpstreamGroup;
+
+/**
+ * Immutable view of everything needed to route a request - mapping configs (with their actions, filters and errors),
+ * the compiled routes with their lookup cache, the upstream groups, the connection pool settings of each backend and the global errors. Each change creates a new snapshot with a higher version,
+ * a published snapshot is never modified, so it could be read from any thread without locking or copying.
+ */
+public final class RoutingSnapshot {
+
+    private static Logger log = LoggerFactory.getLogger(RoutingSnapshot.class);
+
+    private static final RoutingSnapshot EMPTY = new RoutingSnapshot(0, Collections.<String, MappingConfig>emptyMap(),
+            new RouteCache(RouteTree.builder().build(), 0), Collections.<String, BackendPool.Settings>emptyMap(),
+            Collections.<Integer, String>emptyMap());
+
+    private final long version;
+    private final Map<String, MappingConfig> mappings;
+    private final RouteCache routes;
+    private final Map<String, BackendPool.Settings> poolSettings;
+    private final Map<Integer, String> globalErrors;
+
+    private RoutingSnapshot(long version, Map<String, MappingConfig> mappings, RouteCache routes,
+            Map<String, BackendPool.Settings> poolSettings, Map<Integer, String> globalErrors) {
+        this.version = version;
+        this.mappings = mappings;
+        this.routes = routes;
+        this.poolSettings = poolSettings;
+        this.globalErrors = globalErrors;
+    }
+
+    public static RoutingSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return version of the snapshot, incremented on each change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return unmodifiable map of mapping configs per version name
+     */
+    public Map<String, MappingConfig> getMappings() {
+        return mappings;
+    }
+
+    public RouteTree getRoutes() {
+        return routes.getRoutes();
+    }
+
+    /**
+     * @return route lookup cache, created empty for each new set of mappings
+     */
+    public RouteCache getRouteCache() {
+        return routes;
+    }
+
+    /**
+     * Returns the connection pool settings of a backend. A backend has a single pool, so its settings are settled
+     * when the snapshot is created, even if several mapping versions or upstream groups define it.
+     *
+     * @param host backend host
+     * @param port backend port
+     * @return the settings of the backend, the default ones if no mapping defines it
+     */
+    public BackendPool.Settings getPoolSettings(String host, int port) {
+        BackendPool.Settings settings = poolSettings.get(host + ":" + port);
+        return (settings != null) ? settings : BackendPool.Settings.of(null);
+    }
+
+    /**
+     * @return unmodifiable map of global errors per HTTP status
+     */
+    public Map<Integer, String> getGlobalErrors() {
+        return globalErrors;
+    }
+
+    /**
+     * Creates a snapshot with all mapping configs replaced.
+     */
+    public RoutingSnapshot withMappings(Map<String, MappingConfig> newMappings) {
+        Map<String, MappingConfig> copy = Collections.unmodifiableMap(new HashMap<String, MappingConfig>(newMappings));
+        RouteCache cache = new RouteCache(compileRoutes(copy.values()), ServerConfig.getRouteCacheSize());
+        Map<String, Backend> backends = collectBackends(copy);
+        createUpstreamGroups(copy, backends);
+        return new RoutingSnapshot(version + 1, copy, cache, collectPoolSettings(backends), globalErrors);
+    }
+
+    /**
+     * Creates a snapshot with all changed and removed mapping configs applied at once.
+     */
+    public RoutingSnapshot withMappingChanges(MappingChangeSet changes) {
+        return withMappings(changes.applyTo(mappings));
+    }
+
+    /**
+     * Creates a snapshot with all global errors replaced.
+     */
+    public RoutingSnapshot withGlobalErrors(Map<Integer, String> newErrors) {
+        Map<Integer, String> copy = Collections.unmodifiableMap(new HashMap<Integer, String>(newErrors));
+        return new RoutingSnapshot(version + 1, mappings, routes, poolSettings, copy);
+    }
+
+    /**
+     * Creates a snapshot with a global error added or replaced.
+     */
+    public RoutingSnapshot withGlobalError(Integer status, String message) {
+        Map<Integer, String> copy = new HashMap<Integer, String>(globalErrors);
+        copy.put(status, message);
+        return withGlobalErrors(copy);
+    }
+
+    /**
+     * Creates a snapshot without the given global error.
+     */
+    public RoutingSnapshot withoutGlobalError(Integer status) {
+        Map<Integer, String> copy = new HashMap<Integer, String>(globalErrors);
+        copy.remove(status);
+        return withGlobalErrors(copy);
+    }
+
+    // configs added or replaced get their own groups, the groups of unchanged configs are kept
+    private void createUpstreamGroups(Map<String, MappingConfig> configs, Map<String, Backend> backends) {
+        Map<String, UpstreamGroup> groups = new HashMap<String, UpstreamGroup>();
+        for (Map.Entry<String, MappingConfig> entry : configs.entrySet()) {
+            MappingConfig config = entry.getValue();
+            MappingConfig previous = mappings.get(entry.getKey());
+            if (config != previous) {
+                config.createUpstreamGroups(previous);
+            }
+            for (Map.Entry<String, UpstreamGroup> group : config.getUpstreamGroups().entrySet()) {
+                groups.put(entry.getKey() + "/" + group.getKey(), group.getValue());
+            }
+        }
+        UpstreamGroup.setGroups(groups, backends);
+    }
+
+    // the first definition of a backend wins - mapping versions in name order, backends before upstream members
+    protected static Map<String, Backend> collectBackends(Map<String, MappingConfig> configs) {
+        Map<String, Backend> backends = new HashMap<String, Backend>();
+        for (Map.Entry<String, MappingConfig> entry : new TreeMap<String, MappingConfig>(configs).entrySet()) {
+            MappingConfig config = entry.getValue();
+            if (config.getBackends() != null) {
+                for (Backend backend : config.getBackends().values()) {
+                    addBackend(backends, backend, entry.getKey());
+                }
+            }
+            if (config.getUpstreams() != null) {
+                for (Upstream upstream : config.getUpstreams().values()) {
+                    if (upstream.getMembers() == null) {
+                        continue;
+                    }
+                    for (Backend member : upstream.getMembers()) {
+                        addBackend(backends, member, entry.getKey());
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableMap(backends);
+    }
+
+    private static void addBackend(Map<String, Backend> backends, Backend backend, String mappingName) {
+        String address = backend.getBackendHost() + ":" + backend.getBackendPort();
+        Backend current = backends.get(address);
+        if (current == null) {
+            backends.put(address, backend);
+        } else if (!BackendPool.Settings.of(current).equals(BackendPool.Settings.of(backend))) {
+            log.warn("backend {} has different pool settings in mapping {}, the first ones defined are used", address, mappingName);
+        }
+    }
+
+    protected static Map<String, BackendPool.Settings> collectPoolSettings(Map<String, Backend> backends) {
+        Map<String, BackendPool.Settings> settings = new HashMap<String, BackendPool.Settings>();
+        for (Map.Entry<String, Backend> entry : backends.entrySet()) {
+            settings.put(entry.getKey(), BackendPool.Settings.of(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(settings);
+    }
+
+    protected static RouteTree compileRoutes(Iterable<MappingConfig> configs) {
+        RouteTree.Builder builder = RouteTree.builder();
+        for (MappingConfig config : configs) {
+            for (Map.Entry<MappingPattern, MappingEndpoint> entry : config.getMappings().entrySet()) {
+                builder.add(entry.getValue(), entry.getKey().getPattern(), config);
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import java.net.URISyntaxException;
+
+import com.apifest.routing.RouteMatch;
+
+/**
+ * Aggregates HTTP messages into full messages, except the ones that should be streamed -
+ * their head and content chunks are passed on as they are decoded.
+ */
+public abstract class SelectiveHttpObjectAggregator extends HttpObjectAggregator {
+
+    // set while the content of a streamed message is passed on
+    private boolean passThrough;
+
+    public SelectiveHttpObjectAggregator(int maxContentLength) {
+        super(maxContentLength);
+    }
+
+    /**
+     * Decides whether a message should be streamed.
+     *
+     * @param ctx channel handler context
+     * @param message head of the message
+     * @return true if the message should not be aggregated
+     */
+    protected abstract boolean isStreaming(ChannelHandlerContext ctx, HttpMessage message);
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpMessage && !(msg instanceof FullHttpMessage)) {
+            HttpMessage message = (HttpMessage) msg;
+            passThrough = message.decoderResult().isSuccess() && isStreaming(ctx, message);
+            if (passThrough && message instanceof HttpRequest && HttpUtil.is100ContinueExpected(message)) {
+                // the body is forwarded as it comes, so the client could send it right away; written from this context,
+                // so it passes the codec but not the pipelining handler, as the 100 of an aggregated request does
+                ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE, Unpooled.EMPTY_BUFFER))
+                        .addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                HttpUtil.set100ContinueExpected(message, false);
+            }
+        }
+        if (passThrough) {
+            if (msg instanceof LastHttpContent) {
+                passThrough = false;
+            }
+            ctx.fireChannelRead(msg);
+        } else {
+            super.channelRead(ctx, msg);
+        }
+    }
+
+    /**
+     * Streams requests to endpoints marked as streaming that have no action and no filter.
+     */
+    public static class Server extends SelectiveHttpObjectAggregator {
+
+        public Server(int maxContentLength) {
+            super(maxContentLength);
+        }
+
+        @Override
+        protected boolean isStreaming(ChannelHandlerContext ctx, HttpMessage message) {
+            if (!(message instanceof HttpRequest)) {
+                return false;
+            }
+            HttpRequest request = (HttpRequest) message;
+            try {
+                String path = HttpRequestHandler.getRawPath(request.uri());
+                RouteMatch route = ConfigLoader.getRoute(request.method().toString(), path);
+                return route != null && StreamingExchange.isStreaming(route.getEndpoint());
+            } catch (URISyntaxException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Streams backend responses to streamed requests.
+     */
+    public static class Client extends SelectiveHttpObjectAggregator {
+
+        public Client(int maxContentLength) {
+            super(maxContentLength);
+        }
+
+        @Override
+        protected boolean isStreaming(ChannelHandlerContext ctx, HttpMessage message) {
+            return ctx.channel().attr(HttpResponseHandler.exchangeAttachmentKey).get() != null;
+        }
+    }
+}
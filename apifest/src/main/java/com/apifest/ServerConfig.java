@@ -44,6 +44,43 @@ public final class ServerConfig {
     public static final Integer DEFAULT_APIFEST_PORT = 8181;
     public static final String DEFAULT_APIFEST_HOST = "localhost";
     public static final String DEFAULT_HAZELCAST_PASS = "dev-pass";
+    public static final int DEFAULT_ROUTE_CACHE_SIZE = 10_000;
+    public static final int DEFAULT_LIFECYCLE_HANDLERS_THREADS = 4;
+    public static final int DEFAULT_LIFECYCLE_HANDLERS_QUEUE_SIZE = 10_000;
+    public static final int DEFAULT_MAPPINGS_WATCH_DEBOUNCE_MS = 500;
+    public static final int DEFAULT_HTTP2_MAX_STREAMS = 100;
+    public static final int DEFAULT_PIPELINING_MAX_REQUESTS = 16;
+    public static final int DEFAULT_FLUSH_CONSOLIDATION_LIMIT = 256;
+    public static final int DEFAULT_BOSS_THREADS = 1;
+    public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_DNS_MIN_TTL = 0;
+    public static final int DEFAULT_DNS_MAX_TTL = Integer.MAX_VALUE;
+    public static final int DEFAULT_DNS_NEGATIVE_TTL = 5;
+    public static final int DEFAULT_DNS_REFRESH_INTERVAL = 10000;
+    public static final int DEFAULT_BACKEND_MAX_CONNECTIONS = 200;
+    public static final int DEFAULT_BACKEND_MAX_PENDING_ACQUIRES = 1000;
+    public static final int DEFAULT_BACKEND_ACQUIRE_TIMEOUT = 5000;
+    public static final int DEFAULT_BACKEND_IDLE_TIMEOUT = 60000;
+    public static final int DEFAULT_BACKEND_H2_MAX_CONNECTIONS = 2;
+    public static final int DEFAULT_BACKEND_H2_MAX_STREAMS = 100;
+    public static final int DEFAULT_BACKEND_RESPONSE_TIMEOUT = 30000;
+    public static final int DEFAULT_UPSTREAM_SLOW_START = 30000;
+    public static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_CIRCUIT_ERROR_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_CIRCUIT_MIN_REQUESTS = 20;
+    public static final int DEFAULT_CIRCUIT_WINDOW = 10000;
+    public static final int DEFAULT_CIRCUIT_SLOW_CALL_THRESHOLD = 0;
+    public static final int DEFAULT_CIRCUIT_OPEN_TIMEOUT = 30000;
+    public static final int DEFAULT_OUTLIER_CONSECUTIVE_5XX = 5;
+    public static final int DEFAULT_OUTLIER_EJECTION_TIME = 30000;
+    public static final int DEFAULT_RETRY_BUDGET_RATIO = 20;
+    public static final int DEFAULT_RETRY_BUDGET_MIN_PER_SECOND = 10;
+    public static final int DEFAULT_CONCURRENCY_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_CONCURRENCY_MIN_LIMIT = 4;
+    public static final int DEFAULT_CONCURRENCY_MAX_LIMIT = 1000;
+    public static final int DEFAULT_CONCURRENCY_RTT_TOLERANCE = 150;
+    public static final int DEFAULT_CONCURRENCY_RETRY_AFTER = 1;
+    public static final long DEFAULT_CACHE_MAX_BYTES = 64 * 1024 * 1024;
     // expires_in in sec for grant type password
     public static final int DEFAULT_PASSWOD_EXPIRES_IN = 900;
 
@@ -79,6 +116,53 @@ public final class ServerConfig {
 
     private static String cassandraContactPoints;
     public static Integer rateLimitResetTimeinSec = 60;
+    public static Integer routeCacheSize = DEFAULT_ROUTE_CACHE_SIZE;
+    private static boolean lifecycleHandlersAsync = false;
+    private static Integer lifecycleHandlersThreads = DEFAULT_LIFECYCLE_HANDLERS_THREADS;
+    private static Integer lifecycleHandlersQueueSize = DEFAULT_LIFECYCLE_HANDLERS_QUEUE_SIZE;
+    private static String lifecycleHandlersOverflow = LifecycleEventDispatcher.OVERFLOW_DROP;
+    private static boolean mappingsWatch = false;
+    private static Integer mappingsWatchDebounceMs = DEFAULT_MAPPINGS_WATCH_DEBOUNCE_MS;
+    private static String transport = Transport.AUTO;
+    private static Integer bossThreads = DEFAULT_BOSS_THREADS;
+    private static Integer workerThreads = DEFAULT_WORKER_THREADS;
+    // 0 - backend connections use the worker threads
+    private static Integer upstreamThreads = 0;
+    private static boolean http2Enabled = false;
+    private static Integer http2MaxStreams = DEFAULT_HTTP2_MAX_STREAMS;
+    private static Integer pipeliningMaxRequests = DEFAULT_PIPELINING_MAX_REQUESTS;
+    private static Integer flushConsolidationLimit = DEFAULT_FLUSH_CONSOLIDATION_LIMIT;
+    private static Integer dnsMinTtl = DEFAULT_DNS_MIN_TTL;
+    private static Integer dnsMaxTtl = DEFAULT_DNS_MAX_TTL;
+    private static Integer dnsNegativeTtl = DEFAULT_DNS_NEGATIVE_TTL;
+    private static Integer dnsRefreshInterval = DEFAULT_DNS_REFRESH_INTERVAL;
+    private static Integer backendMaxConnections = DEFAULT_BACKEND_MAX_CONNECTIONS;
+    private static Integer backendMaxPendingAcquires = DEFAULT_BACKEND_MAX_PENDING_ACQUIRES;
+    private static Integer backendAcquireTimeout = DEFAULT_BACKEND_ACQUIRE_TIMEOUT;
+    private static Integer backendIdleTimeout = DEFAULT_BACKEND_IDLE_TIMEOUT;
+    private static Integer backendH2MaxConnections = DEFAULT_BACKEND_H2_MAX_CONNECTIONS;
+    private static Integer backendH2MaxStreams = DEFAULT_BACKEND_H2_MAX_STREAMS;
+    private static Integer backendResponseTimeout = DEFAULT_BACKEND_RESPONSE_TIMEOUT;
+    // 0 - no limit for the whole request
+    private static Integer backendRequestTimeout = 0;
+    private static Integer upstreamSlowStart = DEFAULT_UPSTREAM_SLOW_START;
+    private static Integer circuitFailureThreshold = DEFAULT_CIRCUIT_FAILURE_THRESHOLD;
+    private static Integer circuitErrorRateThreshold = DEFAULT_CIRCUIT_ERROR_RATE_THRESHOLD;
+    private static Integer circuitMinRequests = DEFAULT_CIRCUIT_MIN_REQUESTS;
+    private static Integer circuitWindow = DEFAULT_CIRCUIT_WINDOW;
+    private static Integer circuitSlowCallThreshold = DEFAULT_CIRCUIT_SLOW_CALL_THRESHOLD;
+    private static Integer circuitOpenTimeout = DEFAULT_CIRCUIT_OPEN_TIMEOUT;
+    private static Integer outlierConsecutive5xx = DEFAULT_OUTLIER_CONSECUTIVE_5XX;
+    private static Integer outlierEjectionTime = DEFAULT_OUTLIER_EJECTION_TIME;
+    private static Integer retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+    private static Integer retryBudgetMinPerSecond = DEFAULT_RETRY_BUDGET_MIN_PER_SECOND;
+    private static Integer concurrencyInitialLimit = DEFAULT_CONCURRENCY_INITIAL_LIMIT;
+    private static Integer concurrencyMinLimit = DEFAULT_CONCURRENCY_MIN_LIMIT;
+    // 0 - no adaptive concurrency limits
+    private static Integer concurrencyMaxLimit = DEFAULT_CONCURRENCY_MAX_LIMIT;
+    private static Integer concurrencyRttTolerance = DEFAULT_CONCURRENCY_RTT_TOLERANCE;
+    private static Integer concurrencyRetryAfter = DEFAULT_CONCURRENCY_RETRY_AFTER;
+    private static Long cacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
     private static boolean cacheDB = false;
     private static Integer cacheRetention;
     private static Integer cacheSize;
@@ -200,6 +284,191 @@ public final class ServerConfig {
         if (cacheSizeString != null && !cacheSizeString.isEmpty()) {
             cacheSize = Integer.valueOf(cacheSizeString);
         }
+
+        String routeCacheSizeString = props.getProperty("routeCacheSize");
+        if (routeCacheSizeString != null && !routeCacheSizeString.isEmpty()) {
+            routeCacheSize = Integer.valueOf(routeCacheSizeString);
+        }
+
+        lifecycleHandlersAsync = "true".equals(props.getProperty("lifecycle.handlers.async"));
+        String lifecycleThreadsString = props.getProperty("lifecycle.handlers.threads");
+        if (lifecycleThreadsString != null && !lifecycleThreadsString.isEmpty()) {
+            lifecycleHandlersThreads = Integer.valueOf(lifecycleThreadsString);
+        }
+        String lifecycleQueueString = props.getProperty("lifecycle.handlers.queue_size");
+        if (lifecycleQueueString != null && !lifecycleQueueString.isEmpty()) {
+            lifecycleHandlersQueueSize = Integer.valueOf(lifecycleQueueString);
+        }
+        String lifecycleOverflowString = props.getProperty("lifecycle.handlers.overflow");
+        if (lifecycleOverflowString != null && !lifecycleOverflowString.isEmpty()) {
+            if (LifecycleEventDispatcher.OVERFLOW_DROP.equals(lifecycleOverflowString)
+                    || LifecycleEventDispatcher.OVERFLOW_CALLER_RUNS.equals(lifecycleOverflowString)) {
+                lifecycleHandlersOverflow = lifecycleOverflowString;
+            } else {
+                log.warn("lifecycle.handlers.overflow value {} is not valid, {} will be used", lifecycleOverflowString,
+                        LifecycleEventDispatcher.OVERFLOW_DROP);
+            }
+        }
+
+        mappingsWatch = "true".equals(props.getProperty("mappings.watch"));
+        String watchDebounceString = props.getProperty("mappings.watch.debounce_ms");
+        if (watchDebounceString != null && !watchDebounceString.isEmpty()) {
+            mappingsWatchDebounceMs = Integer.valueOf(watchDebounceString);
+        }
+
+        String transportString = props.getProperty("transport");
+        if (transportString != null && !transportString.isEmpty()) {
+            if (Transport.AUTO.equals(transportString) || Transport.NIO.equals(transportString)
+                    || Transport.EPOLL.equals(transportString)) {
+                transport = transportString;
+            } else {
+                log.warn("transport value {} is not valid, {} will be used", transportString, Transport.AUTO);
+            }
+        }
+        String bossThreadsString = props.getProperty("threads.boss");
+        if (bossThreadsString != null && !bossThreadsString.isEmpty()) {
+            bossThreads = Integer.valueOf(bossThreadsString);
+        }
+        String workerThreadsString = props.getProperty("threads.worker");
+        if (workerThreadsString != null && !workerThreadsString.isEmpty()) {
+            workerThreads = Integer.valueOf(workerThreadsString);
+        }
+        String upstreamThreadsString = props.getProperty("threads.upstream");
+        if (upstreamThreadsString != null && !upstreamThreadsString.isEmpty()) {
+            upstreamThreads = Integer.valueOf(upstreamThreadsString);
+        }
+
+        http2Enabled = "true".equals(props.getProperty("http2.enabled"));
+        String http2MaxStreamsString = props.getProperty("http2.max_streams");
+        if (http2MaxStreamsString != null && !http2MaxStreamsString.isEmpty()) {
+            http2MaxStreams = Integer.valueOf(http2MaxStreamsString);
+        }
+        String pipeliningMaxRequestsString = props.getProperty("http.pipelining.max_requests");
+        if (pipeliningMaxRequestsString != null && !pipeliningMaxRequestsString.isEmpty()) {
+            pipeliningMaxRequests = Math.max(1, Integer.valueOf(pipeliningMaxRequestsString));
+        }
+        String flushConsolidationLimitString = props.getProperty("flush.consolidation.limit");
+        if (flushConsolidationLimitString != null && !flushConsolidationLimitString.isEmpty()) {
+            flushConsolidationLimit = Integer.valueOf(flushConsolidationLimitString);
+        }
+
+        String dnsMinTtlString = props.getProperty("dns.min_ttl");
+        if (dnsMinTtlString != null && !dnsMinTtlString.isEmpty()) {
+            dnsMinTtl = Integer.valueOf(dnsMinTtlString);
+        }
+        String dnsMaxTtlString = props.getProperty("dns.max_ttl");
+        if (dnsMaxTtlString != null && !dnsMaxTtlString.isEmpty()) {
+            dnsMaxTtl = Integer.valueOf(dnsMaxTtlString);
+        }
+        String dnsNegativeTtlString = props.getProperty("dns.negative_ttl");
+        if (dnsNegativeTtlString != null && !dnsNegativeTtlString.isEmpty()) {
+            dnsNegativeTtl = Integer.valueOf(dnsNegativeTtlString);
+        }
+        String dnsRefreshIntervalString = props.getProperty("dns.refresh_interval");
+        if (dnsRefreshIntervalString != null && !dnsRefreshIntervalString.isEmpty()) {
+            dnsRefreshInterval = Integer.valueOf(dnsRefreshIntervalString);
+        }
+
+        String maxConnectionsString = props.getProperty("backend.pool.max_connections");
+        if (maxConnectionsString != null && !maxConnectionsString.isEmpty()) {
+            backendMaxConnections = Integer.valueOf(maxConnectionsString);
+        }
+        String maxPendingAcquiresString = props.getProperty("backend.pool.max_pending_acquires");
+        if (maxPendingAcquiresString != null && !maxPendingAcquiresString.isEmpty()) {
+            backendMaxPendingAcquires = Integer.valueOf(maxPendingAcquiresString);
+        }
+        String acquireTimeoutString = props.getProperty("backend.pool.acquire_timeout");
+        if (acquireTimeoutString != null && !acquireTimeoutString.isEmpty()) {
+            backendAcquireTimeout = Integer.valueOf(acquireTimeoutString);
+        }
+        String idleTimeoutString = props.getProperty("backend.pool.idle_timeout");
+        if (idleTimeoutString != null && !idleTimeoutString.isEmpty()) {
+            backendIdleTimeout = Integer.valueOf(idleTimeoutString);
+        }
+        String h2MaxConnectionsString = props.getProperty("backend.h2.max_connections");
+        if (h2MaxConnectionsString != null && !h2MaxConnectionsString.isEmpty()) {
+            backendH2MaxConnections = Integer.valueOf(h2MaxConnectionsString);
+        }
+        String h2MaxStreamsString = props.getProperty("backend.h2.max_streams");
+        if (h2MaxStreamsString != null && !h2MaxStreamsString.isEmpty()) {
+            backendH2MaxStreams = Integer.valueOf(h2MaxStreamsString);
+        }
+        String responseTimeoutString = props.getProperty("backend.response_timeout");
+        if (responseTimeoutString != null && !responseTimeoutString.isEmpty()) {
+            backendResponseTimeout = Integer.valueOf(responseTimeoutString);
+        }
+        String requestTimeoutString = props.getProperty("backend.request_timeout");
+        if (requestTimeoutString != null && !requestTimeoutString.isEmpty()) {
+            backendRequestTimeout = Integer.valueOf(requestTimeoutString);
+        }
+        String slowStartString = props.getProperty("upstream.slow_start");
+        if (slowStartString != null && !slowStartString.isEmpty()) {
+            upstreamSlowStart = Integer.valueOf(slowStartString);
+        }
+        String failureThresholdString = props.getProperty("circuit.failure_threshold");
+        if (failureThresholdString != null && !failureThresholdString.isEmpty()) {
+            circuitFailureThreshold = Integer.valueOf(failureThresholdString);
+        }
+        String errorRateThresholdString = props.getProperty("circuit.error_rate_threshold");
+        if (errorRateThresholdString != null && !errorRateThresholdString.isEmpty()) {
+            circuitErrorRateThreshold = Integer.valueOf(errorRateThresholdString);
+        }
+        String minRequestsString = props.getProperty("circuit.min_requests");
+        if (minRequestsString != null && !minRequestsString.isEmpty()) {
+            circuitMinRequests = Integer.valueOf(minRequestsString);
+        }
+        String windowString = props.getProperty("circuit.window");
+        if (windowString != null && !windowString.isEmpty()) {
+            circuitWindow = Integer.valueOf(windowString);
+        }
+        String slowCallThresholdString = props.getProperty("circuit.slow_call_threshold");
+        if (slowCallThresholdString != null && !slowCallThresholdString.isEmpty()) {
+            circuitSlowCallThreshold = Integer.valueOf(slowCallThresholdString);
+        }
+        String openTimeoutString = props.getProperty("circuit.open_timeout");
+        if (openTimeoutString != null && !openTimeoutString.isEmpty()) {
+            circuitOpenTimeout = Integer.valueOf(openTimeoutString);
+        }
+        String consecutive5xxString = props.getProperty("outlier.consecutive_5xx");
+        if (consecutive5xxString != null && !consecutive5xxString.isEmpty()) {
+            outlierConsecutive5xx = Integer.valueOf(consecutive5xxString);
+        }
+        String ejectionTimeString = props.getProperty("outlier.ejection_time");
+        if (ejectionTimeString != null && !ejectionTimeString.isEmpty()) {
+            outlierEjectionTime = Integer.valueOf(ejectionTimeString);
+        }
+        String budgetRatioString = props.getProperty("retry.budget_ratio");
+        if (budgetRatioString != null && !budgetRatioString.isEmpty()) {
+            retryBudgetRatio = Integer.valueOf(budgetRatioString);
+        }
+        String budgetMinString = props.getProperty("retry.budget_min_per_second");
+        if (budgetMinString != null && !budgetMinString.isEmpty()) {
+            retryBudgetMinPerSecond = Integer.valueOf(budgetMinString);
+        }
+        String initialLimitString = props.getProperty("concurrency.initial_limit");
+        if (initialLimitString != null && !initialLimitString.isEmpty()) {
+            concurrencyInitialLimit = Integer.valueOf(initialLimitString);
+        }
+        String minLimitString = props.getProperty("concurrency.min_limit");
+        if (minLimitString != null && !minLimitString.isEmpty()) {
+            concurrencyMinLimit = Math.max(1, Integer.valueOf(minLimitString));
+        }
+        String maxLimitString = props.getProperty("concurrency.max_limit");
+        if (maxLimitString != null && !maxLimitString.isEmpty()) {
+            concurrencyMaxLimit = Integer.valueOf(maxLimitString);
+        }
+        String rttToleranceString = props.getProperty("concurrency.rtt_tolerance");
+        if (rttToleranceString != null && !rttToleranceString.isEmpty()) {
+            concurrencyRttTolerance = Math.max(100, Integer.valueOf(rttToleranceString));
+        }
+        String retryAfterString = props.getProperty("concurrency.retry_after");
+        if (retryAfterString != null && !retryAfterString.isEmpty()) {
+            concurrencyRetryAfter = Integer.valueOf(retryAfterString);
+        }
+        String cacheMaxBytesString = props.getProperty("cache.max_bytes");
+        if (cacheMaxBytesString != null && !cacheMaxBytesString.isEmpty()) {
+            cacheMaxBytes = Long.valueOf(cacheMaxBytesString);
+        }
         loadCustomAuthentication();
     }
 
@@ -412,4 +681,180 @@ public final class ServerConfig {
     public static int getCacheRetention() {
         return cacheRetention;
     }
+
+    public static int getRouteCacheSize() {
+        return routeCacheSize;
+    }
+
+    public static boolean isLifecycleHandlersAsync() {
+        return lifecycleHandlersAsync;
+    }
+
+    public static int getLifecycleHandlersThreads() {
+        return lifecycleHandlersThreads;
+    }
+
+    public static int getLifecycleHandlersQueueSize() {
+        return lifecycleHandlersQueueSize;
+    }
+
+    public static String getLifecycleHandlersOverflow() {
+        return lifecycleHandlersOverflow;
+    }
+
+    public static boolean isMappingsWatch() {
+        return mappingsWatch;
+    }
+
+    public static int getMappingsWatchDebounceMs() {
+        return mappingsWatchDebounceMs;
+    }
+
+    public static String getTransport() {
+        return transport;
+    }
+
+    public static int getBossThreads() {
+        return bossThreads;
+    }
+
+    public static int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public static int getUpstreamThreads() {
+        return upstreamThreads;
+    }
+
+    public static boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    public static int getHttp2MaxStreams() {
+        return http2MaxStreams;
+    }
+
+    public static int getPipeliningMaxRequests() {
+        return pipeliningMaxRequests;
+    }
+
+    public static int getFlushConsolidationLimit() {
+        return flushConsolidationLimit;
+    }
+
+    public static int getDnsMinTtl() {
+        return dnsMinTtl;
+    }
+
+    public static int getDnsMaxTtl() {
+        return dnsMaxTtl;
+    }
+
+    public static int getDnsNegativeTtl() {
+        return dnsNegativeTtl;
+    }
+
+    public static int getDnsRefreshInterval() {
+        return dnsRefreshInterval;
+    }
+
+    public static int getBackendMaxConnections() {
+        return backendMaxConnections;
+    }
+
+    public static int getBackendMaxPendingAcquires() {
+        return backendMaxPendingAcquires;
+    }
+
+    public static int getBackendAcquireTimeout() {
+        return backendAcquireTimeout;
+    }
+
+    public static int getBackendIdleTimeout() {
+        return backendIdleTimeout;
+    }
+
+    public static int getBackendH2MaxConnections() {
+        return backendH2MaxConnections;
+    }
+
+    public static int getBackendH2MaxStreams() {
+        return backendH2MaxStreams;
+    }
+
+    public static int getBackendResponseTimeout() {
+        return backendResponseTimeout;
+    }
+
+    public static int getBackendRequestTimeout() {
+        return backendRequestTimeout;
+    }
+
+    public static int getUpstreamSlowStart() {
+        return upstreamSlowStart;
+    }
+
+    public static int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    public static int getCircuitErrorRateThreshold() {
+        return circuitErrorRateThreshold;
+    }
+
+    public static int getCircuitMinRequests() {
+        return circuitMinRequests;
+    }
+
+    public static int getCircuitWindow() {
+        return circuitWindow;
+    }
+
+    public static int getCircuitSlowCallThreshold() {
+        return circuitSlowCallThreshold;
+    }
+
+    public static int getCircuitOpenTimeout() {
+        return circuitOpenTimeout;
+    }
+
+    public static int getOutlierConsecutive5xx() {
+        return outlierConsecutive5xx;
+    }
+
+    public static int getOutlierEjectionTime() {
+        return outlierEjectionTime;
+    }
+
+    public static int getConcurrencyInitialLimit() {
+        return concurrencyInitialLimit;
+    }
+
+    public static int getConcurrencyMinLimit() {
+        return concurrencyMinLimit;
+    }
+
+    public static int getConcurrencyMaxLimit() {
+        return concurrencyMaxLimit;
+    }
+
+    public static int getConcurrencyRttTolerance() {
+        return concurrencyRttTolerance;
+    }
+
+    public static int getConcurrencyRetryAfter() {
+        return concurrencyRetryAfter;
+    }
+
+    public static int getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    public static int getRetryBudgetMinPerSecond() {
+        return retryBudgetMinPerSecond;
+    }
+
+    public static long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
 }
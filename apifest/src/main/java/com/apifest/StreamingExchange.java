@@ -0,0 +1,415 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.MappingEndpoint;
+import com.apifest.upstream.CircuitBreaker;
+
+/**
+ * Forwards a streamed request and its response between the client channel and a pooled backend channel,
+ * chunk by chunk. When the channel written to cannot take more data, reading from the other channel is paused
+ * until it becomes writable again, so a slow client or backend does not make the chunks pile up in memory.
+ * <p>
+ * Request chunks are handled on the client channel event loop, response chunks on the backend channel event loop.
+ * <p>
+ * A backend that does not start the response within the response timeout gets the exchange failed with 504.
+ * Once the response started, only the deadline of the request limits it - both connections are closed
+ * if the response is not complete by then.
+ */
+public class StreamingExchange {
+
+    private static Logger log = LoggerFactory.getLogger(StreamingExchange.class);
+
+    private final Channel inbound;
+    private final HttpRequest request;
+    private final boolean keepAlive;
+
+    // request chunks received before a backend connection is acquired, accessed on the client event loop only
+    private final Queue<HttpContent> pending = new ArrayDeque<HttpContent>();
+
+    private volatile Channel backend;
+    private volatile boolean failed;
+    private volatile boolean requestSent;
+    private volatile boolean responseStarted;
+    private volatile boolean backendKeepAlive;
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    private CircuitBreaker breaker;
+    private CircuitBreaker.Permit permit;
+    private RequestTimeout timeout = RequestTimeout.DEFAULT;
+    private Backend backendSettings;
+    private volatile ScheduledFuture<?> timer;
+    private final AtomicBoolean outcomeRecorded = new AtomicBoolean();
+    private final long startTime = System.nanoTime();
+
+    /**
+     * @param inbound client channel
+     * @param request mapped request head that will be sent to the backend
+     * @param keepAlive whether the client connection should be kept open after the response
+     */
+    public StreamingExchange(Channel inbound, HttpRequest request, boolean keepAlive) {
+        this.inbound = inbound;
+        this.request = request;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return request head that will be sent to the backend
+     */
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Sets the circuit breaker of the backend the outcome of the exchange is recorded in.
+     *
+     * @param permit permit the exchange was let through with
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker, CircuitBreaker.Permit permit) {
+        this.breaker = breaker;
+        this.permit = permit;
+    }
+
+    /**
+     * Sets the timeouts of the exchange.
+     *
+     * @param timeout timeouts of the request
+     * @param backendSettings backend settings from the mappings, null to use the default response timeout
+     */
+    public void setTimeout(RequestTimeout timeout, Backend backendSettings) {
+        this.timeout = timeout;
+        this.backendSettings = backendSettings;
+    }
+
+    /**
+     * Checks whether the bodies of an endpoint could be streamed - the endpoint is marked as streaming
+     * and has no action or filter that needs the whole body.
+     */
+    public static boolean isStreaming(MappingEndpoint endpoint) {
+        return Boolean.TRUE.equals(endpoint.getStreaming()) && endpoint.getAction() == null && endpoint.getFilter() == null;
+    }
+
+    /**
+     * Called on the client event loop before a backend connection is requested.
+     * Reading from the client is paused until the connection is acquired.
+     */
+    public void start() {
+        inbound.config().setAutoRead(false);
+    }
+
+    /**
+     * Called when a backend connection is acquired.
+     */
+    public void backendAcquired(final Channel channel) {
+        if (!inbound.eventLoop().inEventLoop()) {
+            inbound.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    backendAcquired(channel);
+                }
+            });
+            return;
+        }
+        if (failed || !inbound.isActive()) {
+            failed = true;
+            recordOutcome(null);
+            releasePending();
+            channel.attr(HttpResponseHandler.poolAttachmentKey).get().release(channel);
+            return;
+        }
+        if (timeout.isExpired()) {
+            // the connection was acquired too late, that is not a backend failure
+            recordOutcome(null);
+            channel.attr(HttpResponseHandler.poolAttachmentKey).get().release(channel);
+            fail(HttpResponseFactory.createGatewayTimeoutResponse());
+            return;
+        }
+        timeout.setHeader(request);
+        channel.attr(HttpResponseHandler.exchangeAttachmentKey).set(this);
+        backend = channel;
+        scheduleTimeout(timeout.getResponseTimeout(backendSettings));
+        channel.write(request);
+        HttpContent content = pending.poll();
+        while (content != null) {
+            writeToBackend(content);
+            content = pending.poll();
+        }
+        channel.flush();
+        if (channel.isWritable()) {
+            inbound.config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Called when no backend connection could be acquired, the client gets an error response
+     * and the rest of the request is discarded.
+     */
+    public void backendFailed(final Throwable cause) {
+        if (!inbound.eventLoop().inEventLoop()) {
+            inbound.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    backendFailed(cause);
+                }
+            });
+            return;
+        }
+        // too many requests waiting for a connection is not a backend failure
+        recordOutcome((cause instanceof IllegalStateException) ? null : Boolean.FALSE);
+        fail(MappingClient.createAcquireFailedResponse(cause));
+    }
+
+    /**
+     * Called on the client event loop when the request could not be sent to the backend, the client gets
+     * the given response and the rest of the request is discarded.
+     */
+    public void fail(FullHttpResponse response) {
+        failed = true;
+        releasePending();
+        writeError(response);
+        inbound.config().setAutoRead(true);
+    }
+
+    /**
+     * Called on the client event loop for each request chunk.
+     */
+    public void inboundContent(HttpContent content) {
+        if (failed || completed.get()) {
+            ReferenceCountUtil.release(content);
+            return;
+        }
+        Channel channel = backend;
+        if (channel == null) {
+            pending.add(content);
+            return;
+        }
+        writeToBackend(content);
+        channel.flush();
+        if (!channel.isWritable()) {
+            inbound.config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * Called on the backend event loop for the response head and each response chunk.
+     */
+    public void backendRead(HttpObject msg) {
+        if (msg instanceof HttpResponse) {
+            HttpResponse response = (HttpResponse) msg;
+            recordOutcome(response.status().code() < 500);
+            backendKeepAlive = HttpUtil.isKeepAlive(response);
+            HttpUtil.setKeepAlive(response, keepAlive);
+            responseStarted = true;
+        }
+        ChannelFuture future = inbound.writeAndFlush(msg);
+        if (msg instanceof LastHttpContent) {
+            if (!keepAlive) {
+                future.addListener(ChannelFutureListener.CLOSE);
+            }
+            complete(requestSent && backendKeepAlive);
+        } else if (!inbound.isWritable()) {
+            backend.config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * Called when the client channel writability changes.
+     */
+    public void inboundWritabilityChanged() {
+        Channel channel = backend;
+        if (channel != null && inbound.isWritable() && !completed.get()) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Called when the backend channel writability changes.
+     */
+    public void backendWritabilityChanged() {
+        Channel channel = backend;
+        if (channel != null && channel.isWritable() && !failed) {
+            inbound.config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Called when the client channel is closed.
+     */
+    public void inboundInactive() {
+        failed = true;
+        recordOutcome(null);
+        Channel channel = backend;
+        if (channel != null) {
+            complete(false);
+        }
+    }
+
+    /**
+     * Called when the backend channel is closed before the response is complete.
+     */
+    public void backendInactive() {
+        if (completed.get()) {
+            return;
+        }
+        log.error("backend connection {} closed while streaming", backend);
+        abort(HttpResponseFactory.createISEResponse());
+    }
+
+    public boolean isCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Checks whether an idle backend connection means the backend stopped sending the response - the response
+     * has started and reading from the backend is not paused because the client is slow.
+     */
+    public boolean isStalled() {
+        return responseStarted && !completed.get() && inbound.isWritable();
+    }
+
+    // called on the backend event loop, so responseStarted is up to date
+    private void timedOut() {
+        if (completed.get()) {
+            return;
+        }
+        if (responseStarted) {
+            long remaining = timeout.getRemainingMillis();
+            if (remaining == Long.MAX_VALUE) {
+                // no deadline, the response timeout applies to the start of the response only
+                return;
+            }
+            if (remaining > 0) {
+                scheduleTimeout(remaining);
+                return;
+            }
+        }
+        log.warn("no {} from {} in time", responseStarted ? "complete response" : "response", backend);
+        abort(HttpResponseFactory.createGatewayTimeoutResponse());
+    }
+
+    private void scheduleTimeout(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        timer = backend.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                timedOut();
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // the client gets the given response if the backend response has not started, otherwise its connection is closed
+    private void abort(FullHttpResponse response) {
+        failed = true;
+        recordOutcome(Boolean.FALSE);
+        complete(false);
+        if (!responseStarted) {
+            writeError(response);
+        } else {
+            // the response could not be completed
+            response.release();
+            inbound.close();
+        }
+        inbound.config().setAutoRead(true);
+    }
+
+    // success is null if the outcome says nothing about the backend, e.g. the client closed the connection
+    private void recordOutcome(Boolean success) {
+        if (breaker == null || !outcomeRecorded.compareAndSet(false, true)) {
+            return;
+        }
+        if (success == null) {
+            breaker.onIgnored(permit);
+        } else if (success) {
+            breaker.onSuccess(permit, System.nanoTime() - startTime);
+        } else {
+            breaker.onFailure(permit);
+        }
+    }
+
+    private void writeToBackend(HttpContent content) {
+        if (content instanceof LastHttpContent) {
+            requestSent = true;
+        }
+        backend.write(content);
+    }
+
+    // returns the backend connection to the pool only if it could be reused, otherwise closes it
+    private void complete(boolean reusable) {
+        if (!completed.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledFuture<?> responseTimer = timer;
+        if (responseTimer != null) {
+            responseTimer.cancel(false);
+        }
+        Channel channel = backend;
+        channel.attr(HttpResponseHandler.exchangeAttachmentKey).set(null);
+        channel.config().setAutoRead(true);
+        if (!reusable) {
+            channel.close();
+        }
+        ChannelPool pool = channel.attr(HttpResponseHandler.poolAttachmentKey).get();
+        if (pool != null) {
+            pool.release(channel);
+        }
+        inbound.config().setAutoRead(true);
+    }
+
+    private void writeError(FullHttpResponse response) {
+        if (!inbound.isActive()) {
+            return;
+        }
+        HttpUtil.setKeepAlive(response, keepAlive);
+        ChannelFuture future = inbound.writeAndFlush(response);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private void releasePending() {
+        HttpContent content = pending.poll();
+        while (content != null) {
+            ReferenceCountUtil.release(content);
+            content = pending.poll();
+        }
+    }
+}
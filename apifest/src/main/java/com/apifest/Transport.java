@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Network transport the server and the backend connections use - the native epoll transport on Linux when
+ * its library could be loaded, NIO otherwise. Epoll needs fewer system calls and no selector wakeups per event.
+ */
+public final class Transport {
+
+    private static Logger log = LoggerFactory.getLogger(Transport.class);
+
+    public static final String AUTO = "auto";
+    public static final String NIO = "nio";
+    public static final String EPOLL = "epoll";
+
+    private static volatile Transport transport;
+
+    private final boolean epoll;
+
+    private Transport(boolean epoll) {
+        this.epoll = epoll;
+    }
+
+    /**
+     * @return the transport set by the <code>transport</code> property
+     */
+    public static Transport get() {
+        if (transport == null) {
+            transport = of(ServerConfig.getTransport());
+        }
+        return transport;
+    }
+
+    /**
+     * Returns the transport with the given name. If epoll is requested but not available, NIO is used.
+     *
+     * @param name one of {@link #AUTO}, {@link #NIO} and {@link #EPOLL}
+     */
+    public static Transport of(String name) {
+        if (NIO.equals(name)) {
+            return new Transport(false);
+        }
+        if (Epoll.isAvailable()) {
+            return new Transport(true);
+        }
+        if (EPOLL.equals(name)) {
+            log.warn("epoll transport is not available, NIO will be used: {}", Epoll.unavailabilityCause().toString());
+        }
+        return new Transport(false);
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * Creates an event loop group with the given number of threads.
+     *
+     * @param threads number of threads
+     * @param name prefix of the thread names
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public Class<? extends ServerChannel> getServerChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Class<? extends SocketChannel> getChannelClass() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public Class<? extends DatagramChannel> getDatagramChannelClass() {
+        return epoll ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+
+    @Override
+    public String toString() {
+        return epoll ? EPOLL : NIO;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Response stored in the {@link ResponseCache}. The body is kept in a pooled buffer owned by the cache,
+ * each response created from the entry holds its own reference to it.
+ * <p>
+ * A released pooled buffer could already be reused by another allocation, so the entry never retains its body
+ * after the cache released it: the entry counts the cache reference and the retains in progress, and the body is
+ * released when the count drops to zero.
+ */
+public final class CachedResponse {
+
+    private final HttpResponseStatus status;
+    private final HttpHeaders headers;
+    private final ByteBuf content;
+    private final String etag;
+    private final long storedAt;
+    private final long freshUntil;
+    private final long staleUntil;
+    // the cache reference and the retains in progress, the body is released at zero
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * @param content body, the entry takes over the reference
+     * @param storedAt time in milliseconds the response was received at
+     * @param freshUntil time in milliseconds until which the response could be returned without asking the backend
+     * @param staleUntil time in milliseconds until which the response could be returned if the backend fails
+     */
+    CachedResponse(HttpResponseStatus status, HttpHeaders headers, ByteBuf content, long storedAt, long freshUntil, long staleUntil) {
+        this.status = status;
+        this.headers = headers;
+        this.content = content;
+        this.etag = headers.get(HttpHeaderNames.ETAG);
+        this.storedAt = storedAt;
+        this.freshUntil = freshUntil;
+        this.staleUntil = staleUntil;
+    }
+
+    public boolean isFresh(long now) {
+        return now < freshUntil;
+    }
+
+    /**
+     * @return true if the response could be returned when the backend fails
+     */
+    public boolean isUsableOnError(long now) {
+        return now < staleUntil;
+    }
+
+    /**
+     * @return ETag of the response, used to revalidate it once expired, null if the backend has not set one
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    long getStaleUntil() {
+        return staleUntil;
+    }
+
+    HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Creates a response with the cached status, headers and body.
+     *
+     * @return the response or null if the entry has just been evicted and its body released
+     */
+    public FullHttpResponse toResponse(long now) {
+        ByteBuf body = retainBody();
+        if (body == null) {
+            return null;
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, body);
+        response.headers().set(headers);
+        response.headers().set(HttpHeaderNames.AGE, TimeUnit.MILLISECONDS.toSeconds(Math.max(0, now - storedAt)));
+        return response;
+    }
+
+    /**
+     * Creates an entry for the same body with the headers and freshness of a revalidated response.
+     *
+     * @return the entry or null if this entry has just been evicted and its body released
+     */
+    CachedResponse revalidated(HttpHeaders newHeaders, long now, long newFreshUntil, long newStaleUntil) {
+        ByteBuf body = retainBody();
+        if (body == null) {
+            return null;
+        }
+        HttpHeaders merged = headers.copy();
+        for (Map.Entry<String, String> header : newHeaders) {
+            if (!HttpHeaderNames.CONTENT_LENGTH.contentEqualsIgnoreCase(header.getKey())) {
+                merged.set(header.getKey(), header.getValue());
+            }
+        }
+        return new CachedResponse(status, merged, body, now, newFreshUntil, newStaleUntil);
+    }
+
+    /**
+     * @return approximate memory used by the entry in bytes
+     */
+    int getWeight() {
+        int weight = content.capacity();
+        for (Map.Entry<String, String> header : headers) {
+            weight += header.getKey().length() + header.getValue().length();
+        }
+        return weight;
+    }
+
+    /**
+     * @return a new reference to the body or null if the entry has been evicted
+     */
+    private ByteBuf retainBody() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return null;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        try {
+            return content.retainedDuplicate();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Releases the cache reference to the body, called once when the entry is evicted.
+     */
+    void release() {
+        if (refs.decrementAndGet() == 0) {
+            content.release();
+        }
+    }
+}
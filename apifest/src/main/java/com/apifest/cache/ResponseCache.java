@@ -0,0 +1,361 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.apifest.ServerConfig;
+import com.apifest.api.AccessToken;
+import com.apifest.api.CachePolicy;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Cache of backend responses to GET requests of endpoints with a cache policy, bounded by
+ * <code>cache.max_bytes</code>. Freshness is taken from the Cache-Control header of the response
+ * (max-age, s-maxage, no-cache, no-store, private, stale-if-error), the policy applies when the header does not set it.
+ * Responses that vary by request headers are cached per value of those headers, expired responses with an ETag
+ * are revalidated with If-None-Match.
+ */
+public final class ResponseCache {
+
+    private static final int MAX_VARY_KEYS = 10000;
+    private static final String CACHE_CONTROL_NO_CACHE = "no-cache";
+
+    private static final ResponseCache INSTANCE = new ResponseCache(ServerConfig.getCacheMaxBytes());
+
+    private final Cache<String, CachedResponse> entries;
+    // names of the request headers the responses of a URI vary by
+    private final Cache<String, List<String>> varies;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    ResponseCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            entries = null;
+            varies = null;
+            return;
+        }
+        // a single segment, otherwise each segment gets a part of the bytes and large responses are evicted at once;
+        // entries are written on misses only, so writes do not contend much
+        entries = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<String, CachedResponse>() {
+                    @Override
+                    public int weigh(String key, CachedResponse value) {
+                        return key.length() + value.getWeight();
+                    }
+                })
+                .removalListener(new RemovalListener<String, CachedResponse>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, CachedResponse> notification) {
+                        bytes.addAndGet(-(notification.getKey().length() + notification.getValue().getWeight()));
+                        notification.getValue().release();
+                    }
+                })
+                .recordStats()
+                .<String, CachedResponse>build();
+        varies = CacheBuilder.newBuilder().maximumSize(MAX_VARY_KEYS).<String, List<String>>build();
+    }
+
+    /**
+     * @return the response cache shared by all endpoints
+     */
+    public static ResponseCache getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return entries != null;
+    }
+
+    /**
+     * Creates the key of a request without the headers the response varies by.
+     *
+     * @param token validated access token of the request, null for endpoints without authorization
+     */
+    public static String getKey(HttpRequest request, CachePolicy policy, AccessToken token) {
+        String principal = "";
+        if (token != null && CachePolicy.KEY_BY_CLIENT.equals(policy.getKeyBy())) {
+            principal = token.getClientId();
+        } else if (token != null && CachePolicy.KEY_BY_USER.equals(policy.getKeyBy())) {
+            principal = token.getUserId();
+        }
+        return request.uri() + ' ' + principal;
+    }
+
+    /**
+     * Checks whether the client asks for a response from the backend.
+     */
+    public static boolean isNoCacheRequest(HttpRequest request) {
+        return hasDirective(request.headers().get(HttpHeaderNames.CACHE_CONTROL), CACHE_CONTROL_NO_CACHE)
+                || HttpHeaderValues.NO_CACHE.contentEqualsIgnoreCase(request.headers().get(HttpHeaderNames.PRAGMA, ""));
+    }
+
+    /**
+     * Finds the cached response for a request. The returned entry could be expired.
+     *
+     * @param key request key, see {@link #getKey(HttpRequest, CachePolicy, AccessToken)}
+     * @param requestHeaders headers of the client request
+     * @return the entry or null if there is no response that is fresh, usable on error or could be revalidated
+     */
+    public CachedResponse get(String key, HttpHeaders requestHeaders) {
+        if (entries == null) {
+            return null;
+        }
+        List<String> varyNames = varies.getIfPresent(key);
+        String variantKey = getVariantKey(key, varyNames, requestHeaders);
+        CachedResponse entry = entries.getIfPresent(variantKey);
+        long now = System.currentTimeMillis();
+        if (entry != null && !entry.isFresh(now) && !entry.isUsableOnError(now) && entry.getEtag() == null) {
+            entries.invalidate(variantKey);
+            entry = null;
+        }
+        if (entry == null || !entry.isFresh(now)) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Stores a 200 response if its Cache-Control allows that.
+     *
+     * @param requestHeaders headers of the client request, before it was mapped
+     * @param response backend response, its body is copied
+     */
+    public void put(String key, HttpHeaders requestHeaders, FullHttpResponse response, CachePolicy policy) {
+        if (entries == null || !HttpResponseStatus.OK.equals(response.status()) || response.headers().contains(HttpHeaderNames.SET_COOKIE)) {
+            return;
+        }
+        Freshness freshness = Freshness.of(response.headers(), policy, System.currentTimeMillis());
+        String vary = response.headers().get(HttpHeaderNames.VARY);
+        if (freshness == null || "*".equals(vary)) {
+            return;
+        }
+        List<String> varyNames = parseVary(vary);
+        if (varyNames.isEmpty()) {
+            varies.invalidate(key);
+        } else {
+            varies.put(key, varyNames);
+        }
+        ByteBuf content = response.content();
+        ByteBuf copy = ByteBufAllocator.DEFAULT.directBuffer(content.readableBytes());
+        copy.writeBytes(content, content.readerIndex(), content.readableBytes());
+        CachedResponse entry = new CachedResponse(response.status(), storedHeaders(response.headers()), copy,
+                freshness.now, freshness.freshUntil, freshness.staleUntil);
+        add(getVariantKey(key, varyNames, requestHeaders), entry);
+        stores.increment();
+    }
+
+    /**
+     * Updates an entry after the backend confirmed with 304 that it has not changed.
+     *
+     * @param entry entry that was revalidated
+     * @param response 304 response of the backend
+     * @return the updated entry, or the given one if it could not be updated
+     */
+    public CachedResponse revalidated(String key, HttpHeaders requestHeaders, CachedResponse entry, FullHttpResponse response,
+            CachePolicy policy) {
+        revalidations.increment();
+        if (entries == null) {
+            return entry;
+        }
+        HttpHeaders headers = storedHeaders(response.headers());
+        headers.remove(HttpHeaderNames.CONTENT_LENGTH);
+        long now = System.currentTimeMillis();
+        HttpHeaders merged = entry.getHeaders().copy().set(headers);
+        Freshness freshness = Freshness.of(merged, policy, now);
+        if (freshness == null) {
+            return entry;
+        }
+        CachedResponse updated = entry.revalidated(headers, now, freshness.freshUntil, freshness.staleUntil);
+        if (updated == null) {
+            return entry;
+        }
+        add(getVariantKey(key, varies.getIfPresent(key), requestHeaders), updated);
+        return updated;
+    }
+
+    /**
+     * Marks a stale response returned because the backend failed.
+     */
+    public void staleHit() {
+        staleHits.increment();
+    }
+
+    private void add(String variantKey, CachedResponse entry) {
+        bytes.addAndGet(variantKey.length() + entry.getWeight());
+        entries.put(variantKey, entry);
+    }
+
+    private static String getVariantKey(String key, List<String> varyNames, HttpHeaders requestHeaders) {
+        if (varyNames == null || varyNames.isEmpty()) {
+            return key;
+        }
+        StringBuilder variantKey = new StringBuilder(key);
+        for (String name : varyNames) {
+            variantKey.append('\n').append(name).append(':').append(requestHeaders.get(name, ""));
+        }
+        return variantKey.toString();
+    }
+
+    private static List<String> parseVary(String vary) {
+        if (vary == null || vary.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>();
+        for (String name : vary.split(",")) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim().toLowerCase(Locale.ENGLISH));
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    // hop-by-hop headers concern the connection the response was received on
+    private static HttpHeaders storedHeaders(HttpHeaders headers) {
+        HttpHeaders stored = headers.copy();
+        stored.remove(HttpHeaderNames.CONNECTION);
+        stored.remove("Keep-Alive");
+        stored.remove(HttpHeaderNames.TRANSFER_ENCODING);
+        stored.remove(HttpHeaderNames.AGE);
+        return stored;
+    }
+
+    private static boolean hasDirective(String cacheControl, String directive) {
+        return getDirective(cacheControl, directive) != null;
+    }
+
+    // returns the value of a Cache-Control directive, an empty string for directives without value, null if it is missing
+    private static String getDirective(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return null;
+        }
+        for (String part : cacheControl.split(",")) {
+            String token = part.trim();
+            int eq = token.indexOf('=');
+            String name = (eq < 0) ? token : token.substring(0, eq).trim();
+            if (name.equalsIgnoreCase(directive)) {
+                return (eq < 0) ? "" : token.substring(eq + 1).trim().replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return hit, miss and size counters of the cache
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("enabled", isEnabled());
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("staleHits", staleHits.sum());
+        metrics.put("revalidations", revalidations.sum());
+        metrics.put("stores", stores.sum());
+        metrics.put("entries", (entries != null) ? entries.size() : 0);
+        metrics.put("bytes", bytes.get());
+        metrics.put("maxBytes", ServerConfig.getCacheMaxBytes());
+        metrics.put("evictions", (entries != null) ? entries.stats().evictionCount() : 0);
+        return metrics;
+    }
+
+    /**
+     * How long a response could be used, according to its Cache-Control header and the cache policy.
+     */
+    private static final class Freshness {
+
+        private final long now;
+        private final long freshUntil;
+        private final long staleUntil;
+
+        private Freshness(long now, long freshUntil, long staleUntil) {
+            this.now = now;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+        }
+
+        // returns null if the response should not be stored
+        private static Freshness of(HttpHeaders headers, CachePolicy policy, long now) {
+            String cacheControl = headers.get(HttpHeaderNames.CACHE_CONTROL);
+            if (hasDirective(cacheControl, "no-store")) {
+                return null;
+            }
+            // the gateway is a shared cache, private responses are stored only per user
+            if (hasDirective(cacheControl, "private") && !CachePolicy.KEY_BY_USER.equals(policy.getKeyBy())) {
+                return null;
+            }
+            long maxAge = policy.getMaxAge();
+            String sharedMaxAge = getDirective(cacheControl, "s-maxage");
+            String clientMaxAge = getDirective(cacheControl, "max-age");
+            if (hasDirective(cacheControl, CACHE_CONTROL_NO_CACHE)) {
+                maxAge = 0;
+            } else if (sharedMaxAge != null) {
+                maxAge = parseSeconds(sharedMaxAge);
+            } else if (clientMaxAge != null) {
+                maxAge = parseSeconds(clientMaxAge);
+            }
+            long staleIfError = policy.getStaleIfError();
+            String staleDirective = getDirective(cacheControl, "stale-if-error");
+            if (staleDirective != null) {
+                staleIfError = parseSeconds(staleDirective);
+            }
+            if (maxAge <= 0 && staleIfError <= 0 && headers.get(HttpHeaderNames.ETAG) == null) {
+                return null;
+            }
+            long freshUntil = now + TimeUnit.SECONDS.toMillis(maxAge);
+            return new Freshness(now, freshUntil, freshUntil + TimeUnit.SECONDS.toMillis(staleIfError));
+        }
+
+        private static long parseSeconds(String value) {
+            try {
+                return Math.max(0, Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
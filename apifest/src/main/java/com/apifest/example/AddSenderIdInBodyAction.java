@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 
 import com.apifest.api.BasicAction;
 import com.apifest.api.MappingException;
+import com.apifest.api.ThreadSafe;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
@@ -36,6 +37,7 @@ import com.google.gson.JsonParser;
  *
  * @author Rossitsa Borissova
  */
+@ThreadSafe
 public class AddSenderIdInBodyAction extends BasicAction {
 
     public static Logger log = LoggerFactory.getLogger(AddSenderIdInBodyAction.class);
@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.apifest.api.BasicFilter;
+import com.apifest.api.ThreadSafe;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
@@ -33,6 +34,7 @@ import com.google.gson.JsonParser;
  *
  * @author Rossitsa Borissova
  */
+@ThreadSafe
 public class RemoveBalanceFilter extends BasicFilter {
 
     public static Logger log = LoggerFactory.getLogger(RemoveBalanceFilter.class);
@@ -19,6 +19,7 @@ package com.apifest.example;
 import com.apifest.api.AccessToken;
 
 import com.apifest.api.BasicAction;
+import com.apifest.api.ThreadSafe;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpRequest;
 
@@ -27,6 +28,7 @@ import io.netty.handler.codec.http.HttpRequest;
  *
  * @author Rossitsa Borissova
  */
+@ThreadSafe
 public class ReplaceCustomerIdAction extends BasicAction {
 
     protected static final String CUSTOMER_ID = "{customerId}";
@@ -16,22 +16,12 @@
 
 package com.apifest.oauth20;
 
-import com.apifest.api.ExceptionEventHandler;
-import com.apifest.api.LifecycleHandler;
-import com.apifest.api.OnException;
-import com.apifest.api.OnRequest;
-import com.apifest.api.OnResponse;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URLClassLoader;
-import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+
+import com.apifest.LifecycleEventDispatcher;
+import com.apifest.api.ExceptionEventHandler;
+import com.apifest.api.LifecycleHandler;
 
 /**
  * Loads lifecycle event handlers on OAuth server startup.
@@ -40,71 +30,28 @@ import java.util.jar.JarFile;
  */
 public class LifecycleEventHandlers {
 
-    private static Logger log = LoggerFactory.getLogger(LifecycleEventHandlers.class);
-
-    private static List<Class<LifecycleHandler>> requestEventHandlers = new ArrayList<Class<LifecycleHandler>>();
-    private static List<Class<LifecycleHandler>> responseEventHandlers = new ArrayList<Class<LifecycleHandler>>();
-    private static List<Class<ExceptionEventHandler>> exceptionHandlers = new ArrayList<Class<ExceptionEventHandler>>();
+    private static final LifecycleEventDispatcher dispatcher = new LifecycleEventDispatcher();
 
-    @SuppressWarnings("unchecked")
     public static void loadLifecycleHandlers(URLClassLoader classLoader, String customJar) {
-        try {
-            if (classLoader != null) {
-                JarFile jarFile = new JarFile(customJar);
-                Enumeration<JarEntry> entries = jarFile.entries();
-                while (entries.hasMoreElements()) {
-                    JarEntry entry = entries.nextElement();
-                    if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
-                        continue;
-                    }
-                    // remove .class
-                    String className = entry.getName().substring(0, entry.getName().length() - 6);
-                    className = className.replace('/', '.');
-                    try {
-                        // REVISIT: check for better solution
-                        if (className.startsWith("org.jboss.netty") || className.startsWith("org.apache.log4j")
-                                || className.startsWith("org.apache.commons")) {
-                            continue;
-                        }
-                        Class<?> clazz = classLoader.loadClass(className);
-                        if (clazz.isAnnotationPresent(OnRequest.class)
-                                && LifecycleHandler.class.isAssignableFrom(clazz)) {
-                            requestEventHandlers.add((Class<LifecycleHandler>) clazz);
-                            log.debug("preIssueTokenHandler added {}", className);
-                        }
-                        if (clazz.isAnnotationPresent(OnResponse.class)
-                                && LifecycleHandler.class.isAssignableFrom(clazz)) {
-                            responseEventHandlers.add((Class<LifecycleHandler>) clazz);
-                            log.debug("postIssueTokenHandler added {}", className);
-                        }
-                        if (clazz.isAnnotationPresent(OnException.class)
-                                && ExceptionEventHandler.class.isAssignableFrom(clazz)) {
-                            exceptionHandlers.add((Class<ExceptionEventHandler>) clazz);
-                            log.debug("exceptionHandlers added {}", className);
-                        }
-                    } catch (ClassNotFoundException e1) {
-                        // continue
-                    }
-                }
-            }
-        } catch (MalformedURLException e) {
-            log.error("cannot load lifecycle handlers", e);
-        } catch (IOException e) {
-            log.error("cannot load lifecycle handlers", e);
-        } catch (IllegalArgumentException e) {
-            log.error(e.getMessage());
-        }
+        dispatcher.load(classLoader, customJar);
     }
 
     public static List<Class<LifecycleHandler>> getRequestEventHandlers() {
-        return requestEventHandlers;
+        return dispatcher.getRequestHandlerClasses();
     }
 
     public static List<Class<LifecycleHandler>> getResponseEventHandlers() {
-        return responseEventHandlers;
+        return dispatcher.getResponseHandlerClasses();
     }
 
     public static List<Class<ExceptionEventHandler>> getExceptionHandlers() {
-        return exceptionHandlers;
+        return dispatcher.getExceptionHandlerClasses();
+    }
+
+    /**
+     * @return dispatcher that invokes the OAuth server handlers
+     */
+    public static LifecycleEventDispatcher getDispatcher() {
+        return dispatcher;
     }
 }
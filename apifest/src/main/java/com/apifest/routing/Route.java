@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import java.util.regex.Pattern;
+
+import com.apifest.MappingConfig;
+import com.apifest.api.MappingEndpoint;
+
+/**
+ * A compiled external endpoint - the mapping endpoint together with the mapping config it belongs to.
+ */
+public final class Route {
+
+    private final MappingEndpoint endpoint;
+    private final MappingConfig config;
+    private final String[] varNames;
+    private final Pattern pattern;
+    private final UriTemplate internalUri;
+
+    /**
+     * @param endpoint mapping endpoint
+     * @param config mapping config the endpoint is defined in
+     * @param varNames variable names in the order their values are captured
+     * @param pattern regular expression for the whole path, null when the route is matched by the tree
+     */
+    Route(MappingEndpoint endpoint, MappingConfig config, String[] varNames, Pattern pattern) {
+        this.endpoint = endpoint;
+        this.config = config;
+        this.varNames = varNames;
+        this.pattern = pattern;
+        this.internalUri = UriTemplate.compile(endpoint.getInternalEndpoint(), varNames);
+    }
+
+    public MappingEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public MappingConfig getConfig() {
+        return config;
+    }
+
+    String[] getVarNames() {
+        return varNames;
+    }
+
+    Pattern getPattern() {
+        return pattern;
+    }
+
+    UriTemplate getInternalUri() {
+        return internalUri;
+    }
+
+    boolean isRegex() {
+        return pattern != null;
+    }
+}
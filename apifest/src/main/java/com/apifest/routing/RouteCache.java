@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded cache of resolved routes in front of a {@link RouteTree}, keyed by HTTP method and raw path.
+ * Paths without a route are cached as well. The cache belongs to a single route tree,
+ * so it is dropped together with the tree when the mappings change.
+ */
+public final class RouteCache {
+
+    // marks paths that do not match any route, as the cache does not accept null values
+    private static final RouteMatch NO_ROUTE = new RouteMatch(null, null);
+
+    private final RouteTree routes;
+    private final Cache<RouteKey, RouteMatch> cache;
+    private final int maximumSize;
+
+    /**
+     * @param routes route tree
+     * @param maximumSize maximum number of cached paths, 0 disables the cache
+     */
+    public RouteCache(RouteTree routes, int maximumSize) {
+        this.routes = routes;
+        this.maximumSize = maximumSize;
+        this.cache = (maximumSize > 0) ? CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().<RouteKey, RouteMatch>build() : null;
+    }
+
+    /**
+     * Finds the route for a request path.
+     *
+     * @param method HTTP method
+     * @param path raw request path, without query string
+     * @return the matched route or null if no route matches
+     */
+    public RouteMatch match(String method, String path) {
+        if (cache == null || method == null || path == null) {
+            return routes.match(method, path);
+        }
+        RouteKey key = new RouteKey(method, path);
+        RouteMatch match = cache.getIfPresent(key);
+        if (match == null) {
+            match = routes.match(method, path);
+            cache.put(key, (match != null) ? match : NO_ROUTE);
+        }
+        return (match != NO_ROUTE) ? match : null;
+    }
+
+    public RouteTree getRoutes() {
+        return routes;
+    }
+
+    /**
+     * @return hit/miss counters since the cache was created
+     */
+    public CacheStats stats() {
+        return (cache != null) ? cache.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    public long size() {
+        return (cache != null) ? cache.size() : 0;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    private static final class RouteKey {
+        private final String method;
+        private final String path;
+        private final int hash;
+
+        private RouteKey(String method, String path) {
+            this.method = method;
+            this.path = path;
+            this.hash = 31 * method.hashCode() + path.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof RouteKey) {
+                RouteKey other = (RouteKey) obj;
+                return hash == other.hash && path.equals(other.path) && method.equals(other.method);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
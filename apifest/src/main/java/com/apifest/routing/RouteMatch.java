@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import com.apifest.MappingConfig;
+import com.apifest.api.MappingEndpoint;
+
+/**
+ * Result of a route lookup - the matched route and the values of the path variables.
+ */
+public final class RouteMatch {
+
+    private final Route route;
+    private final String[] values;
+    // cached matches are shared between requests, so the internal URI is expanded once
+    private String internalUri;
+
+    RouteMatch(Route route, String[] values) {
+        this.route = route;
+        this.values = values;
+    }
+
+    public MappingConfig getConfig() {
+        return route.getConfig();
+    }
+
+    public MappingEndpoint getEndpoint() {
+        return route.getEndpoint();
+    }
+
+    /**
+     * Returns the value of a path variable.
+     *
+     * @param varName variable name
+     * @return variable value or null if there is no such variable
+     */
+    public String getVariable(String varName) {
+        String[] names = route.getVarNames();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(varName)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the internal endpoint with all path variables replaced with their values.
+     *
+     * @return internal URI
+     */
+    public String getInternalUri() {
+        String uri = internalUri;
+        if (uri == null) {
+            uri = route.getInternalUri().expand(values, route.getVarNames());
+            internalUri = uri;
+        }
+        return uri;
+    }
+
+    /**
+     * Returns a copy of the matched endpoint with its internal endpoint resolved.
+     * Prefer {@link #getEndpoint()} and {@link #getInternalUri()} that do not copy the endpoint.
+     *
+     * @return <code>MappingEndpoint</code> with the internal endpoint resolved
+     */
+    public MappingEndpoint toMappingEndpoint() {
+        MappingEndpoint cur = route.getEndpoint();
+        return new MappingEndpoint(cur.getExternalEndpoint(), getInternalUri(), cur.getMethod(), cur.getAuthType(), cur.getScope(), cur.getAction(), cur.getFilter(),
+                cur.getVarExpression(), cur.getVarName(), cur.getBackendHost(), cur.getBackendPort(), cur.getCustomProperties());
+    }
+}
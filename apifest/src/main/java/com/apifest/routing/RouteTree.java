@@ -0,0 +1,284 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.MappingConfig;
+import com.apifest.api.MappingEndpoint;
+
+/**
+ * Routing table for all external endpoints. Endpoints are compiled per HTTP method into a tree
+ * where literal path segments are nodes and <code>{var}</code> segments are capture nodes,
+ * so the cost of a lookup depends on the path length and not on the number of mappings.
+ * Only endpoints with segments that could not be matched one by one
+ * (e.g. <code>{id}.json</code> or variable expressions that may contain '/') are matched
+ * with the regular expression of the whole path.
+ * The tree is not modified after it is built.
+ */
+public final class RouteTree {
+
+    private static Logger log = LoggerFactory.getLogger(RouteTree.class);
+
+    private static final String REGEX_CHARS = "\\[](){}*+?^$|";
+
+    private final Map<String, Node> roots;
+    private final int maxVars;
+    private final int size;
+
+    private RouteTree(Map<String, Node> roots, int maxVars, int size) {
+        this.roots = roots;
+        this.maxVars = maxVars;
+        this.size = size;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Finds the route for a request path.
+     *
+     * @param method HTTP method
+     * @param path raw request path, without query string
+     * @return the matched route or null if no route matches
+     */
+    public RouteMatch match(String method, String path) {
+        Node root = roots.get(method);
+        if (root == null || path == null) {
+            return null;
+        }
+        String[] values = new String[maxVars];
+        Route route;
+        if (path.length() > 0 && path.charAt(0) == '/') {
+            route = find(root, path, 1, values, 0);
+        } else {
+            route = findRegex(root, path, values);
+        }
+        return (route != null) ? new RouteMatch(route, values) : null;
+    }
+
+    /**
+     * @return number of routes in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    private static Route find(Node node, String path, int start, String[] values, int depth) {
+        int length = path.length();
+        if (start > length) {
+            if (node.route != null) {
+                return node.route;
+            }
+        } else {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (node.literals != null) {
+                Node child = node.literals.get(path.substring(start, end));
+                if (child != null) {
+                    Route route = find(child, path, end + 1, values, depth);
+                    if (route != null) {
+                        return route;
+                    }
+                }
+            }
+            for (CaptureEdge edge : node.captures) {
+                if (edge.matcher.matches(path, start, end)) {
+                    Route route = find(edge.child, path, end + 1, values, depth + 1);
+                    if (route != null) {
+                        // regex routes fill in all values themselves
+                        if (!route.isRegex()) {
+                            values[depth] = path.substring(start, end);
+                        }
+                        return route;
+                    }
+                }
+            }
+        }
+        return findRegex(node, path, values);
+    }
+
+    private static Route findRegex(Node node, String path, String[] values) {
+        for (Route route : node.regexRoutes) {
+            Matcher m = route.getPattern().matcher(path);
+            if (m.matches()) {
+                int count = Math.min(route.getVarNames().length, m.groupCount());
+                for (int i = 0; i < count; i++) {
+                    values[i] = m.group(i + 1);
+                }
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static final class Node {
+        private Map<String, Node> literals;
+        private List<CaptureEdge> captures = Collections.emptyList();
+        private List<Route> regexRoutes = Collections.emptyList();
+        private Route route;
+
+        private Node literal(String segment) {
+            if (literals == null) {
+                literals = new HashMap<String, Node>();
+            }
+            Node child = literals.get(segment);
+            if (child == null) {
+                child = new Node();
+                literals.put(segment, child);
+            }
+            return child;
+        }
+
+        private Node capture(SegmentMatcher matcher) {
+            for (CaptureEdge edge : captures) {
+                if (edge.matcher.equals(matcher)) {
+                    return edge.child;
+                }
+            }
+            if (captures.isEmpty()) {
+                captures = new ArrayList<CaptureEdge>();
+            }
+            CaptureEdge edge = new CaptureEdge(matcher, new Node());
+            captures.add(edge);
+            // prefer typed captures over regular expressions
+            Collections.sort(captures);
+            return edge.child;
+        }
+
+        private void addRegex(Route regexRoute) {
+            if (regexRoutes.isEmpty()) {
+                regexRoutes = new ArrayList<Route>();
+            }
+            regexRoutes.add(regexRoute);
+        }
+    }
+
+    private static final class CaptureEdge implements Comparable<CaptureEdge> {
+        private final SegmentMatcher matcher;
+        private final Node child;
+
+        private CaptureEdge(SegmentMatcher matcher, Node child) {
+            this.matcher = matcher;
+            this.child = child;
+        }
+
+        @Override
+        public int compareTo(CaptureEdge other) {
+            return matcher.getType().compareTo(other.matcher.getType());
+        }
+    }
+
+    /**
+     * Compiles mapping endpoints into a {@link RouteTree}.
+     */
+    public static final class Builder {
+
+        private final Map<String, Node> roots = new HashMap<String, Node>();
+        private int maxVars;
+        private int size;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds an endpoint to the tree.
+         *
+         * @param endpoint mapping endpoint
+         * @param pattern regular expression for the external endpoint, used if the path could not be matched segment by segment
+         * @param config mapping config the endpoint belongs to
+         * @return this builder
+         */
+        public Builder add(MappingEndpoint endpoint, Pattern pattern, MappingConfig config) {
+            String path = endpoint.getExternalEndpoint();
+            String[] varNames = split(endpoint.getVarName());
+            String[] varExpressions = split(endpoint.getVarExpression());
+
+            Node root = roots.get(endpoint.getMethod());
+            if (root == null) {
+                root = new Node();
+                roots.put(endpoint.getMethod(), root);
+            }
+            Node node = root;
+            List<String> captured = new ArrayList<String>();
+            boolean regex = !path.startsWith("/");
+            if (!regex) {
+                for (String segment : path.substring(1).split("/", -1)) {
+                    if (segment.startsWith("{") && segment.endsWith("}") && segment.indexOf('{', 1) < 0) {
+                        String varName = segment.substring(1, segment.length() - 1);
+                        int index = Arrays.asList(varNames).indexOf(varName);
+                        String varExpression = (index >= 0 && index < varExpressions.length) ? varExpressions[index] : null;
+                        SegmentMatcher matcher = SegmentMatcher.forExpression(varExpression);
+                        if (matcher == null) {
+                            regex = true;
+                            break;
+                        }
+                        node = node.capture(matcher);
+                        captured.add(varName);
+                    } else if (isLiteral(segment)) {
+                        node = node.literal(segment);
+                    } else {
+                        regex = true;
+                        break;
+                    }
+                }
+            }
+            if (regex) {
+                node.addRegex(new Route(endpoint, config, varNames, pattern));
+                maxVars = Math.max(maxVars, varNames.length);
+            } else if (node.route != null) {
+                log.warn("external path {} {} is already mapped, mapping ignored", endpoint.getMethod(), path);
+                return this;
+            } else {
+                node.route = new Route(endpoint, config, captured.toArray(new String[captured.size()]), null);
+                maxVars = Math.max(maxVars, captured.size());
+            }
+            size++;
+            return this;
+        }
+
+        public RouteTree build() {
+            return new RouteTree(new HashMap<String, Node>(roots), maxVars, size);
+        }
+
+        private static boolean isLiteral(String segment) {
+            for (int i = 0; i < segment.length(); i++) {
+                if (REGEX_CHARS.indexOf(segment.charAt(i)) >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String[] split(String value) {
+            return (value != null) ? value.split(" ") : new String[0];
+        }
+    }
+}
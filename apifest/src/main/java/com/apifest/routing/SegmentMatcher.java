@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import java.util.regex.Pattern;
+
+/**
+ * Matches a single path segment captured by a <code>{var}</code> placeholder.
+ * Common variable expressions are recognized and matched without regular expressions,
+ * all other expressions are compiled once and matched against the segment only.
+ */
+final class SegmentMatcher {
+
+    enum Type {
+        DIGITS, DIGITS_OR_EMPTY, WORD, ANY, REGEX
+    }
+
+    // tokens that may match a '/', such expressions cannot be matched per segment
+    private static final String[] MULTI_SEGMENT_TOKENS = { ".", "/", "[^", "\\D", "\\W", "\\S", "\\P", "\\X",
+        "\\p{Punct}", "\\p{Graph}", "\\p{Print}", "\\p{ASCII}" };
+
+    private final Type type;
+    private final String expression;
+    private final Pattern pattern;
+
+    private SegmentMatcher(Type type, String expression) {
+        this.type = type;
+        this.expression = expression;
+        this.pattern = (type == Type.REGEX) ? Pattern.compile("(?:" + expression + ")") : null;
+    }
+
+    /**
+     * Creates a matcher for the given variable expression.
+     *
+     * @param varExpression variable expression as defined in the mapping, could be null
+     * @return matcher or null if the expression could match more than one path segment
+     */
+    static SegmentMatcher forExpression(String varExpression) {
+        if (varExpression == null) {
+            return new SegmentMatcher(Type.ANY, "");
+        }
+        String expr = varExpression;
+        if (expr.endsWith("$") && !expr.endsWith("\\$")) {
+            expr = expr.substring(0, expr.length() - 1);
+        }
+        if ("\\d+".equals(expr) || "[0-9]+".equals(expr)) {
+            return new SegmentMatcher(Type.DIGITS, expr);
+        }
+        if ("\\d*".equals(expr) || "[0-9]*".equals(expr)) {
+            return new SegmentMatcher(Type.DIGITS_OR_EMPTY, expr);
+        }
+        if ("\\w+".equals(expr)) {
+            return new SegmentMatcher(Type.WORD, expr);
+        }
+        if ("[^/]+".equals(expr)) {
+            return new SegmentMatcher(Type.ANY, expr);
+        }
+        for (String token : MULTI_SEGMENT_TOKENS) {
+            if (expr.contains(token)) {
+                return null;
+            }
+        }
+        return new SegmentMatcher(Type.REGEX, expr);
+    }
+
+    boolean matches(String path, int start, int end) {
+        switch (type) {
+        case DIGITS:
+            return start < end && isDigits(path, start, end);
+        case DIGITS_OR_EMPTY:
+            return isDigits(path, start, end);
+        case WORD:
+            return start < end && isWord(path, start, end);
+        case ANY:
+            return start < end;
+        default:
+            return pattern.matcher(path).region(start, end).matches();
+        }
+    }
+
+    private static boolean isDigits(String path, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWord(String path, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof SegmentMatcher) {
+            SegmentMatcher other = (SegmentMatcher) obj;
+            return type == other.type && expression.equals(other.expression);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + expression.hashCode();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Internal endpoint compiled into literal parts and variable slots.
+ * Placeholders that are not path variables (e.g. <code>{customerId}</code> replaced by an action)
+ * are kept as literal text.
+ */
+final class UriTemplate {
+
+    private final String[] literals;
+    private final int[] slots;
+    private final int literalsLength;
+
+    private UriTemplate(String[] literals, int[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalsLength = length;
+    }
+
+    /**
+     * Compiles an internal endpoint.
+     *
+     * @param uri internal endpoint
+     * @param varNames variable names, the slot of a variable is its index in that array
+     * @return compiled template
+     */
+    static UriTemplate compile(String uri, String[] varNames) {
+        List<String> literals = new ArrayList<String>();
+        List<Integer> slots = new ArrayList<Integer>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (pos < uri.length()) {
+            int open = uri.indexOf('{', pos);
+            int close = (open >= 0) ? uri.indexOf('}', open) : -1;
+            if (close < 0) {
+                literal.append(uri, pos, uri.length());
+                break;
+            }
+            int slot = indexOf(varNames, uri.substring(open + 1, close));
+            if (slot < 0) {
+                literal.append(uri, pos, close + 1);
+            } else {
+                literal.append(uri, pos, open);
+                literals.add(literal.toString());
+                literal.setLength(0);
+                slots.add(slot);
+            }
+            pos = close + 1;
+        }
+        literals.add(literal.toString());
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new UriTemplate(literals.toArray(new String[literals.size()]), slotArray);
+    }
+
+    /**
+     * Replaces the variable slots with their values.
+     *
+     * @param values variable values, a null value leaves the placeholder as it is
+     * @param varNames variable names used to compile the template
+     * @return the expanded URI
+     */
+    String expand(String[] values, String[] varNames) {
+        if (slots.length == 0) {
+            return literals[0];
+        }
+        int length = literalsLength;
+        for (int slot : slots) {
+            length += (values[slot] != null) ? values[slot].length() : varNames[slot].length() + 2;
+        }
+        StringBuilder uri = new StringBuilder(length);
+        for (int i = 0; i < slots.length; i++) {
+            uri.append(literals[i]);
+            String value = values[slots[i]];
+            if (value != null) {
+                uri.append(value);
+            } else {
+                uri.append('{').append(varNames[slots[i]]).append('}');
+            }
+        }
+        uri.append(literals[slots.length]);
+        return uri.toString();
+    }
+
+    private static int indexOf(String[] varNames, String name) {
+        for (int i = 0; i < varNames.length; i++) {
+            if (varNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.ServerConfig;
+
+/**
+ * Circuit breaker of a backend address. The circuit opens after too many consecutive failures or a too high
+ * error rate, then requests to the backend are rejected at once instead of waiting for connect timeouts.
+ * After <code>circuit.open_timeout</code> a single probe request is let through (half-open),
+ * its outcome closes the circuit or opens it again. Requests let through before the circuit opened may still
+ * complete while it is half-open, their outcomes are not taken into account.
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Permit of a request let through, the outcome of the request is recorded with it.
+     */
+    public enum Permit {
+        // a request while the circuit is closed
+        REQUEST,
+        // the single request let through while the circuit is half-open
+        PROBE
+    }
+
+    private static Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private final String address;
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+
+    // guarded by this
+    private int consecutiveFailures;
+    private int windowRequests;
+    private int windowFailures;
+    private long windowStart = System.nanoTime();
+    private boolean probing;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    private CircuitBreaker(String address) {
+        this.address = address;
+    }
+
+    /**
+     * @return the circuit breaker of a backend address, created on first use
+     */
+    public static CircuitBreaker of(String host, int port) {
+        String address = host + ":" + port;
+        CircuitBreaker breaker = BREAKERS.get(address);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(address);
+            CircuitBreaker current = BREAKERS.putIfAbsent(address, breaker);
+            if (current != null) {
+                breaker = current;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Checks whether a request could be sent to the backend. A permitted request must be followed
+     * by {@link #onSuccess(Permit, long)}, {@link #onFailure(Permit)} or {@link #onIgnored(Permit)} with the returned permit.
+     *
+     * @return null if the request should be rejected
+     */
+    public Permit tryAcquire() {
+        if (state == State.CLOSED) {
+            return Permit.REQUEST;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < TimeUnit.MILLISECONDS.toNanos(ServerConfig.getCircuitOpenTimeout())) {
+                    rejected.increment();
+                    return null;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probing) {
+                    rejected.increment();
+                    return null;
+                }
+                probing = true;
+                return Permit.PROBE;
+            }
+            return Permit.REQUEST;
+        }
+    }
+
+    /**
+     * @return false if requests would be rejected at the moment
+     */
+    public boolean isAvailable() {
+        State current = state;
+        if (current == State.OPEN) {
+            return System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(ServerConfig.getCircuitOpenTimeout());
+        }
+        return true;
+    }
+
+    /**
+     * Records a response from the backend, a response slower than <code>circuit.slow_call_threshold</code> counts as failure.
+     *
+     * @param permit permit the request was let through with
+     * @param latencyNanos response time in nanoseconds
+     */
+    public void onSuccess(Permit permit, long latencyNanos) {
+        int slowCall = ServerConfig.getCircuitSlowCallThreshold();
+        if (slowCall > 0 && latencyNanos > TimeUnit.MILLISECONDS.toNanos(slowCall)) {
+            onFailure(permit);
+            return;
+        }
+        synchronized (this) {
+            if (permit == Permit.PROBE) {
+                endProbe(State.CLOSED);
+                return;
+            }
+            if (state != State.CLOSED) {
+                return;
+            }
+            consecutiveFailures = 0;
+            record(false);
+        }
+    }
+
+    /**
+     * Records a failed request - connect error, timeout or 5xx response.
+     *
+     * @param permit permit the request was let through with
+     */
+    public void onFailure(Permit permit) {
+        synchronized (this) {
+            if (permit == Permit.PROBE) {
+                endProbe(State.OPEN);
+                return;
+            }
+            if (state != State.CLOSED) {
+                return;
+            }
+            consecutiveFailures++;
+            record(true);
+            boolean errorRateReached = windowRequests >= ServerConfig.getCircuitMinRequests()
+                    && windowFailures * 100 >= ServerConfig.getCircuitErrorRateThreshold() * windowRequests;
+            if (consecutiveFailures >= ServerConfig.getCircuitFailureThreshold() || errorRateReached) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * Records a request that did not reach the backend for reasons not related to it, e.g. the client closed the connection.
+     * An ignored probe lets the next request through as probe.
+     *
+     * @param permit permit the request was let through with
+     */
+    public synchronized void onIgnored(Permit permit) {
+        if (permit == Permit.PROBE) {
+            probing = false;
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // guarded by this
+    private void endProbe(State newState) {
+        probing = false;
+        if (state == State.HALF_OPEN) {
+            transition(newState);
+        }
+    }
+
+    // guarded by this
+    private void record(boolean failure) {
+        long now = System.nanoTime();
+        if (now - windowStart > TimeUnit.MILLISECONDS.toNanos(ServerConfig.getCircuitWindow())) {
+            windowStart = now;
+            windowRequests = 0;
+            windowFailures = 0;
+        }
+        windowRequests++;
+        if (failure) {
+            windowFailures++;
+        }
+    }
+
+    // guarded by this
+    private void transition(State newState) {
+        log.warn("circuit breaker {}: {} -> {}", address, state, newState);
+        if (newState == State.OPEN) {
+            openedAt = System.nanoTime();
+            opened.increment();
+        }
+        consecutiveFailures = 0;
+        windowRequests = 0;
+        windowFailures = 0;
+        windowStart = System.nanoTime();
+        state = newState;
+    }
+
+    /**
+     * @return state and counters of each circuit breaker
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        for (CircuitBreaker breaker : BREAKERS.values()) {
+            Map<String, Object> breakerMetrics = new LinkedHashMap<String, Object>();
+            breakerMetrics.put("state", breaker.state.toString());
+            breakerMetrics.put("opened", breaker.opened.sum());
+            breakerMetrics.put("rejected", breaker.rejected.sum());
+            metrics.put(breaker.address, breakerMetrics);
+        }
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return address;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.ServerConfig;
+import com.apifest.api.ConcurrencyPolicy;
+
+/**
+ * Adaptive limit of the concurrent requests to a backend address or of an endpoint. Requests above the limit are
+ * rejected at once, so they do not queue for connections until they time out.
+ * <p>
+ * The limit follows the response times (gradient): the average response time of each window of requests is compared
+ * to the usual one - the lowest recent one, which rises slowly only while the load is low. While it stays within
+ * <code>concurrency.rtt_tolerance</code> percent of the usual one the limit grows by about its square root per window,
+ * when the responses get slower the limit shrinks proportionally. A window with a request that timed out or was
+ * rejected by the backend (504, 503, 429) shrinks the limit by a tenth.
+ * The limit is not changed while less than half of it is used, as the response times then say nothing about it.
+ */
+public final class ConcurrencyLimiter {
+
+    private static Logger log = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    // a window closes after that many responses and at least MIN_WINDOW_NANOS, or after MAX_WINDOW_NANOS
+    static final int WINDOW_SAMPLES = 10;
+    static final long MIN_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long MAX_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // weight of a slower window in the usual response time
+    static final double LONG_RTT_SMOOTHING = 0.05;
+    // weight of a new limit, the limit moves half of the way to it each window
+    static final double LIMIT_SMOOTHING = 0.5;
+    static final double DROP_BACKOFF = 0.9;
+
+    private static final ConcurrentMap<String, ConcurrencyLimiter> BACKENDS = new ConcurrentHashMap<String, ConcurrencyLimiter>();
+    private static final ConcurrentMap<String, ConcurrencyLimiter> ENDPOINTS = new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    private final String name;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private volatile int minLimit;
+    private volatile int maxLimit;
+
+    // guarded by this
+    private double estimatedLimit;
+    private double longRtt;
+    private long windowStart = System.nanoTime();
+    private int windowSamples;
+    private long windowRttSum;
+    private int windowRttCount;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = clamp(initialLimit, minLimit, maxLimit);
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * @return the limiter of a backend address, created on first use
+     */
+    public static ConcurrencyLimiter of(String host, int port) {
+        String address = host + ":" + port;
+        ConcurrencyLimiter limiter = BACKENDS.get(address);
+        if (limiter == null) {
+            limiter = new ConcurrencyLimiter(address, ServerConfig.getConcurrencyInitialLimit(),
+                    ServerConfig.getConcurrencyMinLimit(), ServerConfig.getConcurrencyMaxLimit());
+            ConcurrencyLimiter current = BACKENDS.putIfAbsent(address, limiter);
+            if (current != null) {
+                limiter = current;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Returns the limiter of an endpoint, created on first use. The min and max limits of the policy
+     * are applied on each call, so they follow mappings reloads.
+     *
+     * @param endpointKey unique key of the endpoint
+     * @param policy concurrency settings of the endpoint, missing values are taken from the properties
+     */
+    public static ConcurrencyLimiter of(String endpointKey, ConcurrencyPolicy policy) {
+        int min = (policy.getMin() != null) ? policy.getMin() : ServerConfig.getConcurrencyMinLimit();
+        int max = (policy.getMax() != null) ? policy.getMax() : ServerConfig.getConcurrencyMaxLimit();
+        ConcurrencyLimiter limiter = ENDPOINTS.get(endpointKey);
+        if (limiter == null) {
+            int initial = (policy.getInitial() != null) ? policy.getInitial() : ServerConfig.getConcurrencyInitialLimit();
+            limiter = new ConcurrencyLimiter(endpointKey, initial, min, max);
+            ConcurrencyLimiter current = ENDPOINTS.putIfAbsent(endpointKey, limiter);
+            if (current != null) {
+                limiter = current;
+            }
+        }
+        if (limiter.minLimit != min || limiter.maxLimit != max) {
+            limiter.setBounds(min, max);
+        }
+        return limiter;
+    }
+
+    /**
+     * Checks whether a request could be sent. A permitted request must be followed by {@link #onSuccess(long)},
+     * {@link #onDropped()} or {@link #onIgnored()}.
+     *
+     * @return false if the limit is reached and the request should be rejected
+     */
+    public boolean tryAcquire() {
+        if (maxLimit <= 0) {
+            // no limit, in-flight requests are still counted for the metrics
+            inFlight.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records a response, its response time adjusts the limit.
+     *
+     * @param rttNanos response time in nanoseconds
+     */
+    public void onSuccess(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            windowRttSum += rttNanos;
+            windowRttCount++;
+            sample(current);
+        }
+    }
+
+    /**
+     * Records a request that timed out or was rejected because the backend is overloaded, the limit shrinks.
+     */
+    public void onDropped() {
+        int current = inFlight.getAndDecrement();
+        dropped.increment();
+        synchronized (this) {
+            windowDropped = true;
+            sample(current);
+        }
+    }
+
+    /**
+     * Records a request whose outcome says nothing about the load of the backend, e.g. it was cancelled
+     * or could not be connected.
+     */
+    public void onIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return false if requests would be rejected at the moment
+     */
+    public boolean hasCapacity() {
+        return maxLimit <= 0 || inFlight.get() < limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void setBounds(int min, int max) {
+        minLimit = min;
+        maxLimit = max;
+        estimatedLimit = clamp(estimatedLimit, min, max);
+        limit = (int) estimatedLimit;
+    }
+
+    // guarded by this
+    private void sample(int currentInFlight) {
+        windowSamples++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, currentInFlight);
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < MIN_WINDOW_NANOS || (windowSamples < WINDOW_SAMPLES && elapsed < MAX_WINDOW_NANOS)) {
+            return;
+        }
+        adjust();
+        windowStart = now;
+        windowSamples = 0;
+        windowRttSum = 0;
+        windowRttCount = 0;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+
+    // guarded by this
+    private void adjust() {
+        if (maxLimit <= 0) {
+            return;
+        }
+        double newLimit = estimatedLimit;
+        if (windowDropped) {
+            newLimit = estimatedLimit * DROP_BACKOFF;
+        } else if (windowRttCount > 0) {
+            double shortRtt = (double) windowRttSum / windowRttCount;
+            boolean appLimited = windowMaxInFlight * 2 < estimatedLimit;
+            if (longRtt == 0 || shortRtt < longRtt) {
+                longRtt = shortRtt;
+            } else if (appLimited || estimatedLimit <= minLimit) {
+                // under load the response times include queueing, so the usual one rises only when the load is low
+                // or the limit could not shrink any more, i.e. the backend itself got slower
+                longRtt = longRtt * (1 - LONG_RTT_SMOOTHING) + shortRtt * LONG_RTT_SMOOTHING;
+            }
+            if (appLimited) {
+                return;
+            }
+            double tolerance = ServerConfig.getConcurrencyRttTolerance() / 100.0;
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+            newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            newLimit = estimatedLimit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING;
+        }
+        newLimit = clamp(newLimit, minLimit, maxLimit);
+        if ((int) newLimit != limit) {
+            log.debug("concurrency limit of {}: {} -> {}", name, limit, (int) newLimit);
+        }
+        estimatedLimit = newLimit;
+        limit = (int) newLimit;
+    }
+
+    private static double clamp(double value, int min, int max) {
+        return (max > 0) ? Math.max(min, Math.min(max, value)) : value;
+    }
+
+    /**
+     * @return limit, in-flight requests and counters of each backend and endpoint limiter
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("backends", getMetrics(BACKENDS));
+        metrics.put("endpoints", getMetrics(ENDPOINTS));
+        return metrics;
+    }
+
+    private static Map<String, Object> getMetrics(ConcurrentMap<String, ConcurrencyLimiter> limiters) {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        for (ConcurrencyLimiter limiter : limiters.values()) {
+            Map<String, Object> limiterMetrics = new LinkedHashMap<String, Object>();
+            limiterMetrics.put("limit", limiter.limit);
+            limiterMetrics.put("inFlight", limiter.inFlight.get());
+            limiterMetrics.put("rejected", limiter.rejected.sum());
+            limiterMetrics.put("dropped", limiter.dropped.sum());
+            synchronized (limiter) {
+                limiterMetrics.put("usualResponseTimeMs", TimeUnit.NANOSECONDS.toMillis((long) limiter.longRtt));
+            }
+            metrics.put(limiter.name, limiterMetrics);
+        }
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest response times of an endpoint, so a request could be hedged once it takes longer
+ * than a percentile of them.
+ */
+public final class LatencyTracker {
+
+    static final int SAMPLES = 1024;
+    // percentiles of fewer responses are not reliable enough to hedge on
+    static final int MIN_SAMPLES = 100;
+    private static final long RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ConcurrentMap<String, LatencyTracker> TRACKERS = new ConcurrentHashMap<String, LatencyTracker>();
+
+    // guarded by this
+    private final long[] samples = new long[SAMPLES];
+    private long count;
+    private int cachedPercentile;
+    private long cachedValue = -1;
+    private long computedAt;
+
+    LatencyTracker() {
+    }
+
+    /**
+     * @return the tracker of an endpoint, created on first use
+     */
+    public static LatencyTracker of(String endpointKey) {
+        LatencyTracker tracker = TRACKERS.get(endpointKey);
+        if (tracker == null) {
+            tracker = new LatencyTracker();
+            LatencyTracker current = TRACKERS.putIfAbsent(endpointKey, tracker);
+            if (current != null) {
+                tracker = current;
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * Records the response time of a request.
+     */
+    public synchronized void record(long nanos) {
+        samples[(int) (count % SAMPLES)] = nanos;
+        count++;
+    }
+
+    /**
+     * Returns a percentile of the latest response times. It is recomputed at most once per second,
+     * as sorting the samples on each request would cost more than the hedging saves.
+     *
+     * @param percentile percentile between 1 and 99
+     * @return response time in nanoseconds, -1 if there are not enough responses yet
+     */
+    public synchronized long getPercentile(int percentile) {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        long now = System.nanoTime();
+        if (percentile != cachedPercentile || cachedValue < 0 || now - computedAt >= RECOMPUTE_NANOS) {
+            int size = (int) Math.min(count, SAMPLES);
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(size * percentile / 100.0) - 1;
+            cachedValue = sorted[Math.max(0, Math.min(size - 1, index))];
+            cachedPercentile = percentile;
+            computedAt = now;
+        }
+        return cachedValue;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+/**
+ * Sends requests to the member with fewer requests in progress.
+ */
+public class LeastOutstandingBalancer extends TwoChoicesBalancer {
+
+    @Override
+    protected double cost(UpstreamMember member, UpstreamMember other, long now) {
+        return (member.getOutstanding() + 1) / member.getLoadFactor(now);
+    }
+}
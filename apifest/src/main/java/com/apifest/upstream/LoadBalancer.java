@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.List;
+
+/**
+ * Strategy that picks the member of an upstream group a request is sent to.
+ */
+public interface LoadBalancer {
+
+    /**
+     * Picks a member for a request.
+     *
+     * @param members members of the group, never empty
+     * @return the member the request should be sent to
+     */
+    UpstreamMember choose(List<UpstreamMember> members);
+}
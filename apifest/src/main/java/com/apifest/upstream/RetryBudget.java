@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.apifest.ServerConfig;
+
+/**
+ * Limits the retried and hedged requests to <code>retry.budget_ratio</code> percent of the recent requests
+ * plus <code>retry.budget_min_per_second</code> per second, so retries could not multiply the load
+ * of backends that are already failing. Each node keeps its own budget, as every node keeps the same ratio
+ * the retries of the whole cluster stay within it too.
+ */
+public final class RetryBudget {
+
+    static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final RetryBudget INSTANCE = new RetryBudget();
+
+    // guarded by this, counters of the current and the previous window
+    private long windowStart = System.nanoTime();
+    private long requests;
+    private long retries;
+    private long previousRequests;
+    private long previousRetries;
+
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    RetryBudget() {
+    }
+
+    /**
+     * @return the retry budget shared by all endpoints
+     */
+    public static RetryBudget getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Marks a request that could be retried, each request adds to the budget.
+     */
+    public synchronized void deposit() {
+        roll(System.nanoTime());
+        requests++;
+    }
+
+    /**
+     * Takes a retry from the budget.
+     *
+     * @return false if the budget is exhausted and the request should not be sent again
+     */
+    public synchronized boolean tryWithdraw() {
+        roll(System.nanoTime());
+        long allowed = (requests + previousRequests) * ServerConfig.getRetryBudgetRatio() / 100
+                + ServerConfig.getRetryBudgetMinPerSecond() * TimeUnit.NANOSECONDS.toSeconds(WINDOW_NANOS);
+        if (retries + previousRetries >= allowed) {
+            exhausted.increment();
+            return false;
+        }
+        retries++;
+        retried.increment();
+        return true;
+    }
+
+    // guarded by this
+    private void roll(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_NANOS) {
+            return;
+        }
+        if (elapsed < 2 * WINDOW_NANOS) {
+            previousRequests = requests;
+            previousRetries = retries;
+            windowStart += WINDOW_NANOS;
+        } else {
+            previousRequests = 0;
+            previousRetries = 0;
+            windowStart = now;
+        }
+        requests = 0;
+        retries = 0;
+    }
+
+    /**
+     * @return number of retries sent and of retries refused because the budget was exhausted
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("retries", retried.sum());
+        metrics.put("budgetExhausted", exhausted.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests to the members in turn. A member in slow start is skipped with a probability
+ * that decreases as it warms up.
+ */
+public class RoundRobinBalancer implements LoadBalancer {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public UpstreamMember choose(List<UpstreamMember> members) {
+        int size = members.size();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            UpstreamMember member = members.get((start + i) % size);
+            double factor = member.getLoadFactor(now);
+            if (factor >= 1 || ThreadLocalRandom.current().nextDouble() < factor) {
+                return member;
+            }
+        }
+        return members.get(start % size);
+    }
+}
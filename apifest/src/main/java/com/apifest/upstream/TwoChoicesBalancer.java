@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two random members and sends the request to the one with the lower cost. Comparing two members
+ * instead of all avoids sending every request to the same least loaded member while its load is not updated yet.
+ */
+public abstract class TwoChoicesBalancer implements LoadBalancer {
+
+    @Override
+    public UpstreamMember choose(List<UpstreamMember> members) {
+        int size = members.size();
+        if (size == 1) {
+            return members.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        UpstreamMember a = members.get(first);
+        UpstreamMember b = members.get(second);
+        long now = System.nanoTime();
+        return (cost(a, b, now) <= cost(b, a, now)) ? a : b;
+    }
+
+    /**
+     * Returns the cost of sending a request to a member, members in slow start cost more.
+     *
+     * @param member member to compute the cost for
+     * @param other the member it is compared to
+     * @param now current time in nanoseconds
+     * @return cost of the member, lower is better
+     */
+    protected abstract double cost(UpstreamMember member, UpstreamMember other, long now);
+}
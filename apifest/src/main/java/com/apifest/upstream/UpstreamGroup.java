@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.apifest.ServerConfig;
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.Mapping.Upstream;
+
+/**
+ * Group of backends serving the same API, each request is sent to one member picked by the group strategy.
+ * <p>
+ * Each mapping version has its own groups, created when the mappings are loaded (see {@link com.apifest.RoutingSnapshot}).
+ * A group created on reload takes over the state of the group of the same version and name, and members are kept
+ * by address, so the members keep their statistics, members added to an existing group get a slow start and requests
+ * in progress to removed members complete normally. Members that are no longer in any group are dropped.
+ */
+public final class UpstreamGroup {
+
+    private static final ConcurrentMap<String, UpstreamMember> MEMBERS = new ConcurrentHashMap<String, UpstreamMember>();
+    // groups of the current mappings per version/name, for the metrics
+    private static volatile Map<String, UpstreamGroup> groups = Collections.emptyMap();
+
+    private final Upstream definition;
+    private final String strategy;
+    private final LoadBalancer balancer;
+    private final List<UpstreamMember> members;
+
+    private UpstreamGroup(Upstream definition, UpstreamGroup previous) {
+        this.definition = definition;
+        this.strategy = (definition.getStrategy() != null) ? definition.getStrategy() : Upstream.ROUND_ROBIN;
+        // keeps e.g. the round-robin position if the strategy is not changed
+        this.balancer = (previous != null && previous.strategy.equals(strategy)) ? previous.balancer : createBalancer(strategy);
+        int slowStart = (definition.getSlowStart() != null) ? definition.getSlowStart() : ServerConfig.getUpstreamSlowStart();
+        List<UpstreamMember> list = new ArrayList<UpstreamMember>();
+        for (Backend backend : definition.getMembers()) {
+            UpstreamMember member = getMember(backend);
+            // members of a newly defined group take the full load at once
+            if (previous != null && !previous.members.contains(member) && slowStart > 0) {
+                member.startSlowStart(slowStart);
+            }
+            list.add(member);
+        }
+        this.members = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Creates the group for an upstream definition.
+     *
+     * @param definition upstream definition from the mappings
+     * @param previous group of the same mapping version and name before the mappings were reloaded, null if there is none
+     * @return the group
+     */
+    public static UpstreamGroup of(Upstream definition, UpstreamGroup previous) {
+        return new UpstreamGroup(definition, previous);
+    }
+
+    /**
+     * Sets the groups of all mapping versions after the mappings are loaded. Members that are in none of them
+     * are dropped, a member added again later starts without statistics. A member is shared by all groups
+     * with its address, so its settings are the ones the snapshot settled for the address, even if the groups
+     * define it differently.
+     *
+     * @param current groups per mapping version and name
+     * @param backends backend settings per host:port
+     */
+    public static synchronized void setGroups(Map<String, UpstreamGroup> current, Map<String, Backend> backends) {
+        Set<UpstreamMember> used = Collections.newSetFromMap(new IdentityHashMap<UpstreamMember, Boolean>());
+        for (UpstreamGroup group : current.values()) {
+            used.addAll(group.members);
+        }
+        for (UpstreamMember member : used) {
+            Backend backend = backends.get(member.toString());
+            if (backend != null) {
+                member.setBackend(backend);
+            }
+        }
+        MEMBERS.values().retainAll(used);
+        groups = Collections.unmodifiableMap(new TreeMap<String, UpstreamGroup>(current));
+    }
+
+    protected static LoadBalancer createBalancer(String strategy) {
+        if (Upstream.LEAST_OUTSTANDING.equals(strategy)) {
+            return new LeastOutstandingBalancer();
+        }
+        if (Upstream.EWMA.equals(strategy)) {
+            return new PeakEwmaBalancer();
+        }
+        return new RoundRobinBalancer();
+    }
+
+    private static UpstreamMember getMember(Backend backend) {
+        String address = backend.getBackendHost() + ":" + backend.getBackendPort();
+        UpstreamMember member = MEMBERS.get(address);
+        if (member == null) {
+            member = new UpstreamMember(backend.getBackendHost(), backend.getBackendPort(), backend);
+            UpstreamMember current = MEMBERS.putIfAbsent(address, member);
+            if (current != null) {
+                member = current;
+            }
+        }
+        return member;
+    }
+
+    /**
+     * Picks the member the next request should be sent to. Ejected members, members with an open circuit
+     * and members at their concurrency limit are skipped, unless less than half of the members are left - then all members are used,
+     * as the remaining ones would be overloaded.
+     *
+     * @return the member the next request should be sent to
+     */
+    public UpstreamMember choose() {
+        long now = System.nanoTime();
+        List<UpstreamMember> available = members;
+        for (int i = 0; i < members.size(); i++) {
+            if (!members.get(i).isAvailable(now)) {
+                available = getAvailableMembers(now);
+                break;
+            }
+        }
+        if (available.isEmpty() || available.size() * 2 < members.size()) {
+            available = members;
+        }
+        return balancer.choose(available);
+    }
+
+    /**
+     * Picks the member a retried or hedged request should be sent to - one the request has not been sent to yet,
+     * if there is such an available member.
+     *
+     * @param excluded members the request has already been sent to
+     * @return the member the request should be sent to
+     */
+    public UpstreamMember choose(Collection<UpstreamMember> excluded) {
+        if (excluded.isEmpty()) {
+            return choose();
+        }
+        long now = System.nanoTime();
+        List<UpstreamMember> available = new ArrayList<UpstreamMember>(members.size());
+        for (UpstreamMember member : members) {
+            if (!excluded.contains(member) && member.isAvailable(now)) {
+                available.add(member);
+            }
+        }
+        if (available.isEmpty()) {
+            return choose();
+        }
+        return balancer.choose(available);
+    }
+
+    private List<UpstreamMember> getAvailableMembers(long now) {
+        List<UpstreamMember> available = new ArrayList<UpstreamMember>(members.size());
+        for (UpstreamMember member : members) {
+            if (member.isAvailable(now)) {
+                available.add(member);
+            }
+        }
+        return available;
+    }
+
+    public String getName() {
+        return definition.getName();
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public List<UpstreamMember> getMembers() {
+        return members;
+    }
+
+    /**
+     * @return strategy and member statistics of each group
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, UpstreamGroup> entry : groups.entrySet()) {
+            UpstreamGroup group = entry.getValue();
+            Map<String, Object> groupMetrics = new LinkedHashMap<String, Object>();
+            groupMetrics.put("strategy", group.strategy);
+            Map<String, Object> memberMetrics = new LinkedHashMap<String, Object>();
+            for (UpstreamMember member : group.members) {
+                memberMetrics.put(member.toString(), member.getMetrics());
+            }
+            groupMetrics.put("members", memberMetrics);
+            metrics.put(entry.getKey(), groupMetrics);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.apifest.ServerConfig;
+import com.apifest.api.Mapping.Backend;
+
+/**
+ * Backend that is a member of an upstream group, with the load statistics used to balance requests.
+ * A member is kept per backend address, so its statistics survive mappings reloads.
+ * A member that fails <code>outlier.consecutive_5xx</code> requests in a row is ejected from its group for a while.
+ */
+public final class UpstreamMember {
+
+    private static Logger log = LoggerFactory.getLogger(UpstreamMember.class);
+
+    // how fast the latency average forgets older responses
+    private static final long EWMA_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // share of requests a member gets when its slow start begins
+    private static final double MIN_SLOW_START_FACTOR = 0.1;
+
+    private final String host;
+    private final int port;
+    private volatile Backend backend;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    // guarded by this
+    private double ewmaNanos;
+    private long ewmaTimestamp;
+
+    private volatile long slowStartBegin;
+    private volatile long slowStartNanos;
+
+    private final CircuitBreaker breaker;
+    private final ConcurrencyLimiter limiter;
+    // guarded by this
+    private int consecutiveFailures;
+    private int consecutiveEjections;
+    private volatile long ejectedUntil;
+    private final LongAdder ejections = new LongAdder();
+
+    public UpstreamMember(String host, int port, Backend backend) {
+        this.host = host;
+        this.port = port;
+        this.backend = backend;
+        this.breaker = CircuitBreaker.of(host, port);
+        this.limiter = ConcurrencyLimiter.of(host, port);
+        this.ejectedUntil = System.nanoTime();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return member settings, e.g. its connection pool settings
+     */
+    public Backend getBackend() {
+        return backend;
+    }
+
+    void setBackend(Backend backend) {
+        this.backend = backend;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Checks whether requests could be sent to the member - it is not ejected, its circuit is not open
+     * and its concurrency limit is not reached.
+     */
+    public boolean isAvailable(long now) {
+        return now - ejectedUntil >= 0 && breaker.isAvailable() && limiter.hasCapacity();
+    }
+
+    /**
+     * Ramps up the share of requests the member gets over the given time.
+     *
+     * @param millis slow start duration in milliseconds
+     */
+    void startSlowStart(long millis) {
+        slowStartNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        slowStartBegin = System.nanoTime();
+    }
+
+    /**
+     * Returns the share of requests the member should get - 1 once the member is fully started,
+     * less while it is in slow start.
+     */
+    public double getLoadFactor(long now) {
+        long duration = slowStartNanos;
+        if (duration <= 0) {
+            return 1;
+        }
+        long elapsed = now - slowStartBegin;
+        if (elapsed >= duration) {
+            slowStartNanos = 0;
+            return 1;
+        }
+        return Math.max(MIN_SLOW_START_FACTOR, (double) elapsed / duration);
+    }
+
+    /**
+     * Marks a request sent to the member.
+     *
+     * @return start time of the request, to be passed to {@link #completed(long, boolean)}
+     */
+    public long started() {
+        outstanding.incrementAndGet();
+        requests.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks a request to the member completed.
+     *
+     * @param start start time returned by {@link #started()}
+     * @param success false if the member did not respond properly
+     */
+    public void completed(long start, boolean success) {
+        outstanding.decrementAndGet();
+        if (!success) {
+            failures.increment();
+        }
+        long now = System.nanoTime();
+        long latency = now - start;
+        synchronized (this) {
+            if (success) {
+                consecutiveFailures = 0;
+                if (now - ejectedUntil >= 0) {
+                    consecutiveEjections = 0;
+                }
+            } else if (++consecutiveFailures >= ServerConfig.getOutlierConsecutive5xx() && now - ejectedUntil >= 0) {
+                eject(now);
+            }
+            if (ewmaTimestamp == 0 || latency > ewmaNanos) {
+                // the average jumps to a slower response at once and decays slowly, so slow members are avoided quickly
+                ewmaNanos = latency;
+            } else {
+                double weight = Math.exp(-(double) (now - ewmaTimestamp) / EWMA_DECAY_NANOS);
+                ewmaNanos = ewmaNanos * weight + latency * (1 - weight);
+            }
+            ewmaTimestamp = now;
+        }
+    }
+
+    /**
+     * Marks a request to the member that was cancelled before its response was received, e.g. because a hedged
+     * copy of it completed first. A cancelled request says nothing about the member.
+     */
+    public void cancelled() {
+        outstanding.decrementAndGet();
+    }
+
+    // guarded by this
+    private void eject(long now) {
+        consecutiveFailures = 0;
+        consecutiveEjections++;
+        long duration = TimeUnit.MILLISECONDS.toNanos((long) ServerConfig.getOutlierEjectionTime() * consecutiveEjections);
+        ejectedUntil = now + duration;
+        ejections.increment();
+        log.warn("upstream member {} ejected for {} ms", this, TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return average response time in nanoseconds, weighted towards recent and slow responses
+     */
+    public synchronized double getEwmaNanos() {
+        return ewmaNanos;
+    }
+
+    /**
+     * @return request counters and load of the member
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("outstanding", outstanding.get());
+        metrics.put("requests", requests.sum());
+        metrics.put("failures", failures.sum());
+        metrics.put("ewmaMillis", getEwmaNanos() / TimeUnit.MILLISECONDS.toNanos(1));
+        metrics.put("loadFactor", getLoadFactor(System.nanoTime()));
+        metrics.put("ejected", System.nanoTime() - ejectedUntil < 0);
+        metrics.put("ejections", ejections.sum());
+        metrics.put("circuit", breaker.getState().toString());
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
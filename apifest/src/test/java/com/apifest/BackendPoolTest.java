@@ -0,0 +1,310 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.api.Mapping.Backend;
+
+public class BackendPoolTest {
+
+    private EventLoopGroup group;
+    private Channel server;
+    private Bootstrap bootstrap;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        // the tests use the responses of MappingClient
+        BackendResolverTest.initUpstreamGroup();
+        group = new NioEventLoopGroup(1);
+        server = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        // accepts connections and ignores requests
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        bootstrap = new Bootstrap().group(group).channel(NioSocketChannel.class);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        server.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    @Test
+    public void when_backend_has_no_pool_settings_use_defaults() throws Exception {
+        // GIVEN
+        Backend backend = new Backend("127.0.0.1", 8080);
+
+        // WHEN
+        BackendPool.Settings settings = BackendPool.Settings.of(backend);
+
+        // THEN
+        assertEquals(settings.getMaxConnections(), ServerConfig.getBackendMaxConnections());
+        assertEquals(settings.getMaxPendingAcquires(), ServerConfig.getBackendMaxPendingAcquires());
+        assertEquals(settings.getAcquireTimeout(), ServerConfig.getBackendAcquireTimeout());
+        assertEquals(settings.getIdleTimeout(), ServerConfig.getBackendIdleTimeout());
+    }
+
+    @Test
+    public void when_backend_has_pool_settings_override_defaults() throws Exception {
+        // GIVEN
+        Backend backend = new Backend("127.0.0.1", 8080);
+        backend.setMaxConnections(10);
+        backend.setAcquireTimeout(100);
+
+        // WHEN
+        BackendPool.Settings settings = BackendPool.Settings.of(backend);
+
+        // THEN
+        assertEquals(settings.getMaxConnections(), 10);
+        assertEquals(settings.getAcquireTimeout(), 100);
+        assertEquals(settings.getMaxPendingAcquires(), ServerConfig.getBackendMaxPendingAcquires());
+        assertEquals(settings, new BackendPool.Settings(10, ServerConfig.getBackendMaxPendingAcquires(), 100,
+                ServerConfig.getBackendIdleTimeout()));
+    }
+
+    @Test
+    public void when_backend_is_h2c_use_h2_defaults() throws Exception {
+        // GIVEN
+        Backend backend = new Backend("127.0.0.1", 8080);
+        backend.setProtocol(Backend.PROTOCOL_H2C);
+
+        // WHEN
+        BackendPool.Settings settings = BackendPool.Settings.of(backend);
+
+        // THEN
+        assertTrue(settings.isHttp2());
+        assertEquals(settings.getMaxConnections(), ServerConfig.getBackendH2MaxConnections());
+        assertEquals(settings.getMaxStreams(), ServerConfig.getBackendH2MaxStreams());
+        assertFalse(settings.equals(BackendPool.Settings.of(new Backend("127.0.0.1", 8080))));
+    }
+
+    @Test
+    public void when_limit_is_shared_between_event_loop_pools_parts_add_up_to_limit() throws Exception {
+        // GIVEN
+        int limit = 10;
+        int pools = 4;
+
+        // WHEN
+        int total = 0;
+        for (int i = 0; i < pools; i++) {
+            total += BackendPool.share(limit, pools, i);
+        }
+
+        // THEN
+        assertEquals(total, limit);
+        assertEquals(BackendPool.share(limit, pools, 0), 3);
+        assertEquals(BackendPool.share(limit, pools, 3), 2);
+    }
+
+    @Test
+    public void when_too_many_requests_wait_for_connection_return_503() throws Exception {
+        // GIVEN
+        BackendPool pool = createPool(new BackendPool.Settings(1, 1, 0, 0));
+        // the only connection is in use
+        pool.acquire().sync();
+        Future<Channel> waiting = pool.acquire();
+
+        // WHEN
+        Future<Channel> rejected = pool.acquire().await();
+
+        // THEN
+        assertTrue(rejected.cause() instanceof IllegalStateException);
+        FullHttpResponse response = MappingClient.createAcquireFailedResponse(rejected.cause());
+        assertEquals(response.status(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertFalse(waiting.isDone());
+        pool.close();
+    }
+
+    @Test
+    public void when_no_connection_is_free_within_acquire_timeout_return_504() throws Exception {
+        // GIVEN
+        BackendPool pool = createPool(new BackendPool.Settings(1, 1, 50, 0));
+        pool.acquire().sync();
+
+        // WHEN
+        Future<Channel> timedOut = pool.acquire().await();
+
+        // THEN
+        assertTrue(timedOut.cause() instanceof TimeoutException);
+        FullHttpResponse response = MappingClient.createAcquireFailedResponse(timedOut.cause());
+        assertEquals(response.status(), HttpResponseStatus.GATEWAY_TIMEOUT);
+        pool.close();
+    }
+
+    @Test
+    public void when_pool_is_drained_waiting_request_gets_released_connection() throws Exception {
+        // GIVEN
+        BackendPool pool = createPool(new BackendPool.Settings(1, 1, 0, 0));
+        Channel leased = acquire(pool).sync().getNow();
+        Future<Channel> waiting = acquire(pool);
+
+        // WHEN
+        pool.drain();
+        leased.attr(HttpResponseHandler.poolAttachmentKey).get().release(leased);
+
+        // THEN
+        Channel channel = waiting.await().getNow();
+        assertTrue(waiting.isSuccess());
+        assertTrue(channel.isActive());
+        channel.attr(HttpResponseHandler.poolAttachmentKey).get().release(channel).await();
+        assertTrue(channel.closeFuture().await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void when_drained_pool_is_closed_do_not_acquire_from_it() throws Exception {
+        // GIVEN
+        BackendPool pool = createPool(new BackendPool.Settings(1, 1, 0, 0));
+
+        // WHEN
+        pool.drain();
+
+        // THEN
+        assertTrue(pool.isClosed());
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    public void when_pool_settings_changed_replace_pool_and_keep_it_for_older_snapshot() throws Exception {
+        // GIVEN
+        InetSocketAddress address = InetSocketAddress.createUnresolved("127.0.0.1", 18001);
+        RoutingSnapshot loaded = RoutingSnapshot.empty();
+        BackendPool old = MappingClient.getPool(address, loaded);
+        RoutingSnapshot reloaded = loaded.withMappings(Collections.singletonMap("v1.0", createBackendConfig(address, 5)));
+
+        // WHEN
+        BackendPool pool = MappingClient.getPool(address, reloaded);
+
+        // THEN
+        assertNotSame(pool, old);
+        assertEquals(pool.getSettings().getMaxConnections(), 5);
+        assertTrue(old.isClosed());
+        assertSame(MappingClient.getPool(address, loaded), pool);
+        pool.close();
+    }
+
+    @Test
+    public void when_pool_is_closed_replace_it() throws Exception {
+        // GIVEN
+        InetSocketAddress address = InetSocketAddress.createUnresolved("127.0.0.1", 18002);
+        BackendPool closed = MappingClient.getPool(address, RoutingSnapshot.empty());
+        closed.close();
+
+        // WHEN
+        BackendPool pool = MappingClient.getPool(address, RoutingSnapshot.empty());
+
+        // THEN
+        assertNotSame(pool, closed);
+        assertFalse(pool.isClosed());
+        pool.close();
+    }
+
+    @Test
+    public void when_event_loop_pool_is_saturated_use_connection_of_another_event_loop() throws Exception {
+        // GIVEN
+        EventLoopGroup clientGroup = new NioEventLoopGroup(2);
+        try {
+            BackendPool pool = new BackendPool(new Bootstrap().group(clientGroup).channel(NioSocketChannel.class),
+                    (InetSocketAddress) server.localAddress(), new BackendPool.Settings(2, 1, 100, 0));
+            EventLoop loop = clientGroup.next();
+            Channel first = acquireOn(loop, pool).sync().getNow();
+
+            // WHEN
+            Future<Channel> second = acquireOn(loop, pool).await();
+
+            // THEN
+            assertTrue(second.isSuccess());
+            assertTrue(first.eventLoop() == loop);
+            assertFalse(second.getNow().eventLoop() == loop);
+            pool.close();
+        } finally {
+            clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    // acquires as a request handled on the given event loop
+    private static Future<Channel> acquireOn(EventLoop loop, final BackendPool pool) throws Exception {
+        return loop.submit(new Callable<Future<Channel>>() {
+            @Override
+            public Future<Channel> call() {
+                return acquire(pool);
+            }
+        }).sync().getNow();
+    }
+
+    // completes after the pool has set the pool attribute of the channel
+    private static Future<Channel> acquire(BackendPool pool) {
+        final Promise<Channel> acquired = GlobalEventExecutor.INSTANCE.newPromise();
+        pool.acquire().addListener(new FutureListener<Channel>() {
+            @Override
+            public void operationComplete(Future<Channel> future) {
+                if (future.isSuccess()) {
+                    acquired.setSuccess(future.getNow());
+                } else {
+                    acquired.setFailure(future.cause());
+                }
+            }
+        });
+        return acquired;
+    }
+
+    private static MappingConfig createBackendConfig(InetSocketAddress address, int maxConnections) {
+        Backend backend = new Backend(address.getHostString(), address.getPort());
+        backend.setMaxConnections(maxConnections);
+        MappingConfig config = new MappingConfig();
+        config.setBackends(Collections.singletonMap(address.getHostString() + ":" + address.getPort(), backend));
+        return config;
+    }
+
+    private BackendPool createPool(BackendPool.Settings settings) {
+        return new BackendPool(bootstrap, (InetSocketAddress) server.localAddress(), settings);
+    }
+}
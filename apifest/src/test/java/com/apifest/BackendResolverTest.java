@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.resolver.AbstractAddressResolver;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BackendResolverTest {
+
+    private EventLoopGroup group;
+    private Channel server;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        initUpstreamGroup();
+        group = new NioEventLoopGroup(1);
+        server = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        // accepts connections and ignores requests
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        server.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    @Test
+    public void when_backend_host_is_name_key_pool_by_unresolved_address_and_resolve_on_connect() throws Exception {
+        // GIVEN
+        int port = ((InetSocketAddress) server.localAddress()).getPort();
+        RoutingSnapshot snapshot = RoutingSnapshot.empty();
+        BackendPool pool = MappingClient.getPool(InetSocketAddress.createUnresolved("localhost", port), snapshot);
+
+        // WHEN
+        Channel channel = pool.acquire().sync().getNow();
+
+        // THEN
+        assertSame(MappingClient.getPool(InetSocketAddress.createUnresolved("localhost", port), snapshot), pool);
+        assertTrue(MappingClient.getPoolMetrics().containsKey("localhost:" + port));
+        assertEquals(((InetSocketAddress) channel.remoteAddress()).getPort(), port);
+        pool.close();
+    }
+
+    @Test
+    public void when_refreshing_resolve_only_unresolved_addresses() throws Exception {
+        // GIVEN
+        InetSocketAddress name = InetSocketAddress.createUnresolved("backend.local", 8080);
+        InetSocketAddress literal = new InetSocketAddress("127.0.0.1", 8080);
+        RecordingResolver resolver = new RecordingResolver();
+
+        // WHEN
+        BackendResolver.refresh(resolver, Arrays.asList(name, literal));
+
+        // THEN
+        assertEquals(resolver.resolved, Collections.singletonList(name));
+    }
+
+    // MappingClient binds its bootstrap to the upstream event loops when it is loaded, so they live as long as the tests
+    static synchronized void initUpstreamGroup() {
+        if (MappingServer.upstreamGroup == null) {
+            MappingServer.upstreamGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("upstream-test", true));
+        }
+    }
+
+    private static class RecordingResolver extends AbstractAddressResolver<InetSocketAddress> {
+
+        private final List<InetSocketAddress> resolved = new ArrayList<InetSocketAddress>();
+
+        RecordingResolver() {
+            super(ImmediateEventExecutor.INSTANCE, InetSocketAddress.class);
+        }
+
+        @Override
+        protected boolean doIsResolved(InetSocketAddress address) {
+            return !address.isUnresolved();
+        }
+
+        @Override
+        protected void doResolve(InetSocketAddress unresolvedAddress, Promise<InetSocketAddress> promise) {
+            resolved.add(unresolvedAddress);
+            promise.setSuccess(new InetSocketAddress("127.0.0.1", unresolvedAddress.getPort()));
+        }
+
+        @Override
+        protected void doResolveAll(InetSocketAddress unresolvedAddress, Promise<List<InetSocketAddress>> promise) {
+            promise.setSuccess(Collections.singletonList(new InetSocketAddress("127.0.0.1", unresolvedAddress.getPort())));
+        }
+    }
+}
@@ -16,11 +16,53 @@
 
 package com.apifest;
 
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
 /**
  * @author Rossitsa Borissova
  */
 public class BaseMapperTest {
 
+    BaseMapper baseMapper = new BaseMapper();
+
+    @Test
+    public void when_no_query_params_return_internal_uri() throws Exception {
+        // WHEN
+        String resultUri = baseMapper.constructNewUri("/v0.1/payments/123", "/payments/123");
+
+        // THEN
+        assertEquals(resultUri, "/payments/123");
+    }
+
+    @Test
+    public void when_only_request_has_query_params_append_raw_query() throws Exception {
+        // WHEN
+        String resultUri = baseMapper.constructNewUri("/validation/mobile?mobile=%2B359888&code=359&code=360", "/user/validation/mobile");
+
+        // THEN
+        assertEquals(resultUri, "/user/validation/mobile?mobile=%2B359888&code=359&code=360");
+    }
+
+    @Test
+    public void when_only_internal_uri_has_query_params_keep_them() throws Exception {
+        // WHEN
+        String resultUri = baseMapper.constructNewUri("/v0.1/payments?", "/payments?key=123");
+
+        // THEN
+        assertEquals(resultUri, "/payments?key=123");
+    }
+
+    @Test
+    public void when_both_have_query_params_merge_them() throws Exception {
+        // WHEN
+        String resultUri = baseMapper.constructNewUri("http://localhost:7878/payments?city=Berlin", "http://otherhost:7878/payments?key=123");
+
+        // THEN
+        assertEquals(resultUri, "http://otherhost:7878/payments?city=Berlin&key=123");
+    }
+
     /*BaseMapper mapper;
 
     @BeforeMethod
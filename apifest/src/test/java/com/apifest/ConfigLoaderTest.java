@@ -18,8 +18,11 @@ package com.apifest;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
@@ -27,6 +30,9 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -46,11 +52,15 @@ import com.apifest.api.MappingAction;
 import com.apifest.api.MappingEndpoint;
 import com.apifest.api.MappingException;
 import com.apifest.api.Mapping.ActionsWrapper;
+import com.apifest.api.Mapping.Backend;
 import com.apifest.api.Mapping.EndpointsWrapper;
+import com.apifest.api.Mapping.Upstream;
 import com.apifest.example.AddSenderIdInBodyAction;
 import com.apifest.example.RemoveBalanceFilter;
 import com.apifest.example.ReplaceCustomerIdAction;
+import com.apifest.routing.RouteMatch;
 import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
 
 /**
  * @author Rossitsa Borissova
@@ -74,6 +84,10 @@ public class ConfigLoaderTest {
         mappingsMap.put("v0.1", config);
         doReturn(mappingsMap).when(HazelcastConfigInstance.configInstance).getMappingConfigs();
 
+        @SuppressWarnings("unchecked")
+        ITopic<MappingChangeSet> changesTopic = mock(ITopic.class);
+        doReturn(changesTopic).when(HazelcastConfigInstance.configInstance).getMappingChanges();
+
         IMap<Integer, String> globalErrorsMap = mock(IMap.class);
         doReturn(globalErrorsMap).when(HazelcastConfigInstance.configInstance).getGlobalErrors();
 
@@ -221,6 +235,134 @@ public class ConfigLoaderTest {
         assertEquals(endpoint.getInternalEndpoint(), "/contacts/mobile/support");
     }
 
+    @Test
+    public void when_load_compile_routes_for_all_external_endpoints() throws Exception {
+        // GIVEN
+        ConfigLoader.loadMappingsConfig(false);
+
+        // WHEN
+        RouteMatch route = ConfigLoader.getRoute("GET", "/v0.1/contacts/mobile/support");
+
+        // THEN
+        assertEquals(route.getEndpoint().getExternalEndpoint(), "/v0.1/contacts/{type}/{level}");
+        assertEquals(route.getVariable("type"), "mobile");
+        assertEquals(route.getVariable("level"), "support");
+        assertNull(ConfigLoader.getRoute("GET", "/v0.1/contacts/email/support"));
+    }
+
+    @Test
+    public void when_mapping_removed_publish_new_snapshot_and_keep_the_old_one() throws Exception {
+        // GIVEN
+        ConfigLoader.loadMappingsConfig(false);
+        RoutingSnapshot loaded = ConfigLoader.getSnapshot();
+        String version = loaded.getMappings().keySet().iterator().next();
+
+        // WHEN
+        ConfigLoader.removeMapping(version);
+
+        // THEN
+        RoutingSnapshot current = ConfigLoader.getSnapshot();
+        assertEquals(current.getVersion(), loaded.getVersion() + 1);
+        assertNull(ConfigLoader.getRoute("GET", "/v0.1/me"));
+        assertTrue(loaded.getMappings().containsKey(version));
+        assertEquals(loaded.getRoutes().match("GET", "/v0.1/me").getEndpoint().getExternalEndpoint(), "/v0.1/me");
+    }
+
+    @Test
+    public void when_mappings_not_changed_reload_keeps_the_snapshot() throws Exception {
+        // GIVEN
+        ConfigLoader.loadMappingsConfig(false);
+        RoutingSnapshot loaded = ConfigLoader.getSnapshot();
+
+        // WHEN
+        ConfigLoader.loadMappingsConfig(true);
+
+        // THEN
+        assertSame(ConfigLoader.getSnapshot(), loaded);
+        assertTrue(loaded.getMappings().values().iterator().next().getContentHash().matches("[0-9a-f]{64}"));
+    }
+
+    @Test
+    public void when_mapping_changes_applied_swap_snapshot_once_and_skip_them_next_time() throws Exception {
+        // GIVEN
+        ConfigLoader.loadMappingsConfig(false);
+        RoutingSnapshot loaded = ConfigLoader.getSnapshot();
+        String version = loaded.getMappings().keySet().iterator().next();
+        MappingConfig changed = new MappingConfig();
+        changed.setContentHash("changed");
+        MappingChangeSet changes = new MappingChangeSet(Collections.singletonMap("v9.9", changed), Collections.singleton(version));
+
+        // WHEN
+        ConfigLoader.applyMappingChanges(changes);
+        RoutingSnapshot applied = ConfigLoader.getSnapshot();
+        ConfigLoader.applyMappingChanges(changes);
+
+        // THEN
+        assertEquals(applied.getVersion(), loaded.getVersion() + 1);
+        assertSame(applied.getMappings().get("v9.9"), changed);
+        assertTrue(!applied.getMappings().containsKey(version));
+        assertSame(ConfigLoader.getSnapshot(), applied);
+    }
+
+    @Test
+    public void when_instances_of_changed_version_cannot_be_loaded_reject_mapping_changes() throws Exception {
+        // GIVEN
+        ConfigLoader.loadMappingsConfig(false);
+        RoutingSnapshot loaded = ConfigLoader.getSnapshot();
+        MappingConfig broken = mock(MappingConfig.class);
+        doReturn("broken").when(broken).getContentHash();
+        doThrow(new MappingException("action missing not mapped to class")).when(broken).loadInstances();
+        MappingChangeSet changes = new MappingChangeSet(Collections.singletonMap("v9.8", broken), Collections.<String>emptySet());
+
+        // WHEN
+        ConfigLoader.applyMappingChanges(changes);
+
+        // THEN
+        assertSame(ConfigLoader.getSnapshot(), loaded);
+        assertTrue(!loaded.getMappings().containsKey("v9.8"));
+    }
+
+    @Test
+    public void when_versions_define_upstream_member_differently_use_first_version() throws Exception {
+        // GIVEN
+        Map<String, MappingConfig> configs = new HashMap<String, MappingConfig>();
+        configs.put("v2.0", createUpstreamConfig(20));
+        configs.put("v1.0", createUpstreamConfig(10));
+
+        // WHEN
+        RoutingSnapshot snapshot = RoutingSnapshot.empty().withMappings(configs);
+
+        // THEN
+        for (MappingConfig config : snapshot.getMappings().values()) {
+            assertEquals(config.getUpstreamGroup("api").getMembers().get(0).getBackend().getMaxConnections(), Integer.valueOf(10));
+        }
+        assertEquals(snapshot.getPoolSettings("10.0.9.1", 8080).getMaxConnections(), 10);
+    }
+
+    @Test
+    public void when_reload_return_timings_of_each_phase() throws Exception {
+        // WHEN
+        Map<String, Long> timings = ConfigLoader.reloadConfigs();
+
+        // THEN
+        assertEquals(new ArrayList<String>(timings.keySet()), Arrays.asList("parse", "merge", "apply", "globalErrors", "total"));
+        assertTrue(timings.get("total") >= timings.get("parse"));
+    }
+
+    @Test
+    public void when_only_global_errors_changed_do_not_reload_mappings() throws Exception {
+        // GIVEN
+        ConfigLoader.loadMappingsConfig(false);
+        RoutingSnapshot loaded = ConfigLoader.getSnapshot();
+
+        // WHEN
+        Map<String, Long> timings = ConfigLoader.reloadConfigs(false, true);
+
+        // THEN
+        assertEquals(new ArrayList<String>(timings.keySet()), Arrays.asList("globalErrors", "total"));
+        assertSame(ConfigLoader.getSnapshot().getMappings(), loaded.getMappings());
+    }
+
     @Test
     public void when_no_custom_jar_do_not_load_custom_class_and_throw_exception() throws Exception {
         // GIVEN
@@ -309,4 +451,12 @@ public class ConfigLoaderTest {
         }
         return result;
     }
+
+    private static MappingConfig createUpstreamConfig(int maxConnections) {
+        Backend member = new Backend("10.0.9.1", 8080);
+        member.setMaxConnections(maxConnections);
+        MappingConfig config = new MappingConfig();
+        config.setUpstreams(Collections.singletonMap("api", new Upstream("api", Upstream.ROUND_ROBIN, Arrays.asList(member))));
+        return config;
+    }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
+
+public class ConfigReloaderTest {
+
+    private static final String VERSION = "v-watch";
+    private static final int DEBOUNCE_MS = 500;
+    // inotify delivers events at once, other watch services poll for changes
+    private static final long RELOAD_TIMEOUT_MS = 15000;
+
+    private Path mappingsDir;
+    private Path errorsDir;
+
+    @BeforeMethod
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        mappingsDir = Files.createTempDirectory("mappings");
+        errorsDir = Files.createTempDirectory("global-errors");
+        MappingServerInitializerTest.loadProperties("mappings.watch=true\nmappings.watch.debounce_ms=" + DEBOUNCE_MS);
+        ServerConfig.mappingsPath = mappingsDir.toString();
+        ServerConfig.globalErrors = errorsDir.resolve("global_errors.xml").toString();
+
+        HazelcastConfigInstance.configInstance = mock(HazelcastConfigInstance.class);
+        doReturn(mock(IMap.class)).when(HazelcastConfigInstance.configInstance).getMappingConfigs();
+        doReturn(mock(ITopic.class)).when(HazelcastConfigInstance.configInstance).getMappingChanges();
+        doReturn(mock(IMap.class)).when(HazelcastConfigInstance.configInstance).getGlobalErrors();
+
+        ConfigReloader.mappingsChanged.set(false);
+        ConfigReloader.globalErrorsChanged.set(false);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        ConfigReloader.stop();
+        ConfigLoader.removeMapping(VERSION);
+        delete(mappingsDir.toFile());
+        delete(errorsDir.toFile());
+        MappingServerInitializerTest.loadProperties("");
+    }
+
+    @Test
+    public void when_mapping_file_is_written_several_times_reload_once() throws Exception {
+        // GIVEN
+        ConfigReloader.start();
+        long succeeded = getMetric("succeeded");
+
+        // WHEN
+        // the writes take twice the debounce time, each one is within it from the previous one
+        for (int i = 0; i < 10; i++) {
+            writeMapping("mapping.xml", "/watch/" + i);
+            Thread.sleep(DEBOUNCE_MS / 5);
+        }
+
+        // THEN
+        awaitMetric("succeeded", succeeded + 1);
+        Thread.sleep(DEBOUNCE_MS * 3);
+        assertEquals(getMetric("succeeded"), succeeded + 1);
+        assertEquals(ConfigLoader.getRoute("GET", "/v0.1/watch").getEndpoint().getInternalEndpoint(), "/watch/9");
+    }
+
+    @Test
+    public void when_file_in_mappings_dir_is_not_xml_do_not_reload() throws Exception {
+        // GIVEN
+        ConfigReloader.start();
+        long succeeded = getMetric("succeeded");
+        long failed = getMetric("failed");
+
+        // WHEN
+        Files.write(mappingsDir.resolve("mapping.xml.bak"), "backup".getBytes(StandardCharsets.UTF_8));
+
+        // THEN
+        Thread.sleep(DEBOUNCE_MS * 3);
+        assertEquals(getMetric("succeeded"), succeeded);
+        assertEquals(getMetric("failed"), failed);
+        assertFalse(ConfigReloader.mappingsChanged.get());
+    }
+
+    @Test
+    public void when_changed_mapping_is_not_valid_keep_current_snapshot() throws Exception {
+        // GIVEN
+        writeMapping("mapping.xml", "/watch");
+        ConfigLoader.reloadConfigs(true, false);
+        RoutingSnapshot loaded = ConfigLoader.getSnapshot();
+        ConfigReloader.start();
+        long failed = getMetric("failed");
+
+        // WHEN
+        write(mappingsDir.resolve("mapping.xml"), "<mappings version=\"" + VERSION + "\"><endpoints/></mappings>");
+
+        // THEN
+        awaitMetric("failed", failed + 1);
+        assertSame(ConfigLoader.getSnapshot(), loaded);
+        assertNotNull(ConfigReloader.getMetrics().get("lastError"));
+    }
+
+    @Test
+    public void when_only_global_errors_file_changes_do_not_reload_mappings() throws Exception {
+        // GIVEN
+        ConfigReloader.start();
+        long succeeded = getMetric("succeeded");
+
+        // WHEN
+        write(errorsDir.resolve("global_errors.xml"), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<global-errors>"
+                + "<error status=\"404\" message='{\"error\":\"watched resource not found\"}'/></global-errors>");
+
+        // THEN
+        awaitMetric("succeeded", succeeded + 1);
+        assertEquals(ConfigLoader.getLoadedGlobalErrors().get(404), "{\"error\":\"watched resource not found\"}");
+        verify(HazelcastConfigInstance.configInstance, never()).getMappingConfigs();
+    }
+
+    @Test
+    public void when_watch_events_are_lost_reload_all_configs() throws Exception {
+        // GIVEN
+        List<WatchEvent<?>> events = Collections.<WatchEvent<?>>singletonList(new WatchEvent<Object>() {
+            @Override
+            public WatchEvent.Kind<Object> kind() {
+                return StandardWatchEventKinds.OVERFLOW;
+            }
+
+            @Override
+            public int count() {
+                return 1;
+            }
+
+            @Override
+            public Object context() {
+                return null;
+            }
+        });
+
+        // WHEN
+        ConfigReloader.recordChanges(errorsDir, events, mappingsDir, errorsDir.resolve("global_errors.xml"));
+
+        // THEN
+        assertTrue(ConfigReloader.mappingsChanged.get());
+        assertTrue(ConfigReloader.globalErrorsChanged.get());
+    }
+
+    private void writeMapping(String fileName, String internal) throws Exception {
+        write(mappingsDir.resolve(fileName), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<mappings version=\"" + VERSION
+                + "\"><backend host=\"127.0.0.1\" port=\"5000\"/><endpoints><endpoint external=\"/v0.1/watch\" internal=\""
+                + internal + "\" method=\"GET\"/></endpoints></mappings>");
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long getMetric(String name) {
+        return (Long) ConfigReloader.getMetrics().get(name);
+    }
+
+    private static void awaitMetric(String name, long expected) throws Exception {
+        long deadline = System.currentTimeMillis() + RELOAD_TIMEOUT_MS;
+        while (getMetric(name) < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(getMetric(name), expected);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
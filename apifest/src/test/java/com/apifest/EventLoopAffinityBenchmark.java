@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.apifest.api.BasicFilter;
+
+/**
+ * Measures request round trips through a minimal proxy that forwards each request over a {@link BackendPool}.
+ * With <code>shared</code> the backend connections use the proxy worker event loops, so a request is sent and its
+ * response is written back on the event loop of the client connection. With <code>separate</code> they use
+ * another event loop group (<code>threads.upstream</code> set), so each request and response passes between threads.
+ * Run with <code>mvn -Pbenchmark test -Dbenchmark=EventLoopAffinityBenchmark</code>; on Linux add
+ * <code>-prof perfnorm</code> to the JMH arguments to get the context switches per request.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class EventLoopAffinityBenchmark {
+
+    private static final int THREADS = 4;
+    private static final byte[] BODY = "{\"status\":\"ok\"}".getBytes(CharsetUtil.UTF_8);
+
+    @State(Scope.Benchmark)
+    public static class Proxy {
+
+        @Param({ "shared", "separate" })
+        public String upstream;
+
+        private Transport transport;
+        private EventLoopGroup backendGroup;
+        private EventLoopGroup workerGroup;
+        private EventLoopGroup upstreamGroup;
+        private EventLoopGroup clientGroup;
+        private BackendPool pool;
+        private Channel backend;
+        private Channel proxy;
+
+        @Setup
+        public void start() throws Exception {
+            transport = Transport.of(Transport.AUTO);
+            backendGroup = transport.newEventLoopGroup(THREADS, "backend");
+            workerGroup = transport.newEventLoopGroup(THREADS, "worker");
+            upstreamGroup = "shared".equals(upstream) ? workerGroup : transport.newEventLoopGroup(THREADS, "upstream");
+            clientGroup = transport.newEventLoopGroup(THREADS, "client");
+
+            backend = bind(backendGroup, new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) {
+                    ch.pipeline().addLast(new HttpServerCodec());
+                    ch.pipeline().addLast(new HttpObjectAggregator(1024));
+                    ch.pipeline().addLast(new OkHandler());
+                }
+            });
+            Bootstrap bootstrap = new Bootstrap().group(upstreamGroup)
+                    .channel(transport.getChannelClass())
+                    .option(ChannelOption.TCP_NODELAY, true);
+            pool = new BackendPool(bootstrap, (InetSocketAddress) backend.localAddress(),
+                    new BackendPool.Settings(64, 1000, 5000, 0));
+            proxy = bind(workerGroup, new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) {
+                    ch.pipeline().addLast(new HttpServerCodec());
+                    ch.pipeline().addLast(new HttpObjectAggregator(1024));
+                    ch.pipeline().addLast(new ForwardHandler(pool));
+                }
+            });
+        }
+
+        private Channel bind(EventLoopGroup group, ChannelInitializer<Channel> initializer) throws Exception {
+            return new ServerBootstrap().group(group)
+                    .channel(transport.getServerChannelClass())
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(initializer)
+                    .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).sync().channel();
+        }
+
+        @TearDown
+        public void stop() throws Exception {
+            proxy.close().sync();
+            backend.close().sync();
+            pool.close();
+            for (EventLoopGroup group : new EventLoopGroup[] { clientGroup, upstreamGroup, workerGroup, backendGroup }) {
+                group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private Channel channel;
+        private volatile Promise<Integer> response;
+
+        @Setup
+        public void connect(Proxy proxy) throws Exception {
+            channel = new Bootstrap().group(proxy.clientGroup)
+                    .channel(proxy.transport.getChannelClass())
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new HttpClientCodec());
+                            ch.pipeline().addLast(new HttpObjectAggregator(1024));
+                            ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+                                    response.setSuccess(msg.status().code());
+                                }
+                            });
+                        }
+                    })
+                    .connect(proxy.proxy.localAddress()).sync().channel();
+        }
+
+        @TearDown
+        public void close() throws Exception {
+            channel.close().sync();
+        }
+
+        private int roundTrip() throws Exception {
+            response = channel.eventLoop().newPromise();
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/v0.1/me");
+            request.headers().set(HttpHeaderNames.HOST, "localhost");
+            channel.writeAndFlush(request);
+            return response.sync().getNow();
+        }
+    }
+
+    @Benchmark
+    public int round_trip(Client client) throws Exception {
+        return client.roundTrip();
+    }
+
+    /**
+     * Forwards requests to the backend the way {@link MappingClient} does.
+     */
+    private static final class ForwardHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        private final BackendPool pool;
+
+        private ForwardHandler(BackendPool pool) {
+            super(false);
+            this.pool = pool;
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final FullHttpRequest request) {
+            pool.acquire().addListener(new FutureListener<Channel>() {
+                @Override
+                public void operationComplete(Future<Channel> future) {
+                    if (!future.isSuccess()) {
+                        request.release();
+                        ctx.close();
+                        return;
+                    }
+                    Channel backendChannel = future.getNow();
+                    backendChannel.attr(HttpResponseHandler.responseListenerAttachmentKey).set(new ResponseListener((BasicFilter) null, null) {
+                        @Override
+                        void responseReceived(FullHttpMessage response, Channel clientChannel) {
+                            clientChannel.attr(HttpResponseHandler.poolAttachmentKey).get().release(clientChannel);
+                            ctx.writeAndFlush(response);
+                        }
+                    });
+                    backendChannel.writeAndFlush(request);
+                }
+            });
+        }
+    }
+
+    private static final class OkHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    Unpooled.wrappedBuffer(BODY));
+            HttpUtil.setContentLength(response, BODY.length);
+            ctx.writeAndFlush(response);
+        }
+    }
+}
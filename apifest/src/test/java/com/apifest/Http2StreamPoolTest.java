@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http2.Http2MultiplexCodecBuilder;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.util.concurrent.Future;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.api.Mapping.Backend;
+
+public class Http2StreamPoolTest {
+
+    // streams the backend allows per connection
+    private static final int SERVER_MAX_STREAMS = 1;
+
+    private EventLoopGroup group;
+    private Channel server;
+    private Bootstrap bootstrap;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        group = new NioEventLoopGroup(1);
+        server = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        // accepts streams and ignores requests
+                        ch.pipeline().addLast(Http2MultiplexCodecBuilder.forServer(new ChannelInitializer<Channel>() {
+                            @Override
+                            protected void initChannel(Channel stream) {
+                            }
+                        }).initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(SERVER_MAX_STREAMS)).build());
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        bootstrap = new Bootstrap().group(group).channel(NioSocketChannel.class).remoteAddress(server.localAddress());
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        server.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    @Test
+    public void when_backend_allows_less_streams_than_max_streams_use_backend_limit() throws Exception {
+        // GIVEN
+        Http2StreamPool pool = createPool(createSettings(1, 10, 0, 10));
+        pool.acquire().sync();
+
+        // WHEN
+        Future<Channel> waiting = pool.acquire();
+
+        // THEN
+        assertFalse(waiting.await(200));
+        assertEquals(pool.getActiveStreams(), SERVER_MAX_STREAMS);
+        assertEquals(pool.getOpenConnections(), 1);
+        pool.close();
+    }
+
+    @Test
+    public void when_stream_is_released_waiting_request_gets_stream() throws Exception {
+        // GIVEN
+        Http2StreamPool pool = createPool(createSettings(1, 10, 0, 10));
+        Channel stream = pool.acquire().sync().getNow();
+        Future<Channel> waiting = pool.acquire();
+
+        // WHEN
+        pool.release(stream);
+
+        // THEN
+        assertTrue(waiting.await(1000));
+        assertTrue(waiting.isSuccess());
+        assertTrue(waiting.getNow() != stream);
+        assertEquals(pool.getActiveStreams(), 1);
+        pool.close();
+    }
+
+    @Test
+    public void when_no_stream_is_free_within_acquire_timeout_fail_with_timeout() throws Exception {
+        // GIVEN
+        Http2StreamPool pool = createPool(createSettings(1, 10, 50, 10));
+        pool.acquire().sync();
+
+        // WHEN
+        Future<Channel> timedOut = pool.acquire().await();
+
+        // THEN
+        assertTrue(timedOut.cause() instanceof TimeoutException);
+        pool.close();
+    }
+
+    @Test
+    public void when_too_many_requests_wait_for_stream_fail_at_once() throws Exception {
+        // GIVEN
+        Http2StreamPool pool = createPool(createSettings(1, 1, 0, 10));
+        pool.acquire().sync();
+        Future<Channel> waiting = pool.acquire();
+
+        // WHEN
+        Future<Channel> rejected = pool.acquire().await();
+
+        // THEN
+        assertTrue(rejected.cause() instanceof IllegalStateException);
+        assertFalse(waiting.isDone());
+        pool.close();
+    }
+
+    @Test
+    public void when_backend_cannot_be_connected_fail_waiting_requests() throws Exception {
+        // GIVEN
+        Channel closed = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        InetSocketAddress address = (InetSocketAddress) closed.localAddress();
+        closed.close().sync();
+        Http2StreamPool pool = new Http2StreamPool(bootstrap.clone().remoteAddress(address), createSettings(1, 10, 0, 10));
+
+        // WHEN
+        Future<Channel> first = pool.acquire();
+        Future<Channel> second = pool.acquire();
+
+        // THEN
+        assertTrue(first.await(1000));
+        assertTrue(first.cause() instanceof ConnectException);
+        assertTrue(second.await(1000));
+        assertTrue(second.cause() instanceof ConnectException);
+        assertEquals(pool.getOpenConnections(), 0);
+        pool.close();
+    }
+
+    @Test
+    public void when_pool_is_closed_with_active_stream_close_connection_on_release() throws Exception {
+        // GIVEN
+        Http2StreamPool pool = createPool(createSettings(1, 10, 0, 10));
+        Channel stream = pool.acquire().sync().getNow();
+        Future<Channel> waiting = pool.acquire();
+
+        // WHEN
+        pool.close();
+
+        // THEN
+        assertTrue(waiting.await(1000));
+        assertTrue(waiting.cause() instanceof IllegalStateException);
+        assertTrue(stream.parent().isActive());
+        assertTrue(pool.acquire().await().cause() instanceof IllegalStateException);
+        pool.release(stream);
+        assertTrue(stream.parent().closeFuture().await(1000));
+        assertEquals(pool.getActiveStreams(), 0);
+    }
+
+    private Http2StreamPool createPool(BackendPool.Settings settings) {
+        return new Http2StreamPool(bootstrap, settings);
+    }
+
+    private static BackendPool.Settings createSettings(int maxConnections, int maxPendingAcquires, int acquireTimeout,
+            int maxStreams) {
+        return new BackendPool.Settings(maxConnections, maxPendingAcquires, acquireTimeout, 0, Backend.PROTOCOL_H2C,
+                maxStreams);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class HttpPipeliningHandlerTest {
+
+    @Test
+    public void when_responses_complete_out_of_order_write_them_in_request_order() throws Exception {
+        // GIVEN
+        RequestRecorder recorder = new RequestRecorder();
+        EmbeddedChannel channel = new EmbeddedChannel(new HttpPipeliningHandler(16), recorder);
+        channel.writeInbound(createRequest("/first"), createRequest("/second"), createRequest("/third"));
+
+        // WHEN
+        channel.writeOutbound(HttpPipeliningHandler.inOrder(recorder.sequences.get(2), createResponse("/third")));
+        channel.writeOutbound(HttpPipeliningHandler.inOrder(recorder.sequences.get(0), createResponse("/first")));
+        channel.writeOutbound(HttpPipeliningHandler.inOrder(recorder.sequences.get(1), createResponse("/second")));
+
+        // THEN
+        assertEquals(recorder.uris.size(), 3);
+        assertEquals(readResponse(channel), "/first");
+        assertEquals(readResponse(channel), "/second");
+        assertEquals(readResponse(channel), "/third");
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void when_max_requests_handled_hold_next_request_until_response_is_written() throws Exception {
+        // GIVEN
+        RequestRecorder recorder = new RequestRecorder();
+        EmbeddedChannel channel = new EmbeddedChannel(new HttpPipeliningHandler(1), recorder);
+        channel.writeInbound(createRequest("/first"), createRequest("/second"));
+        assertEquals(recorder.uris.size(), 1);
+
+        // WHEN
+        channel.writeOutbound(HttpPipeliningHandler.inOrder(recorder.sequences.get(0), createResponse("/first")));
+
+        // THEN
+        assertEquals(recorder.uris.size(), 2);
+        assertEquals(recorder.uris.get(1), "/second");
+        assertEquals(readResponse(channel), "/first");
+    }
+
+    @Test
+    public void when_request_is_streamed_handle_it_alone() throws Exception {
+        // GIVEN
+        RequestRecorder recorder = new RequestRecorder();
+        EmbeddedChannel channel = new EmbeddedChannel(new HttpPipeliningHandler(16), recorder);
+
+        // WHEN
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+        channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("abc", CharsetUtil.UTF_8)));
+        channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("def", CharsetUtil.UTF_8)));
+        channel.writeInbound(createRequest("/next"));
+
+        // THEN
+        assertEquals(recorder.uris.size(), 1);
+        assertEquals(recorder.chunks, 2);
+        channel.writeOutbound(createResponse("/upload"));
+        assertEquals(recorder.uris.size(), 2);
+        assertEquals(recorder.uris.get(1), "/next");
+    }
+
+    private static HttpRequest createRequest(String uri) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private static FullHttpResponse createResponse(String body) {
+        return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+    }
+
+    private static String readResponse(EmbeddedChannel channel) {
+        FullHttpResponse response = channel.readOutbound();
+        String body = response.content().toString(CharsetUtil.UTF_8);
+        response.release();
+        return body;
+    }
+
+    private static class RequestRecorder extends ChannelInboundHandlerAdapter {
+
+        private final List<String> uris = new ArrayList<String>();
+        private final List<Integer> sequences = new ArrayList<Integer>();
+        private int chunks;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof HttpRequest) {
+                uris.add(((HttpRequest) msg).uri());
+                sequences.add(HttpPipeliningHandler.currentSequence(ctx.channel()));
+            } else {
+                chunks++;
+            }
+            ReferenceCountUtil.release(msg);
+        }
+    }
+}
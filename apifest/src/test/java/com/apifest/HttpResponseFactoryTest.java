@@ -21,6 +21,9 @@ import com.apifest.api.MappingAction;
 import com.hazelcast.core.IMap;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+
+import java.util.ArrayList;
+
 import org.apache.http.HttpHeaders;
 import org.testng.annotations.Test;
 
@@ -100,6 +103,35 @@ public class HttpResponseFactoryTest {
         assertEquals(responseMsg, message);
     }
 
+    @Test
+    public void when_service_unavailable_response_set_status_and_default_body() throws Exception {
+        // GIVEN
+        mockNoGlobalErrors();
+
+        // WHEN
+        FullHttpResponse response = HttpResponseFactory.createServiceUnavailableResponse();
+
+        // THEN
+        assertEquals(response.getStatus(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        assertEquals(response.headers().get(HttpHeaders.CONTENT_TYPE), HttpResponseFactory.APPLICATION_JSON);
+        String error = new String(response.content().array());
+        assertEquals(error, HttpResponseFactory.SERVICE_UNAVAILABLE_CONTENT);
+    }
+
+    @Test
+    public void when_gateway_timeout_response_set_status_and_default_body() throws Exception {
+        // GIVEN
+        mockNoGlobalErrors();
+
+        // WHEN
+        FullHttpResponse response = HttpResponseFactory.createGatewayTimeoutResponse();
+
+        // THEN
+        assertEquals(response.getStatus(), HttpResponseStatus.GATEWAY_TIMEOUT);
+        String error = new String(response.content().array());
+        assertEquals(error, HttpResponseFactory.GATEWAY_TIMEOUT_CONTENT);
+    }
+
     @Test
     public void when_ise_response_and_global_error_500_exists_use_global_error() throws Exception {
         // GIVEN
@@ -170,8 +202,8 @@ public class HttpResponseFactoryTest {
     }
 
     private void mockNoGlobalErrors() throws Exception {
-        if (ConfigLoader.getLoadedGlobalErrors() != null) {
-            ConfigLoader.getLoadedGlobalErrors().clear();
+        for (Integer status : new ArrayList<Integer>(ConfigLoader.getLoadedGlobalErrors().keySet())) {
+            ConfigLoader.removeError(status);
         }
     }
 }
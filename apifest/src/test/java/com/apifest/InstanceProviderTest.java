@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+import com.apifest.api.BasicAction;
+import com.apifest.api.BasicFilter;
+import com.apifest.api.MappingException;
+import com.apifest.example.ReplaceCustomerIdAction;
+
+public class InstanceProviderTest {
+
+    public static class StatefulAction extends BasicAction {
+    }
+
+    @Test
+    public void when_class_is_thread_safe_share_one_instance() throws Exception {
+        // GIVEN
+        final InstanceProvider<BasicAction> provider = InstanceProvider.forClass(ReplaceCustomerIdAction.class, BasicAction.class);
+        final AtomicReference<BasicAction> other = new AtomicReference<BasicAction>();
+
+        // WHEN
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other.set(provider.get());
+            }
+        };
+        thread.start();
+        thread.join();
+
+        // THEN
+        assertTrue(provider.get() instanceof ReplaceCustomerIdAction);
+        assertSame(other.get(), provider.get());
+    }
+
+    @Test
+    public void when_class_is_not_thread_safe_create_instance_per_thread() throws Exception {
+        // GIVEN
+        final InstanceProvider<BasicAction> provider = InstanceProvider.forClass(StatefulAction.class, BasicAction.class);
+        final AtomicReference<BasicAction> other = new AtomicReference<BasicAction>();
+
+        // WHEN
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other.set(provider.get());
+            }
+        };
+        thread.start();
+        thread.join();
+
+        // THEN
+        assertSame(provider.get(), provider.get());
+        assertNotSame(other.get(), provider.get());
+    }
+
+    @Test
+    public void when_class_is_not_of_the_expected_type_throw_exception() throws Exception {
+        // GIVEN
+        String errorMsg = null;
+
+        // WHEN
+        try {
+            InstanceProvider.forClass(ReplaceCustomerIdAction.class, BasicFilter.class);
+        } catch (MappingException e) {
+            errorMsg = e.getMessage();
+        }
+
+        // THEN
+        assertEquals(errorMsg, "class com.apifest.example.ReplaceCustomerIdAction is not a BasicFilter");
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.api.LifecycleHandler;
+
+public class LifecycleEventDispatcherTest {
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        LifecycleEventDispatcher.stop();
+        loadProperties("");
+    }
+
+    @Test
+    public void when_sync_invoke_response_handlers_on_calling_thread() throws Exception {
+        // GIVEN
+        RecordingHandler handler = new RecordingHandler(null);
+        LifecycleEventDispatcher dispatcher = createDispatcher(handler);
+
+        // WHEN
+        dispatcher.invokeResponseHandlers(createRequest("body"), createResponse());
+
+        // THEN
+        assertSame(handler.thread, Thread.currentThread());
+        assertEquals(handler.content, "body");
+    }
+
+    @Test
+    public void when_async_handlers_get_retained_request_released_after_forwarding() throws Exception {
+        // GIVEN
+        loadProperties("lifecycle.handlers.async=true");
+        LifecycleEventDispatcher.start();
+        RecordingHandler handler = new RecordingHandler(null);
+        LifecycleEventDispatcher dispatcher = createDispatcher(handler);
+        FullHttpRequest request = createRequest("body");
+        FullHttpRequest handlerRequest = dispatcher.retainForResponseHandlers(request);
+        // written to the backend
+        request.release();
+
+        // WHEN
+        dispatcher.invokeResponseHandlers(handlerRequest, createResponse());
+        handlerRequest.release();
+
+        // THEN
+        assertTrue(handler.invoked.await(5, TimeUnit.SECONDS));
+        assertNotSame(handler.thread, Thread.currentThread());
+        assertEquals(handler.content, "body");
+    }
+
+    @Test
+    public void when_no_response_handlers_do_not_retain_request() throws Exception {
+        // GIVEN
+        LifecycleEventDispatcher dispatcher = new LifecycleEventDispatcher();
+        FullHttpRequest request = createRequest("body");
+
+        // WHEN
+        FullHttpRequest handlerRequest = dispatcher.retainForResponseHandlers(request);
+
+        // THEN
+        assertNull(handlerRequest);
+        assertEquals(request.refCnt(), 1);
+        request.release();
+    }
+
+    @Test
+    public void when_queue_is_full_and_overflow_is_drop_skip_handlers() throws Exception {
+        // GIVEN
+        loadProperties("lifecycle.handlers.async=true\nlifecycle.handlers.threads=1\nlifecycle.handlers.queue_size=1\n"
+                + "lifecycle.handlers.overflow=drop");
+        LifecycleEventDispatcher.start();
+        CountDownLatch blocked = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(blocked);
+        LifecycleEventDispatcher dispatcher = createDispatcher(handler);
+        long dropped = (Long) LifecycleEventDispatcher.getMetrics().get("dropped");
+        dispatcher.invokeResponseHandlers(createRequest("first"), createResponse());
+        dispatcher.invokeResponseHandlers(createRequest("queued"), createResponse());
+
+        // WHEN
+        FullHttpResponse response = createResponse();
+        dispatcher.invokeResponseHandlers(createRequest("dropped"), response);
+
+        // THEN
+        assertEquals(LifecycleEventDispatcher.getMetrics().get("dropped"), dropped + 1);
+        assertEquals(response.refCnt(), 1);
+        blocked.countDown();
+    }
+
+    @Test
+    public void when_queue_is_full_and_overflow_is_caller_runs_invoke_handlers_on_calling_thread() throws Exception {
+        // GIVEN
+        loadProperties("lifecycle.handlers.async=true\nlifecycle.handlers.threads=1\nlifecycle.handlers.queue_size=1\n"
+                + "lifecycle.handlers.overflow=caller-runs");
+        LifecycleEventDispatcher.start();
+        CountDownLatch blocked = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(blocked);
+        LifecycleEventDispatcher dispatcher = createDispatcher(handler);
+        long runInline = (Long) LifecycleEventDispatcher.getMetrics().get("runInline");
+        dispatcher.invokeResponseHandlers(createRequest("first"), createResponse());
+        dispatcher.invokeResponseHandlers(createRequest("queued"), createResponse());
+
+        // WHEN
+        dispatcher.invokeResponseHandlers(createRequest("inline"), createResponse());
+
+        // THEN
+        assertTrue(handler.ranOnCaller);
+        assertEquals(LifecycleEventDispatcher.getMetrics().get("runInline"), runInline + 1);
+        blocked.countDown();
+    }
+
+    private static LifecycleEventDispatcher createDispatcher(LifecycleHandler handler) {
+        LifecycleEventDispatcher dispatcher = new LifecycleEventDispatcher();
+        dispatcher.setResponseHandlers(Collections.singletonList(InstanceProvider.of(handler)));
+        return dispatcher;
+    }
+
+    private static void loadProperties(String properties) throws Exception {
+        ServerConfig.loadProperties(new ByteArrayInputStream(properties.getBytes(CharsetUtil.UTF_8)));
+    }
+
+    private static FullHttpRequest createRequest(String body) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/v0.1/me",
+                Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+    }
+
+    private static FullHttpResponse createResponse() {
+        return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    }
+
+    private static class RecordingHandler implements LifecycleHandler {
+
+        private final Thread caller = Thread.currentThread();
+        private final CountDownLatch invoked = new CountDownLatch(1);
+        private final CountDownLatch blocked;
+        private volatile Thread thread;
+        private volatile String content;
+        private volatile boolean ranOnCaller;
+
+        RecordingHandler(CountDownLatch blocked) {
+            this.blocked = blocked;
+        }
+
+        @Override
+        public void handle(FullHttpRequest request, FullHttpResponse response) {
+            thread = Thread.currentThread();
+            content = request.content().toString(CharsetUtil.UTF_8);
+            if (thread == caller && "inline".equals(content)) {
+                ranOnCaller = true;
+            }
+            invoked.countDown();
+            // only executor threads block, so the queue fills up
+            if (blocked != null && thread != caller) {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
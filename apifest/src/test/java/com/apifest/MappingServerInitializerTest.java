@@ -0,0 +1,266 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexCodec;
+import io.netty.handler.codec.http2.Http2MultiplexCodecBuilder;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.api.LifecycleHandler;
+import com.apifest.api.MappingEndpoint;
+import com.apifest.oauth20.MockDBManagerFactory;
+
+public class MappingServerInitializerTest {
+
+    private static final String VERSION = "v-pipeline";
+
+    // sent by curl with --http2
+    private static final String UPGRADE_REQUEST = "GET /v0.1/rates HTTP/1.1\r\nHost: localhost\r\n"
+            + "Connection: Upgrade, HTTP2-Settings\r\nUpgrade: h2c\r\nHTTP2-Settings: AAMAAABkAAQCAAAAAAIAAAAA\r\n\r\n";
+
+    private RequestRecorder recorder;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        MockDBManagerFactory.install();
+        ConfigLoader.updateMapping(VERSION, createConfig());
+        recorder = new RequestRecorder();
+        LifecycleEventHandlers.getDispatcher().setRequestHandlers(
+                Collections.singletonList(InstanceProvider.<LifecycleHandler>of(recorder)));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        LifecycleEventHandlers.getDispatcher().setRequestHandlers(Collections.<InstanceProvider<LifecycleHandler>>emptyList());
+        ConfigLoader.removeMapping(VERSION);
+        MockDBManagerFactory.deinstall();
+        loadProperties("");
+    }
+
+    @Test
+    public void when_streamed_request_expects_continue_send_encoded_continue() throws Exception {
+        // GIVEN
+        EmbeddedChannel channel = new EmbeddedChannel(new MappingServerInitializer());
+
+        // WHEN
+        channel.writeInbound(Unpooled.copiedBuffer("POST /v0.1/upload HTTP/1.1\r\nHost: localhost\r\n"
+                + "Expect: 100-continue\r\nContent-Length: 3\r\n\r\n", CharsetUtil.US_ASCII));
+
+        // THEN
+        String written = readOutbound(channel);
+        assertTrue(written.startsWith("HTTP/1.1 100 Continue\r\n"), written);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void when_http2_is_disabled_handle_upgrade_request_as_http1() throws Exception {
+        // GIVEN
+        loadProperties("http2.enabled=false");
+        EmbeddedChannel channel = new EmbeddedChannel(new MappingServerInitializer());
+
+        // WHEN
+        channel.writeInbound(Unpooled.copiedBuffer(UPGRADE_REQUEST, CharsetUtil.US_ASCII));
+
+        // THEN
+        assertNull(channel.pipeline().get(CleartextHttp2ServerUpgradeHandler.class));
+        String written = readOutbound(channel);
+        assertTrue(written.startsWith("HTTP/1.1 401 "), written);
+        assertEquals(recorder.headers.size(), 1);
+        assertEquals(recorder.headers.get(0).get("Upgrade"), "h2c");
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void when_client_sends_h2c_upgrade_switch_connection_to_http2() throws Exception {
+        // GIVEN
+        loadProperties("http2.enabled=true");
+        EmbeddedChannel channel = new EmbeddedChannel(new MappingServerInitializer());
+
+        // WHEN
+        channel.writeInbound(Unpooled.copiedBuffer(UPGRADE_REQUEST, CharsetUtil.US_ASCII));
+
+        // THEN
+        String written = readOutbound(channel);
+        assertTrue(written.startsWith("HTTP/1.1 101 Switching Protocols\r\n"), written);
+        assertHttp1HandlersRemoved(channel);
+        // the upgrade request is handled on stream 1
+        assertEquals(recorder.headers.size(), 1);
+        assertNoExtensionHeaders(recorder.headers.get(0));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void when_client_sends_http2_preface_switch_connection_to_http2() throws Exception {
+        // GIVEN
+        loadProperties("http2.enabled=true");
+        EmbeddedChannel channel = new EmbeddedChannel(new MappingServerInitializer());
+        EmbeddedChannel client = new EmbeddedChannel(Http2MultiplexCodecBuilder.forClient(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                // the server does not push
+            }
+        }).build());
+        ResponseRecorder responses = new ResponseRecorder();
+        Http2StreamChannel stream = new Http2StreamChannelBootstrap(client).handler(responses).open().sync().getNow();
+
+        // WHEN
+        stream.writeAndFlush(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().method("GET").path("/v0.1/rates")
+                .scheme("http").authority("localhost"), true));
+        exchange(client, channel);
+
+        // THEN
+        assertHttp1HandlersRemoved(channel);
+        assertEquals(recorder.headers.size(), 1);
+        assertNoExtensionHeaders(recorder.headers.get(0));
+        assertEquals(responses.statuses, Collections.singletonList("401"));
+        client.finishAndReleaseAll();
+        channel.finishAndReleaseAll();
+    }
+
+    private static void assertHttp1HandlersRemoved(EmbeddedChannel channel) {
+        assertNotNull(channel.pipeline().get(Http2MultiplexCodec.class));
+        assertNull(channel.pipeline().get(SelectiveHttpObjectAggregator.Server.class));
+        assertNull(channel.pipeline().get(HttpPipeliningHandler.class));
+        assertNull(channel.pipeline().get(HttpRequestHandler.class));
+    }
+
+    private static void assertNoExtensionHeaders(HttpHeaders headers) {
+        for (HttpConversionUtil.ExtensionHeaderNames name : HttpConversionUtil.ExtensionHeaderNames.values()) {
+            assertFalse(headers.contains(name.text()), name.text().toString());
+        }
+    }
+
+    // passes the bytes written by each side to the other until both are quiet
+    private static void exchange(EmbeddedChannel client, EmbeddedChannel server) {
+        boolean transferred = true;
+        while (transferred) {
+            transferred = transfer(client, server) | transfer(server, client);
+        }
+    }
+
+    private static boolean transfer(EmbeddedChannel from, EmbeddedChannel to) {
+        // runs the flushes postponed by the flush consolidation
+        from.runPendingTasks();
+        boolean transferred = false;
+        Object msg;
+        while ((msg = from.readOutbound()) != null) {
+            to.writeInbound(msg);
+            transferred = true;
+        }
+        return transferred;
+    }
+
+    // all bytes written so far, the test fails on a message that was not encoded
+    static String readOutbound(EmbeddedChannel channel) {
+        StringBuilder written = new StringBuilder();
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ByteBuf buf = (ByteBuf) msg;
+            written.append(buf.toString(CharsetUtil.US_ASCII));
+            buf.release();
+        }
+        return written.toString();
+    }
+
+    static void loadProperties(String properties) throws Exception {
+        ServerConfig.loadProperties(new ByteArrayInputStream(properties.getBytes(CharsetUtil.UTF_8)));
+    }
+
+    // endpoints that require a token, so they are answered without a backend
+    private static MappingConfig createConfig() {
+        Map<MappingPattern, MappingEndpoint> mappings = new HashMap<MappingPattern, MappingEndpoint>();
+        MappingEndpoint rates = new MappingEndpoint();
+        rates.setExternalEndpoint("/v0.1/rates");
+        rates.setInternalEndpoint("/rates");
+        rates.setMethod("GET");
+        rates.setAuthType(MappingEndpoint.AUTH_TYPE_CLIENT_APP);
+        rates.setBackendHost("127.0.0.1");
+        rates.setBackendPort(8080);
+        mappings.put(new MappingPattern(Pattern.compile("/v0.1/rates$"), "GET"), rates);
+        MappingEndpoint upload = new MappingEndpoint();
+        upload.setExternalEndpoint("/v0.1/upload");
+        upload.setInternalEndpoint("/upload");
+        upload.setMethod("POST");
+        upload.setAuthType(MappingEndpoint.AUTH_TYPE_CLIENT_APP);
+        upload.setBackendHost("127.0.0.1");
+        upload.setBackendPort(8080);
+        upload.setStreaming(true);
+        mappings.put(new MappingPattern(Pattern.compile("/v0.1/upload$"), "POST"), upload);
+        MappingConfig config = new MappingConfig();
+        config.setMappings(mappings);
+        return config;
+    }
+
+    private static class RequestRecorder implements LifecycleHandler {
+
+        private final List<HttpHeaders> headers = new CopyOnWriteArrayList<HttpHeaders>();
+
+        @Override
+        public void handle(FullHttpRequest request, FullHttpResponse response) {
+            headers.add(request.headers().copy());
+        }
+    }
+
+    private static class ResponseRecorder extends ChannelInboundHandlerAdapter {
+
+        private final List<String> statuses = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof Http2HeadersFrame) {
+                statuses.add(((Http2HeadersFrame) msg).headers().status().toString());
+            }
+            ReferenceCountUtil.release(msg);
+        }
+    }
+}
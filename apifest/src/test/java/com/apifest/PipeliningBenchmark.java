@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures batches of requests sent over one keep-alive connection, with and without merging the flushes of
+ * the server connection (<code>flush.consolidation.limit</code>) and with pipelined requests handled one by one
+ * or at the same time (<code>http.pipelining.max_requests</code>). The responses are written from a later event
+ * loop task, as when a backend responds.
+ * <p>
+ * Each flush that reaches the server socket is a write system call, so <code>socketFlushes / requests</code>
+ * in the results is the number of write system calls per request.
+ * Run with <code>mvn -Pbenchmark test -Dbenchmark=PipeliningBenchmark</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class PipeliningBenchmark {
+
+    private static final byte[] BODY = "{\"status\":\"ok\"}".getBytes(CharsetUtil.UTF_8);
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({ "0", "256" })
+        public int flushConsolidationLimit;
+
+        @Param({ "1", "16" })
+        public int maxRequests;
+
+        private final LongAdder socketFlushes = new LongAdder();
+        private EventLoopGroup group;
+        private Channel channel;
+
+        @Setup
+        public void start() throws Exception {
+            group = Transport.get().newEventLoopGroup(2, "benchmark");
+            channel = new ServerBootstrap().group(group)
+                    .channel(Transport.get().getServerChannelClass())
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new FlushCounter(socketFlushes));
+                            if (flushConsolidationLimit > 0) {
+                                ch.pipeline().addLast(new FlushConsolidationHandler(flushConsolidationLimit, true));
+                            }
+                            ch.pipeline().addLast(new HttpServerCodec());
+                            ch.pipeline().addLast(new HttpObjectAggregator(1024));
+                            ch.pipeline().addLast(new HttpPipeliningHandler(maxRequests));
+                            ch.pipeline().addLast(new LaterOkHandler());
+                        }
+                    })
+                    .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).sync().channel();
+        }
+
+        @TearDown
+        public void stop() throws Exception {
+            channel.close().sync();
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Client {
+
+        @Param({ "16" })
+        public int batch;
+
+        public long requests;
+        public long socketFlushes;
+
+        private Server server;
+        private Channel channel;
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile Promise<Void> responses;
+
+        @Setup
+        public void connect(Server server) throws Exception {
+            this.server = server;
+            channel = new Bootstrap().group(server.group)
+                    .channel(Transport.get().getChannelClass())
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new HttpClientCodec());
+                            ch.pipeline().addLast(new HttpObjectAggregator(1024));
+                            ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+                                    if (remaining.decrementAndGet() == 0) {
+                                        responses.setSuccess(null);
+                                    }
+                                }
+                            });
+                        }
+                    })
+                    .connect(server.channel.localAddress()).sync().channel();
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+            socketFlushes = 0;
+        }
+
+        @TearDown
+        public void close() throws Exception {
+            channel.close().sync();
+        }
+
+        private void sendBatch() throws Exception {
+            long flushes = server.socketFlushes.sum();
+            remaining.set(batch);
+            responses = channel.eventLoop().newPromise();
+            for (int i = 0; i < batch; i++) {
+                FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/v0.1/me");
+                request.headers().set(HttpHeaderNames.HOST, "localhost");
+                channel.write(request);
+            }
+            channel.flush();
+            responses.sync();
+            requests += batch;
+            socketFlushes += server.socketFlushes.sum() - flushes;
+        }
+    }
+
+    @Benchmark
+    public void pipelined_batch(Client client) throws Exception {
+        client.sendBatch();
+    }
+
+    private static final class FlushCounter extends ChannelOutboundHandlerAdapter {
+
+        private final LongAdder flushes;
+
+        FlushCounter(LongAdder flushes) {
+            this.flushes = flushes;
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            flushes.increment();
+            ctx.flush();
+        }
+    }
+
+    private static final class LaterOkHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, FullHttpRequest request) {
+            final int sequence = HttpPipeliningHandler.currentSequence(ctx.channel());
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                            Unpooled.wrappedBuffer(BODY));
+                    HttpUtil.setContentLength(response, BODY.length);
+                    ctx.channel().writeAndFlush(HttpPipeliningHandler.inOrder(sequence, response));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.apifest.api.BasicFilter;
+import com.apifest.api.CoalescePolicy;
+import com.apifest.api.MappingEndpoint;
+
+public class RequestCoalescerTest {
+
+    @Test
+    public void when_identical_request_in_flight_wait_for_its_response() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = createEndpoint("/v0.1/rates");
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        ResponseListener flight = RequestCoalescer.join(createRequest("/rates"), endpoint, first);
+
+        // WHEN
+        ResponseListener joined = RequestCoalescer.join(createRequest("/rates"), endpoint, second);
+        flight.responseReceived(createResponse("1.95583"), null);
+
+        // THEN
+        assertNull(joined);
+        assertEquals(first.bodies.get(0), "1.95583");
+        assertEquals(second.bodies.get(0), "1.95583");
+    }
+
+    @Test
+    public void when_flight_completed_send_next_request() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = createEndpoint("/v0.1/currencies");
+        RecordingListener first = new RecordingListener();
+        RequestCoalescer.join(createRequest("/currencies"), endpoint, first).responseReceived(createResponse("[]"), null);
+
+        // WHEN
+        ResponseListener flight = RequestCoalescer.join(createRequest("/currencies"), endpoint, new RecordingListener());
+
+        // THEN
+        assertNotNull(flight);
+    }
+
+    @Test
+    public void when_flight_aborted_answer_waiting_requests_with_error() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = createEndpoint("/v0.1/banks");
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        ResponseListener flight = RequestCoalescer.join(createRequest("/banks"), endpoint, first);
+        RequestCoalescer.join(createRequest("/banks"), endpoint, second);
+
+        // WHEN
+        boolean aborted = RequestCoalescer.abort(flight, createResponse("error"));
+
+        // THEN
+        assertTrue(aborted);
+        assertEquals(first.bodies.get(0), "error");
+        assertEquals(second.bodies.get(0), "error");
+        assertNotNull(RequestCoalescer.join(createRequest("/banks"), endpoint, new RecordingListener()));
+    }
+
+    @Test
+    public void when_aborted_flight_already_completed_do_not_answer_again() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = createEndpoint("/v0.1/branches");
+        RecordingListener first = new RecordingListener();
+        ResponseListener flight = RequestCoalescer.join(createRequest("/branches"), endpoint, first);
+        flight.responseReceived(createResponse("[]"), null);
+        FullHttpResponse error = createResponse("error");
+
+        // WHEN
+        RequestCoalescer.abort(flight, error);
+
+        // THEN
+        assertEquals(first.bodies.size(), 1);
+        assertEquals(error.refCnt(), 0);
+    }
+
+    @Test
+    public void when_listener_is_not_flight_do_not_abort() throws Exception {
+        // GIVEN
+        RecordingListener listener = new RecordingListener();
+
+        // WHEN
+        boolean aborted = RequestCoalescer.abort(listener, createResponse("error"));
+
+        // THEN
+        assertFalse(aborted);
+        assertEquals(listener.bodies.size(), 0);
+    }
+
+    @Test
+    public void when_coalesce_header_differs_send_both_requests() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = createEndpoint("/v0.1/countries");
+        endpoint.getCoalesce().setHeaders("Accept-Language");
+        FullHttpRequest english = createRequest("/countries");
+        english.headers().set("Accept-Language", "en");
+        FullHttpRequest german = createRequest("/countries");
+        german.headers().set("Accept-Language", "de");
+        RequestCoalescer.join(english, endpoint, new RecordingListener());
+
+        // WHEN
+        ResponseListener listener = RequestCoalescer.join(german, endpoint, new RecordingListener());
+
+        // THEN
+        assertNotNull(listener);
+    }
+
+    @Test
+    public void when_endpoint_does_not_coalesce_return_same_listener() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = createEndpoint("/v0.1/me");
+        endpoint.setCoalesce(null);
+        RecordingListener listener = new RecordingListener();
+
+        // WHEN
+        ResponseListener result = RequestCoalescer.join(createRequest("/me"), endpoint, listener);
+
+        // THEN
+        assertSame(result, listener);
+    }
+
+    private static MappingEndpoint createEndpoint(String external) {
+        MappingEndpoint endpoint = new MappingEndpoint();
+        endpoint.setMethod("GET");
+        endpoint.setExternalEndpoint(external);
+        endpoint.setCoalesce(new CoalescePolicy());
+        return endpoint;
+    }
+
+    private static FullHttpRequest createRequest(String uri) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private static FullHttpResponse createResponse(String body) {
+        return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+    }
+
+    private static class RecordingListener extends ResponseListener {
+
+        private final List<String> bodies = new ArrayList<String>();
+
+        RecordingListener() {
+            super((BasicFilter) null, new HashMap<String, String>());
+        }
+
+        @Override
+        void responseReceived(FullHttpMessage response, Channel clientChannel) {
+            bodies.add(response.content().toString(CharsetUtil.UTF_8));
+            response.release();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+
+import org.testng.annotations.Test;
+
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.MappingEndpoint;
+import com.apifest.api.TimeoutPolicy;
+
+public class RequestTimeoutTest {
+
+    @Test
+    public void when_no_timeouts_are_set_use_default_response_timeout_and_no_deadline() throws Exception {
+        // GIVEN
+        FullHttpRequest request = createRequest();
+
+        // WHEN
+        RequestTimeout timeout = RequestTimeout.of(new MappingEndpoint(), null, request);
+
+        // THEN
+        assertSame(timeout, RequestTimeout.DEFAULT);
+        assertEquals(timeout.getResponseTimeout(null), ServerConfig.DEFAULT_BACKEND_RESPONSE_TIMEOUT);
+        assertEquals(timeout.getRemainingMillis(), Long.MAX_VALUE);
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    public void when_endpoint_sets_response_timeout_it_overrides_backend_one() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = new MappingEndpoint();
+        TimeoutPolicy policy = new TimeoutPolicy();
+        policy.setResponse(500);
+        endpoint.setTimeout(policy);
+        Backend backend = new Backend("127.0.0.1", 8080);
+        backend.setResponseTimeout(2000);
+
+        // WHEN
+        RequestTimeout timeout = RequestTimeout.of(endpoint, backend, createRequest());
+
+        // THEN
+        assertEquals(timeout.getResponseTimeout(backend), 500);
+    }
+
+    @Test
+    public void when_request_timeout_is_shorter_than_response_timeout_wait_until_deadline() throws Exception {
+        // GIVEN
+        Backend backend = new Backend("127.0.0.1", 8080);
+        backend.setResponseTimeout(60000);
+        backend.setRequestTimeout(1000);
+
+        // WHEN
+        RequestTimeout timeout = RequestTimeout.of(new MappingEndpoint(), backend, createRequest());
+
+        // THEN
+        assertTrue(timeout.getResponseTimeout(backend) <= 1000);
+        assertTrue(timeout.getResponseTimeout(backend) > 0);
+    }
+
+    @Test
+    public void when_client_sends_shorter_timeout_use_it_as_deadline() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = new MappingEndpoint();
+        TimeoutPolicy policy = new TimeoutPolicy();
+        policy.setRequest(10000);
+        endpoint.setTimeout(policy);
+        FullHttpRequest request = createRequest();
+        request.headers().set(RequestTimeout.TIMEOUT_HEADER, "200");
+
+        // WHEN
+        RequestTimeout timeout = RequestTimeout.of(endpoint, null, request);
+
+        // THEN
+        assertTrue(timeout.getRemainingMillis() <= 200);
+    }
+
+    @Test
+    public void when_client_has_no_time_left_deadline_is_expired() throws Exception {
+        // GIVEN
+        FullHttpRequest request = createRequest();
+        request.headers().set(RequestTimeout.TIMEOUT_HEADER, "0");
+
+        // WHEN
+        RequestTimeout timeout = RequestTimeout.of(new MappingEndpoint(), null, request);
+        Thread.sleep(5);
+
+        // THEN
+        assertTrue(timeout.isExpired());
+    }
+
+    @Test
+    public void set_remaining_time_in_header_sent_to_backend() throws Exception {
+        // GIVEN
+        Backend backend = new Backend("127.0.0.1", 8080);
+        backend.setRequestTimeout(3000);
+        RequestTimeout timeout = RequestTimeout.of(new MappingEndpoint(), backend, createRequest());
+        FullHttpRequest request = createRequest();
+
+        // WHEN
+        timeout.setHeader(request);
+
+        // THEN
+        long remaining = Long.parseLong(request.headers().get(RequestTimeout.TIMEOUT_HEADER));
+        assertTrue(remaining > 0 && remaining <= 3000);
+    }
+
+    @Test
+    public void when_there_is_no_deadline_remove_timeout_header() throws Exception {
+        // GIVEN
+        FullHttpRequest request = createRequest();
+        request.headers().set(RequestTimeout.TIMEOUT_HEADER, "abc");
+
+        // WHEN
+        RequestTimeout.of(new MappingEndpoint(), null, request).setHeader(request);
+
+        // THEN
+        assertNull(request.headers().get(RequestTimeout.TIMEOUT_HEADER));
+    }
+
+    private static FullHttpRequest createRequest() {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/v0.1/me");
+    }
+}
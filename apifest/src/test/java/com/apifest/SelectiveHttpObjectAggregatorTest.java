@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.CharsetUtil;
+
+import org.testng.annotations.Test;
+
+import com.apifest.api.MappingAction;
+import com.apifest.api.MappingEndpoint;
+
+public class SelectiveHttpObjectAggregatorTest {
+
+    @Test
+    public void when_not_streaming_aggregate_request() throws Exception {
+        // GIVEN
+        EmbeddedChannel channel = new EmbeddedChannel(createAggregator(false));
+
+        // WHEN
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+        channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("abc", CharsetUtil.UTF_8)));
+        channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("def", CharsetUtil.UTF_8)));
+
+        // THEN
+        FullHttpRequest request = channel.readInbound();
+        assertEquals(request.content().toString(CharsetUtil.UTF_8), "abcdef");
+        request.release();
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void when_streaming_pass_head_and_chunks() throws Exception {
+        // GIVEN
+        EmbeddedChannel channel = new EmbeddedChannel(createAggregator(true));
+
+        // WHEN
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+        channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("abc", CharsetUtil.UTF_8)));
+        channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("def", CharsetUtil.UTF_8)));
+
+        // THEN
+        Object head = channel.readInbound();
+        assertTrue(head instanceof HttpRequest);
+        assertFalse(head instanceof FullHttpRequest);
+        HttpContent chunk = channel.readInbound();
+        assertEquals(chunk.content().toString(CharsetUtil.UTF_8), "abc");
+        chunk.release();
+        LastHttpContent last = channel.readInbound();
+        assertEquals(last.content().toString(CharsetUtil.UTF_8), "def");
+        last.release();
+    }
+
+    @Test
+    public void when_streaming_and_continue_expected_send_continue() throws Exception {
+        // GIVEN
+        EmbeddedChannel channel = new EmbeddedChannel(createAggregator(true));
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload");
+        request.headers().set(HttpHeaderNames.EXPECT, HttpHeaderValues.CONTINUE);
+
+        // WHEN
+        channel.writeInbound(request);
+
+        // THEN
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(response.status(), HttpResponseStatus.CONTINUE);
+        HttpRequest head = channel.readInbound();
+        assertFalse(head.headers().contains(HttpHeaderNames.EXPECT));
+    }
+
+    @Test
+    public void when_endpoint_has_action_do_not_stream() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = new MappingEndpoint();
+        endpoint.setStreaming(true);
+        endpoint.setAction(new MappingAction());
+
+        // WHEN
+        boolean streaming = StreamingExchange.isStreaming(endpoint);
+
+        // THEN
+        assertFalse(streaming);
+    }
+
+    @Test
+    public void when_endpoint_is_streaming_and_has_no_action_and_filter_stream() throws Exception {
+        // GIVEN
+        MappingEndpoint endpoint = new MappingEndpoint();
+        endpoint.setStreaming(true);
+
+        // WHEN
+        boolean streaming = StreamingExchange.isStreaming(endpoint);
+
+        // THEN
+        assertTrue(streaming);
+    }
+
+    private SelectiveHttpObjectAggregator createAggregator(final boolean streaming) {
+        return new SelectiveHttpObjectAggregator(1024) {
+            @Override
+            protected boolean isStreaming(ChannelHandlerContext ctx, HttpMessage message) {
+                return streaming;
+            }
+        };
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput and latency of HTTP/1.1 request round trips over loopback keep-alive connections
+ * with the NIO and the epoll transport, see {@link Transport}. Each benchmark thread has its own connection.
+ * Run with <code>mvn -Pbenchmark test -Dbenchmark=TransportBenchmark</code>; on hosts without epoll both
+ * parameters measure NIO.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class TransportBenchmark {
+
+    private static final byte[] BODY = "{\"status\":\"ok\"}".getBytes(CharsetUtil.UTF_8);
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({ Transport.NIO, Transport.EPOLL })
+        public String transport;
+
+        private Transport t;
+        private EventLoopGroup group;
+        private Channel channel;
+
+        @Setup
+        public void start() throws Exception {
+            t = Transport.of(transport);
+            group = t.newEventLoopGroup(Runtime.getRuntime().availableProcessors(), "benchmark");
+            channel = new ServerBootstrap().group(group)
+                    .channel(t.getServerChannelClass())
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childHandler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new HttpServerCodec());
+                            ch.pipeline().addLast(new HttpObjectAggregator(1024));
+                            ch.pipeline().addLast(new OkHandler());
+                        }
+                    })
+                    .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).sync().channel();
+        }
+
+        @TearDown
+        public void stop() throws Exception {
+            channel.close().sync();
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private Channel channel;
+        private volatile Promise<Integer> response;
+
+        @Setup
+        public void connect(Server server) throws Exception {
+            channel = new Bootstrap().group(server.group)
+                    .channel(server.t.getChannelClass())
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<Channel>() {
+                        @Override
+                        protected void initChannel(Channel ch) {
+                            ch.pipeline().addLast(new HttpClientCodec());
+                            ch.pipeline().addLast(new HttpObjectAggregator(1024));
+                            ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+                                    response.setSuccess(msg.status().code());
+                                }
+                            });
+                        }
+                    })
+                    .connect(server.channel.localAddress()).sync().channel();
+        }
+
+        @TearDown
+        public void close() throws Exception {
+            channel.close().sync();
+        }
+
+        private int roundTrip() throws Exception {
+            response = channel.eventLoop().newPromise();
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/v0.1/me");
+            request.headers().set(HttpHeaderNames.HOST, "localhost");
+            channel.writeAndFlush(request);
+            return response.sync().getNow();
+        }
+    }
+
+    @Benchmark
+    public int round_trip(Client client) throws Exception {
+        return client.roundTrip();
+    }
+
+    private static final class OkHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    Unpooled.wrappedBuffer(BODY));
+            HttpUtil.setContentLength(response, BODY.length);
+            ctx.writeAndFlush(response);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.cache;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import org.testng.annotations.Test;
+
+import com.apifest.api.CachePolicy;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void when_response_has_max_age_return_it_fresh() throws Exception {
+        // GIVEN
+        ResponseCache cache = new ResponseCache(1024 * 1024);
+        FullHttpRequest request = createRequest("/countries");
+        FullHttpResponse response = createResponse("[\"BG\"]", "max-age=60");
+
+        // WHEN
+        cache.put("/countries", request.headers(), response, new CachePolicy());
+
+        // THEN
+        CachedResponse entry = cache.get("/countries", request.headers());
+        assertTrue(entry.isFresh(System.currentTimeMillis()));
+        FullHttpResponse cached = entry.toResponse(System.currentTimeMillis());
+        assertEquals(cached.content().toString(CharsetUtil.UTF_8), "[\"BG\"]");
+        assertTrue(cached.headers().contains(HttpHeaderNames.AGE));
+        cached.release();
+    }
+
+    @Test
+    public void when_response_is_no_store_do_not_cache_it() throws Exception {
+        // GIVEN
+        ResponseCache cache = new ResponseCache(1024 * 1024);
+        FullHttpRequest request = createRequest("/countries");
+        CachePolicy policy = new CachePolicy();
+        policy.setMaxAge(60);
+
+        // WHEN
+        cache.put("/countries", request.headers(), createResponse("[]", "no-store"), policy);
+
+        // THEN
+        assertNull(cache.get("/countries", request.headers()));
+    }
+
+    @Test
+    public void when_response_varies_by_header_cache_per_header_value() throws Exception {
+        // GIVEN
+        ResponseCache cache = new ResponseCache(1024 * 1024);
+        FullHttpRequest english = createRequest("/countries");
+        english.headers().set(HttpHeaderNames.ACCEPT_LANGUAGE, "en");
+        FullHttpRequest german = createRequest("/countries");
+        german.headers().set(HttpHeaderNames.ACCEPT_LANGUAGE, "de");
+        FullHttpResponse response = createResponse("[\"Bulgaria\"]", "max-age=60");
+        response.headers().set(HttpHeaderNames.VARY, "Accept-Language");
+
+        // WHEN
+        cache.put("/countries", english.headers(), response, new CachePolicy());
+
+        // THEN
+        assertNotNull(cache.get("/countries", english.headers()));
+        assertNull(cache.get("/countries", german.headers()));
+    }
+
+    @Test
+    public void when_max_bytes_exceeded_evict_responses() throws Exception {
+        // GIVEN
+        ResponseCache cache = new ResponseCache(1024);
+        FullHttpRequest request = createRequest("/countries");
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            body.append('a');
+        }
+
+        // WHEN
+        cache.put("/countries/1", request.headers(), createResponse(body.toString(), "max-age=60"), new CachePolicy());
+        cache.put("/countries/2", request.headers(), createResponse(body.toString(), "max-age=60"), new CachePolicy());
+
+        // THEN
+        assertFalse((Long) cache.getMetrics().get("bytes") > 1024);
+        assertEquals(cache.getMetrics().get("evictions"), 1L);
+    }
+
+    @Test
+    public void when_entry_is_evicted_do_not_retain_its_body() throws Exception {
+        // GIVEN
+        ByteBuf body = Unpooled.copiedBuffer("[\"BG\"]", CharsetUtil.UTF_8);
+        long now = System.currentTimeMillis();
+        CachedResponse entry = new CachedResponse(HttpResponseStatus.OK, new DefaultHttpHeaders(), body, now, now + 60000,
+                now + 60000);
+        FullHttpResponse returned = entry.toResponse(now);
+
+        // WHEN
+        entry.release();
+
+        // THEN
+        assertNull(entry.toResponse(now));
+        assertEquals(returned.content().toString(CharsetUtil.UTF_8), "[\"BG\"]");
+        returned.release();
+        assertEquals(body.refCnt(), 0);
+    }
+
+    private static FullHttpRequest createRequest(String uri) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private static FullHttpResponse createResponse(String body, String cacheControl) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, cacheControl);
+        return response;
+    }
+}
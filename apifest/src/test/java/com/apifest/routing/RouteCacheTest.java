@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.MappingConfig;
+import com.apifest.api.MappingEndpoint;
+
+public class RouteCacheTest {
+
+    RouteCache cache;
+
+    @BeforeMethod
+    public void setup() {
+        MappingEndpoint endpoint = new MappingEndpoint();
+        endpoint.setExternalEndpoint("/v0.1/payments/{paymentId}");
+        endpoint.setInternalEndpoint("/payments/{paymentId}");
+        endpoint.setMethod("GET");
+        endpoint.setVarExpression("\\d+");
+        endpoint.setVarName("paymentId");
+        cache = new RouteCache(RouteTree.builder().add(endpoint, null, new MappingConfig()).build(), 10);
+    }
+
+    @Test
+    public void when_path_is_requested_again_return_cached_route() throws Exception {
+        // GIVEN
+        RouteMatch first = cache.match("GET", "/v0.1/payments/123");
+
+        // WHEN
+        RouteMatch second = cache.match("GET", "/v0.1/payments/123");
+
+        // THEN
+        assertSame(second, first);
+        assertEquals(second.getInternalUri(), "/payments/123");
+        assertEquals(cache.stats().hitCount(), 1);
+        assertEquals(cache.stats().missCount(), 1);
+    }
+
+    @Test
+    public void when_path_has_no_route_cache_the_miss() throws Exception {
+        // GIVEN
+        cache.match("GET", "/v0.1/balance");
+
+        // WHEN
+        RouteMatch match = cache.match("GET", "/v0.1/balance");
+
+        // THEN
+        assertNull(match);
+        assertEquals(cache.stats().hitCount(), 1);
+        assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void when_method_differs_do_not_return_cached_route() throws Exception {
+        // GIVEN
+        cache.match("GET", "/v0.1/payments/123");
+
+        // WHEN
+        RouteMatch match = cache.match("POST", "/v0.1/payments/123");
+
+        // THEN
+        assertNull(match);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.regex.Pattern;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.MappingConfig;
+import com.apifest.api.MappingEndpoint;
+
+public class RouteTreeTest {
+
+    MappingConfig config;
+    RouteTree tree;
+
+    @BeforeMethod
+    public void setup() {
+        config = new MappingConfig();
+        tree = RouteTree.builder()
+                .add(endpoint("/v0.1/me", "/customer/{customerId}", null, null), null, config)
+                .add(endpoint("/v0.1/payments/{paymentId}", "/payments/{paymentId}", "\\d*", "paymentId"), null, config)
+                .add(endpoint("/v0.1/contacts/{type}/{level}", "/contacts/{type}/{level}", "phone|mobile|address support|finance|manager", "type level"), null, config)
+                .add(endpoint("/v0.1/files/{name}", "/files/{name}", ".*", "name"), Pattern.compile("/v0.1/files/(.*)$"), config)
+                .build();
+    }
+
+    @Test
+    public void when_literal_path_matches_return_route() throws Exception {
+        // WHEN
+        RouteMatch match = tree.match("GET", "/v0.1/me");
+
+        // THEN
+        assertEquals(match.getEndpoint().getExternalEndpoint(), "/v0.1/me");
+        assertSame(match.getConfig(), config);
+    }
+
+    @Test
+    public void when_method_is_not_mapped_return_null() throws Exception {
+        // WHEN
+        RouteMatch match = tree.match("POST", "/v0.1/me");
+
+        // THEN
+        assertNull(match);
+    }
+
+    @Test
+    public void when_path_has_variables_capture_their_values() throws Exception {
+        // WHEN
+        RouteMatch match = tree.match("GET", "/v0.1/contacts/mobile/support");
+
+        // THEN
+        assertEquals(match.getVariable("type"), "mobile");
+        assertEquals(match.getVariable("level"), "support");
+    }
+
+    @Test
+    public void when_variable_does_not_match_expression_return_null() throws Exception {
+        // WHEN
+        RouteMatch match = tree.match("GET", "/v0.1/payments/12a");
+
+        // THEN
+        assertNull(match);
+    }
+
+    @Test
+    public void when_expression_spans_segments_match_with_regex() throws Exception {
+        // WHEN
+        RouteMatch match = tree.match("GET", "/v0.1/files/docs/readme.txt");
+
+        // THEN
+        assertEquals(match.getVariable("name"), "docs/readme.txt");
+    }
+
+    @Test
+    public void when_path_has_trailing_slash_do_not_match_literal_route() throws Exception {
+        // WHEN
+        RouteMatch match = tree.match("GET", "/v0.1/me/");
+
+        // THEN
+        assertNull(match);
+    }
+
+    private MappingEndpoint endpoint(String external, String internal, String varExpression, String varName) {
+        MappingEndpoint endpoint = new MappingEndpoint();
+        endpoint.setExternalEndpoint(external);
+        endpoint.setInternalEndpoint(internal);
+        endpoint.setMethod("GET");
+        endpoint.setVarExpression(varExpression);
+        endpoint.setVarName(varName);
+        return endpoint;
+    }
+}
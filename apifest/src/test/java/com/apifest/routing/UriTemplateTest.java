@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.routing;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.Test;
+
+public class UriTemplateTest {
+
+    @Test
+    public void when_template_has_no_variables_return_the_same_uri() throws Exception {
+        // GIVEN
+        String uri = "/customers/me";
+        UriTemplate template = UriTemplate.compile(uri, new String[0]);
+
+        // WHEN
+        String result = template.expand(new String[0], new String[0]);
+
+        // THEN
+        assertSame(result, uri);
+    }
+
+    @Test
+    public void when_template_has_variables_replace_them_in_order() throws Exception {
+        // GIVEN
+        String[] varNames = new String[] {"level", "type"};
+        UriTemplate template = UriTemplate.compile("/contacts/{type}/{level}?all=true", varNames);
+
+        // WHEN
+        String result = template.expand(new String[] {"support", "mobile"}, varNames);
+
+        // THEN
+        assertEquals(result, "/contacts/mobile/support?all=true");
+    }
+
+    @Test
+    public void when_placeholder_is_not_a_variable_keep_it() throws Exception {
+        // GIVEN
+        String[] varNames = new String[] {"paymentId"};
+        UriTemplate template = UriTemplate.compile("/customer/{customerId}/payments/{paymentId}", varNames);
+
+        // WHEN
+        String result = template.expand(new String[] {"123"}, varNames);
+
+        // THEN
+        assertEquals(result, "/customer/{customerId}/payments/123");
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.util.CharsetUtil;
+
+import java.io.ByteArrayInputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.apifest.ServerConfig;
+import com.apifest.api.Mapping.Backend;
+
+public class CircuitBreakerTest {
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        loadProperties("circuit.open_timeout=" + ServerConfig.DEFAULT_CIRCUIT_OPEN_TIMEOUT);
+    }
+
+    @Test
+    public void when_consecutive_failures_reach_threshold_open_circuit() throws Exception {
+        // GIVEN
+        CircuitBreaker breaker = CircuitBreaker.of("10.1.0.1", 8080);
+
+        // WHEN
+        for (int i = 0; i < ServerConfig.getCircuitFailureThreshold(); i++) {
+            CircuitBreaker.Permit permit = breaker.tryAcquire();
+            assertEquals(permit, CircuitBreaker.Permit.REQUEST);
+            breaker.onFailure(permit);
+        }
+
+        // THEN
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertNull(breaker.tryAcquire());
+        assertFalse(breaker.isAvailable());
+    }
+
+    @Test
+    public void when_success_between_failures_keep_circuit_closed() throws Exception {
+        // GIVEN
+        CircuitBreaker breaker = CircuitBreaker.of("10.1.0.2", 8080);
+
+        // WHEN
+        for (int i = 0; i < ServerConfig.getCircuitFailureThreshold() - 1; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+        breaker.onSuccess(breaker.tryAcquire(), 0);
+        breaker.onFailure(breaker.tryAcquire());
+
+        // THEN
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        assertNotNull(breaker.tryAcquire());
+    }
+
+    @Test
+    public void when_half_open_ignore_outcome_of_request_let_through_before_circuit_opened() throws Exception {
+        // GIVEN
+        loadProperties("circuit.open_timeout=0");
+        CircuitBreaker breaker = CircuitBreaker.of("10.1.0.4", 8080);
+        CircuitBreaker.Permit slow = breaker.tryAcquire();
+        open(breaker);
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+
+        // WHEN
+        breaker.onSuccess(slow, 0);
+
+        // THEN
+        assertEquals(probe, CircuitBreaker.Permit.PROBE);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertNull(breaker.tryAcquire());
+        breaker.onFailure(probe);
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void when_probe_succeeds_close_circuit_despite_failed_earlier_request() throws Exception {
+        // GIVEN
+        loadProperties("circuit.open_timeout=0");
+        CircuitBreaker breaker = CircuitBreaker.of("10.1.0.5", 8080);
+        CircuitBreaker.Permit slow = breaker.tryAcquire();
+        open(breaker);
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+        breaker.onFailure(slow);
+
+        // WHEN
+        breaker.onSuccess(probe, 0);
+
+        // THEN
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.REQUEST);
+    }
+
+    @Test
+    public void when_probe_is_ignored_let_next_request_through_as_probe() throws Exception {
+        // GIVEN
+        loadProperties("circuit.open_timeout=0");
+        CircuitBreaker breaker = CircuitBreaker.of("10.1.0.6", 8080);
+        open(breaker);
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+
+        // WHEN
+        breaker.onIgnored(probe);
+
+        // THEN
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.Permit.PROBE);
+    }
+
+    @Test
+    public void when_member_fails_consecutively_eject_it() throws Exception {
+        // GIVEN
+        UpstreamMember member = new UpstreamMember("10.1.0.3", 8080, new Backend("10.1.0.3", 8080));
+
+        // WHEN
+        for (int i = 0; i < ServerConfig.getOutlierConsecutive5xx(); i++) {
+            member.completed(member.started(), false);
+        }
+
+        // THEN
+        assertFalse(member.isAvailable(System.nanoTime()));
+        assertEquals(member.getMetrics().get("ejections"), 1L);
+    }
+
+    private static void open(CircuitBreaker breaker) {
+        for (int i = 0; i < ServerConfig.getCircuitFailureThreshold(); i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    }
+
+    private static void loadProperties(String properties) throws Exception {
+        ServerConfig.loadProperties(new ByteArrayInputStream(properties.getBytes(CharsetUtil.UTF_8)));
+    }
+}
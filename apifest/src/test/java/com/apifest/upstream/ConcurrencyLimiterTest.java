@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.apifest.api.ConcurrencyPolicy;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long RTT_1MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void when_limit_is_reached_reject_request() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("10.2.0.1:8080", 2, 1, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+
+        // WHEN
+        boolean acquired = limiter.tryAcquire();
+
+        // THEN
+        assertFalse(acquired);
+        assertFalse(limiter.hasCapacity());
+        assertEquals(limiter.getInFlight(), 2);
+        limiter.onIgnored();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void when_response_times_stay_low_raise_limit() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("10.2.0.2:8080", 10, 1, 100);
+
+        // WHEN
+        for (int i = 0; i < 5; i++) {
+            runWindow(limiter, 10, RTT_1MS);
+        }
+
+        // THEN
+        assertTrue(limiter.getLimit() > 10);
+    }
+
+    @Test
+    public void when_response_times_rise_lower_limit() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("10.2.0.3:8080", 20, 1, 100);
+        runWindow(limiter, 15, RTT_1MS);
+        int limit = limiter.getLimit();
+
+        // WHEN
+        runWindow(limiter, 15, 10 * RTT_1MS);
+
+        // THEN
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test
+    public void when_requests_are_dropped_lower_limit() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("10.2.0.4:8080", 20, 1, 100);
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire();
+        }
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(ConcurrencyLimiter.MIN_WINDOW_NANOS) + 5);
+
+        // WHEN
+        for (int i = 0; i < 10; i++) {
+            limiter.onDropped();
+        }
+
+        // THEN
+        assertEquals(limiter.getLimit(), 18);
+        assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void when_few_requests_are_in_flight_keep_limit() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("10.2.0.5:8080", 20, 1, 100);
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(ConcurrencyLimiter.MIN_WINDOW_NANOS) + 5);
+
+        // WHEN
+        for (int i = 0; i < ConcurrencyLimiter.WINDOW_SAMPLES; i++) {
+            limiter.tryAcquire();
+            limiter.onSuccess(RTT_1MS);
+        }
+
+        // THEN
+        assertEquals(limiter.getLimit(), 20);
+    }
+
+    @Test
+    public void when_max_limit_is_zero_never_reject() throws Exception {
+        // GIVEN
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("10.2.0.6:8080", 1, 1, 0);
+
+        // WHEN
+        boolean first = limiter.tryAcquire();
+        boolean second = limiter.tryAcquire();
+
+        // THEN
+        assertTrue(first);
+        assertTrue(second);
+        assertEquals(limiter.getInFlight(), 2);
+    }
+
+    @Test
+    public void when_endpoint_policy_changes_apply_new_bounds() throws Exception {
+        // GIVEN
+        ConcurrencyPolicy policy = new ConcurrencyPolicy();
+        policy.setInitial(50);
+        policy.setMin(1);
+        policy.setMax(100);
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.of("GET /v0.1/limited", policy);
+
+        // WHEN
+        policy.setMax(10);
+        ConcurrencyLimiter reloaded = ConcurrencyLimiter.of("GET /v0.1/limited", policy);
+
+        // THEN
+        assertSame(reloaded, limiter);
+        assertEquals(reloaded.getLimit(), 10);
+    }
+
+    // completes a window of requests that were all in flight at the same time
+    private static void runWindow(ConcurrencyLimiter limiter, int requests, long rttNanos) throws Exception {
+        for (int i = 0; i < requests; i++) {
+            limiter.tryAcquire();
+        }
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(ConcurrencyLimiter.MIN_WINDOW_NANOS) + 5);
+        for (int i = 0; i < requests; i++) {
+            limiter.onSuccess(rttNanos);
+        }
+    }
+}
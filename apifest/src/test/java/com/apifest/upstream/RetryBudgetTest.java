@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import com.apifest.ServerConfig;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void when_no_requests_allow_min_retries_only() throws Exception {
+        // GIVEN
+        RetryBudget budget = new RetryBudget();
+        int minRetries = ServerConfig.getRetryBudgetMinPerSecond() * 10;
+        for (int i = 0; i < minRetries; i++) {
+            assertTrue(budget.tryWithdraw());
+        }
+
+        // WHEN
+        boolean allowed = budget.tryWithdraw();
+
+        // THEN
+        assertFalse(allowed);
+    }
+
+    @Test
+    public void when_requests_deposited_allow_ratio_of_them() throws Exception {
+        // GIVEN
+        RetryBudget budget = new RetryBudget();
+        int minRetries = ServerConfig.getRetryBudgetMinPerSecond() * 10;
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+
+        // WHEN
+        int allowed = 0;
+        while (budget.tryWithdraw()) {
+            allowed++;
+        }
+
+        // THEN
+        assertEquals(allowed, minRetries + 100 * ServerConfig.getRetryBudgetRatio() / 100);
+    }
+
+    @Test
+    public void when_enough_responses_return_percentile() throws Exception {
+        // GIVEN
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 1; i <= LatencyTracker.MIN_SAMPLES; i++) {
+            tracker.record(i);
+        }
+
+        // WHEN
+        long percentile = tracker.getPercentile(95);
+
+        // THEN
+        assertEquals(percentile, 95);
+    }
+
+    @Test
+    public void when_too_few_responses_do_not_hedge() throws Exception {
+        // GIVEN
+        LatencyTracker tracker = new LatencyTracker();
+        tracker.record(1000);
+
+        // WHEN
+        long percentile = tracker.getPercentile(95);
+
+        // THEN
+        assertEquals(percentile, -1);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013-2014, ApiFest project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apifest.upstream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.apifest.api.Mapping.Backend;
+import com.apifest.api.Mapping.Upstream;
+
+public class UpstreamGroupTest {
+
+    @Test
+    public void when_round_robin_send_requests_to_members_in_turn() throws Exception {
+        // GIVEN
+        UpstreamGroup group = UpstreamGroup.of(new Upstream("rr", Upstream.ROUND_ROBIN,
+                Arrays.asList(new Backend("10.0.0.1", 8080), new Backend("10.0.0.2", 8080))), null);
+
+        // WHEN
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 10; i++) {
+            String member = group.choose().toString();
+            counts.put(member, (counts.containsKey(member) ? counts.get(member) : 0) + 1);
+        }
+
+        // THEN
+        assertEquals(counts.get("10.0.0.1:8080"), Integer.valueOf(5));
+        assertEquals(counts.get("10.0.0.2:8080"), Integer.valueOf(5));
+    }
+
+    @Test
+    public void when_least_outstanding_choose_member_with_fewer_requests() throws Exception {
+        // GIVEN
+        UpstreamGroup group = UpstreamGroup.of(new Upstream("lo", Upstream.LEAST_OUTSTANDING,
+                Arrays.asList(new Backend("10.0.1.1", 8080), new Backend("10.0.1.2", 8080))), null);
+        UpstreamMember busy = group.getMembers().get(0);
+        busy.started();
+        busy.started();
+
+        // WHEN
+        UpstreamMember member = group.choose();
+
+        // THEN
+        assertSame(member, group.getMembers().get(1));
+    }
+
+    @Test
+    public void when_member_added_on_reload_keep_existing_members_and_slow_start_new_one() throws Exception {
+        // GIVEN
+        UpstreamGroup group = UpstreamGroup.of(new Upstream("reload", Upstream.EWMA,
+                Arrays.asList(new Backend("10.0.2.1", 8080))), null);
+        UpstreamMember existing = group.getMembers().get(0);
+        long start = existing.started();
+
+        // WHEN
+        Upstream reloaded = new Upstream("reload", Upstream.EWMA,
+                Arrays.asList(new Backend("10.0.2.1", 8080), new Backend("10.0.2.2", 8080)));
+        reloaded.setSlowStart(60000);
+        UpstreamGroup updated = UpstreamGroup.of(reloaded, group);
+
+        // THEN
+        assertSame(updated.getMembers().get(0), existing);
+        assertEquals(existing.getOutstanding(), 1);
+        existing.completed(start, true);
+        assertEquals(existing.getLoadFactor(System.nanoTime()), 1.0);
+        assertTrue(updated.getMembers().get(1).getLoadFactor(System.nanoTime()) < 1.0);
+    }
+
+    @Test
+    public void when_member_removed_on_reload_do_not_choose_it() throws Exception {
+        // GIVEN
+        UpstreamGroup group = UpstreamGroup.of(new Upstream("remove", Upstream.ROUND_ROBIN,
+                Arrays.asList(new Backend("10.0.3.1", 8080), new Backend("10.0.3.2", 8080))), null);
+
+        // WHEN
+        UpstreamGroup updated = UpstreamGroup.of(new Upstream("remove", Upstream.ROUND_ROBIN,
+                Arrays.asList(new Backend("10.0.3.1", 8080))), group);
+
+        // THEN
+        for (int i = 0; i < 4; i++) {
+            assertFalse(updated.choose().toString().equals("10.0.3.2:8080"));
+        }
+    }
+
+    @Test
+    public void when_member_is_in_no_group_after_reload_drop_it() throws Exception {
+        // GIVEN
+        UpstreamGroup group = UpstreamGroup.of(new Upstream("drop", Upstream.ROUND_ROBIN,
+                Arrays.asList(new Backend("10.0.4.1", 8080), new Backend("10.0.4.2", 8080))), null);
+        UpstreamMember removed = group.getMembers().get(1);
+        UpstreamGroup updated = UpstreamGroup.of(new Upstream("drop", Upstream.ROUND_ROBIN,
+                Arrays.asList(new Backend("10.0.4.1", 8080))), group);
+
+        // WHEN
+        UpstreamGroup.setGroups(Collections.singletonMap("v1/drop", updated), Collections.<String, Backend>emptyMap());
+
+        // THEN
+        UpstreamGroup readded = UpstreamGroup.of(new Upstream("drop", Upstream.ROUND_ROBIN,
+                Arrays.asList(new Backend("10.0.4.1", 8080), new Backend("10.0.4.2", 8080))), updated);
+        assertSame(readded.getMembers().get(0), updated.getMembers().get(0));
+        assertNotSame(readded.getMembers().get(1), removed);
+        assertTrue(UpstreamGroup.getMetrics().containsKey("v1/drop"));
+    }
+
+    @Test
+    public void when_groups_define_member_differently_use_settled_definition() throws Exception {
+        // GIVEN
+        Backend first = new Backend("10.0.5.1", 8080);
+        first.setMaxConnections(10);
+        Backend second = new Backend("10.0.5.1", 8080);
+        second.setMaxConnections(20);
+        Map<String, UpstreamGroup> groups = new HashMap<String, UpstreamGroup>();
+        groups.put("v1/first", UpstreamGroup.of(new Upstream("first", Upstream.ROUND_ROBIN, Arrays.asList(first)), null));
+        groups.put("v2/second", UpstreamGroup.of(new Upstream("second", Upstream.ROUND_ROBIN, Arrays.asList(second)), null));
+
+        // WHEN
+        UpstreamGroup.setGroups(groups, Collections.singletonMap("10.0.5.1:8080", first));
+
+        // THEN
+        assertSame(groups.get("v1/first").getMembers().get(0).getBackend(), first);
+        assertSame(groups.get("v2/second").getMembers().get(0).getBackend(), first);
+    }
+}